@@ -0,0 +1,77 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.benchmarks;
+
+import org.kairosdb.core.DataPoint;
+import org.kairosdb.core.datapoints.DoubleDataPoint;
+import org.kairosdb.core.datapoints.LongDataPoint;
+import org.kairosdb.core.datastore.AbstractDataPointGroup;
+
+/**
+ DataPointGroup over a prebuilt array so setting up a benchmark invocation
+ does not allocate per data point.
+ */
+public class ArrayDataPointGroup extends AbstractDataPointGroup
+{
+	private final DataPoint[] m_dataPoints;
+	private int m_position = 0;
+
+	public ArrayDataPointGroup(String name, DataPoint[] dataPoints)
+	{
+		super(name);
+		m_dataPoints = dataPoints;
+	}
+
+	@Override
+	public boolean hasNext()
+	{
+		return m_position < m_dataPoints.length;
+	}
+
+	@Override
+	public DataPoint next()
+	{
+		return m_dataPoints[m_position++];
+	}
+
+	@Override
+	public void close()
+	{
+	}
+
+	/**
+	 Creates data points spaced interval apart.
+
+	 @param shape long, double or mixed
+	 */
+	public static DataPoint[] createDataPoints(String shape, long start, long interval, int count)
+	{
+		DataPoint[] ret = new DataPoint[count];
+		for (int i = 0; i < count; i++)
+		{
+			long timestamp = start + i * interval;
+			boolean isLong = "long".equals(shape) || ("mixed".equals(shape) && i % 2 == 0);
+
+			if (isLong)
+				ret[i] = new LongDataPoint(timestamp, i);
+			else
+				ret[i] = new DoubleDataPoint(timestamp, i * 1.5);
+		}
+
+		return ret;
+	}
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.benchmarks;
+
+import com.google.gson.JsonElement;
+import org.kairosdb.core.DataPoint;
+import org.kairosdb.core.KairosDataPointFactory;
+import org.kairosdb.core.datapoints.DataPointFactory;
+import org.kairosdb.core.datapoints.DoubleDataPointFactoryImpl;
+import org.kairosdb.core.datapoints.LegacyDataPointFactory;
+import org.kairosdb.core.datapoints.LongDataPointFactoryImpl;
+import org.kairosdb.core.datapoints.StringDataPointFactory;
+import org.kairosdb.util.KDataInput;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ KairosDataPointFactory with the built in types and no Guice injector
+ */
+public class BenchmarkDataPointFactory implements KairosDataPointFactory
+{
+	private final Map<String, DataPointFactory> m_factoryMapDataStore = new HashMap<>();
+	private final Map<String, DataPointFactory> m_factoryMapRegistered = new HashMap<>();
+
+	public BenchmarkDataPointFactory()
+	{
+		addFactory("long", new LongDataPointFactoryImpl());
+		addFactory("double", new DoubleDataPointFactoryImpl());
+		addFactory("legacy", new LegacyDataPointFactory());
+		addFactory("string", new StringDataPointFactory());
+	}
+
+	private void addFactory(String type, DataPointFactory factory)
+	{
+		m_factoryMapRegistered.put(type, factory);
+		m_factoryMapDataStore.put(factory.getDataStoreType(), factory);
+	}
+
+	@Override
+	public DataPoint createDataPoint(String type, long timestamp, JsonElement json) throws IOException
+	{
+		return m_factoryMapRegistered.get(type).getDataPoint(timestamp, json);
+	}
+
+	@Override
+	public DataPoint createDataPoint(String type, long timestamp, KDataInput buffer) throws IOException
+	{
+		return m_factoryMapDataStore.get(type).getDataPoint(timestamp, buffer);
+	}
+
+	@Override
+	public DataPointFactory getFactoryForType(String type)
+	{
+		return m_factoryMapRegistered.get(type);
+	}
+
+	@Override
+	public DataPointFactory getFactoryForDataStoreType(String dataStoreType)
+	{
+		return m_factoryMapDataStore.get(dataStoreType);
+	}
+
+	@Override
+	public String getGroupType(String datastoreType)
+	{
+		return getFactoryForDataStoreType(datastoreType).getGroupType();
+	}
+
+	@Override
+	public boolean isRegisteredType(String type)
+	{
+		return m_factoryMapRegistered.containsKey(type);
+	}
+}
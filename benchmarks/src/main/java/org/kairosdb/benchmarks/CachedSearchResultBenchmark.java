@@ -0,0 +1,168 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.benchmarks;
+
+import org.kairosdb.core.DataPoint;
+import org.kairosdb.core.datapoints.DoubleDataPointFactoryImpl;
+import org.kairosdb.core.datapoints.LongDataPointFactoryImpl;
+import org.kairosdb.core.datastore.CachedSearchResult;
+import org.kairosdb.core.datastore.ColumnarSearchResult;
+import org.kairosdb.core.datastore.DataPointRow;
+import org.kairosdb.core.datastore.QueryCallback;
+import org.kairosdb.core.datastore.SearchResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ Writing a query result to the query cache files and reading it back on a
+ cache hit, for the stream (CachedSearchResult) and columnar
+ (ColumnarSearchResult) formats.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CachedSearchResultBenchmark
+{
+	@Param({"stream", "columnar"})
+	public String format;
+
+	@Param({"10", "1000"})
+	public int rows;
+
+	@Param({"1000"})
+	public int pointsPerRow;
+
+	private final BenchmarkDataPointFactory m_dataPointFactory = new BenchmarkDataPointFactory();
+	private File m_directory;
+	private String m_readFile;
+	private String m_writeFile;
+	private DataPoint[] m_longPoints;
+	private DataPoint[] m_doublePoints;
+
+	@Setup
+	public void setup() throws IOException
+	{
+		m_directory = Files.createTempDirectory("kairos_cache_bench").toFile();
+		m_readFile = new File(m_directory, "read").getPath();
+		m_writeFile = new File(m_directory, "write").getPath();
+
+		long start = System.currentTimeMillis() - pointsPerRow * 10000L;
+		m_longPoints = ArrayDataPointGroup.createDataPoints("long", start, 10000, pointsPerRow);
+		m_doublePoints = ArrayDataPointGroup.createDataPoints("double", start, 10000, pointsPerRow);
+
+		writeResult(m_readFile);
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		File[] files = m_directory.listFiles();
+		if (files != null)
+		{
+			for (File file : files)
+				file.delete();
+		}
+		m_directory.delete();
+	}
+
+	private SearchResult create(String baseFile) throws IOException
+	{
+		if ("columnar".equals(format))
+			return ColumnarSearchResult.createCachedSearchResult("bench", baseFile, m_dataPointFactory, true);
+		else
+			return CachedSearchResult.createCachedSearchResult("bench", baseFile, m_dataPointFactory, true);
+	}
+
+	private SearchResult open(String baseFile) throws IOException
+	{
+		if ("columnar".equals(format))
+			return ColumnarSearchResult.openCachedSearchResult("bench", baseFile, 3600, m_dataPointFactory, true);
+		else
+			return CachedSearchResult.openCachedSearchResult("bench", baseFile, 3600, m_dataPointFactory, true);
+	}
+
+	private void writeResult(String baseFile) throws IOException
+	{
+		SearchResult result = create(baseFile);
+		for (int row = 0; row < rows; row++)
+		{
+			SortedMap<String, String> tags = new TreeMap<>();
+			tags.put("host", "host" + row);
+
+			boolean longRow = (row % 2 == 0);
+			QueryCallback.DataPointWriter writer = result.startDataPointSet(longRow ?
+					LongDataPointFactoryImpl.DST_LONG : DoubleDataPointFactoryImpl.DST_DOUBLE, tags);
+
+			for (DataPoint dataPoint : longRow ? m_longPoints : m_doublePoints)
+				writer.addDataPoint(dataPoint);
+
+			writer.close();
+		}
+
+		closeRows(result.getRows());
+		result.close();
+	}
+
+	private static void closeRows(List<DataPointRow> rows)
+	{
+		for (DataPointRow row : rows)
+			row.close();
+	}
+
+	@Benchmark
+	public void write() throws IOException
+	{
+		writeResult(m_writeFile);
+	}
+
+	@Benchmark
+	public void read(Blackhole blackhole) throws IOException
+	{
+		SearchResult result = open(m_readFile);
+		List<DataPointRow> rowList = result.getRows();
+		for (DataPointRow row : rowList)
+		{
+			while (row.hasNext())
+				blackhole.consume(row.next());
+		}
+
+		closeRows(rowList);
+		result.close();
+	}
+}
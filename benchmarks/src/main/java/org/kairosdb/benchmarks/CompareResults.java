@@ -0,0 +1,130 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.benchmarks;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ Compares two JMH json result files (-rf json) and reports every benchmark
+ that got slower than the baseline by more than the threshold.
+
+ Usage: CompareResults baseline.json results.json [threshold percent, default 10]
+
+ Exits with 1 if there is a regression so it can be used in a build.
+ */
+public class CompareResults
+{
+	private static class Score
+	{
+		private final double m_score;
+		private final String m_unit;
+		private final boolean m_higherIsBetter;
+
+		private Score(double score, String unit, boolean higherIsBetter)
+		{
+			m_score = score;
+			m_unit = unit;
+			m_higherIsBetter = higherIsBetter;
+		}
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length < 2)
+		{
+			System.err.println("Usage: CompareResults baseline.json results.json [threshold percent]");
+			System.exit(2);
+		}
+
+		double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 10.0;
+
+		Map<String, Score> baseline = readResults(args[0]);
+		Map<String, Score> results = readResults(args[1]);
+
+		int regressions = 0;
+		for (Map.Entry<String, Score> entry : results.entrySet())
+		{
+			Score current = entry.getValue();
+			Score base = baseline.get(entry.getKey());
+			if (base == null)
+			{
+				System.out.println(String.format("NEW        %s %.3f %s", entry.getKey(), current.m_score, current.m_unit));
+				continue;
+			}
+
+			//Positive change is always worse
+			double change = (current.m_score - base.m_score) / base.m_score * 100.0;
+			if (current.m_higherIsBetter)
+				change = -change;
+
+			String status = "OK";
+			if (change > threshold)
+			{
+				status = "REGRESSION";
+				regressions++;
+			}
+			else if (change < -threshold)
+				status = "IMPROVED";
+
+			System.out.println(String.format("%-10s %s %.3f -> %.3f %s (%+.1f%%)", status, entry.getKey(),
+					base.m_score, current.m_score, current.m_unit, change));
+		}
+
+		System.out.println(regressions + " regression(s) over " + threshold + "%");
+		System.exit(regressions == 0 ? 0 : 1);
+	}
+
+	private static Map<String, Score> readResults(String fileName) throws IOException
+	{
+		Map<String, Score> ret = new TreeMap<>();
+
+		try (Reader reader = new FileReader(fileName))
+		{
+			JsonArray results = JsonParser.parseReader(reader).getAsJsonArray();
+			for (JsonElement element : results)
+			{
+				JsonObject result = element.getAsJsonObject();
+
+				StringBuilder key = new StringBuilder(result.get("benchmark").getAsString());
+				if (result.has("params"))
+				{
+					Map<String, String> params = new TreeMap<>();
+					for (Map.Entry<String, JsonElement> param : result.getAsJsonObject("params").entrySet())
+						params.put(param.getKey(), param.getValue().getAsString());
+
+					key.append(params);
+				}
+
+				JsonObject metric = result.getAsJsonObject("primaryMetric");
+				boolean higherIsBetter = "thrpt".equals(result.get("mode").getAsString());
+				ret.put(key.toString(), new Score(metric.get("score").getAsDouble(),
+						metric.get("scoreUnit").getAsString(), higherIsBetter));
+			}
+		}
+
+		return ret;
+	}
+}
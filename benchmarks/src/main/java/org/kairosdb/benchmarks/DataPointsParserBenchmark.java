@@ -0,0 +1,178 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.benchmarks;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import org.kairosdb.core.KairosRootConfig;
+import org.kairosdb.core.exception.DatastoreException;
+import org.kairosdb.core.http.rest.json.BinaryDataPointsParser;
+import org.kairosdb.core.http.rest.json.BinaryDataPointsWriter;
+import org.kairosdb.core.http.rest.json.DataPointsParser;
+import org.kairosdb.core.http.rest.json.ValidationErrors;
+import org.kairosdb.eventbus.EventBusConfiguration;
+import org.kairosdb.eventbus.FilterEventBus;
+import org.kairosdb.eventbus.Publisher;
+import org.kairosdb.events.DataPointEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ Parsing a /datapoints request body and publishing the data points to an
+ event bus with no subscribers.  The gson parser is DataPointsParser as it was
+ when it bound each metric with gson.fromJson, the binary parser reads the same
+ data points from the binary bulk format.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class DataPointsParserBenchmark
+{
+	/**
+	 Number of metrics in the request
+	 */
+	@Param({"1", "100"})
+	public int metrics;
+
+	/**
+	 Data points per metric
+	 */
+	@Param({"10", "1000"})
+	public int dataPoints;
+
+	@Param({"3", "10"})
+	public int tags;
+
+	@Param({"long", "double"})
+	public String shape;
+
+	@Param({"streaming", "gson", "binary"})
+	public String parser;
+
+	private String m_json;
+	private byte[] m_binary;
+	private Gson m_gson;
+	private Publisher<DataPointEvent> m_publisher;
+	private BenchmarkDataPointFactory m_dataPointFactory;
+
+	@Setup
+	public void setup() throws IOException
+	{
+		m_gson = new GsonBuilder().disableHtmlEscaping().create();
+		m_dataPointFactory = new BenchmarkDataPointFactory();
+		m_publisher = new FilterEventBus(new EventBusConfiguration(new KairosRootConfig()))
+				.createPublisher(DataPointEvent.class);
+
+		long now = System.currentTimeMillis();
+		StringBuilder sb = new StringBuilder("[");
+		for (int m = 0; m < metrics; m++)
+		{
+			if (m != 0)
+				sb.append(',');
+
+			sb.append("{\"name\":\"bench.metric.").append(m).append("\",\"tags\":{");
+			for (int t = 0; t < tags; t++)
+			{
+				if (t != 0)
+					sb.append(',');
+				sb.append("\"tag").append(t).append("\":\"value").append(m % 10).append('_').append(t).append('"');
+			}
+			sb.append("},\"datapoints\":[");
+
+			for (int d = 0; d < dataPoints; d++)
+			{
+				if (d != 0)
+					sb.append(',');
+				sb.append('[').append(now + d * 1000L).append(',');
+				if ("long".equals(shape))
+					sb.append(d);
+				else
+					sb.append(d * 1.5);
+				sb.append(']');
+			}
+			sb.append("]}");
+		}
+		sb.append(']');
+
+		m_json = sb.toString();
+
+		ByteArrayOutputStream binary = new ByteArrayOutputStream();
+		try (BinaryDataPointsWriter writer = new BinaryDataPointsWriter(binary))
+		{
+			long[] timestamps = new long[dataPoints];
+			long[] longValues = new long[dataPoints];
+			double[] doubleValues = new double[dataPoints];
+			for (int d = 0; d < dataPoints; d++)
+			{
+				timestamps[d] = now + d * 1000L;
+				longValues[d] = d;
+				doubleValues[d] = d * 1.5;
+			}
+
+			for (int m = 0; m < metrics; m++)
+			{
+				Map<String, String> tagMap = new TreeMap<>();
+				for (int t = 0; t < tags; t++)
+					tagMap.put("tag" + t, "value" + (m % 10) + "_" + t);
+
+				if ("long".equals(shape))
+					writer.writeLongSeries("bench.metric." + m, tagMap, 0, timestamps, longValues, dataPoints);
+				else
+					writer.writeDoubleSeries("bench.metric." + m, tagMap, 0, timestamps, doubleValues, dataPoints);
+			}
+		}
+		m_binary = binary.toByteArray();
+	}
+
+	@Benchmark
+	public ValidationErrors parse() throws IOException, DatastoreException
+	{
+		if ("gson".equals(parser))
+		{
+			return new GsonDataPointsParser(m_publisher, new StringReader(m_json),
+					m_gson, m_dataPointFactory).parse();
+		}
+		else if ("binary".equals(parser))
+		{
+			return new BinaryDataPointsParser(m_publisher, new ByteArrayInputStream(m_binary),
+					m_dataPointFactory).parse();
+		}
+
+		return new DataPointsParser(m_publisher, new StringReader(m_json),
+				m_gson, m_dataPointFactory).parse();
+	}
+}
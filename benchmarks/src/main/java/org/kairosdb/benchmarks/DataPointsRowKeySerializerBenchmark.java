@@ -0,0 +1,82 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.benchmarks;
+
+import org.kairosdb.core.datapoints.LongDataPointFactoryImpl;
+import org.kairosdb.datastore.cassandra.DataPointsRowKey;
+import org.kairosdb.datastore.cassandra.DataPointsRowKeySerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ Row key serialization used on every Cassandra write and row key read.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class DataPointsRowKeySerializerBenchmark
+{
+	@Param({"1", "5", "20"})
+	public int tags;
+
+	@Param({"false", "true"})
+	public boolean poolStrings;
+
+	private DataPointsRowKeySerializer m_serializer;
+	private DataPointsRowKey m_rowKey;
+	private ByteBuffer m_buffer;
+
+	@Setup
+	public void setup()
+	{
+		m_serializer = new DataPointsRowKeySerializer(poolStrings);
+
+		m_rowKey = new DataPointsRowKey("bench.metric", "cluster", System.currentTimeMillis(),
+				LongDataPointFactoryImpl.DST_LONG);
+		for (int i = 0; i < tags; i++)
+			m_rowKey.addTag("tag" + i, "value" + i);
+
+		m_buffer = m_serializer.toByteBuffer(m_rowKey);
+	}
+
+	@Benchmark
+	public ByteBuffer toByteBuffer()
+	{
+		return m_serializer.toByteBuffer(m_rowKey);
+	}
+
+	@Benchmark
+	public DataPointsRowKey fromByteBuffer()
+	{
+		return m_serializer.fromByteBuffer(m_buffer.duplicate(), "cluster");
+	}
+}
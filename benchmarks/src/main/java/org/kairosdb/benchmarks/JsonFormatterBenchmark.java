@@ -0,0 +1,136 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.benchmarks;
+
+import org.kairosdb.core.DataPoint;
+import org.kairosdb.core.datastore.DataPointGroup;
+import org.kairosdb.core.formatter.FormatterException;
+import org.kairosdb.core.formatter.JsonFormatter;
+import org.kairosdb.core.formatter.JsonResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ Formatting query results as json.  The output is counted and discarded so
+ only the formatting is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class JsonFormatterBenchmark
+{
+	@Param({"1", "100"})
+	public int groups;
+
+	@Param({"100", "10000"})
+	public int pointsPerGroup;
+
+	/**
+	 long, double or mixed
+	 */
+	@Param({"long", "double"})
+	public String shape;
+
+	private DataPoint[][] m_groups;
+
+	@Setup
+	public void setup()
+	{
+		m_groups = new DataPoint[groups][];
+		for (int i = 0; i < groups; i++)
+			m_groups[i] = ArrayDataPointGroup.createDataPoints(shape, System.currentTimeMillis(), 1000, pointsPerGroup);
+	}
+
+	private List<DataPointGroup> createGroups()
+	{
+		List<DataPointGroup> ret = new ArrayList<>(groups);
+		for (int i = 0; i < groups; i++)
+		{
+			ArrayDataPointGroup group = new ArrayDataPointGroup("bench.metric", m_groups[i]);
+			group.addTag("host", "host" + i);
+			ret.add(group);
+		}
+
+		return ret;
+	}
+
+	@Benchmark
+	public long jsonFormatter() throws FormatterException
+	{
+		CountingWriter writer = new CountingWriter();
+		new JsonFormatter().format(writer, Collections.singletonList(createGroups()));
+
+		return writer.m_count;
+	}
+
+	@Benchmark
+	public long jsonResponse() throws FormatterException
+	{
+		CountingWriter writer = new CountingWriter();
+		JsonResponse response = new JsonResponse(writer);
+		response.begin(null);
+		response.formatQuery(createGroups(), false, groups * pointsPerGroup, false);
+		response.end();
+
+		return writer.m_count;
+	}
+
+	private static class CountingWriter extends Writer
+	{
+		private long m_count;
+
+		@Override
+		public void write(char[] cbuf, int off, int len)
+		{
+			m_count += len;
+		}
+
+		@Override
+		public void write(String str)
+		{
+			m_count += str.length();
+		}
+
+		@Override
+		public void flush()
+		{
+		}
+
+		@Override
+		public void close()
+		{
+		}
+	}
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.benchmarks;
+
+import org.kairosdb.core.DataPoint;
+import org.kairosdb.core.datastore.DataPointGroup;
+import org.kairosdb.core.datastore.Order;
+import org.kairosdb.core.datastore.SortingDataPointGroup;
+import org.kairosdb.util.LoserTree;
+import org.kairosdb.util.TournamentTree;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ Merging the rows of a query into one time ordered series through the
+ TreeSet based TournamentTree, the array based LoserTree and
+ SortingDataPointGroup as the query path uses it, on the query thread and
+ with the rows merged in partitions on a fork/join pool.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class MergeBenchmark
+{
+	/**
+	 Number of rows merged together
+	 */
+	@Param({"16", "1000", "10000", "100000"})
+	public int series;
+
+	@Param({"100"})
+	public int pointsPerSeries;
+
+	/**
+	 Partitions used by parallelSortingDataPointGroup
+	 */
+	@Param({"4"})
+	public int partitions;
+
+	/**
+	 interleaved: every row has a point at the same timestamps,
+	 sequential: each row covers its own time range
+	 */
+	@Param({"interleaved", "sequential"})
+	public String layout;
+
+	private DataPoint[][] m_series;
+	private ForkJoinPool m_pool;
+
+	@Setup
+	public void setup()
+	{
+		m_series = new DataPoint[series][];
+		for (int i = 0; i < series; i++)
+		{
+			long start = "interleaved".equals(layout) ? i : (long)i * pointsPerSeries * series;
+			m_series[i] = ArrayDataPointGroup.createDataPoints("mixed", start, series, pointsPerSeries);
+		}
+
+		m_pool = new ForkJoinPool(partitions);
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		m_pool.shutdown();
+	}
+
+	private List<DataPointGroup> createGroups()
+	{
+		List<DataPointGroup> groups = new ArrayList<>(series);
+		for (DataPoint[] dataPoints : m_series)
+			groups.add(new ArrayDataPointGroup("bench", dataPoints));
+
+		return groups;
+	}
+
+	@Benchmark
+	public void tournamentTree(Blackhole blackhole)
+	{
+		TournamentTree<DataPoint> tree = new TournamentTree<>(
+				Comparator.comparingLong(DataPoint::getTimestamp), Order.ASC);
+		for (DataPoint[] dataPoints : m_series)
+			tree.addIterator(Arrays.asList(dataPoints).iterator());
+
+		while (tree.hasNext())
+			blackhole.consume(tree.nextElement());
+	}
+
+	@Benchmark
+	public void loserTree(Blackhole blackhole)
+	{
+		List<Iterator<DataPoint>> iterators = new ArrayList<>(series);
+		for (DataPoint[] dataPoints : m_series)
+			iterators.add(Arrays.asList(dataPoints).iterator());
+
+		LoserTree tree = new LoserTree(iterators, Order.ASC);
+		while (tree.hasNext())
+			blackhole.consume(tree.next());
+	}
+
+	@Benchmark
+	public void sortingDataPointGroup(Blackhole blackhole)
+	{
+		SortingDataPointGroup sorting = new SortingDataPointGroup(createGroups(), Order.ASC);
+		while (sorting.hasNext())
+			blackhole.consume(sorting.next());
+
+		sorting.close();
+	}
+
+	@Benchmark
+	public void parallelSortingDataPointGroup(Blackhole blackhole)
+	{
+		SortingDataPointGroup sorting = new SortingDataPointGroup(createGroups(), Order.ASC);
+		sorting.setParallelMerge(m_pool, 1, partitions);
+		while (sorting.hasNext())
+			blackhole.consume(sorting.next());
+
+		sorting.close();
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.benchmarks;
+
+import com.google.common.collect.ImmutableSortedMap;
+import org.apache.commons.io.FileUtils;
+import org.kairosdb.bigqueue.BigArrayImpl;
+import org.kairosdb.bigqueue.IBigArray;
+import org.kairosdb.core.datapoints.LongDataPointFactoryImpl;
+import org.kairosdb.core.exception.DatastoreException;
+import org.kairosdb.core.queue.ConcurrentFileQueueProcessor;
+import org.kairosdb.core.queue.DataPointEventSerializer;
+import org.kairosdb.core.queue.FileQueueProcessor;
+import org.kairosdb.core.queue.QueueProcessor;
+import org.kairosdb.events.DataPointEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ Many threads putting data point events into a file backed queue processor
+ while its delivery thread drains it, the way the http and telnet handlers
+ share the ingest queue.  Run with -t to try other thread counts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Threads(8)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class QueueProcessorBenchmark
+{
+	@Param({"FileQueueProcessor", "ConcurrentFileQueueProcessor"})
+	public String processor;
+
+	private File m_queueDir;
+	private QueueProcessor m_queueProcessor;
+	private DataPointEvent m_event;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException
+	{
+		m_queueDir = Files.createTempDirectory("kairos_queue_bench").toFile();
+		IBigArray bigArray = new BigArrayImpl(m_queueDir.getAbsolutePath(), "kairos_queue", 128 * 1024 * 1024);
+		DataPointEventSerializer serializer = new DataPointEventSerializer(new BenchmarkDataPointFactory());
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+
+		if ("FileQueueProcessor".equals(processor))
+			m_queueProcessor = new FileQueueProcessor(serializer, bigArray, executor, 10000, 100000, 1, 100, 0);
+		else
+			m_queueProcessor = new ConcurrentFileQueueProcessor(serializer, bigArray, executor, 10000, 100000, 1, 100, 0);
+
+		//Complete every batch right away so the queue checkpoints as it would
+		//with a datastore that keeps up
+		m_queueProcessor.setProcessorHandler((events, callBack, fullBatch) -> callBack.complete());
+
+		m_event = new DataPointEvent("bench.metric",
+				ImmutableSortedMap.of("host", "server1", "customer", "acme"),
+				new LongDataPointFactoryImpl().createDataPoint(System.currentTimeMillis(), 42));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException
+	{
+		m_queueProcessor.shutdown();
+		FileUtils.deleteDirectory(m_queueDir);
+	}
+
+	@Benchmark
+	public void put() throws DatastoreException
+	{
+		m_queueProcessor.put(m_event);
+	}
+}
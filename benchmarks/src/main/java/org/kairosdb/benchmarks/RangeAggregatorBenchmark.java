@@ -0,0 +1,210 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.benchmarks;
+
+import org.kairosdb.core.DataPoint;
+import org.kairosdb.core.aggregator.AvgAggregator;
+import org.kairosdb.core.aggregator.CountAggregator;
+import org.kairosdb.core.aggregator.DataGapsMarkingAggregator;
+import org.kairosdb.core.aggregator.FirstAggregator;
+import org.kairosdb.core.aggregator.LastAggregator;
+import org.kairosdb.core.aggregator.LeastSquaresAggregator;
+import org.kairosdb.core.aggregator.MaxAggregator;
+import org.kairosdb.core.aggregator.MinAggregator;
+import org.kairosdb.core.aggregator.PercentileAggregator;
+import org.kairosdb.core.aggregator.RangeAggregator;
+import org.kairosdb.core.aggregator.Sampling;
+import org.kairosdb.core.aggregator.StdAggregator;
+import org.kairosdb.core.aggregator.SumAggregator;
+import org.kairosdb.core.datapoints.DoubleDataPointFactoryImpl;
+import org.kairosdb.core.datapoints.LongDataPointFactoryImpl;
+import org.kairosdb.core.datastore.BlockDataPointGroup;
+import org.kairosdb.core.datastore.DataPointBlock;
+import org.kairosdb.core.datastore.DataPointGroup;
+import org.kairosdb.core.exception.KairosDBException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ Every RangeAggregator over one series.  aggregate() turns off the block sub
+ aggregator of sum, avg, min, max and count and reads the result with next(),
+ aggregateBlocks() reads it with readBlock() where the aggregator supports it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class RangeAggregatorBenchmark
+{
+	@Param({"avg", "count", "first", "gaps", "last", "least_squares", "max", "min",
+			"percentile", "std", "sum"})
+	public String aggregator;
+
+	@Param({"100000"})
+	public int dataPoints;
+
+	/**
+	 Data points per aggregated range
+	 */
+	@Param({"10", "1000"})
+	public int pointsPerRange;
+
+	/**
+	 long, double or mixed
+	 */
+	@Param({"mixed"})
+	public String shape;
+
+	private DataPoint[] m_dataPoints;
+	private DataPointBlock m_block;
+
+	@Setup
+	public void setup()
+	{
+		//One data point a second
+		m_dataPoints = ArrayDataPointGroup.createDataPoints(shape, 0, 1000, dataPoints);
+		m_block = new DataPointBlock();
+	}
+
+	private RangeAggregator createAggregator(boolean blocks) throws KairosDBException
+	{
+		DoubleDataPointFactoryImpl doubleFactory = new DoubleDataPointFactoryImpl();
+		RangeAggregator ret;
+
+		switch (aggregator)
+		{
+			case "avg":
+				ret = blocks ? new AvgAggregator(doubleFactory) : new AvgAggregator(doubleFactory)
+				{
+					@Override
+					protected BlockRangeSubAggregator getBlockSubAggregator()
+					{
+						return null;
+					}
+				};
+				break;
+			case "count":
+				ret = blocks ? new CountAggregator(new LongDataPointFactoryImpl()) : new CountAggregator(new LongDataPointFactoryImpl())
+				{
+					@Override
+					protected BlockRangeSubAggregator getBlockSubAggregator()
+					{
+						return null;
+					}
+				};
+				break;
+			case "first":
+				ret = new FirstAggregator();
+				break;
+			case "gaps":
+				ret = new DataGapsMarkingAggregator();
+				break;
+			case "last":
+				ret = new LastAggregator();
+				break;
+			case "least_squares":
+				ret = new LeastSquaresAggregator(doubleFactory);
+				break;
+			case "max":
+				ret = blocks ? new MaxAggregator(doubleFactory) : new MaxAggregator(doubleFactory)
+				{
+					@Override
+					protected BlockRangeSubAggregator getBlockSubAggregator()
+					{
+						return null;
+					}
+				};
+				break;
+			case "min":
+				ret = blocks ? new MinAggregator(doubleFactory) : new MinAggregator(doubleFactory)
+				{
+					@Override
+					protected BlockRangeSubAggregator getBlockSubAggregator()
+					{
+						return null;
+					}
+				};
+				break;
+			case "percentile":
+				PercentileAggregator percentile = new PercentileAggregator(doubleFactory);
+				percentile.setPercentile(0.95);
+				ret = percentile;
+				break;
+			case "std":
+				ret = new StdAggregator(doubleFactory);
+				break;
+			case "sum":
+				ret = blocks ? new SumAggregator(doubleFactory) : new SumAggregator(doubleFactory)
+				{
+					@Override
+					protected BlockRangeSubAggregator getBlockSubAggregator()
+					{
+						return null;
+					}
+				};
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown aggregator " + aggregator);
+		}
+
+		ret.setSampling(new Sampling(pointsPerRange, org.kairosdb.core.datastore.TimeUnit.SECONDS));
+		ret.setStartTime(0);
+		ret.setEndTime(dataPoints * 1000L);
+		ret.init();
+
+		return ret;
+	}
+
+	@Benchmark
+	public void aggregate(Blackhole blackhole) throws KairosDBException
+	{
+		DataPointGroup results = createAggregator(false).aggregate(new ArrayDataPointGroup("bench", m_dataPoints));
+		while (results.hasNext())
+			blackhole.consume(results.next());
+	}
+
+	@Benchmark
+	public void aggregateBlocks(Blackhole blackhole) throws KairosDBException
+	{
+		DataPointGroup results = createAggregator(true).aggregate(new ArrayDataPointGroup("bench", m_dataPoints));
+		if (results instanceof BlockDataPointGroup)
+		{
+			BlockDataPointGroup blockResults = (BlockDataPointGroup) results;
+			while (blockResults.readBlock(m_block) != 0)
+				blackhole.consume(m_block.getDoubleValue(m_block.size() - 1));
+		}
+		else
+		{
+			while (results.hasNext())
+				blackhole.consume(results.next());
+		}
+	}
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.core.queue;
+
+import com.google.common.collect.ImmutableSortedMap;
+import org.kairosdb.benchmarks.BenchmarkDataPointFactory;
+import org.kairosdb.core.DataPoint;
+import org.kairosdb.core.datapoints.DoubleDataPoint;
+import org.kairosdb.core.datapoints.LongDataPoint;
+import org.kairosdb.events.DataPointEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ Serializing data point events to and from the bytes kept in the ingest
+ queue.  Lives in the queue package to reach deserializeEvent.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class DataPointEventSerializerBenchmark
+{
+	@Param({"1", "5", "20"})
+	public int tags;
+
+	@Param({"long", "double"})
+	public String shape;
+
+	private DataPointEventSerializer m_serializer;
+	private DataPointEvent m_event;
+	private byte[] m_bytes;
+	private QueueRecordWriter m_recordWriter;
+	private long m_index;
+
+	@Setup
+	public void setup()
+	{
+		m_serializer = new DataPointEventSerializer(new BenchmarkDataPointFactory());
+
+		ImmutableSortedMap.Builder<String, String> builder = ImmutableSortedMap.naturalOrder();
+		for (int i = 0; i < tags; i++)
+			builder.put("tag" + i, "value" + i);
+
+		long now = System.currentTimeMillis();
+		DataPoint dataPoint = "long".equals(shape) ? new LongDataPoint(now, 42) : new DoubleDataPoint(now, 42.5);
+		m_event = new DataPointEvent("bench.metric", builder.build(), dataPoint, 0);
+		m_bytes = m_serializer.serializeEvent(m_event);
+		m_recordWriter = m_serializer.newRecordWriter();
+	}
+
+	@Benchmark
+	public byte[] serializeEvent()
+	{
+		return m_serializer.serializeEvent(m_event);
+	}
+
+	/**
+	 Dictionary encoded record, includes starting a new page every
+	 DICTIONARY_PAGE_SIZE events like the queue does
+	 */
+	@Benchmark
+	public byte[] encodeRecord() throws IOException
+	{
+		return m_recordWriter.encode(m_event, m_index++);
+	}
+
+	@Benchmark
+	public DataPointEvent deserializeEvent()
+	{
+		return m_serializer.deserializeEvent(m_bytes);
+	}
+}
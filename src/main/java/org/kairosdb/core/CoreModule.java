@@ -38,6 +38,7 @@ import org.kairosdb.core.datastore.GuiceQueryPluginFactory;
 import org.kairosdb.core.datastore.KairosDatastore;
 import org.kairosdb.core.datastore.QueryPluginFactory;
 import org.kairosdb.core.datastore.QueryQueuingManager;
+import org.kairosdb.core.datastore.QueryResultCache;
 import org.kairosdb.core.groupby.*;
 import org.kairosdb.core.http.rest.GuiceQueryPreProcessor;
 import org.kairosdb.core.http.rest.QueryPreProcessorContainer;
@@ -45,6 +46,7 @@ import org.kairosdb.core.http.rest.json.QueryParser;
 import org.kairosdb.core.jobs.CacheFileCleaner;
 import org.kairosdb.core.processingstage.FeatureProcessingFactory;
 import org.kairosdb.core.processingstage.FeatureProcessor;
+import org.kairosdb.core.queue.BigArraySyncer;
 import org.kairosdb.core.queue.DataPointEventSerializer;
 import org.kairosdb.core.queue.QueueProcessor;
 import org.kairosdb.core.scheduler.KairosDBScheduler;
@@ -193,6 +195,7 @@ public class CoreModule extends AbstractModule
 
 		bind(QueryQueuingManager.class).in(Singleton.class);
 		bind(KairosDatastore.class).in(Singleton.class);
+		bind(QueryResultCache.class).in(Singleton.class);
 
 		bind(new TypeLiteral<FeatureProcessingFactory<Aggregator>>() {}).to(AggregatorFactory.class).in(Singleton.class);
 		bind(new TypeLiteral<FeatureProcessingFactory<GroupBy>>() {}).to(GroupByFactory.class).in(Singleton.class);
@@ -206,6 +209,7 @@ public class CoreModule extends AbstractModule
 		bind(KairosDBSchedulerImpl.class).in(Singleton.class);
 		bind(MemoryMonitor.class).in(Singleton.class);
 		bind(DataPointEventSerializer.class).in(Singleton.class);
+		bind(SeriesRegistry.class).in(Singleton.class);
 		bind(SimpleStatsReporter.class);
 
 		bind(SumAggregator.class);
@@ -284,6 +288,16 @@ public class CoreModule extends AbstractModule
 		return new BigArrayImpl(queuePath, "kairos_queue", pageSize);
 	}
 
+	@Provides
+	@Singleton
+	public BigArraySyncer getBigArraySyncer(IBigArray bigArray,
+			@Named(BigArraySyncer.DURABILITY) String durability,
+			@Named(BigArraySyncer.SYNC_INTERVAL) long syncInterval,
+			@Named(BigArraySyncer.GROUP_COMMIT_MAX_LATENCY) long groupCommitMaxLatency)
+	{
+		return BigArraySyncer.create(bigArray, durability, syncInterval, groupCommitMaxLatency);
+	}
+
 	@Provides @Named(QUEUE_PROCESSOR) @Singleton
 	public ExecutorService getQueueExecutor()
 	{
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.core;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import org.kairosdb.events.Series;
+
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ Interns series for the ingest paths so data points of the same metric name
+ and tags share one Series.  The registry is bounded, a series that ages out
+ is simply created again the next time it is seen.
+ */
+public class SeriesRegistry
+{
+	public static final String SERIES_CACHE_SIZE = "kairosdb.ingest.series_cache_size";
+	public static final int DEFAULT_SERIES_CACHE_SIZE = 100000;
+
+	private final ConcurrentMap<Series, Series> m_series;
+
+	public SeriesRegistry()
+	{
+		this(DEFAULT_SERIES_CACHE_SIZE);
+	}
+
+	@Inject
+	public SeriesRegistry(@Named(SERIES_CACHE_SIZE) int cacheSize)
+	{
+		m_series = CacheBuilder.newBuilder()
+				.maximumSize(cacheSize)
+				.<Series, Series>build().asMap();
+	}
+
+	public Series getSeries(String metricName, ImmutableSortedMap<String, String> tags)
+	{
+		Series series = new Series(metricName, tags);
+		Series registered = m_series.putIfAbsent(series, series);
+
+		return registered != null ? registered : series;
+	}
+
+	public long size()
+	{
+		return m_series.size();
+	}
+}
@@ -18,6 +18,7 @@ package org.kairosdb.core.aggregator;
 import com.google.inject.Inject;
 import org.kairosdb.core.DataPoint;
 import org.kairosdb.core.annotation.FeatureComponent;
+import org.kairosdb.core.datastore.DataPointBlock;
 import org.kairosdb.core.datapoints.DoubleDataPointFactory;
 import org.kairosdb.core.exception.KairosDBException;
 
@@ -48,6 +49,12 @@ public class AvgAggregator extends RangeAggregator
 		return (new AvgDataPointAggregator());
 	}
 
+	@Override
+	protected BlockRangeSubAggregator getBlockSubAggregator()
+	{
+		return (new BlockAvgDataPointAggregator());
+	}
+
 	@Override
 	public boolean canAggregate(String groupType)
 	{
@@ -82,4 +89,42 @@ public class AvgAggregator extends RangeAggregator
 		}
 	}
 
-}
\ No newline at end of file
+	private class BlockAvgDataPointAggregator implements BlockRangeSubAggregator
+	{
+		private double m_sum = 0;
+		private int m_count = 0;
+
+		@Override
+		public void aggregate(DataPointBlock block, int start, int end)
+		{
+			for (int i = start; i < end; i++)
+			{
+				if (block.isNumber(i))
+				{
+					m_sum += block.getDoubleValue(i);
+					m_count++;
+				}
+			}
+		}
+
+		@Override
+		public void addResult(long returnTime, DataPointBlock output)
+		{
+			output.addDouble(returnTime, m_sum / m_count);
+			m_sum = 0;
+			m_count = 0;
+		}
+
+		@Override
+		public DataPoint createDataPoint(DataPointBlock output, int index)
+		{
+			return m_dataPointFactory.createDataPoint(output.getTimestamp(index), output.getDoubleValue(index));
+		}
+
+		@Override
+		public String getDataStoreType()
+		{
+			return m_dataPointFactory.getDataStoreType();
+		}
+	}
+}
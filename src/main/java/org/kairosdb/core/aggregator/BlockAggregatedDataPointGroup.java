@@ -0,0 +1,148 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.core.aggregator;
+
+import org.kairosdb.core.DataPoint;
+import org.kairosdb.core.datastore.BlockDataPointGroup;
+import org.kairosdb.core.datastore.DataPointBlock;
+import org.kairosdb.core.datastore.DataPointGroup;
+import org.kairosdb.core.groupby.GroupByResult;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ Block based counterpart of AggregatedDataPointGroupWrapper.  The inner group
+ is read a block at a time into m_input and subclasses write aggregated values
+ into an output block.  DataPoint objects are only created when the caller
+ uses next() instead of readBlock().
+ */
+public abstract class BlockAggregatedDataPointGroup implements BlockDataPointGroup
+{
+	private final DataPointGroup m_innerDataPointGroup;
+	private final DataPointBlock m_output = new DataPointBlock();
+	private int m_outputPosition = 0;
+
+	protected final DataPointBlock m_input = new DataPointBlock();
+	protected int m_inputPosition = 0;
+
+	public BlockAggregatedDataPointGroup(DataPointGroup innerDataPointGroup)
+	{
+		m_innerDataPointGroup = requireNonNull(innerDataPointGroup);
+	}
+
+	/**
+	 Adds aggregated values to the output block.  Called when all previous
+	 output has been read, nothing added means the group is done.
+	 */
+	protected abstract void fillOutput(DataPointBlock output);
+
+	/**
+	 Creates the data point returned by next() for an entry of the output block
+	 */
+	protected abstract DataPoint createDataPoint(DataPointBlock output, int index);
+
+	/**
+	 Returns true if m_input has data points left at m_inputPosition, reading
+	 the next block from the inner group if needed.
+	 */
+	protected boolean hasNextInput()
+	{
+		if (m_inputPosition < m_input.size())
+			return true;
+
+		m_inputPosition = 0;
+		return m_input.readFrom(m_innerDataPointGroup) != 0;
+	}
+
+	private boolean fetchOutput()
+	{
+		if (m_outputPosition < m_output.size())
+			return true;
+
+		m_output.clear();
+		m_outputPosition = 0;
+		fillOutput(m_output);
+
+		return m_output.size() != 0;
+	}
+
+	@Override
+	public boolean hasNext()
+	{
+		return fetchOutput();
+	}
+
+	@Override
+	public DataPoint next()
+	{
+		if (!fetchOutput())
+			throw new NoSuchElementException();
+
+		return createDataPoint(m_output, m_outputPosition++);
+	}
+
+	@Override
+	public int readBlock(DataPointBlock block)
+	{
+		block.clear();
+		if (!fetchOutput())
+			return 0;
+
+		m_outputPosition += block.copyFrom(m_output, m_outputPosition, m_output.size());
+		return block.size();
+	}
+
+	@Override
+	public String getName()
+	{
+		return (m_innerDataPointGroup.getName());
+	}
+
+	@Override
+	public Set<String> getTagNames()
+	{
+		return (m_innerDataPointGroup.getTagNames());
+	}
+
+	@Override
+	public Set<String> getTagValues(String tag)
+	{
+		return (m_innerDataPointGroup.getTagValues(tag));
+	}
+
+	@Override
+	public List<GroupByResult> getGroupByResult()
+	{
+		return m_innerDataPointGroup.getGroupByResult();
+	}
+
+	@Override
+	public void remove()
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void close()
+	{
+		m_innerDataPointGroup.close();
+	}
+}
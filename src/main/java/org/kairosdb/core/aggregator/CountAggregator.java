@@ -18,6 +18,7 @@ package org.kairosdb.core.aggregator;
 import com.google.inject.Inject;
 import org.kairosdb.core.DataPoint;
 import org.kairosdb.core.annotation.FeatureComponent;
+import org.kairosdb.core.datastore.DataPointBlock;
 import org.kairosdb.core.datapoints.LongDataPointFactory;
 
 import java.util.Collections;
@@ -43,6 +44,12 @@ public class CountAggregator extends RangeAggregator
 		return (new CountDataPointAggregator());
 	}
 
+	@Override
+	protected BlockRangeSubAggregator getBlockSubAggregator()
+	{
+		return (new BlockCountDataPointAggregator());
+	}
+
 	@Override
 	public boolean canAggregate(String groupType)
 	{
@@ -71,4 +78,34 @@ public class CountAggregator extends RangeAggregator
 			return Collections.singletonList(m_dataPointFactory.createDataPoint(returnTime, count));
 		}
 	}
-}
\ No newline at end of file
+
+	private class BlockCountDataPointAggregator implements BlockRangeSubAggregator
+	{
+		private long m_count = 0;
+
+		@Override
+		public void aggregate(DataPointBlock block, int start, int end)
+		{
+			m_count += end - start;
+		}
+
+		@Override
+		public void addResult(long returnTime, DataPointBlock output)
+		{
+			output.addLong(returnTime, m_count);
+			m_count = 0;
+		}
+
+		@Override
+		public DataPoint createDataPoint(DataPointBlock output, int index)
+		{
+			return m_dataPointFactory.createDataPoint(output.getTimestamp(index), output.getLongValue(index));
+		}
+
+		@Override
+		public String getDataStoreType()
+		{
+			return m_dataPointFactory.getDataStoreType();
+		}
+	}
+}
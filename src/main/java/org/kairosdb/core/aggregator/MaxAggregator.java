@@ -18,6 +18,7 @@ package org.kairosdb.core.aggregator;
 import com.google.inject.Inject;
 import org.kairosdb.core.DataPoint;
 import org.kairosdb.core.annotation.FeatureComponent;
+import org.kairosdb.core.datastore.DataPointBlock;
 import org.kairosdb.core.datapoints.DoubleDataPointFactory;
 
 import java.util.Collections;
@@ -58,6 +59,12 @@ public class MaxAggregator extends RangeAggregator
 		return (new MaxDataPointAggregator());
 	}
 
+	@Override
+	protected BlockRangeSubAggregator getBlockSubAggregator()
+	{
+		return (new BlockMaxDataPointAggregator());
+	}
+
 	private class MaxDataPointAggregator implements RangeSubAggregator
 	{
 		@Override
@@ -72,4 +79,35 @@ public class MaxAggregator extends RangeAggregator
 			return Collections.singletonList(m_dataPointFactory.createDataPoint(returnTime, max));
 		}
 	}
-}
\ No newline at end of file
+
+	private class BlockMaxDataPointAggregator implements BlockRangeSubAggregator
+	{
+		private double m_max = -Double.MAX_VALUE;
+
+		@Override
+		public void aggregate(DataPointBlock block, int start, int end)
+		{
+			for (int i = start; i < end; i++)
+				m_max = Math.max(m_max, block.getDoubleValue(i));
+		}
+
+		@Override
+		public void addResult(long returnTime, DataPointBlock output)
+		{
+			output.addDouble(returnTime, m_max);
+			m_max = -Double.MAX_VALUE;
+		}
+
+		@Override
+		public DataPoint createDataPoint(DataPointBlock output, int index)
+		{
+			return m_dataPointFactory.createDataPoint(output.getTimestamp(index), output.getDoubleValue(index));
+		}
+
+		@Override
+		public String getDataStoreType()
+		{
+			return m_dataPointFactory.getDataStoreType();
+		}
+	}
+}
@@ -18,6 +18,7 @@ package org.kairosdb.core.aggregator;
 import com.google.inject.Inject;
 import org.kairosdb.core.DataPoint;
 import org.kairosdb.core.annotation.FeatureComponent;
+import org.kairosdb.core.datastore.DataPointBlock;
 import org.kairosdb.core.datapoints.DoubleDataPointFactory;
 
 import java.util.Collections;
@@ -58,6 +59,12 @@ public class MinAggregator extends RangeAggregator
 		return (new MinDataPointAggregator());
 	}
 
+	@Override
+	protected BlockRangeSubAggregator getBlockSubAggregator()
+	{
+		return (new BlockMinDataPointAggregator());
+	}
+
 	private class MinDataPointAggregator implements RangeSubAggregator
 	{
 
@@ -75,4 +82,35 @@ public class MinAggregator extends RangeAggregator
 			return Collections.singletonList(m_dataPointFactory.createDataPoint(returnTime, min));
 		}
 	}
-}
\ No newline at end of file
+
+	private class BlockMinDataPointAggregator implements BlockRangeSubAggregator
+	{
+		private double m_min = Double.MAX_VALUE;
+
+		@Override
+		public void aggregate(DataPointBlock block, int start, int end)
+		{
+			for (int i = start; i < end; i++)
+				m_min = Math.min(m_min, block.getDoubleValue(i));
+		}
+
+		@Override
+		public void addResult(long returnTime, DataPointBlock output)
+		{
+			output.addDouble(returnTime, m_min);
+			m_min = Double.MAX_VALUE;
+		}
+
+		@Override
+		public DataPoint createDataPoint(DataPointBlock output, int index)
+		{
+			return m_dataPointFactory.createDataPoint(output.getTimestamp(index), output.getDoubleValue(index));
+		}
+
+		@Override
+		public String getDataStoreType()
+		{
+			return m_dataPointFactory.getDataStoreType();
+		}
+	}
+}
@@ -22,6 +22,7 @@ import org.joda.time.chrono.GregorianChronology;
 import org.kairosdb.core.DataPoint;
 import org.kairosdb.core.annotation.FeatureCompoundProperty;
 import org.kairosdb.core.annotation.FeatureProperty;
+import org.kairosdb.core.datastore.DataPointBlock;
 import org.kairosdb.core.datastore.DataPointGroup;
 import org.kairosdb.core.datastore.TimeUnit;
 import org.kairosdb.plugin.Aggregator;
@@ -147,6 +148,10 @@ public abstract class RangeAggregator implements Aggregator, TimezoneAware
 
 		if (m_exhaustive)
 			return (new ExhaustiveRangeDataPointAggregator(dataPointGroup, getSubAggregator()));
+
+		BlockRangeSubAggregator blockSubAggregator = getBlockSubAggregator();
+		if (blockSubAggregator != null)
+			return (new BlockRangeDataPointAggregator(dataPointGroup, blockSubAggregator));
 		else
 			return (new RangeDataPointAggregator(dataPointGroup, getSubAggregator()));
 	}
@@ -294,6 +299,19 @@ public abstract class RangeAggregator implements Aggregator, TimezoneAware
 	 */
 	protected abstract RangeSubAggregator getSubAggregator();
 
+	/**
+	 Return a BlockRangeSubAggregator that aggregates ranges straight from
+	 blocks of primitive values, or null if this aggregator only works on
+	 DataPoint objects.  When one is returned it is used instead of
+	 getSubAggregator for non exhaustive aggregation.
+
+	 @return
+	 */
+	protected BlockRangeSubAggregator getBlockSubAggregator()
+	{
+		return null;
+	}
+
 	/**
 	 Sets the time zone to use for range calculations
 
@@ -438,6 +456,69 @@ public abstract class RangeAggregator implements Aggregator, TimezoneAware
 		}
 	}
 
+	//===========================================================================
+	/**
+	 Same ranges as RangeDataPointAggregator but the data points are read and
+	 aggregated a block at a time.
+	 */
+	private class BlockRangeDataPointAggregator extends BlockAggregatedDataPointGroup
+	{
+		private final BlockRangeSubAggregator m_subAggregator;
+
+		public BlockRangeDataPointAggregator(DataPointGroup innerDataPointGroup,
+				BlockRangeSubAggregator subAggregator)
+		{
+			super(innerDataPointGroup);
+			m_subAggregator = subAggregator;
+		}
+
+		@Override
+		protected void fillOutput(DataPointBlock output)
+		{
+			while (!output.isFull() && hasNextInput())
+			{
+				long timestamp = m_input.getTimestamp(m_inputPosition);
+				long endRange = getEndRange(timestamp);
+
+				long dataPointTime = timestamp;
+				if (m_alignStartTime)
+					dataPointTime = getStartRange(timestamp);
+				else if (m_alignEndTime)
+					dataPointTime = endRange;
+
+				//A range can continue into the next block
+				while (hasNextInput())
+				{
+					int start = m_inputPosition;
+					int end = start;
+					int size = m_input.size();
+					while (end < size && m_input.getTimestamp(end) < endRange)
+						end++;
+
+					m_subAggregator.aggregate(m_input, start, end);
+					m_inputPosition = end;
+
+					if (end < size)
+						break;
+				}
+
+				m_subAggregator.addResult(dataPointTime, output);
+			}
+		}
+
+		@Override
+		protected DataPoint createDataPoint(DataPointBlock output, int index)
+		{
+			return m_subAggregator.createDataPoint(output, index);
+		}
+
+		@Override
+		public String getDataStoreType()
+		{
+			return m_subAggregator.getDataStoreType();
+		}
+	}
+
 	//========================================================================
 	private class ExhaustiveRangeDataPointAggregator extends RangeDataPointAggregator
 	{
@@ -521,4 +602,36 @@ public abstract class RangeAggregator implements Aggregator, TimezoneAware
 		 */
 		public Iterable<DataPoint> getNextDataPoints(long returnTime, Iterator<DataPoint> dataPointRange);
 	}
+
+	/**
+	 Block based version of RangeSubAggregator, instances are created once per
+	 grouped data series.
+	 */
+	public interface BlockRangeSubAggregator
+	{
+		/**
+		 Adds the entries from start to end (exclusive) to the current range.
+		 A range may be passed in several calls when it spans blocks.
+		 */
+		public void aggregate(DataPointBlock block, int start, int end);
+
+		/**
+		 Adds the aggregated value of the current range to the output block
+		 and starts a new range.
+
+		 @param returnTime Timestamp to use on the aggregated value.
+		 @param output block to add the value to
+		 */
+		public void addResult(long returnTime, DataPointBlock output);
+
+		/**
+		 Creates a DataPoint for a value added by addResult.
+		 */
+		public DataPoint createDataPoint(DataPointBlock output, int index);
+
+		/**
+		 Data store type of the data points created by createDataPoint.
+		 */
+		public String getDataStoreType();
+	}
 }
@@ -22,6 +22,7 @@ import org.kairosdb.core.DataPoint;
 import org.kairosdb.core.annotation.FeatureComponent;
 import org.kairosdb.core.annotation.FeatureCompoundProperty;
 import org.kairosdb.core.datapoints.DoubleDataPointFactory;
+import org.kairosdb.core.datastore.DataPointBlock;
 import org.kairosdb.core.datastore.DataPointGroup;
 import org.kairosdb.core.datastore.TimeUnit;
 import org.kairosdb.plugin.Aggregator;
@@ -89,48 +90,58 @@ public class RateAggregator implements Aggregator, TimezoneAware
 	}
 
 
-	private class RateDataPointAggregator extends AggregatedDataPointGroupWrapper
+	private class RateDataPointAggregator extends BlockAggregatedDataPointGroup
 	{
+		private boolean m_havePrevious = false;
+		private long m_previousTimestamp;
+		private double m_previousValue;
+
 		RateDataPointAggregator(DataPointGroup innerDataPointGroup)
 		{
 			super(innerDataPointGroup);
 		}
 
 		@Override
-		public boolean hasNext()
-		{
-			//Ensure we have two data points to mess with
-			return currentDataPoint != null && hasNextInternal();
-		}
-
-		@Override
-		public DataPoint next()
+		protected void fillOutput(DataPointBlock output)
 		{
-			final double x0 = currentDataPoint.getDoubleValue();
-			final long y0 = currentDataPoint.getTimestamp();
-
-			//This defaults the rate to 0 if no more data points exists
-			double x1 = x0;
-			long y1 = y0+1;
-
-			if (hasNextInternal())
+			while (!output.isFull() && hasNextInput())
 			{
-				currentDataPoint = nextInternal();
-
-				x1 = currentDataPoint.getDoubleValue();
-				y1 = currentDataPoint.getTimestamp();
+				final long y1 = m_input.getTimestamp(m_inputPosition);
+				final double x1 = m_input.getDoubleValue(m_inputPosition);
+				m_inputPosition++;
 
-				if (y1 == y0)
+				if (m_havePrevious)
 				{
-					throw new IllegalStateException(
-							"The rate aggregator cannot compute rate for data points with the same time stamp.  "+
-							"You must precede rate with another aggregator.");
+					final long y0 = m_previousTimestamp;
+					final double x0 = m_previousValue;
+
+					if (y1 == y0)
+					{
+						throw new IllegalStateException(
+								"The rate aggregator cannot compute rate for data points with the same time stamp.  "+
+								"You must precede rate with another aggregator.");
+					}
+
+					double rate = (x1 - x0) / (y1 - y0) * Util.getSamplingDuration(y0, m_sampling, m_timeZone);
+					output.addDouble(y1, rate);
 				}
+
+				m_havePrevious = true;
+				m_previousTimestamp = y1;
+				m_previousValue = x1;
 			}
+		}
 
-			double rate = (x1 - x0) / (y1 - y0) * Util.getSamplingDuration(y0, m_sampling, m_timeZone);
+		@Override
+		protected DataPoint createDataPoint(DataPointBlock output, int index)
+		{
+			return m_dataPointFactory.createDataPoint(output.getTimestamp(index), output.getDoubleValue(index));
+		}
 
-			return (m_dataPointFactory.createDataPoint(y1, rate));
+		@Override
+		public String getDataStoreType()
+		{
+			return m_dataPointFactory.getDataStoreType();
 		}
 	}
 }
@@ -18,6 +18,7 @@ package org.kairosdb.core.aggregator;
 import com.google.inject.Inject;
 import org.kairosdb.core.DataPoint;
 import org.kairosdb.core.annotation.FeatureComponent;
+import org.kairosdb.core.datastore.DataPointBlock;
 import org.kairosdb.core.datapoints.DoubleDataPointFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -62,6 +63,12 @@ public class SumAggregator extends RangeAggregator
 		return (new SumDataPointAggregator());
 	}
 
+	@Override
+	protected BlockRangeSubAggregator getBlockSubAggregator()
+	{
+		return (new BlockSumDataPointAggregator());
+	}
+
 	private class SumDataPointAggregator implements RangeSubAggregator
 	{
 
@@ -84,4 +91,35 @@ public class SumAggregator extends RangeAggregator
 			return Collections.singletonList(m_dataPointFactory.createDataPoint(returnTime, sum));
 		}
 	}
+
+	private class BlockSumDataPointAggregator implements BlockRangeSubAggregator
+	{
+		private double m_sum = 0;
+
+		@Override
+		public void aggregate(DataPointBlock block, int start, int end)
+		{
+			for (int i = start; i < end; i++)
+				m_sum += block.getDoubleValue(i);
+		}
+
+		@Override
+		public void addResult(long returnTime, DataPointBlock output)
+		{
+			output.addDouble(returnTime, m_sum);
+			m_sum = 0;
+		}
+
+		@Override
+		public DataPoint createDataPoint(DataPointBlock output, int index)
+		{
+			return m_dataPointFactory.createDataPoint(output.getTimestamp(index), output.getDoubleValue(index));
+		}
+
+		@Override
+		public String getDataStoreType()
+		{
+			return m_dataPointFactory.getDataStoreType();
+		}
+	}
 }
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.core.datastore;
+
+/**
+ DataPointGroup that can hand out its data points in blocks of primitives.
+ Reading blocks and calling next() can be mixed, each data point is returned
+ only once by either method.
+ */
+public interface BlockDataPointGroup extends DataPointGroup
+{
+	/**
+	 Clears the block and fills it with the next data points of this group.
+
+	 @param block block to fill
+	 @return number of data points put in the block, 0 once the group is exhausted
+	 */
+	public int readBlock(DataPointBlock block);
+
+	/**
+	 Data store type of the data points returned by next().  Blocks only
+	 carry the values of numbers so callers that write values in the format
+	 of a data point type must check this type first.
+	 */
+	public String getDataStoreType();
+}
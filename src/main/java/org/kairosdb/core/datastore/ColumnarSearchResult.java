@@ -0,0 +1,637 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.core.datastore;
+
+import org.kairosdb.core.DataPoint;
+import org.kairosdb.core.KairosDataPointFactory;
+import org.kairosdb.core.datapoints.DataPointFactory;
+import org.kairosdb.core.datapoints.DoubleDataPointFactory;
+import org.kairosdb.core.datapoints.DoubleDataPointFactoryImpl;
+import org.kairosdb.core.datapoints.LongDataPointFactory;
+import org.kairosdb.core.datapoints.LongDataPointFactoryImpl;
+import org.kairosdb.util.BufferedDataOutputStream;
+import org.kairosdb.util.ByteBufferDataInput;
+import org.kairosdb.util.MemoryMonitor;
+import org.kairosdb.util.StringPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ Query cache that stores each row as two columns, a delta encoded timestamp
+ column followed by a value column.  Rows of kairos_long and kairos_double
+ store their values as fixed width primitives, every other type falls back
+ to the values as written by DataPoint.writeValueToBuffer.
+
+ The data file is memory mapped when the rows are read so iterating a cached
+ row reads straight from the page cache without any stream decoding or read
+ buffers on the heap.
+ */
+public class ColumnarSearchResult implements SearchResult
+{
+	public static final Logger logger = LoggerFactory.getLogger(ColumnarSearchResult.class);
+
+	private static final int INDEX_MAGIC = 0x4b434f4c; //KCOL
+	private static final int INDEX_VERSION = 1;
+
+	public static final byte GENERIC_COLUMN = 0x0;
+	public static final byte LONG_COLUMN = 0x1;
+	public static final byte DOUBLE_COLUMN = 0x2;
+
+	private final String m_metricName;
+	private final List<RowMarker> m_rows;
+	private final MemoryMonitor m_memoryMonitor;
+	private final File m_dataFile;
+	private RandomAccessFile m_randomAccessFile;
+	private BufferedDataOutputStream m_dataOutputStream;
+	private MappedByteBuffer m_mappedFile;
+
+	private final File m_indexFile;
+	private final AtomicInteger m_closeCounter = new AtomicInteger(1);
+	private boolean m_readFromCache = false;
+	private final KairosDataPointFactory m_dataPointFactory;
+	private final StringPool m_stringPool;
+	private boolean m_keepCacheFiles;
+	private final ReentrantReadWriteLock m_lock = new ReentrantReadWriteLock();
+
+
+	private static File getIndexFile(String baseFileName)
+	{
+		return (new File(baseFileName + ".cindex"));
+	}
+
+	private static File getDataFile(String baseFileName)
+	{
+		return (new File(baseFileName + ".cdata"));
+	}
+
+	private ColumnarSearchResult(String metricName, File dataFile, File indexFile,
+			KairosDataPointFactory dataPointFactory, boolean keepCacheFiles)
+	{
+		m_metricName = metricName;
+		m_indexFile = indexFile;
+		m_rows = new ArrayList<>();
+		m_dataFile = dataFile;
+		m_dataPointFactory = dataPointFactory;
+		m_stringPool = new StringPool();
+		m_keepCacheFiles = keepCacheFiles;
+		m_memoryMonitor = new MemoryMonitor(1000);
+	}
+
+	private void openCacheFile() throws IOException
+	{
+		//Cache cleanup could have removed the folders
+		m_dataFile.getParentFile().mkdirs();
+		m_randomAccessFile = new RandomAccessFile(m_dataFile, "rw");
+		m_dataOutputStream = BufferedDataOutputStream.create(m_randomAccessFile, 0L);
+	}
+
+	/**
+	 Reads the index file into memory
+	 @return false if the index is not in a format this class can read
+	 */
+	private boolean loadIndex() throws IOException
+	{
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(m_indexFile))))
+		{
+			if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION)
+				return false;
+
+			int size = in.readInt();
+			for (int I = 0; I < size; I++)
+			{
+				//open the cache file only if there will be data point groups returned
+				if (m_randomAccessFile == null)
+					openCacheFile();
+
+				m_rows.add(RowMarker.read(in, m_stringPool));
+			}
+		}
+
+		m_readFromCache = true;
+		return true;
+	}
+
+	private void saveIndex() throws IOException
+	{
+		if (m_readFromCache)
+			return; //No need to save if we read it from the file
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(m_indexFile))))
+		{
+			out.writeInt(INDEX_MAGIC);
+			out.writeInt(INDEX_VERSION);
+			out.writeInt(m_rows.size());
+			for (RowMarker row : m_rows)
+			{
+				row.write(out);
+			}
+		}
+	}
+
+
+	public static ColumnarSearchResult createCachedSearchResult(String metricName,
+			String baseFileName, KairosDataPointFactory dataPointFactory,
+			boolean keepCacheFiles)
+			throws IOException
+	{
+		File dataFile = getDataFile(baseFileName);
+		File indexFile = getIndexFile(baseFileName);
+
+		//Just in case the file are there.
+		dataFile.delete();
+		indexFile.delete();
+
+		return (new ColumnarSearchResult(metricName, dataFile, indexFile,
+				dataPointFactory, keepCacheFiles));
+	}
+
+	/**
+
+	 @param baseFileName base name of file
+	 @param cacheTime The number of seconds to still open the file
+	 @return The ColumnarSearchResult if the file exists or null if it doesn't
+	 */
+	public static ColumnarSearchResult openCachedSearchResult(String metricName,
+			String baseFileName, int cacheTime, KairosDataPointFactory dataPointFactory,
+			boolean keepCacheFiles) throws IOException
+	{
+		ColumnarSearchResult ret = null;
+		File dataFile = getDataFile(baseFileName);
+		File indexFile = getIndexFile(baseFileName);
+		long now = System.currentTimeMillis();
+
+		if (dataFile.exists() && indexFile.exists() && ((now - dataFile.lastModified()) < ((long)cacheTime * 1000)))
+		{
+			ret = new ColumnarSearchResult(metricName, dataFile, indexFile, dataPointFactory, keepCacheFiles);
+			if (!ret.loadIndex())
+			{
+				logger.error("Unable to load cache file, unknown index format " + indexFile);
+				ret = null;
+			}
+		}
+
+		return (ret);
+	}
+
+
+	/**
+	 Closes the underling file handle.  Rows that are still reading from the
+	 mapped file are not affected as the mapping outlives the channel.
+	 */
+	private void internalClose()
+	{
+		try
+		{
+			if (m_randomAccessFile != null)
+				m_randomAccessFile.close();
+
+			if (m_keepCacheFiles)
+				saveIndex();
+			else
+				m_dataFile.delete();
+		}
+		catch (IOException e)
+		{
+			logger.error("Failure closing cache file", e);
+		}
+	}
+
+	protected void decrementClose()
+	{
+		if (m_closeCounter.decrementAndGet() == 0)
+			internalClose();
+	}
+
+	public void close()
+	{
+		decrementClose();
+	}
+
+	/**
+	 Maps the region of the data file that holds a row.  Files that fit in a
+	 single mapping are mapped once and shared by all rows.
+	 */
+	private synchronized ByteBuffer mapRow(RowMarker row) throws IOException
+	{
+		if (m_mappedFile == null)
+		{
+			m_dataOutputStream.flush();
+			FileChannel channel = m_randomAccessFile.getChannel();
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE)
+				return channel.map(FileChannel.MapMode.READ_ONLY, row.m_startPosition,
+						row.m_endPosition - row.m_startPosition);
+
+			m_mappedFile = channel.map(FileChannel.MapMode.READ_ONLY, 0L, size);
+		}
+
+		ByteBuffer buffer = m_mappedFile.duplicate();
+		buffer.limit((int)row.m_endPosition);
+		buffer.position((int)row.m_startPosition);
+		return buffer.slice();
+	}
+
+	@Override
+	public List<DataPointRow> getRows()
+	{
+		List<DataPointRow> ret = new ArrayList<>();
+		MemoryMonitor mm = new MemoryMonitor(20);
+
+		try
+		{
+			m_lock.readLock().lock();
+			for (RowMarker row : m_rows)
+			{
+				ByteBuffer buffer = row.m_dataPointCount == 0 ? ByteBuffer.allocate(0) : mapRow(row);
+				ret.add(new ColumnarDataPointRow(row, buffer));
+				m_closeCounter.incrementAndGet();
+				mm.checkMemoryAndThrowException();
+			}
+		}
+		catch (IOException e)
+		{
+			throw new IllegalStateException("Unable to map cache file " + m_dataFile, e);
+		}
+		finally
+		{
+			m_lock.readLock().unlock();
+		}
+
+		return (ret);
+	}
+
+	/**
+	 A new set of datapoints to write to the file.  All inserted datapoints
+	 after this call are expected to be in time order and have the same tags.
+	 */
+	@Override
+	public DataPointWriter startDataPointSet(String type, SortedMap<String, String> tags) throws IOException
+	{
+		return new ColumnarDatapointWriter(type, tags);
+	}
+
+	/**
+	 Picks the value column encoding for a row.  The primitive columns are only
+	 used when the data points of the row can be recreated by the registered
+	 factory from a single long or double.
+	 */
+	private byte getColumnType(String dataType)
+	{
+		DataPointFactory factory = m_dataPointFactory.getFactoryForDataStoreType(dataType);
+
+		if (LongDataPointFactoryImpl.DST_LONG.equals(dataType) && factory instanceof LongDataPointFactory)
+			return LONG_COLUMN;
+		else if (DoubleDataPointFactoryImpl.DST_DOUBLE.equals(dataType) && factory instanceof DoubleDataPointFactory)
+			return DOUBLE_COLUMN;
+		else
+			return GENERIC_COLUMN;
+	}
+
+	/**
+	 Zig zag encodes the delta so rows sorted in either direction stay small.
+	 */
+	private static void writeDelta(DataOutput out, long delta) throws IOException
+	{
+		long value = (delta << 1) ^ (delta >> 63);
+		while ((value & ~0x7FL) != 0)
+		{
+			out.writeByte((int)((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.writeByte((int)value);
+	}
+
+	private static long readDelta(ByteBuffer buffer)
+	{
+		long value = 0L;
+		int shift = 0;
+		byte b;
+		do
+		{
+			b = buffer.get();
+			value |= (long)(b & 0x7F) << shift;
+			shift += 7;
+		} while (b < 0);
+
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+
+	/**
+	 Encodes the columns as the data points are added so a row is held as its
+	 encoded bytes, not as DataPoint objects, until it is written to the file
+	 on close.
+	 */
+	private class ColumnarDatapointWriter implements DataPointWriter
+	{
+		private final String m_dataType;
+		private final Map<String, String> m_tags;
+		private final ByteArrayOutputStream m_timestampBytes = new ByteArrayOutputStream();
+		private final DataOutputStream m_timestampColumn = new DataOutputStream(m_timestampBytes);
+		private ByteArrayOutputStream m_valueBytes = new ByteArrayOutputStream();
+		private DataOutputStream m_valueColumn = new DataOutputStream(m_valueBytes);
+		private byte m_columnType;
+		private long m_lastTimestamp = 0L;
+		private int m_dataPointCount = 0;
+
+		public ColumnarDatapointWriter(String type, Map<String, String> tags)
+		{
+			m_dataType = type;
+			m_tags = tags;
+			m_columnType = getColumnType(type);
+		}
+
+		@Override
+		public void addDataPoint(DataPoint datapoint) throws IOException
+		{
+			if (m_columnType != GENERIC_COLUMN && !m_dataType.equals(datapoint.getDataStoreDataType()))
+				convertToGenericColumn();
+
+			writeDelta(m_timestampColumn, datapoint.getTimestamp() - m_lastTimestamp);
+			m_lastTimestamp = datapoint.getTimestamp();
+
+			if (m_columnType == LONG_COLUMN)
+				m_valueColumn.writeLong(datapoint.getLongValue());
+			else if (m_columnType == DOUBLE_COLUMN)
+				m_valueColumn.writeDouble(datapoint.getDoubleValue());
+			else
+				datapoint.writeValueToBuffer(m_valueColumn);
+
+			m_dataPointCount ++;
+			m_memoryMonitor.checkMemoryAndThrowException();
+		}
+
+		/**
+		 A data point of another type showed up in a primitive row, the values
+		 so far are written again the way the row's factory writes them.
+		 */
+		private void convertToGenericColumn() throws IOException
+		{
+			ByteBuffer values = ByteBuffer.wrap(m_valueBytes.toByteArray());
+			DataPointFactory factory = m_dataPointFactory.getFactoryForDataStoreType(m_dataType);
+
+			m_valueBytes = new ByteArrayOutputStream(values.capacity());
+			m_valueColumn = new DataOutputStream(m_valueBytes);
+
+			for (int i = 0; i < m_dataPointCount; i++)
+			{
+				DataPoint dataPoint;
+				if (m_columnType == LONG_COLUMN)
+					dataPoint = ((LongDataPointFactory)factory).createDataPoint(0L, values.getLong());
+				else
+					dataPoint = ((DoubleDataPointFactory)factory).createDataPoint(0L, values.getDouble());
+
+				dataPoint.writeValueToBuffer(m_valueColumn);
+			}
+
+			m_columnType = GENERIC_COLUMN;
+		}
+
+		/**
+		 Call when finished adding datapoints to the cache file
+		 */
+		@Override
+		public void close() throws IOException
+		{
+			try
+			{
+				m_lock.writeLock().lock();
+
+				if (m_randomAccessFile == null)
+					openCacheFile();
+
+				RowMarker row = new RowMarker(m_tags, m_dataType, m_columnType, m_dataPointCount);
+				row.m_startPosition = m_dataOutputStream.getPosition();
+
+				m_timestampBytes.writeTo(m_dataOutputStream);
+
+				//The position only advances as the buffer is flushed
+				m_dataOutputStream.flush();
+				row.m_valuesPosition = m_dataOutputStream.getPosition();
+
+				m_valueBytes.writeTo(m_dataOutputStream);
+
+				m_dataOutputStream.flush();
+				row.m_endPosition = m_dataOutputStream.getPosition();
+
+				m_rows.add(row);
+			}
+			finally
+			{
+				m_lock.writeLock().unlock();
+			}
+		}
+	}
+
+	//===========================================================================
+	private static class RowMarker
+	{
+		private long m_startPosition;
+		private long m_valuesPosition;
+		private long m_endPosition;
+		private final Map<String, String> m_tags;
+		private final String m_dataType;
+		private final byte m_columnType;
+		private final int m_dataPointCount;
+
+		private RowMarker(Map<String, String> tags, String dataType, byte columnType,
+				int dataPointCount)
+		{
+			m_tags = tags;
+			m_dataType = dataType;
+			m_columnType = columnType;
+			m_dataPointCount = dataPointCount;
+		}
+
+		private void write(DataOutput out) throws IOException
+		{
+			out.writeLong(m_startPosition);
+			out.writeLong(m_valuesPosition);
+			out.writeLong(m_endPosition);
+			out.writeInt(m_dataPointCount);
+			out.writeByte(m_columnType);
+			out.writeUTF(m_dataType);
+			out.writeInt(m_tags.size());
+			for (Map.Entry<String, String> tag : m_tags.entrySet())
+			{
+				out.writeUTF(tag.getKey());
+				out.writeUTF(tag.getValue());
+			}
+		}
+
+		private static RowMarker read(DataInputStream in, StringPool stringPool) throws IOException
+		{
+			long startPosition = in.readLong();
+			long valuesPosition = in.readLong();
+			long endPosition = in.readLong();
+			int dataPointCount = in.readInt();
+			byte columnType = in.readByte();
+			String dataType = stringPool.getString(in.readUTF());
+
+			int tagCount = in.readInt();
+			Map<String, String> tags = new HashMap<>();
+			for (int I = 0; I < tagCount; I++)
+			{
+				String key = stringPool.getString(in.readUTF());
+				String value = stringPool.getString(in.readUTF());
+				tags.put(key, value);
+			}
+
+			RowMarker row = new RowMarker(tags, dataType, columnType, dataPointCount);
+			row.m_startPosition = startPosition;
+			row.m_valuesPosition = valuesPosition;
+			row.m_endPosition = endPosition;
+			return row;
+		}
+	}
+
+	//===========================================================================
+	private class ColumnarDataPointRow implements DataPointRow
+	{
+		private final RowMarker m_row;
+		private final ByteBuffer m_timestamps;
+		private final ByteBuffer m_values;
+		private final ByteBufferDataInput m_valueInput;
+		private final DataPointFactory m_factory;
+		private long m_lastTimestamp = 0L;
+		private int m_dataPointsRead = 0;
+
+		public ColumnarDataPointRow(RowMarker row, ByteBuffer rowBuffer)
+		{
+			m_row = row;
+
+			int valuesOffset = (int)(row.m_valuesPosition - row.m_startPosition);
+			m_timestamps = rowBuffer.duplicate();
+			m_timestamps.limit(valuesOffset);
+			m_values = rowBuffer.duplicate();
+			m_values.position(valuesOffset);
+
+			m_valueInput = new ByteBufferDataInput(m_values);
+			m_factory = m_dataPointFactory.getFactoryForDataStoreType(row.m_dataType);
+		}
+
+		@Override
+		public boolean hasNext()
+		{
+			return (m_dataPointsRead < m_row.m_dataPointCount);
+		}
+
+		@Override
+		public DataPoint next()
+		{
+			DataPoint ret = null;
+
+			m_lastTimestamp += readDelta(m_timestamps);
+			m_dataPointsRead ++;
+
+			try
+			{
+				switch (m_row.m_columnType)
+				{
+					case LONG_COLUMN:
+						ret = ((LongDataPointFactory)m_factory).createDataPoint(m_lastTimestamp, m_values.getLong());
+						break;
+					case DOUBLE_COLUMN:
+						ret = ((DoubleDataPointFactory)m_factory).createDataPoint(m_lastTimestamp, m_values.getDouble());
+						break;
+					default:
+						ret = m_dataPointFactory.createDataPoint(m_row.m_dataType, m_lastTimestamp, m_valueInput);
+				}
+			}
+			catch (IOException ioe)
+			{
+				logger.error("Error reading next data point.", ioe);
+			}
+
+			return (ret);
+		}
+
+		@Override
+		public void remove()
+		{
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public String getName()
+		{
+			return (m_metricName);
+		}
+
+		@Override
+		public String getDatastoreType()
+		{
+			return m_row.m_dataType;
+		}
+
+		@Override
+		public Set<String> getTagNames()
+		{
+			return (m_row.m_tags.keySet());
+		}
+
+		@Override
+		public String getTagValue(String tag)
+		{
+			return (m_row.m_tags.get(tag));
+		}
+
+		@Override
+		public void close()
+		{
+			decrementClose();
+		}
+
+		@Override
+		public int getDataPointCount()
+		{
+			return m_row.m_dataPointCount;
+		}
+
+		@Override
+		public String toString()
+		{
+			return "ColumnarDataPointRow{" +
+					"m_metricName='" + m_metricName + '\'' +
+					", m_tags=" + m_row.m_tags +
+					'}';
+		}
+	}
+}
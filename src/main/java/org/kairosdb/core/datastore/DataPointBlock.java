@@ -0,0 +1,181 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.core.datastore;
+
+import org.kairosdb.core.DataPoint;
+
+/**
+ Reusable batch of data points held in primitive arrays.  Blocks are used to
+ move numeric data through the aggregators and the json formatter without
+ creating a DataPoint object for every value.
+
+ Each entry is a long, a double or, for data points that are not numbers,
+ only a timestamp.
+ */
+public class DataPointBlock
+{
+	public static final int DEFAULT_CAPACITY = 1024;
+
+	private static final byte TYPE_LONG = 0;
+	private static final byte TYPE_DOUBLE = 1;
+	private static final byte TYPE_OTHER = 2;
+
+	private final long[] m_timestamps;
+	private final long[] m_longValues;
+	private final double[] m_doubleValues;
+	private final byte[] m_types;
+	private int m_size = 0;
+
+	public DataPointBlock()
+	{
+		this(DEFAULT_CAPACITY);
+	}
+
+	public DataPointBlock(int capacity)
+	{
+		m_timestamps = new long[capacity];
+		m_longValues = new long[capacity];
+		m_doubleValues = new double[capacity];
+		m_types = new byte[capacity];
+	}
+
+	public int size()
+	{
+		return m_size;
+	}
+
+	public int capacity()
+	{
+		return m_timestamps.length;
+	}
+
+	public boolean isFull()
+	{
+		return m_size == m_timestamps.length;
+	}
+
+	public void clear()
+	{
+		m_size = 0;
+	}
+
+	public void addLong(long timestamp, long value)
+	{
+		m_timestamps[m_size] = timestamp;
+		m_longValues[m_size] = value;
+		m_types[m_size] = TYPE_LONG;
+		m_size ++;
+	}
+
+	public void addDouble(long timestamp, double value)
+	{
+		m_timestamps[m_size] = timestamp;
+		m_doubleValues[m_size] = value;
+		m_types[m_size] = TYPE_DOUBLE;
+		m_size ++;
+	}
+
+	/**
+	 Copies the value of the data point into the block.  Data points that
+	 are not numbers only keep their timestamp.
+	 */
+	public void add(DataPoint dataPoint)
+	{
+		if (dataPoint.isLong())
+			addLong(dataPoint.getTimestamp(), dataPoint.getLongValue());
+		else if (dataPoint.isDouble())
+			addDouble(dataPoint.getTimestamp(), dataPoint.getDoubleValue());
+		else
+		{
+			m_timestamps[m_size] = dataPoint.getTimestamp();
+			m_types[m_size] = TYPE_OTHER;
+			m_size ++;
+		}
+	}
+
+	public long getTimestamp(int index)
+	{
+		return m_timestamps[index];
+	}
+
+	public boolean isLong(int index)
+	{
+		return m_types[index] == TYPE_LONG;
+	}
+
+	/**
+	 Returns true if the entry is a long or a double, same as
+	 {@link DataPoint#isDouble()}
+	 */
+	public boolean isNumber(int index)
+	{
+		return m_types[index] != TYPE_OTHER;
+	}
+
+	public long getLongValue(int index)
+	{
+		if (m_types[index] == TYPE_DOUBLE)
+			return (long)m_doubleValues[index];
+
+		return m_longValues[index];
+	}
+
+	public double getDoubleValue(int index)
+	{
+		if (m_types[index] == TYPE_LONG)
+			return m_longValues[index];
+
+		return m_doubleValues[index];
+	}
+
+	/**
+	 Appends entries from another block until this block is full.
+
+	 @return number of entries copied
+	 */
+	public int copyFrom(DataPointBlock source, int start, int end)
+	{
+		int count = Math.min(end - start, capacity() - m_size);
+
+		System.arraycopy(source.m_timestamps, start, m_timestamps, m_size, count);
+		System.arraycopy(source.m_longValues, start, m_longValues, m_size, count);
+		System.arraycopy(source.m_doubleValues, start, m_doubleValues, m_size, count);
+		System.arraycopy(source.m_types, start, m_types, m_size, count);
+		m_size += count;
+
+		return count;
+	}
+
+	/**
+	 Clears the block and reads the next data points of the group into it.
+	 Groups that implement {@link BlockDataPointGroup} fill the block directly,
+	 any other group is read one data point at a time.
+
+	 @return number of data points read, 0 once the group is exhausted
+	 */
+	public int readFrom(DataPointGroup group)
+	{
+		if (group instanceof BlockDataPointGroup)
+			return ((BlockDataPointGroup) group).readBlock(this);
+
+		clear();
+		while (!isFull() && group.hasNext())
+			add(group.next());
+
+		return m_size;
+	}
+}
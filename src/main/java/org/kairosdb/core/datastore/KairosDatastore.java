@@ -52,6 +52,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Objects.requireNonNull;
@@ -62,10 +65,13 @@ public class KairosDatastore implements KairosPostConstructInit
 	public static final Logger logger = LoggerFactory.getLogger(KairosDatastore.class);
 	public static final String QUERY_CACHE_DIR = "kairosdb.query_cache.cache_dir";
 	public static final String KEEP_CACHE_FILES = "kairosdb.query_cache.keep_cache_files";
+	public static final String COLUMNAR_CACHE_FILES = "kairosdb.query_cache.columnar_format";
 	public static final String QUERY_METRIC_TIME = "kairosdb.datastore.query_time";
 	public static final String QUERIES_WAITING_METRIC_NAME = "kairosdb.datastore.queries_waiting";
 	public static final String QUERY_SAMPLE_SIZE = "kairosdb.datastore.query_sample_size";
 	public static final String QUERY_ROW_COUNT = "kairosdb.datastore.query_row_count";
+	public static final String PARALLEL_MERGE_ROW_THRESHOLD = "kairosdb.datastore.parallel_merge.row_threshold";
+	public static final String PARALLEL_MERGE_PARTITIONS = "kairosdb.datastore.parallel_merge.partitions";
 
 	private final Datastore m_datastore;
 	private final QueryQueuingManager m_queuingManager;
@@ -74,6 +80,11 @@ public class KairosDatastore implements KairosPostConstructInit
 	private String m_baseCacheDir;
 	private volatile String m_cacheDir;
 	private final boolean m_keepCacheFiles;
+	private boolean m_columnarCacheFiles = false;
+	private QueryResultCache m_queryResultCache;
+	private int m_parallelMergeRowThreshold = 0;
+	private int m_parallelMergePartitions = 4;
+	private volatile ForkJoinPool m_mergePool;
 
 	@SuppressWarnings("ResultOfMethodCallIgnored")
 	@Inject
@@ -88,6 +99,7 @@ public class KairosDatastore implements KairosPostConstructInit
 
 		m_baseCacheDir = System.getProperty("java.io.tmpdir") + "/kairos_cache/";
 		m_keepCacheFiles = keepCacheFiles;
+		m_queryResultCache = new QueryResultCache(dataPointFactory, 0);
 	}
 
 	@Override
@@ -106,6 +118,30 @@ public class KairosDatastore implements KairosPostConstructInit
 		}
 	}
 
+	@Inject(optional = true)
+	public void setColumnarCacheFiles(@Named(COLUMNAR_CACHE_FILES) boolean columnarCacheFiles)
+	{
+		m_columnarCacheFiles = columnarCacheFiles;
+	}
+
+	@Inject(optional = true)
+	public void setParallelMergeRowThreshold(@Named(PARALLEL_MERGE_ROW_THRESHOLD) int rowThreshold)
+	{
+		m_parallelMergeRowThreshold = rowThreshold;
+	}
+
+	@Inject(optional = true)
+	public void setParallelMergePartitions(@Named(PARALLEL_MERGE_PARTITIONS) int partitions)
+	{
+		m_parallelMergePartitions = partitions;
+	}
+
+	@Inject(optional = true)
+	public void setQueryResultCache(QueryResultCache queryResultCache)
+	{
+		m_queryResultCache = queryResultCache;
+	}
+
 	@SuppressWarnings("ResultOfMethodCallIgnored")
 	private void setupCacheDirectory()
 	{
@@ -197,6 +233,9 @@ public class KairosDatastore implements KairosPostConstructInit
 	 */
 	public void close() throws InterruptedException, DatastoreException
 	{
+		if (m_mergePool != null)
+			m_mergePool.shutdown();
+
 		m_datastore.close();
 	}
 
@@ -304,6 +343,36 @@ public class KairosDatastore implements KairosPostConstructInit
 		return modifiedGroupBys;
 	}
 
+	/**
+	 The pool is only created once a group is big enough to be merged in parallel
+	 */
+	private ForkJoinPool getMergePool()
+	{
+		if (m_mergePool == null)
+		{
+			synchronized (this)
+			{
+				if (m_mergePool == null)
+					m_mergePool = new ForkJoinPool();
+			}
+		}
+
+		return m_mergePool;
+	}
+
+	private SortingDataPointGroup createSortingGroup(List<DataPointGroup> groups,
+			GroupByResult groupByResult, Order order)
+	{
+		SortingDataPointGroup sdpGroup = new SortingDataPointGroup(groups, groupByResult, order);
+
+		//A single core gains nothing from merging in parallel
+		if (m_parallelMergeRowThreshold > 0 && groups.size() >= m_parallelMergeRowThreshold &&
+				Runtime.getRuntime().availableProcessors() > 1)
+			sdpGroup.setParallelMerge(getMergePool(), m_parallelMergeRowThreshold, m_parallelMergePartitions);
+
+		return sdpGroup;
+	}
+
 	private static TagGroupBy getTagGroupBy(List<GroupBy> groupBys)
 	{
 		for (GroupBy groupBy : groupBys)
@@ -364,14 +433,14 @@ public class KairosDatastore implements KairosPostConstructInit
 
 					for (String key : sortedGroups)
 					{
-						SortingDataPointGroup sdpGroup = new SortingDataPointGroup(groups.get(key), groupByResults.get(key), order);
+						SortingDataPointGroup sdpGroup = createSortingGroup(groups.get(key), groupByResults.get(key), order);
 						sdpGroup.addGroupByResult(new TypeGroupByResult(type));
 						ret.add(sdpGroup);
 					}
 				}
 				else
 				{
-					ret.add(new SortingDataPointGroup(typeGroups.get(type), new TypeGroupByResult(type), order));
+					ret.add(createSortingGroup(typeGroups.get(type), new TypeGroupByResult(type), order));
 				}
 			}
 		}
@@ -436,6 +505,7 @@ public class KairosDatastore implements KairosPostConstructInit
 	{
 		private String m_cacheFilename;
 		private QueryMetric m_metric;
+		private QueryQueuingManager.QueryHandle m_queryHandle;
 		private List<DataPointGroup> m_results;
 		private int m_dataPointCount;
 		private int m_rowCount;
@@ -453,7 +523,7 @@ public class KairosDatastore implements KairosPostConstructInit
 
 			m_metric = metric;
 			m_cacheFilename = calculateFilenameHash(metric);
-			m_queuingManager.waitForTimeToRun(m_cacheFilename, metric);
+			m_queryHandle = m_queuingManager.waitForTimeToRun(m_cacheFilename, metric);
 		}
 
 		public int getSampleSize()
@@ -462,53 +532,161 @@ public class KairosDatastore implements KairosPostConstructInit
 		}
 		public int getRowCount() { return m_rowCount; }
 
-		@Override
-		public List<DataPointGroup> execute() throws DatastoreException
+		/**
+		 Reads the rows from the cache file or the datastore if the file is
+		 missing or has expired.  The returned search result is still open.
+		 */
+		private SearchResult querySearchResult() throws DatastoreException
 		{
-			Stopwatch stopwatch = Stopwatch.createStarted();
-
 			SearchResult searchResult = null;
 
-			List<DataPointRow> returnedRows = null;
-
 			try
 			{
 				String tempFile = m_cacheDir + m_cacheFilename;
 
-				/*searchResult = new MemorySearchResult(m_metric.getName());
-				m_datastore.queryDatabase(m_metric, searchResult);
-				returnedRows = searchResult.getRows();*/
-
 				if (m_metric.getCacheTime() > 0)
 				{
-					searchResult = CachedSearchResult.openCachedSearchResult(m_metric.getName(),
-							tempFile, m_metric.getCacheTime(), m_dataPointFactory, m_keepCacheFiles);
+					if (m_columnarCacheFiles)
+						searchResult = ColumnarSearchResult.openCachedSearchResult(m_metric.getName(),
+								tempFile, m_metric.getCacheTime(), m_dataPointFactory, m_keepCacheFiles);
+					else
+						searchResult = CachedSearchResult.openCachedSearchResult(m_metric.getName(),
+								tempFile, m_metric.getCacheTime(), m_dataPointFactory, m_keepCacheFiles);
 					if (searchResult != null)
-					{
-						returnedRows = searchResult.getRows();
 						logger.debug("Cache HIT!");
-					}
 				}
 
 				if (searchResult == null)
 				{
 					logger.debug("Cache MISS!");
-					searchResult = CachedSearchResult.createCachedSearchResult(m_metric.getName(),
-							tempFile, m_dataPointFactory, m_keepCacheFiles);
+					if (m_columnarCacheFiles)
+						searchResult = ColumnarSearchResult.createCachedSearchResult(m_metric.getName(),
+								tempFile, m_dataPointFactory, m_keepCacheFiles);
+					else
+						searchResult = CachedSearchResult.createCachedSearchResult(m_metric.getName(),
+								tempFile, m_dataPointFactory, m_keepCacheFiles);
 					m_datastore.queryDatabase(m_metric, searchResult);
-					returnedRows = searchResult.getRows();
 				}
 
+				return (searchResult);
 			}
 			catch (Exception e)
 			{
 				logger.error("Query Error", e);
+				if (searchResult != null)
+					searchResult.close();
 				throw new DatastoreException(e);
 			}
-			finally
+		}
+
+		/**
+		 Runs the query against the memory cache, the cache files and finally
+		 the datastore.  The result can be read once by this query and once
+		 by each query that joined it.
+		 */
+		private SharedSearchResult runQuery() throws DatastoreException
+		{
+			if (m_metric.getCacheTime() > 0)
+			{
+				Supplier<List<DataPointRow>> cachedResult = m_queryResultCache.getResult(m_cacheFilename);
+				if (cachedResult != null)
+				{
+					logger.debug("Memory cache HIT!");
+					return new SharedSearchResult(cachedResult, null);
+				}
+			}
+
+			SearchResult searchResult = querySearchResult();
+			try
+			{
+				List<DataPointRow> rows = searchResult.getRows();
+				Supplier<List<DataPointRow>> cachedResult = m_queryResultCache.putRows(m_cacheFilename,
+						m_metric.getCacheTime(), rows);
+
+				if (cachedResult != null)
+				{
+					searchResult.close();
+					return new SharedSearchResult(cachedResult, null);
+				}
+
+				for (DataPointRow row : rows)
+					row.close();
+
+				return new SharedSearchResult(searchResult::getRows, searchResult::close);
+			}
+			catch (IOException | RuntimeException e)
 			{
 				searchResult.close();
+				throw new DatastoreException(e);
+			}
+		}
+
+		/**
+		 Returns the rows for this query.  If an identical query was already
+		 running when this one was created the rows are shared from that query
+		 instead of reading them again.
+		 */
+		private List<DataPointRow> getRows() throws DatastoreException
+		{
+			try
+			{
+				while (!m_queryHandle.isLeader())
+				{
+					SharedSearchResult result = m_queryHandle.awaitResult();
+					if (result != null)
+					{
+						logger.debug("Joined running query");
+						try
+						{
+							return (result.getRows());
+						}
+						finally
+						{
+							result.release();
+						}
+					}
+
+					//The query we joined did not produce a result so try again
+					m_queryHandle = m_queuingManager.waitForTimeToRun(m_cacheFilename, m_metric);
+				}
 			}
+			catch (InterruptedException e)
+			{
+				throw new DatastoreException(e);
+			}
+			catch (ExecutionException e)
+			{
+				throw new DatastoreException(e.getCause());
+			}
+
+			SharedSearchResult result;
+			try
+			{
+				result = runQuery();
+			}
+			catch (DatastoreException | RuntimeException e)
+			{
+				m_queuingManager.fail(m_queryHandle, e);
+				throw e;
+			}
+
+			try
+			{
+				return (result.getRows());
+			}
+			finally
+			{
+				m_queuingManager.publish(m_queryHandle, result);
+				result.release();
+			}
+		}
+
+		@Override
+		public List<DataPointGroup> execute() throws DatastoreException
+		{
+			Stopwatch stopwatch = Stopwatch.createStarted();
+
+			List<DataPointRow> returnedRows = getRows();
 
 			//Get data point count
 			for (DataPointRow returnedRow : returnedRows)
@@ -593,7 +771,7 @@ public class KairosDatastore implements KairosPostConstructInit
 			}
 			finally
 			{  //This must get done
-				m_queuingManager.done(m_cacheFilename);
+				m_queuingManager.done(m_queryHandle);
 			}
 		}
 	}
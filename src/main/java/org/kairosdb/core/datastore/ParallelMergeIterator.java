@@ -0,0 +1,242 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.core.datastore;
+
+import org.kairosdb.core.DataPoint;
+import org.kairosdb.util.LoserTree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+
+/**
+ Splits the sources into disjoint partitions that are each merged by a task on
+ a fork/join pool.  The tasks hand their output over in chunks through small
+ bounded queues and the partial streams are merged again on the calling thread.
+ */
+class ParallelMergeIterator implements Iterator<DataPoint>
+{
+	private static final int CHUNK_SIZE = 1024;
+	private static final int QUEUED_CHUNKS = 4;
+	private static final DataPoint[] END = new DataPoint[0];
+
+	private final List<PartitionMerge> m_partitions = new ArrayList<>();
+	private LoserTree m_merge;
+	private final Order m_order;
+
+	public ParallelMergeIterator(List<? extends Iterator<DataPoint>> sources, Order order,
+			ForkJoinPool pool, int partitionCount)
+	{
+		m_order = order;
+		int size = sources.size();
+		int partitionSize = (size + partitionCount - 1) / Math.max(1, partitionCount);
+		partitionSize = Math.max(1, partitionSize);
+
+		for (int start = 0; start < size; start += partitionSize)
+		{
+			PartitionMerge partition = new PartitionMerge(
+					new ArrayList<>(sources.subList(start, Math.min(size, start + partitionSize))), order);
+			m_partitions.add(partition);
+			pool.execute(partition);
+		}
+	}
+
+	private LoserTree getMerge()
+	{
+		//Created on first use as it waits for the first chunk of every partition
+		if (m_merge == null)
+			m_merge = new LoserTree(m_partitions, m_order);
+
+		return m_merge;
+	}
+
+	@Override
+	public boolean hasNext()
+	{
+		return getMerge().hasNext();
+	}
+
+	@Override
+	public DataPoint next()
+	{
+		return getMerge().next();
+	}
+
+	@Override
+	public void remove()
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 Stops the partition tasks and waits for them to finish so the sources can
+	 be closed.
+	 */
+	public void close()
+	{
+		for (PartitionMerge partition : m_partitions)
+			partition.cancelMerge();
+
+		for (PartitionMerge partition : m_partitions)
+			partition.quietlyJoin();
+	}
+
+	//===========================================================================
+	private static class PartitionMerge extends RecursiveAction implements Iterator<DataPoint>
+	{
+		private final List<Iterator<DataPoint>> m_sources;
+		private final Order m_order;
+		private final BlockingQueue<DataPoint[]> m_queue = new ArrayBlockingQueue<>(QUEUED_CHUNKS);
+		private volatile boolean m_closed = false;
+		private volatile Throwable m_failure;
+
+		private DataPoint[] m_chunk;
+		private int m_position;
+
+		public PartitionMerge(List<Iterator<DataPoint>> sources, Order order)
+		{
+			m_sources = sources;
+			m_order = order;
+		}
+
+		@Override
+		protected void compute()
+		{
+			try
+			{
+				LoserTree merge = new LoserTree(m_sources, m_order);
+
+				while (!m_closed && merge.hasNext())
+				{
+					DataPoint[] chunk = new DataPoint[CHUNK_SIZE];
+					int count = 0;
+					while (count < CHUNK_SIZE && merge.hasNext())
+						chunk[count++] = merge.next();
+
+					if (count < CHUNK_SIZE)
+						chunk = Arrays.copyOf(chunk, count);
+
+					put(chunk);
+				}
+			}
+			catch (Throwable t)
+			{
+				m_failure = t;
+			}
+			finally
+			{
+				put(END);
+			}
+		}
+
+		private void put(DataPoint[] chunk)
+		{
+			if (m_queue.offer(chunk))
+				return;
+
+			try
+			{
+				//Lets the pool add a thread while this one waits on the reader
+				ForkJoinPool.managedBlock(new ChunkOffer(chunk));
+			}
+			catch (InterruptedException e)
+			{
+				m_closed = true;
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		private class ChunkOffer implements ForkJoinPool.ManagedBlocker
+		{
+			private final DataPoint[] m_offeredChunk;
+			private boolean m_queued = false;
+
+			private ChunkOffer(DataPoint[] chunk)
+			{
+				m_offeredChunk = chunk;
+			}
+
+			@Override
+			public boolean block() throws InterruptedException
+			{
+				while (!m_closed && !m_queued)
+					m_queued = m_queue.offer(m_offeredChunk, 100, TimeUnit.MILLISECONDS);
+
+				return true;
+			}
+
+			@Override
+			public boolean isReleasable()
+			{
+				return m_closed || m_queued;
+			}
+		}
+
+		private void cancelMerge()
+		{
+			m_closed = true;
+			m_queue.clear();
+		}
+
+		@Override
+		public boolean hasNext()
+		{
+			if (m_chunk == END)
+				return false;
+
+			if (m_chunk != null && m_position < m_chunk.length)
+				return true;
+
+			try
+			{
+				m_chunk = m_queue.take();
+				m_position = 0;
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while merging data points", e);
+			}
+
+			if (m_chunk == END)
+			{
+				if (m_failure != null)
+					throw new IllegalStateException("Unable to merge data points", m_failure);
+
+				return false;
+			}
+
+			return true;
+		}
+
+		@Override
+		public DataPoint next()
+		{
+			if (!hasNext())
+				throw new NoSuchElementException();
+
+			return m_chunk[m_position++];
+		}
+	}
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.core.datastore;
+
+/**
+ Admission class of a query.  Each class has its own queue in
+ QueryQueuingManager and classes share the query permits by weight.
+ */
+public enum QueryClass
+{
+	INTERACTIVE,
+	BATCH;
+
+	/**
+	 Returns the class with the given name ignoring case or null if there
+	 is no such class.
+	 */
+	public static QueryClass fromName(String name)
+	{
+		if (name == null)
+			return null;
+
+		for (QueryClass queryClass : values())
+		{
+			if (queryClass.name().equalsIgnoreCase(name.trim()))
+				return queryClass;
+		}
+
+		return null;
+	}
+
+	public String getMetricName()
+	{
+		return name().toLowerCase();
+	}
+}
@@ -48,6 +48,7 @@ public class QueryMetric implements DatastoreMetricQuery
 	private List<QueryPlugin> plugins;
 	private boolean explicitTags = false;
 	private JsonObject m_jsonObj;
+	private QueryClass queryClass;
 
 	public QueryMetric(long start_time, int cacheTime, String name)
 	{
@@ -211,6 +212,20 @@ public class QueryMetric implements DatastoreMetricQuery
 		return (order);
 	}
 
+	/**
+	 Admission class used by the QueryQueuingManager, if not set the class is
+	 picked from the time range of the query.
+	 */
+	public void setQueryClass(QueryClass queryClass)
+	{
+		this.queryClass = queryClass;
+	}
+
+	public QueryClass getQueryClass()
+	{
+		return (queryClass);
+	}
+
 	@Override
 	public List<QueryPlugin> getPlugins()
 	{
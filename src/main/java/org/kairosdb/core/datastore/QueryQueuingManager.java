@@ -19,21 +19,30 @@ import com.google.inject.Inject;
 import com.google.inject.name.Named;
 import org.agileclick.genorm.runtime.Pair;
 import org.kairosdb.core.DataPointSet;
+import org.kairosdb.core.datapoints.DoubleDataPointFactoryImpl;
 import org.kairosdb.core.datapoints.LongDataPoint;
+import org.kairosdb.core.datapoints.LongDataPointFactoryImpl;
 import org.kairosdb.core.reporting.KairosMetricReporter;
+import org.kairosdb.util.SimpleStats;
+import org.kairosdb.util.SimpleStatsReporter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
 import static org.kairosdb.util.Preconditions.requireNonNullOrEmpty;
 
 public class QueryQueuingManager implements KairosMetricReporter
@@ -41,11 +50,21 @@ public class QueryQueuingManager implements KairosMetricReporter
 	public static final Logger logger = LoggerFactory.getLogger(QueryQueuingManager.class);
 	public static final String CONCURRENT_QUERY_THREAD = "kairosdb.datastore.concurrentQueryThreads";
 	public static final String QUERY_COLLISIONS_METRIC_NAME = "kairosdb.datastore.query_collisions";
+	public static final String BATCH_RANGE_HOURS = "kairosdb.datastore.query_admission.batch_range_hours";
+	public static final String INTERACTIVE_WEIGHT = "kairosdb.datastore.query_admission.interactive_weight";
+	public static final String BATCH_WEIGHT = "kairosdb.datastore.query_admission.batch_weight";
+	public static final String INTERACTIVE_MAX_QUEUED = "kairosdb.datastore.query_admission.interactive_max_queued";
+	public static final String BATCH_MAX_QUEUED = "kairosdb.datastore.query_admission.batch_max_queued";
+	public static final String ADMISSION_METRIC_PREFIX = "kairosdb.datastore.query_admission.";
 
-	private final Map<String, Pair<QueryMetric, Thread>> runningQueries = new HashMap<>();
+	private final Map<String, RunningQuery> runningQueries = new HashMap<>();
 	private final ReentrantLock lock = new ReentrantLock();
-	private final Semaphore semaphore;
+	private final ClassQueue[] classQueues;
 	private final String hostname;
+	private final SimpleStatsReporter statsReporter;
+	private int availablePermits;
+	private double virtualTime = 0.0;
+	private long batchRange = TimeUnit.DAYS.toMillis(7);
 
 	private AtomicInteger collisions = new AtomicInteger();
 
@@ -54,63 +73,313 @@ public class QueryQueuingManager implements KairosMetricReporter
 	{
 		checkArgument(concurrentQueryThreads > 0);
 		this.hostname = requireNonNullOrEmpty(hostname);
-		semaphore = new Semaphore(concurrentQueryThreads, true);
+		availablePermits = concurrentQueryThreads;
+		statsReporter = new SimpleStatsReporter(hostname, new LongDataPointFactoryImpl(), new DoubleDataPointFactoryImpl());
+
+		classQueues = new ClassQueue[QueryClass.values().length];
+		for (QueryClass queryClass : QueryClass.values())
+			classQueues[queryClass.ordinal()] = new ClassQueue(queryClass);
+
+		classQueues[QueryClass.INTERACTIVE.ordinal()].weight = 4;
+	}
+
+	/**
+	 Queries whose time range is longer than this are admitted as batch queries
+	 */
+	@Inject(optional = true)
+	public void setBatchRangeHours(@Named(BATCH_RANGE_HOURS) int hours)
+	{
+		checkArgument(hours > 0, "batch_range_hours must be greater than 0");
+		batchRange = TimeUnit.HOURS.toMillis(hours);
+	}
+
+	@Inject(optional = true)
+	public void setInteractiveWeight(@Named(INTERACTIVE_WEIGHT) int weight)
+	{
+		setWeight(QueryClass.INTERACTIVE, weight);
+	}
+
+	@Inject(optional = true)
+	public void setBatchWeight(@Named(BATCH_WEIGHT) int weight)
+	{
+		setWeight(QueryClass.BATCH, weight);
+	}
+
+	@Inject(optional = true)
+	public void setInteractiveMaxQueued(@Named(INTERACTIVE_MAX_QUEUED) int maxQueued)
+	{
+		setMaxQueued(QueryClass.INTERACTIVE, maxQueued);
+	}
+
+	@Inject(optional = true)
+	public void setBatchMaxQueued(@Named(BATCH_MAX_QUEUED) int maxQueued)
+	{
+		setMaxQueued(QueryClass.BATCH, maxQueued);
+	}
+
+	public void setWeight(QueryClass queryClass, int weight)
+	{
+		checkArgument(weight > 0, "weight must be greater than 0");
+		classQueues[queryClass.ordinal()].weight = weight;
+	}
+
+	/**
+	 @param maxQueued number of queries of this class that can wait for a
+	 permit before new ones are rejected, 0 for no limit
+	 */
+	public void setMaxQueued(QueryClass queryClass, int maxQueued)
+	{
+		checkArgument(maxQueued >= 0, "max_queued must not be negative");
+		classQueues[queryClass.ordinal()].maxQueued = maxQueued;
 	}
 
-	public void waitForTimeToRun(String queryHash, QueryMetric metric) throws InterruptedException
+	/**
+	 Queries are classified by the class set on the query or, if there is none,
+	 by the length of the time range they read.
+	 */
+	public QueryClass getQueryClass(QueryMetric metric)
 	{
-		boolean firstTime = true;
-		while(!acquireSemaphore(queryHash, metric))
+		if (metric == null)
+			return QueryClass.INTERACTIVE;
+
+		if (metric.getQueryClass() != null)
+			return metric.getQueryClass();
+
+		long endTime = Math.min(metric.getEndTime(), System.currentTimeMillis());
+		if (endTime - metric.getStartTime() > batchRange)
+			return QueryClass.BATCH;
+		else
+			return QueryClass.INTERACTIVE;
+	}
+
+	/**
+	 Waits for a permit in the queue of the query's class.  Permits are handed
+	 out by weighted fair queuing between the classes that have queries waiting
+	 so a class with weight 4 gets four permits for every one given to a class
+	 with weight 1.
+	 */
+	private void acquirePermit(QueryClass queryClass) throws InterruptedException, QueryRejectedException
+	{
+		ClassQueue queue = classQueues[queryClass.ordinal()];
+		long queuedTime = System.nanoTime();
+
+		lock.lock();
+		try
 		{
-			if (firstTime)
+			if (availablePermits > 0 && getWaitingCountLocked() == 0)
+			{
+				availablePermits --;
+				queue.waitTimeStats.addValue(0);
+				return;
+			}
+
+			if (queue.maxQueued != 0 && queue.waiters.size() >= queue.maxQueued)
+			{
+				queue.rejections.incrementAndGet();
+				throw new QueryRejectedException("Too many " + queryClass.getMetricName() + " queries waiting to run");
+			}
+
+			//A class that was idle starts from the current virtual time so it
+			//cannot use up credit it built while idle
+			if (queue.waiters.isEmpty())
+				queue.pass = Math.max(queue.pass, virtualTime);
+
+			Waiter waiter = new Waiter(lock.newCondition());
+			queue.waiters.add(waiter);
+			try
 			{
-				collisions.incrementAndGet();
-				firstTime = false;
+				while (!waiter.granted)
+					waiter.condition.await();
 			}
-			Thread.sleep(100);
+			catch (InterruptedException e)
+			{
+				if (waiter.granted)
+					releasePermitLocked();
+				else
+					queue.waiters.remove(waiter);
+				throw e;
+			}
+
+			queue.waitTimeStats.addValue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - queuedTime));
+		}
+		finally
+		{
+			lock.unlock();
 		}
 	}
 
-	public void done(String queryHash)
+	private void releasePermit()
 	{
 		lock.lock();
 		try
 		{
-			runningQueries.remove(queryHash);
+			releasePermitLocked();
 		}
 		finally
 		{
 			lock.unlock();
 		}
-		semaphore.release();
 	}
 
-	private boolean acquireSemaphore(String queryHash, QueryMetric metric) throws InterruptedException
+	private void releasePermitLocked()
+	{
+		availablePermits ++;
+
+		while (availablePermits > 0)
+		{
+			ClassQueue next = null;
+			for (ClassQueue queue : classQueues)
+			{
+				if (!queue.waiters.isEmpty() && (next == null || queue.pass < next.pass))
+					next = queue;
+			}
+
+			if (next == null)
+				break;
+
+			virtualTime = next.pass;
+			next.pass += 1.0 / next.weight;
+
+			Waiter waiter = next.waiters.poll();
+			waiter.granted = true;
+			availablePermits --;
+			waiter.condition.signal();
+		}
+	}
+
+	private int getWaitingCountLocked()
+	{
+		int count = 0;
+		for (ClassQueue queue : classQueues)
+			count += queue.waiters.size();
+
+		return count;
+	}
+
+	/**
+	 Waits for a permit to run the query.  If an identical query is already
+	 running the caller joins it instead of taking a permit and must wait for
+	 the leader's result with {@link QueryHandle#awaitResult()}.
+	 */
+	public QueryHandle waitForTimeToRun(String queryHash, QueryMetric metric)
+			throws InterruptedException, QueryRejectedException
 	{
-		semaphore.acquire();
+		QueryHandle follower = joinRunningQuery(queryHash);
+		if (follower != null)
+			return follower;
+
+		acquirePermit(getQueryClass(metric));
 
-		boolean hashConflict = false;
 		lock.lock();
 		try
 		{
-			hashConflict = runningQueries.containsKey(queryHash);
-			if (!hashConflict)
+			//Another thread may have started the same query while we waited
+			follower = joinRunningQuery(queryHash);
+			if (follower != null)
 			{
-				runningQueries.put(queryHash, new Pair<>(metric, Thread.currentThread()));
+				releasePermitLocked();
+				return follower;
 			}
+
+			RunningQuery runningQuery = new RunningQuery(metric, Thread.currentThread());
+			runningQueries.put(queryHash, runningQuery);
+			return new QueryHandle(queryHash, runningQuery, true);
 		}
 		finally
 		{
 			lock.unlock();
 		}
+	}
 
-		if (hashConflict)
+	private QueryHandle joinRunningQuery(String queryHash)
+	{
+		lock.lock();
+		try
 		{
-			semaphore.release();
-			return false;
+			RunningQuery runningQuery = runningQueries.get(queryHash);
+			if (runningQuery == null)
+				return null;
+
+			runningQuery.followers ++;
+			collisions.incrementAndGet();
+			return new QueryHandle(queryHash, runningQuery, false);
+		}
+		finally
+		{
+			lock.unlock();
 		}
-		else
-			return true;
+	}
+
+	/**
+	 Stops new queries from joining the leader's query and returns the
+	 running query so it can be completed.
+	 */
+	private RunningQuery removeRunningQuery(QueryHandle handle)
+	{
+		lock.lock();
+		try
+		{
+			if (runningQueries.get(handle.queryHash) == handle.runningQuery)
+				runningQueries.remove(handle.queryHash);
+		}
+		finally
+		{
+			lock.unlock();
+		}
+
+		return handle.runningQuery;
+	}
+
+	/**
+	 Hands the leader's result to every query that joined it.  A reference is
+	 retained on the result for each follower, the leader still owns its own
+	 reference.
+	 */
+	public void publish(QueryHandle leader, SharedSearchResult result)
+	{
+		checkArgument(leader.isLeader());
+		RunningQuery runningQuery = removeRunningQuery(leader);
+
+		lock.lock();
+		try
+		{
+			for (int i = 0; i < runningQuery.followers; i++)
+				result.retain();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+
+		if (!runningQuery.result.complete(result))
+		{
+			//Already completed, give back the references
+			for (int i = 0; i < runningQuery.followers; i++)
+				result.release();
+		}
+	}
+
+	/**
+	 Fails every query that joined the leader with the leader's error.
+	 */
+	public void fail(QueryHandle leader, Throwable error)
+	{
+		checkArgument(leader.isLeader());
+		removeRunningQuery(leader).result.completeExceptionally(error);
+	}
+
+	/**
+	 Must be called once the query is finished with its results.  Releases the
+	 permit held by a leader, calling done more than once has no effect.
+	 */
+	public void done(QueryHandle handle)
+	{
+		if (!handle.isLeader() || handle.done.getAndSet(true))
+			return;
+
+		//Followers of a leader that never produced a result run the query themselves
+		removeRunningQuery(handle).result.complete(null);
+		releasePermit();
 	}
 
 	public ArrayList<Pair<String, QueryMetric>> getRunningQueries()
@@ -121,7 +390,7 @@ public class QueryQueuingManager implements KairosMetricReporter
 		{
 			for (String key : runningQueries.keySet())
 			{
-				runningQueriesList.add(new Pair<String, QueryMetric>(key, runningQueries.get(key).getFirst()));
+				runningQueriesList.add(new Pair<String, QueryMetric>(key, runningQueries.get(key).metric));
 			}
 		}
 		finally
@@ -138,7 +407,7 @@ public class QueryQueuingManager implements KairosMetricReporter
 		{
 			if (runningQueries.get(queryHash) != null)
 			{
-				runningQueries.get(queryHash).getSecond().interrupt();    // Call interrupt on Thread associated with provided query hash
+				runningQueries.get(queryHash).thread.interrupt();    // Call interrupt on Thread associated with provided query hash
 			}
 		}
 		finally
@@ -149,21 +418,151 @@ public class QueryQueuingManager implements KairosMetricReporter
 
 	public int getQueryWaitingCount()
 	{
-		return semaphore.getQueueLength();
+		lock.lock();
+		try
+		{
+			return getWaitingCountLocked();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	public int getQueryWaitingCount(QueryClass queryClass)
+	{
+		lock.lock();
+		try
+		{
+			return classQueues[queryClass.ordinal()].waiters.size();
+		}
+		finally
+		{
+			lock.unlock();
+		}
 	}
 
 	public int getAvailableThreads()
 	{
-		return semaphore.availablePermits();
+		lock.lock();
+		try
+		{
+			return availablePermits;
+		}
+		finally
+		{
+			lock.unlock();
+		}
 	}
 
 	@Override
 	public List<DataPointSet> getMetrics(long now)
 	{
+		List<DataPointSet> ret = new ArrayList<>();
+
 		DataPointSet collisionSet = new DataPointSet(QUERY_COLLISIONS_METRIC_NAME);
 		collisionSet.addTag("host", hostname);
 		collisionSet.addDataPoint(new LongDataPoint(System.currentTimeMillis(), collisions.getAndSet(0)));
+		ret.add(collisionSet);
+
+		for (ClassQueue queue : classQueues)
+		{
+			String prefix = ADMISSION_METRIC_PREFIX + queue.queryClass.getMetricName();
+			statsReporter.reportStats(queue.waitTimeStats.getAndClear(), now, prefix + ".wait_time_ms", ret);
+			statsReporter.reportValue(queue.rejections.getAndSet(0), now, prefix + ".rejections", ret);
+		}
+
+		return ret;
+	}
+
+	private static class RunningQuery
+	{
+		private final QueryMetric metric;
+		private final Thread thread;
+		private final CompletableFuture<SharedSearchResult> result = new CompletableFuture<>();
+		private int followers = 0;
+
+		private RunningQuery(QueryMetric metric, Thread thread)
+		{
+			this.metric = metric;
+			this.thread = thread;
+		}
+	}
 
-		return Collections.singletonList(collisionSet);
+	/**
+	 Returned to each caller of waitForTimeToRun.  The leader runs the query
+	 and publishes the result, followers wait for it.
+	 */
+	public static class QueryHandle
+	{
+		private final String queryHash;
+		private final RunningQuery runningQuery;
+		private final boolean leader;
+		private final AtomicBoolean done = new AtomicBoolean();
+
+		private QueryHandle(String queryHash, RunningQuery runningQuery, boolean leader)
+		{
+			this.queryHash = queryHash;
+			this.runningQuery = runningQuery;
+			this.leader = leader;
+		}
+
+		public boolean isLeader()
+		{
+			return leader;
+		}
+
+		/**
+		 Waits for the leader to finish.  The caller owns a reference to the
+		 returned result and must release it.
+
+		 @return the leader's result or null if the leader finished without one
+		 in which case the caller should run the query itself
+		 */
+		public SharedSearchResult awaitResult() throws InterruptedException, ExecutionException
+		{
+			checkState(!leader, "The leader does not wait for a result");
+			try
+			{
+				return runningQuery.result.get();
+			}
+			catch (InterruptedException e)
+			{
+				//The leader retained a reference for us, give it back once published
+				runningQuery.result.thenAccept(result ->
+				{
+					if (result != null)
+						result.release();
+				});
+				throw e;
+			}
+		}
+	}
+
+	private static class ClassQueue
+	{
+		private final QueryClass queryClass;
+		private final ArrayDeque<Waiter> waiters = new ArrayDeque<>();
+		private final SimpleStats waitTimeStats = new SimpleStats();
+		private final AtomicInteger rejections = new AtomicInteger();
+		private int weight = 1;
+		private int maxQueued = 0;
+		private double pass = 0.0;
+
+		private ClassQueue(QueryClass queryClass)
+		{
+			this.queryClass = queryClass;
+		}
+	}
+
+	private static class Waiter
+	{
+		private final Condition condition;
+		private boolean granted = false;
+
+		private Waiter(Condition condition)
+		{
+			this.condition = condition;
+		}
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,406 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.core.datastore;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.kairosdb.core.DataPoint;
+import org.kairosdb.core.DataPointSet;
+import org.kairosdb.core.KairosDataPointFactory;
+import org.kairosdb.core.datapoints.DataPointFactory;
+import org.kairosdb.core.datapoints.DoubleDataPointFactory;
+import org.kairosdb.core.datapoints.DoubleDataPointFactoryImpl;
+import org.kairosdb.core.datapoints.LongDataPointFactory;
+import org.kairosdb.core.datapoints.LongDataPointFactoryImpl;
+import org.kairosdb.core.reporting.KairosMetricReporter;
+import org.kairosdb.util.KDataInput;
+import org.kairosdb.util.SimpleStatsReporter;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ Heap tier that sits in front of the file based query cache.  Entries are
+ keyed by the same hash used for the cache file name and hold the rows of
+ a query as primitive arrays so they can be handed to any number of queries
+ without sharing DataPoint objects.
+
+ The cache is bounded by a byte budget, entries expire after the cache_time
+ of the query that created them.  A single query may use at most 1/8th of
+ the budget so one large query cannot flush out all the dashboard queries.
+ */
+public class QueryResultCache implements KairosMetricReporter
+{
+	public static final String MEMORY_CACHE_BYTES = "kairosdb.query_cache.memory_cache_bytes";
+
+	public static final String HIT_METRIC = "kairosdb.query_cache.memory.hits";
+	public static final String MISS_METRIC = "kairosdb.query_cache.memory.misses";
+	public static final String EVICTION_METRIC = "kairosdb.query_cache.memory.evictions";
+	public static final String SIZE_METRIC = "kairosdb.query_cache.memory.size_bytes";
+
+	private static final int ROW_OVERHEAD = 128;
+	private static final int TAG_OVERHEAD = 64;
+
+	private final KairosDataPointFactory m_dataPointFactory;
+	private final long m_maxEntryBytes;
+	private final Cache<String, CacheEntry> m_cache;
+
+	private final AtomicLong m_hits = new AtomicLong();
+	private final AtomicLong m_misses = new AtomicLong();
+	private final AtomicLong m_evictions = new AtomicLong();
+	private final AtomicLong m_size = new AtomicLong();
+
+	@Inject
+	private SimpleStatsReporter m_simpleStatsReporter = new SimpleStatsReporter();
+
+	@Inject
+	public QueryResultCache(KairosDataPointFactory dataPointFactory,
+			@Named(MEMORY_CACHE_BYTES) long maxBytes)
+	{
+		checkArgument(maxBytes >= 0, "memory_cache_bytes must not be negative");
+
+		m_dataPointFactory = dataPointFactory;
+		m_maxEntryBytes = maxBytes / 8;
+
+		if (maxBytes == 0)
+			m_cache = null;
+		else
+			m_cache = CacheBuilder.newBuilder()
+					.maximumWeight(maxBytes)
+					.weigher((String key, CacheEntry entry) -> entry.m_bytes)
+					.removalListener(notification -> {
+						m_size.addAndGet(-notification.getValue().m_bytes);
+						if (notification.wasEvicted())
+							m_evictions.incrementAndGet();
+					})
+					.build();
+	}
+
+	public boolean isEnabled()
+	{
+		return m_cache != null;
+	}
+
+	/**
+	 Returns the cached result of a query or null if the query is not in the
+	 cache or has expired.  Each call to the returned supplier creates a new
+	 set of rows over the cached data.
+	 */
+	public Supplier<List<DataPointRow>> getResult(String key)
+	{
+		if (m_cache == null)
+			return null;
+
+		CacheEntry entry = m_cache.getIfPresent(key);
+		if (entry != null && entry.m_expires <= System.currentTimeMillis())
+		{
+			m_cache.invalidate(key);
+			m_evictions.incrementAndGet();
+			entry = null;
+		}
+
+		if (entry == null)
+		{
+			m_misses.incrementAndGet();
+			return null;
+		}
+
+		m_hits.incrementAndGet();
+		return entry;
+	}
+
+	/**
+	 Adds the rows of a query to the cache.  If the rows are small enough to be
+	 cached they are read and closed and the cached result is returned,
+	 otherwise null is returned and the rows are left untouched.
+
+	 @param cacheTime number of seconds the entry is valid for
+	 */
+	public Supplier<List<DataPointRow>> putRows(String key, int cacheTime, List<DataPointRow> rows) throws IOException
+	{
+		if (m_cache == null || cacheTime <= 0)
+			return null;
+
+		long estimate = 0;
+		for (DataPointRow row : rows)
+			estimate += ROW_OVERHEAD + (long)row.getDataPointCount() * 16;
+
+		if (estimate > m_maxEntryBytes)
+			return null;
+
+		List<CachedRow> cachedRows = new ArrayList<>(rows.size());
+		long bytes = 0;
+		try
+		{
+			for (DataPointRow row : rows)
+			{
+				CachedRow cachedRow = new CachedRow(row);
+				bytes += cachedRow.m_bytes;
+				cachedRows.add(cachedRow);
+			}
+		}
+		finally
+		{
+			for (DataPointRow row : rows)
+				row.close();
+		}
+
+		CacheEntry entry = new CacheEntry(cachedRows, (int)Math.min(bytes, Integer.MAX_VALUE),
+				System.currentTimeMillis() + cacheTime * 1000L);
+
+		if (bytes <= m_maxEntryBytes)
+		{
+			m_size.addAndGet(entry.m_bytes);
+			m_cache.put(key, entry);
+		}
+
+		return entry;
+	}
+
+	@Override
+	public List<DataPointSet> getMetrics(long now)
+	{
+		List<DataPointSet> ret = new ArrayList<>();
+
+		if (m_cache == null)
+			return ret;
+
+		m_simpleStatsReporter.reportValue(m_hits.getAndSet(0), now, HIT_METRIC, ret);
+		m_simpleStatsReporter.reportValue(m_misses.getAndSet(0), now, MISS_METRIC, ret);
+		m_simpleStatsReporter.reportValue(m_evictions.getAndSet(0), now, EVICTION_METRIC, ret);
+		m_simpleStatsReporter.reportValue(m_size.get(), now, SIZE_METRIC, ret);
+
+		return ret;
+	}
+
+	//===========================================================================
+	private class CacheEntry implements Supplier<List<DataPointRow>>
+	{
+		private final List<CachedRow> m_rows;
+		private final int m_bytes;
+		private final long m_expires;
+
+		private CacheEntry(List<CachedRow> rows, int bytes, long expires)
+		{
+			m_rows = rows;
+			m_bytes = bytes;
+			m_expires = expires;
+		}
+
+		@Override
+		public List<DataPointRow> get()
+		{
+			List<DataPointRow> ret = new ArrayList<>(m_rows.size());
+			for (CachedRow row : m_rows)
+				ret.add(new CachedDataPointRow(row));
+
+			return ret;
+		}
+	}
+
+	//===========================================================================
+	/**
+	 Copy of a row.  kairos_long and kairos_double rows keep their values in a
+	 primitive array, every other type keeps the bytes from writeValueToBuffer.
+	 */
+	private class CachedRow
+	{
+		private final String m_name;
+		private final String m_dataType;
+		private final Map<String, String> m_tags;
+		private final long[] m_timestamps;
+		private final long[] m_longValues;
+		private final double[] m_doubleValues;
+		private final byte[] m_values;
+		private final DataPointFactory m_factory;
+		private final long m_bytes;
+
+		private CachedRow(DataPointRow row) throws IOException
+		{
+			m_name = row.getName();
+			m_dataType = row.getDatastoreType();
+			m_factory = m_dataPointFactory.getFactoryForDataStoreType(m_dataType);
+
+			long bytes = ROW_OVERHEAD;
+			m_tags = new HashMap<>();
+			for (String tagName : row.getTagNames())
+			{
+				String value = row.getTagValue(tagName);
+				m_tags.put(tagName, value);
+				bytes += TAG_OVERHEAD + (tagName.length() + value.length()) * 2;
+			}
+
+			int count = row.getDataPointCount();
+			long[] timestamps = new long[count];
+
+			boolean longRow = LongDataPointFactoryImpl.DST_LONG.equals(m_dataType) && m_factory instanceof LongDataPointFactory;
+			boolean doubleRow = DoubleDataPointFactoryImpl.DST_DOUBLE.equals(m_dataType) && m_factory instanceof DoubleDataPointFactory;
+
+			long[] longValues = longRow ? new long[count] : null;
+			double[] doubleValues = doubleRow ? new double[count] : null;
+			ByteArrayOutputStream valueBytes = null;
+			DataOutputStream valueOut = null;
+			if (!longRow && !doubleRow)
+			{
+				valueBytes = new ByteArrayOutputStream();
+				valueOut = new DataOutputStream(valueBytes);
+			}
+
+			int index = 0;
+			while (row.hasNext() && index < count)
+			{
+				DataPoint dataPoint = row.next();
+				timestamps[index] = dataPoint.getTimestamp();
+
+				if (longRow)
+					longValues[index] = dataPoint.getLongValue();
+				else if (doubleRow)
+					doubleValues[index] = dataPoint.getDoubleValue();
+				else
+					dataPoint.writeValueToBuffer(valueOut);
+
+				index ++;
+			}
+
+			if (index < count)
+			{
+				timestamps = Arrays.copyOf(timestamps, index);
+				if (longValues != null)
+					longValues = Arrays.copyOf(longValues, index);
+				if (doubleValues != null)
+					doubleValues = Arrays.copyOf(doubleValues, index);
+			}
+
+			m_timestamps = timestamps;
+			m_longValues = longValues;
+			m_doubleValues = doubleValues;
+			bytes += index * 8L;
+			if (valueBytes != null)
+			{
+				m_values = valueBytes.toByteArray();
+				bytes += m_values.length;
+			}
+			else
+			{
+				m_values = null;
+				bytes += index * 8L;
+			}
+
+			m_bytes = bytes;
+		}
+	}
+
+	//===========================================================================
+	private class CachedDataPointRow implements DataPointRow
+	{
+		private final CachedRow m_row;
+		private final KDataInput m_valueInput;
+		private int m_index = 0;
+
+		private CachedDataPointRow(CachedRow row)
+		{
+			m_row = row;
+			m_valueInput = row.m_values == null ? null : KDataInput.createInput(row.m_values);
+		}
+
+		@Override
+		public boolean hasNext()
+		{
+			return m_index < m_row.m_timestamps.length;
+		}
+
+		@Override
+		public DataPoint next()
+		{
+			long timestamp = m_row.m_timestamps[m_index];
+			DataPoint ret;
+
+			if (m_row.m_longValues != null)
+				ret = ((LongDataPointFactory)m_row.m_factory).createDataPoint(timestamp, m_row.m_longValues[m_index]);
+			else if (m_row.m_doubleValues != null)
+				ret = ((DoubleDataPointFactory)m_row.m_factory).createDataPoint(timestamp, m_row.m_doubleValues[m_index]);
+			else
+			{
+				try
+				{
+					ret = m_dataPointFactory.createDataPoint(m_row.m_dataType, timestamp, m_valueInput);
+				}
+				catch (IOException e)
+				{
+					throw new IllegalStateException("Unable to read cached data point", e);
+				}
+			}
+
+			m_index ++;
+			return ret;
+		}
+
+		@Override
+		public void remove()
+		{
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public String getName()
+		{
+			return m_row.m_name;
+		}
+
+		@Override
+		public String getDatastoreType()
+		{
+			return m_row.m_dataType;
+		}
+
+		@Override
+		public Set<String> getTagNames()
+		{
+			return m_row.m_tags.keySet();
+		}
+
+		@Override
+		public String getTagValue(String tag)
+		{
+			return m_row.m_tags.get(tag);
+		}
+
+		@Override
+		public void close()
+		{
+		}
+
+		@Override
+		public int getDataPointCount()
+		{
+			return m_row.m_timestamps.length;
+		}
+	}
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.core.datastore;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ Result of a query that is shared with identical queries that joined it while
+ it was running.  Each query that holds a reference calls getRows once and
+ then release.  When the last reference is released the underlying result is
+ closed, rows that were handed out keep it open until they are closed.
+ */
+public class SharedSearchResult
+{
+	private final Supplier<List<DataPointRow>> m_rows;
+	private final Runnable m_onRelease;
+	private int m_references = 1;
+
+	/**
+	 @param rows returns a new set of rows each time it is called
+	 @param onRelease called once the last reference is released, may be null
+	 */
+	public SharedSearchResult(Supplier<List<DataPointRow>> rows, Runnable onRelease)
+	{
+		m_rows = requireNonNull(rows);
+		m_onRelease = onRelease;
+	}
+
+	public List<DataPointRow> getRows()
+	{
+		return m_rows.get();
+	}
+
+	public synchronized void retain()
+	{
+		if (m_references == 0)
+			throw new IllegalStateException("Result has already been released");
+
+		m_references ++;
+	}
+
+	public void release()
+	{
+		synchronized (this)
+		{
+			if (m_references == 0)
+				throw new IllegalStateException("Result has already been released");
+
+			m_references --;
+			if (m_references != 0)
+				return;
+		}
+
+		if (m_onRelease != null)
+			m_onRelease.run();
+	}
+}
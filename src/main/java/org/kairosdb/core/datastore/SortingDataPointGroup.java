@@ -18,22 +18,34 @@ package org.kairosdb.core.datastore;
 
 import org.kairosdb.core.DataPoint;
 import org.kairosdb.core.groupby.GroupByResult;
-import org.kairosdb.util.TournamentTree;
+import org.kairosdb.util.LoserTree;
 
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
+/**
+ Merges the data points of several groups into one time ordered group.  The
+ merge is set up on the first call to hasNext or next.  When parallel merging
+ is enabled and there are at least as many groups as the row threshold, the
+ groups are merged in partitions on a fork/join pool.
+ */
 public class SortingDataPointGroup extends AbstractDataPointGroup
 {
-	private TournamentTree<DataPoint> m_tree;
+	private final Order m_order;
+	private Iterator<DataPoint> m_merge;
 	//We keep this list so we can close the iterators
 	private List<DataPointGroup> m_taggedDataPointsList = new ArrayList<>();
 
+	private ForkJoinPool m_mergePool;
+	private int m_parallelRowThreshold;
+	private int m_partitions;
+
 	public SortingDataPointGroup(String name, Order order)
 	{
 		super(name);
-		m_tree = new TournamentTree<>(new DataPointComparator(), order);
+		m_order = order;
 	}
 
 	public SortingDataPointGroup(List<DataPointGroup> listDataPointGroup, Order order)
@@ -57,15 +69,49 @@ public class SortingDataPointGroup extends AbstractDataPointGroup
 
 	public void addIterator(DataPointGroup taggedDataPoints)
 	{
-		m_tree.addIterator(taggedDataPoints);
+		if (m_merge != null)
+			throw new IllegalStateException("Iterators cannot be added after the merge has started");
+
 		addTags(taggedDataPoints);
 		m_taggedDataPointsList.add(taggedDataPoints);
 	}
 
+	/**
+	 Merges the groups in partitions on the pool if there are at least
+	 rowThreshold groups.
+
+	 @param pool pool running the partition merges
+	 @param rowThreshold minimum number of groups to merge in parallel, 0 turns parallel merging off
+	 @param partitions number of partitions the groups are split into
+	 */
+	public void setParallelMerge(ForkJoinPool pool, int rowThreshold, int partitions)
+	{
+		m_mergePool = pool;
+		m_parallelRowThreshold = rowThreshold;
+		m_partitions = partitions;
+	}
+
+	private Iterator<DataPoint> getMerge()
+	{
+		if (m_merge == null)
+		{
+			int rowCount = m_taggedDataPointsList.size();
+			if (m_mergePool != null && m_parallelRowThreshold > 0 && m_partitions > 1 &&
+					rowCount >= m_parallelRowThreshold)
+				m_merge = new ParallelMergeIterator(m_taggedDataPointsList, m_order, m_mergePool, m_partitions);
+			else
+				m_merge = new LoserTree(m_taggedDataPointsList, m_order);
+		}
+
+		return m_merge;
+	}
 
 	@Override
 	public void close()
 	{
+		if (m_merge instanceof ParallelMergeIterator)
+			((ParallelMergeIterator) m_merge).close();
+
 		for (DataPointGroup taggedDataPoints : m_taggedDataPointsList)
 		{
 			taggedDataPoints.close();
@@ -75,32 +121,12 @@ public class SortingDataPointGroup extends AbstractDataPointGroup
 	@Override
 	public boolean hasNext()
 	{
-		return m_tree.hasNext();
+		return getMerge().hasNext();
 	}
 
 	@Override
 	public DataPoint next()
 	{
-		return m_tree.nextElement();
-	}
-
-
-	private static class DataPointComparator implements Comparator<DataPoint>
-	{
-		@Override
-		public int compare(DataPoint point1, DataPoint point2)
-		{
-			long ret = point1.getTimestamp() - point2.getTimestamp();
-
-			if (ret == 0L)
-				ret = Double.compare(point1.getDoubleValue(), point2.getDoubleValue());
-
-			if (ret == 0L)
-			{  //Simple hack to break a tie.
-				ret = System.identityHashCode(point1) - System.identityHashCode(point2);
-			}
-
-			return (ret < 0L ? -1 : 1);
-		}
+		return getMerge().next();
 	}
 }
@@ -19,6 +19,8 @@ package org.kairosdb.core.formatter;
 import org.json.JSONException;
 import org.json.JSONWriter;
 import org.kairosdb.core.DataPoint;
+import org.kairosdb.core.datastore.BlockDataPointGroup;
+import org.kairosdb.core.datastore.DataPointBlock;
 import org.kairosdb.core.datastore.DataPointGroup;
 import org.kairosdb.core.groupby.GroupByResult;
 
@@ -61,6 +63,7 @@ public class JsonFormatter implements DataFormatter
 		try
 		{
 			JSONWriter jsonWriter = new JSONWriter(writer);
+			DataPointBlock block = null;
 
 			jsonWriter.object().key("queries").array();
 
@@ -100,6 +103,12 @@ public class JsonFormatter implements DataFormatter
 					jsonWriter.endObject();
 
 					jsonWriter.key("values").array();
+					if (JsonResponse.isBuiltInBlockGroup(group))
+					{
+						if (block == null)
+							block = new DataPointBlock();
+						JsonResponse.writeBlockValues(jsonWriter, (BlockDataPointGroup) group, block);
+					}
 					while (group.hasNext())
 					{
 						DataPoint dataPoint = group.next();
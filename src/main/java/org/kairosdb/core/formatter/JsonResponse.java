@@ -20,6 +20,10 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONWriter;
 import org.kairosdb.core.DataPoint;
+import org.kairosdb.core.datapoints.DoubleDataPointFactoryImpl;
+import org.kairosdb.core.datapoints.LongDataPointFactoryImpl;
+import org.kairosdb.core.datastore.BlockDataPointGroup;
+import org.kairosdb.core.datastore.DataPointBlock;
 import org.kairosdb.core.datastore.DataPointGroup;
 import org.kairosdb.core.groupby.GroupByResult;
 
@@ -31,6 +35,7 @@ public class JsonResponse
 {
 	private Writer m_writer;
 	private JSONWriter m_jsonWriter;
+	private DataPointBlock m_block;
 
 	public JsonResponse(Writer writer)
 	{
@@ -112,14 +117,23 @@ public class JsonResponse
 				}
 
 				m_jsonWriter.key("values").array();
-				while (group.hasNext())
+				if (isBuiltInBlockGroup(group))
 				{
-					DataPoint dataPoint = group.next();
+					if (m_block == null)
+						m_block = new DataPointBlock();
+					writeBlockValues(m_jsonWriter, (BlockDataPointGroup) group, m_block);
+				}
+				else
+				{
+					while (group.hasNext())
+					{
+						DataPoint dataPoint = group.next();
 
-					m_jsonWriter.array().value(dataPoint.getTimestamp());
-					dataPoint.writeValueToJson(m_jsonWriter);
+						m_jsonWriter.array().value(dataPoint.getTimestamp());
+						dataPoint.writeValueToJson(m_jsonWriter);
 
-					m_jsonWriter.endArray();
+						m_jsonWriter.endArray();
+					}
 				}
 				m_jsonWriter.endArray();
 				m_jsonWriter.endObject();
@@ -139,6 +153,50 @@ public class JsonResponse
 		}
 	}
 
+	/**
+	 Returns true if the group hands out blocks of the built in long or double
+	 data points.  Values of any other type are written by the data point
+	 itself with writeValueToJson.
+	 */
+	static boolean isBuiltInBlockGroup(DataPointGroup group)
+	{
+		if (!(group instanceof BlockDataPointGroup))
+			return false;
+
+		String dataStoreType = ((BlockDataPointGroup) group).getDataStoreType();
+		return LongDataPointFactoryImpl.DST_LONG.equals(dataStoreType) ||
+				DoubleDataPointFactoryImpl.DST_DOUBLE.equals(dataStoreType);
+	}
+
+	/**
+	 Writes the values of a group that hands out blocks of primitives, same
+	 output as writeValueToJson on LongDataPoint and DoubleDataPoint.
+	 */
+	static void writeBlockValues(JSONWriter jsonWriter, BlockDataPointGroup group,
+			DataPointBlock block) throws JSONException
+	{
+		while (group.readBlock(block) != 0)
+		{
+			for (int i = 0; i < block.size(); i++)
+			{
+				jsonWriter.array().value(block.getTimestamp(i));
+
+				if (block.isLong(i))
+					jsonWriter.value(block.getLongValue(i));
+				else
+				{
+					double value = block.getDoubleValue(i);
+					if (value != value || Double.isInfinite(value))
+						throw new IllegalStateException("NaN or Infinity:" + value + " data point=" + group.getName());
+
+					jsonWriter.value(value);
+				}
+
+				jsonWriter.endArray();
+			}
+		}
+	}
+
 	public void end() throws FormatterException
 	{
 		try
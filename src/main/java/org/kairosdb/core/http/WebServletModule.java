@@ -28,6 +28,7 @@ import org.kairosdb.core.http.rest.AdminResource;
 import org.kairosdb.core.http.rest.FeaturesResource;
 import org.kairosdb.core.http.rest.MetadataResource;
 import org.kairosdb.core.http.rest.MetricsResource;
+import org.kairosdb.core.http.rest.QueryExecutorService;
 
 public class WebServletModule extends JerseyServletModule
 {
@@ -77,6 +78,7 @@ public class WebServletModule extends JerseyServletModule
 
 		//Bind resource classes here
 		bind(MetricsResource.class).in(Scopes.SINGLETON);
+		bind(QueryExecutorService.class).in(Scopes.SINGLETON);
 		bind(MetadataResource.class).in(Scopes.SINGLETON);
 		bind(FeaturesResource.class).in(Scopes.SINGLETON);
 		bind(AdminResource.class).in(Scopes.SINGLETON);
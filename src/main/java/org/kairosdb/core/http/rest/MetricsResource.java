@@ -18,6 +18,7 @@ package org.kairosdb.core.http.rest;
 
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Iterables;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonIOException;
@@ -25,8 +26,10 @@ import com.google.gson.JsonSyntaxException;
 import com.google.gson.stream.MalformedJsonException;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
+import net.jpountz.lz4.LZ4BlockInputStream;
 import org.kairosdb.core.DataPointSet;
 import org.kairosdb.core.KairosDataPointFactory;
+import org.kairosdb.core.SeriesRegistry;
 import org.kairosdb.core.datapoints.LongDataPointFactory;
 import org.kairosdb.core.datapoints.LongDataPointFactoryImpl;
 import org.kairosdb.core.datapoints.StringDataPointFactory;
@@ -38,6 +41,7 @@ import org.kairosdb.core.formatter.FormatterException;
 import org.kairosdb.core.formatter.JsonFormatter;
 import org.kairosdb.core.formatter.JsonResponse;
 import org.kairosdb.core.http.rest.json.*;
+import org.kairosdb.core.queue.QueueProcessor;
 import org.kairosdb.core.reporting.KairosMetricReporter;
 import org.kairosdb.core.reporting.ThreadReporter;
 import org.kairosdb.eventbus.FilterEventBus;
@@ -56,6 +60,9 @@ import javax.ws.rs.core.*;
 import java.io.*;
 import java.nio.charset.Charset;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.GZIPInputStream;
 
@@ -86,7 +93,12 @@ public class MetricsResource implements KairosMetricReporter
 	public static final String INGEST_COUNT = "kairosdb.http.ingest_count";
 	public static final String INGEST_TIME = "kairosdb.http.ingest_time";
 
+	public static final String QUERY_STREAM_RESPONSE = "kairosdb.queries.stream_response";
+
 	public static final String QUERY_URL = "/datapoints/query";
+	public static final String QUERY_CLASS_HEADER = "X-Kairos-Query-Class";
+	public static final String DURABLE_ACK = "kairosdb.queue_processor.durable_ack";
+	public static final String DURABLE_HEADER = "X-Kairos-Durable";
 
 	private final KairosDatastore datastore;
 	private final Publisher<DataPointEvent> m_publisher;
@@ -146,6 +158,27 @@ public class MetricsResource implements KairosMetricReporter
 	//Used for setting which API methods are enabled
 	private EnumSet<ServerType> m_serverType = EnumSet.of(ServerType.INGEST, ServerType.QUERY, ServerType.DELETE);
 
+	@Inject(optional = true)
+	@VisibleForTesting
+	void setStreamResponse(@Named(QUERY_STREAM_RESPONSE) boolean streamResponse)
+	{
+		m_streamResponse = streamResponse;
+	}
+
+	@Inject(optional = true)
+	@VisibleForTesting
+	void setDurableAck(@Named(DURABLE_ACK) boolean durableAck)
+	{
+		m_durableAck = durableAck;
+	}
+
+	@Inject(optional = true)
+	@VisibleForTesting
+	void setQueueProcessor(QueueProcessor queueProcessor)
+	{
+		m_queueProcessor = queueProcessor;
+	}
+
 	@Inject(optional = true)
 	@VisibleForTesting
 	void setServerType(@Named("kairosdb.server.type") String serverType)
@@ -168,6 +201,20 @@ public class MetricsResource implements KairosMetricReporter
 	@Inject
 	private SimpleStatsReporter m_simpleStatsReporter = new SimpleStatsReporter();
 
+	private boolean m_streamResponse = false;
+
+	//Respond to /datapoints only after the data is on disk
+	private boolean m_durableAck = false;
+
+	private QueueProcessor m_queueProcessor = null;
+
+	@Inject(optional = true)
+	private SeriesRegistry m_seriesRegistry = new SeriesRegistry();
+
+	//When not set the metrics in a query are run one after another
+	@Inject(optional = true)
+	private QueryExecutorService m_queryExecutorService = null;
+
 	@Inject
 	public MetricsResource(KairosDatastore datastore, QueryParser queryParser,
 			KairosDataPointFactory dataPointFactory, FilterEventBus eventBus)
@@ -246,11 +293,19 @@ public class MetricsResource implements KairosMetricReporter
 	@GET
 	@Produces(MediaType.APPLICATION_JSON + "; charset=UTF-8")
 	@Path("/metricnames")
-	public Response getMetricNames(@QueryParam("prefix") String prefix) throws InvalidServerTypeException
+	public Response getMetricNames(@QueryParam("prefix") String prefix,
+			@QueryParam("after") String after,
+			@QueryParam("limit") @DefaultValue("0") int limit) throws InvalidServerTypeException
 	{
 		checkServerType(ServerType.QUERY, "/metricnames", "GET");
-		
-		return executeNameQuery(NameType.METRIC_NAMES, prefix);
+
+		if (limit < 0)
+		{
+			JsonResponseBuilder builder = new JsonResponseBuilder(Response.Status.BAD_REQUEST);
+			return builder.addError("limit must be greater than or equal to 0").build();
+		}
+
+		return executeNameQuery(NameType.METRIC_NAMES, prefix, after, limit);
 	}
 
 	@OPTIONS
@@ -295,22 +350,19 @@ public class MetricsResource implements KairosMetricReporter
 		checkServerType(ServerType.INGEST, "JSON /datapoints", "POST");
 		try
 		{
-			if (httpheaders != null)
-			{
-				List<String> requestHeader = httpheaders.getRequestHeader("Content-Encoding");
-				if (requestHeader != null && requestHeader.contains("gzip"))
-				{
-					stream = new GZIPInputStream(stream);
-				}
-			}
+			stream = decodeContent(httpheaders, stream);
 
 			DataPointsParser parser = new DataPointsParser(m_publisher, new InputStreamReader(stream, UTF_8),
-					gson, m_kairosDataPointFactory);
+					gson, m_kairosDataPointFactory, m_seriesRegistry);
 			ValidationErrors validationErrors = parser.parse();
 
 			m_ingestedDataPoints.addAndGet(parser.getDataPointCount());
 			m_ingestTime.addAndGet(parser.getIngestTime());
 
+			//Data points are put on the queue while parsing
+			if (m_queueProcessor != null && isDurableAck(httpheaders))
+				m_queueProcessor.waitForDurable();
+
 			if (!validationErrors.hasErrors())
 				return setHeaders(Response.status(Response.Status.NO_CONTENT)).build();
 			else
@@ -341,6 +393,84 @@ public class MetricsResource implements KairosMetricReporter
 		}
 	}
 
+	/**
+	 Binary bulk ingest, see BinaryDataPointsParser for the format.
+	 */
+	@POST
+	@Consumes(BinaryDataPointsParser.CONTENT_TYPE)
+	@Produces(MediaType.APPLICATION_JSON + "; charset=UTF-8")
+	@Path("/datapoints")
+	public Response addBinary(@Context HttpHeaders httpheaders, InputStream stream) throws InvalidServerTypeException
+	{
+		checkServerType(ServerType.INGEST, "binary /datapoints", "POST");
+		try
+		{
+			stream = decodeContent(httpheaders, stream);
+
+			BinaryDataPointsParser parser = new BinaryDataPointsParser(m_publisher, stream,
+					m_kairosDataPointFactory, m_seriesRegistry);
+			ValidationErrors validationErrors = parser.parse();
+
+			m_ingestedDataPoints.addAndGet(parser.getDataPointCount());
+			m_ingestTime.addAndGet(parser.getIngestTime());
+
+			if (m_queueProcessor != null && isDurableAck(httpheaders))
+				m_queueProcessor.waitForDurable();
+
+			if (!validationErrors.hasErrors())
+				return setHeaders(Response.status(Response.Status.NO_CONTENT)).build();
+			else
+			{
+				JsonResponseBuilder builder = new JsonResponseBuilder(Response.Status.BAD_REQUEST);
+				for (String errorMessage : validationErrors.getErrors())
+				{
+					builder.addError(errorMessage);
+				}
+				return builder.build();
+			}
+		}
+		catch (Exception e)
+		{
+			logger.error("Failed to add metric.", e);
+			return setHeaders(Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(new ErrorResponse(e.getMessage()))).build();
+		}
+		catch (OutOfMemoryError e)
+		{
+			logger.error("Out of memory error.", e);
+			return setHeaders(Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(new ErrorResponse(e.getMessage()))).build();
+		}
+	}
+
+	/**
+	 Wraps the stream for a gzip or lz4 Content-Encoding.  lz4 bodies are in the
+	 block format written by LZ4BlockOutputStream.
+	 */
+	private static InputStream decodeContent(HttpHeaders httpheaders, InputStream stream) throws IOException
+	{
+		if (httpheaders != null)
+		{
+			List<String> requestHeader = httpheaders.getRequestHeader("Content-Encoding");
+			if (requestHeader != null && requestHeader.contains("gzip"))
+				return new GZIPInputStream(stream);
+			else if (requestHeader != null && requestHeader.contains("lz4"))
+				return new LZ4BlockInputStream(stream);
+		}
+
+		return stream;
+	}
+
+	private boolean isDurableAck(HttpHeaders httpheaders)
+	{
+		if (httpheaders != null)
+		{
+			List<String> durable = httpheaders.getRequestHeader(DURABLE_HEADER);
+			if (durable != null && !durable.isEmpty())
+				return Boolean.parseBoolean(durable.get(0).trim());
+		}
+
+		return m_durableAck;
+	}
+
 	@GET
 	@Produces(MediaType.APPLICATION_JSON + "; charset=UTF-8")
 	@Path("/datapoints/index")
@@ -472,7 +602,7 @@ public class MetricsResource implements KairosMetricReporter
 	public Response getQuery(@QueryParam("query") String json, @Context HttpServletRequest request) throws Exception
 	{
 		checkServerType(ServerType.QUERY, QUERY_URL, "GET");
-		return runQuery(json, request.getRemoteAddr());
+		return runQuery(json, request.getRemoteAddr(), request.getHeader(QUERY_CLASS_HEADER));
 	}
 
 	@POST
@@ -481,14 +611,25 @@ public class MetricsResource implements KairosMetricReporter
 	public Response postQuery(String json, @Context HttpServletRequest request) throws Exception
 	{
 		checkServerType(ServerType.QUERY, QUERY_URL, "POST");
-		return runQuery(json, request.getRemoteAddr());
+		return runQuery(json, request.getRemoteAddr(), request.getHeader(QUERY_CLASS_HEADER));
 	}
 
 
 	public Response runQuery(String json, String remoteAddr) throws Exception
+	{
+		return runQuery(json, remoteAddr, null);
+	}
+
+	/**
+	 @param queryClassHeader value of the X-Kairos-Query-Class header, if set
+	 the queries are admitted in that class instead of being classified by
+	 their time range
+	 */
+	public Response runQuery(String json, String remoteAddr, String queryClassHeader) throws Exception
 	{
 		logger.debug(json);
 		boolean queryFailed = false;
+		boolean streaming = false;
 
 		ThreadReporter.setReportTime(System.currentTimeMillis());
 		ThreadReporter.addTag("host", hostName);
@@ -498,57 +639,63 @@ public class MetricsResource implements KairosMetricReporter
 			if (json == null)
 				throw new BeanValidationException(new QueryParser.SimpleConstraintViolation("query json", "must not be null or empty"), "");
 
-			File respFile = File.createTempFile("kairos", ".json", new File(datastore.getCacheDir()));
-			BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(respFile), UTF_8));
-
-			JsonResponse jsonResponse = new JsonResponse(writer);
-
 			String originalQuery = null;
 			if (m_returnQueryInResponse)
 				originalQuery = json;
-			jsonResponse.begin(originalQuery);
 
 			Query mainQuery = queryParser.parseQueryMetric(json);
 			mainQuery = m_queryPreProcessor.preProcess(mainQuery);
 
 			List<QueryMetric> queries = mainQuery.getQueryMetrics();
 
-			int queryCount = 0;
-			for (QueryMetric query : queries)
+			if (queryClassHeader != null)
 			{
-				queryCount++;
-				ThreadReporter.addTag("metric_name", query.getName());
-				ThreadReporter.addTag("query_index", String.valueOf(queryCount));
+				QueryClass queryClass = QueryClass.fromName(queryClassHeader);
+				if (queryClass == null)
+					throw new QueryException("Unknown query class " + queryClassHeader);
 
-				DatastoreQuery dq = datastore.createQuery(query);
-				long startQuery = System.currentTimeMillis();
+				for (QueryMetric query : queries)
+					query.setQueryClass(queryClass);
+			}
 
-				try
-				{
-					List<DataPointGroup> results = dq.execute();
-					jsonResponse.formatQuery(results, query.isExcludeTags(), dq.getSampleSize(), true);
+			List<QueryPostProcessingPlugin> postProcessingPlugins = new ArrayList<>();
+			for (QueryPlugin plugin : mainQuery.getPlugins())
+			{
+				if (plugin instanceof QueryPostProcessingPlugin)
+					postProcessingPlugins.add((QueryPostProcessingPlugin) plugin);
+			}
 
-					ThreadReporter.addDataPoint(QUERY_TIME, System.currentTimeMillis() - startQuery);
-				}
-				finally
-				{
-					dq.close();
-				}
+			//Post processing plugins need the complete response in a file
+			if (m_streamResponse && postProcessingPlugins.isEmpty() && !queries.isEmpty())
+			{
+				//Nothing is read from the datastore until the response is written,
+				//a response that is never written holds no query permit
+				ResponseBuilder responseBuilder = Response.status(Response.Status.OK).entity(
+						new QueryStreamingOutput(originalQuery, queries, json, remoteAddr));
+
+				setHeaders(responseBuilder);
+				streaming = true;
+				return responseBuilder.build();
 			}
 
+			File respFile = File.createTempFile("kairos", ".json", new File(datastore.getCacheDir()));
+			BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(respFile), UTF_8));
+
+			JsonResponse jsonResponse = new JsonResponse(writer);
+
+			jsonResponse.begin(originalQuery);
+
+			writeQueries(queries, null, jsonResponse);
+
 			jsonResponse.end();
 			writer.flush();
 			writer.close();
 
 
 			//System.out.println("About to process plugins");
-			List<QueryPlugin> plugins = mainQuery.getPlugins();
-			for (QueryPlugin plugin : plugins)
+			for (QueryPostProcessingPlugin plugin : postProcessingPlugins)
 			{
-				if (plugin instanceof QueryPostProcessingPlugin)
-				{
-					respFile = ((QueryPostProcessingPlugin) plugin).processQueryResults(respFile);
-				}
+				respFile = plugin.processQueryResults(respFile);
 			}
 
 			ResponseBuilder responseBuilder = Response.status(Response.Status.OK).entity(
@@ -577,6 +724,12 @@ public class MetricsResource implements KairosMetricReporter
 			System.gc();
 			return setHeaders(Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(new ErrorResponse(e.getMessage()))).build();
 		}
+		catch (QueryRejectedException e)
+		{
+			queryFailed = true;
+			logger.warn("Query rejected: " + e.getMessage());
+			return setHeaders(Response.status(Response.Status.SERVICE_UNAVAILABLE).entity(new ErrorResponse(e.getMessage()))).build();
+		}
 		catch (IOException e)
 		{
 			queryFailed = true;
@@ -598,26 +751,51 @@ public class MetricsResource implements KairosMetricReporter
 		}
 		finally
 		{
-			ThreadReporter.clearTags();
-			ThreadReporter.addTag("host", hostName);
+			//A streaming response reports once the results are written
+			if (!streaming)
+				reportQuery(queryFailed, json, remoteAddr);
+		}
+	}
 
-			if (queryFailed)
-				ThreadReporter.addTag("status", "failed");
-			else
-				ThreadReporter.addTag("status", "success");
+	/**
+	 Error response for a query that failed before any results were written.
+	 */
+	private Response createQueryErrorResponse(Exception e)
+	{
+		if (e instanceof QueryRejectedException)
+		{
+			logger.warn("Query rejected: " + e.getMessage());
+			return setHeaders(Response.status(Response.Status.SERVICE_UNAVAILABLE).entity(new ErrorResponse(e.getMessage()))).build();
+		}
 
-			//write metrics for query logging
-			long queryTime = System.currentTimeMillis() - ThreadReporter.getReportTime();
-			if (m_logQueries && ((queryTime / 1000) >= m_logQueriesLongerThan))
-			{
-				ThreadReporter.addDataPoint("kairosdb.log.query.remote_address", remoteAddr, m_logQueriesTtl);
-				ThreadReporter.addDataPoint("kairosdb.log.query.json", json, m_logQueriesTtl);
-			}
+		logger.error("Query failed.", e);
+		return setHeaders(Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(new ErrorResponse(e.getMessage()))).build();
+	}
+
+	private void reportQuery(boolean queryFailed, String json, String remoteAddr) throws DatastoreException
+	{
+		ThreadReporter.clearTags();
+		ThreadReporter.addTag("host", hostName);
+
+		if (queryFailed)
+			ThreadReporter.addTag("status", "failed");
+		else
+			ThreadReporter.addTag("status", "success");
+
+		//write metrics for query logging
+		long queryTime = System.currentTimeMillis() - ThreadReporter.getReportTime();
+		if (m_logQueries && ((queryTime / 1000) >= m_logQueriesLongerThan))
+		{
+			ThreadReporter.addDataPoint("kairosdb.log.query.remote_address", remoteAddr, m_logQueriesTtl);
+			ThreadReporter.addDataPoint("kairosdb.log.query.json", json, m_logQueriesTtl);
+		}
 
-			ThreadReporter.addTag("request", QUERY_URL);
-			ThreadReporter.addDataPoint(REQUEST_TIME, queryTime);
+		ThreadReporter.addTag("request", QUERY_URL);
+		ThreadReporter.addDataPoint(REQUEST_TIME, queryTime);
 
 
+		try
+		{
 			if (m_aggregatedQueryMetrics)
 			{
 				ThreadReporter.gatherData(m_statsMap);
@@ -627,11 +805,455 @@ public class MetricsResource implements KairosMetricReporter
 				ThreadReporter.submitData(m_longDataPointFactory,
 						m_stringDataPointFactory, m_publisher);
 			}
-
+		}
+		finally
+		{
 			ThreadReporter.clear();
 		}
 	}
 
+	private static void setQueryTags(QueryMetric query, int queryIndex)
+	{
+		ThreadReporter.addTag("metric_name", query.getName());
+		ThreadReporter.addTag("query_index", String.valueOf(queryIndex));
+	}
+
+	private StartedQuery startQuery(QueryMetric query) throws DatastoreException
+	{
+		return startQuery(query, () -> {});
+	}
+
+	/**
+	 @param permitAcquired called once the query has its QueryQueuingManager
+	 permit, before the data is read
+	 */
+	private StartedQuery startQuery(QueryMetric query, Runnable permitAcquired) throws DatastoreException
+	{
+		long startQuery = System.currentTimeMillis();
+		DatastoreQuery dq = datastore.createQuery(query);
+
+		try
+		{
+			permitAcquired.run();
+			return new StartedQuery(query, dq, dq.execute(), startQuery);
+		}
+		catch (DatastoreException | RuntimeException e)
+		{
+			dq.close();
+			throw e;
+		}
+	}
+
+	private void executeQuery(QueryMetric query, JsonResponse jsonResponse) throws Exception
+	{
+		startQuery(query).writeTo(jsonResponse);
+	}
+
+	/**
+	 Writes the results of each query to the response in request order.
+
+	 @param firstQuery if not null, the already started first query in the list
+	 */
+	private void writeQueries(List<QueryMetric> queries, StartedQuery firstQuery,
+			JsonResponse jsonResponse) throws Exception
+	{
+		if (m_queryExecutorService != null && m_queryExecutorService.getRequestParallelism() > 1
+				&& queries.size() > 1)
+		{
+			runQueriesInParallel(queries, firstQuery, jsonResponse, m_queryExecutorService.getRequestParallelism());
+		}
+		else
+		{
+			int queryCount = 0;
+			for (QueryMetric query : queries)
+			{
+				queryCount++;
+				setQueryTags(query, queryCount);
+
+				if (queryCount == 1 && firstQuery != null)
+					firstQuery.writeTo(jsonResponse);
+				else
+					executeQuery(query, jsonResponse);
+			}
+		}
+	}
+
+	/**
+	 Runs up to parallelism queries at a time on the QueryExecutorService.  Each
+	 query reads its data on an executor thread and is written to the response
+	 in request order as soon as it is ready, so nothing is spooled to disk.  A
+	 query holds its datastore permit until it is written.
+	 */
+	private void runQueriesInParallel(List<QueryMetric> queries, StartedQuery firstQuery,
+			JsonResponse jsonResponse, int parallelism) throws Exception
+	{
+		int first = (firstQuery != null) ? 1 : 0;
+		SubQueryRunner runner = new SubQueryRunner(queries, first, parallelism);
+
+		try
+		{
+			//Start on the following queries while the first one is written
+			runner.startNext();
+
+			if (firstQuery != null)
+			{
+				setQueryTags(queries.get(0), 1);
+				firstQuery.writeTo(jsonResponse);
+				runner.written();
+			}
+
+			for (int i = first; i < queries.size(); i++)
+			{
+				StartedQuery startedQuery = runner.await(i - first);
+
+				setQueryTags(queries.get(i), i + 1);
+				startedQuery.writeTo(jsonResponse);
+				runner.written();
+			}
+		}
+		finally
+		{
+			if (firstQuery != null)
+				firstQuery.close();
+
+			runner.abandon();
+		}
+	}
+
+	/**
+	 A query that has read its data from the datastore and is holding
+	 a QueryQueuingManager permit until it is written out and closed.
+	 */
+	private static class StartedQuery
+	{
+		private final QueryMetric m_query;
+		private final DatastoreQuery m_datastoreQuery;
+		private final List<DataPointGroup> m_results;
+		private final long m_startTime;
+		private boolean m_closed = false;
+
+		private StartedQuery(QueryMetric query, DatastoreQuery datastoreQuery,
+				List<DataPointGroup> results, long startTime)
+		{
+			m_query = query;
+			m_datastoreQuery = datastoreQuery;
+			m_results = results;
+			m_startTime = startTime;
+		}
+
+		public void writeTo(JsonResponse jsonResponse) throws FormatterException
+		{
+			try
+			{
+				jsonResponse.formatQuery(m_results, m_query.isExcludeTags(),
+						m_datastoreQuery.getSampleSize(), true);
+
+				ThreadReporter.addDataPoint(QUERY_TIME, System.currentTimeMillis() - m_startTime);
+			}
+			finally
+			{
+				close();
+			}
+		}
+
+		/**
+		 Closing the datastore query releases the permit so this must only happen once
+		 */
+		public void close()
+		{
+			if (!m_closed)
+			{
+				m_closed = true;
+				m_datastoreQuery.close();
+			}
+		}
+	}
+
+	/**
+	 Submits the sub-queries of a request to the QueryExecutorService, at most
+	 parallelism queries ahead of the one being written.  A sub-query is only
+	 submitted once the one before it has its datastore permit, so the permits
+	 a request holds are always for the queries it writes next.  Otherwise the
+	 later queries of a request could take the permits the query it is waiting
+	 on needs.
+	 */
+	private class SubQueryRunner
+	{
+		private final List<SubQuery> m_subQueries = new ArrayList<>();
+		private final List<Future<StartedQuery>> m_futures = new ArrayList<>();
+		private final int m_first;
+		private final int m_parallelism;
+		private int m_writtenQueries = 0;
+		private boolean m_waitingForPermit = false;
+		private boolean m_abandoned = false;
+
+		/**
+		 @param first number of queries at the start of the list that are
+		 already started by the caller
+		 */
+		private SubQueryRunner(List<QueryMetric> queries, int first, int parallelism)
+		{
+			m_first = first;
+			m_parallelism = parallelism;
+
+			SortedMap<String, String> tags = ThreadReporter.getTags();
+			for (int i = first; i < queries.size(); i++)
+			{
+				m_subQueries.add(new SubQuery(queries.get(i), i + 1, tags, this));
+			}
+		}
+
+		public synchronized void startNext()
+		{
+			int next = m_futures.size();
+			if (m_abandoned || m_waitingForPermit || next == m_subQueries.size() ||
+					m_first + next >= m_writtenQueries + m_parallelism)
+				return;
+
+			m_waitingForPermit = true;
+			m_futures.add(m_queryExecutorService.submit(m_subQueries.get(next)));
+		}
+
+		public synchronized void permitAcquired()
+		{
+			m_waitingForPermit = false;
+			startNext();
+		}
+
+		public synchronized void written()
+		{
+			m_writtenQueries++;
+			startNext();
+		}
+
+		/**
+		 Waits for the sub-query to read its data.  The query before it has
+		 been written so it is always submitted by now.
+		 */
+		public StartedQuery await(int index) throws Exception
+		{
+			Future<StartedQuery> future;
+			synchronized (this)
+			{
+				future = m_futures.get(index);
+			}
+
+			try
+			{
+				return future.get();
+			}
+			catch (ExecutionException e)
+			{
+				Throwable cause = e.getCause();
+				if (cause instanceof Exception)
+					throw (Exception) cause;
+				if (cause instanceof Error)
+					throw (Error) cause;
+				throw e;
+			}
+			finally
+			{
+				ThreadReporter.addData(m_subQueries.get(index).getReportedData());
+			}
+		}
+
+		/**
+		 Stops submitting and releases the permits of the queries that were
+		 read but not written.
+		 */
+		public void abandon()
+		{
+			List<Future<StartedQuery>> futures;
+			synchronized (this)
+			{
+				m_abandoned = true;
+				futures = new ArrayList<>(m_futures);
+			}
+
+			for (SubQuery subQuery : m_subQueries)
+			{
+				subQuery.abandon();
+			}
+
+			for (Future<StartedQuery> future : futures)
+			{
+				future.cancel(true);
+			}
+		}
+	}
+
+	/**
+	 One metric of a query request read on a QueryExecutorService thread.  Data
+	 reported by the query is collected so it can be handed back to the request
+	 thread, which writes the started query.
+	 */
+	private class SubQuery implements Callable<StartedQuery>
+	{
+		private final QueryMetric m_query;
+		private final int m_queryIndex;
+		private final SortedMap<String, String> m_tags;
+		private final long m_reportTime;
+		private final SubQueryRunner m_runner;
+		private volatile ThreadReporter.ReportedData m_reportedData;
+		private StartedQuery m_startedQuery;
+		private boolean m_abandoned = false;
+
+		private SubQuery(QueryMetric query, int queryIndex, SortedMap<String, String> tags,
+				SubQueryRunner runner)
+		{
+			m_query = query;
+			m_queryIndex = queryIndex;
+			m_tags = tags;
+			m_reportTime = ThreadReporter.getReportTime();
+			m_runner = runner;
+			m_reportedData = ThreadReporter.emptyData();
+		}
+
+		public ThreadReporter.ReportedData getReportedData()
+		{
+			return m_reportedData;
+		}
+
+		/**
+		 Closes the started query if it was never written, a query that
+		 finishes after this is closed right away.
+		 */
+		public synchronized void abandon()
+		{
+			m_abandoned = true;
+			if (m_startedQuery != null)
+				m_startedQuery.close();
+		}
+
+		@Override
+		public StartedQuery call() throws Exception
+		{
+			ThreadReporter.setReportTime(m_reportTime);
+			ThreadReporter.addTags(m_tags);
+			setQueryTags(m_query, m_queryIndex);
+
+			try
+			{
+				StartedQuery startedQuery = startQuery(m_query, m_runner::permitAcquired);
+				synchronized (this)
+				{
+					m_startedQuery = startedQuery;
+					if (m_abandoned)
+						startedQuery.close();
+				}
+
+				return startedQuery;
+			}
+			finally
+			{
+				m_reportedData = ThreadReporter.takeData();
+				ThreadReporter.clearTags();
+			}
+		}
+	}
+
+	/**
+	 Writes query results directly to the client as they are aggregated.  The
+	 first query is read before anything is written so an error reading it is
+	 still sent as an error response, an error in any of the following queries
+	 can only be signaled by cutting the response short.
+	 */
+	private class QueryStreamingOutput implements StreamingOutput
+	{
+		private final String m_originalQuery;
+		private final List<QueryMetric> m_queries;
+		private final String m_json;
+		private final String m_remoteAddr;
+		private final long m_reportTime;
+		private final SortedMap<String, String> m_tags;
+		private final ThreadReporter.ReportedData m_reportedData;
+
+		private QueryStreamingOutput(String originalQuery, List<QueryMetric> queries,
+				String json, String remoteAddr)
+		{
+			m_originalQuery = originalQuery;
+			m_queries = queries;
+			m_json = json;
+			m_remoteAddr = remoteAddr;
+			//Carry what has been reported so far over to the thread that writes the response
+			m_reportTime = ThreadReporter.getReportTime();
+			m_tags = ThreadReporter.getTags();
+			m_reportedData = ThreadReporter.takeData();
+			ThreadReporter.clearTags();
+		}
+
+		@Override
+		public void write(OutputStream output) throws IOException, WebApplicationException
+		{
+			boolean queryFailed = false;
+			StartedQuery firstQuery = null;
+
+			ThreadReporter.setReportTime(m_reportTime);
+			ThreadReporter.addTags(m_tags);
+			ThreadReporter.addData(m_reportedData);
+
+			try
+			{
+				try
+				{
+					setQueryTags(m_queries.get(0), 1);
+					firstQuery = startQuery(m_queries.get(0));
+				}
+				catch (DatastoreException | RuntimeException e)
+				{
+					//The response is not committed yet so the error response replaces it
+					queryFailed = true;
+					throw new WebApplicationException(e, createQueryErrorResponse(e));
+				}
+
+				Writer writer = new BufferedWriter(new OutputStreamWriter(output, UTF_8));
+				JsonResponse jsonResponse = new JsonResponse(writer);
+
+				jsonResponse.begin(m_originalQuery);
+				writeQueries(m_queries, firstQuery, jsonResponse);
+				jsonResponse.end();
+
+				writer.flush();
+			}
+			catch (WebApplicationException e)
+			{
+				throw e;
+			}
+			catch (IOException e)
+			{
+				queryFailed = true;
+				logger.error("Failed writing query response.", e);
+				throw e;
+			}
+			catch (Exception e)
+			{
+				queryFailed = true;
+				logger.error("Query failed.", e);
+				throw new WebApplicationException(e);
+			}
+			catch (OutOfMemoryError e)
+			{
+				queryFailed = true;
+				logger.error("Out of memory error.", e);
+				throw new WebApplicationException(e);
+			}
+			finally
+			{
+				if (firstQuery != null)
+					firstQuery.close();
+
+				try
+				{
+					reportQuery(queryFailed, m_json, m_remoteAddr);
+				}
+				catch (DatastoreException e)
+				{
+					logger.error("Failed to report query metrics.", e);
+				}
+			}
+		}
+	}
+
 	@OPTIONS
 	@Produces(MediaType.APPLICATION_JSON + "; charset=UTF-8")
 	@Path("/datapoints/delete")
@@ -742,10 +1364,15 @@ public class MetricsResource implements KairosMetricReporter
 
 	private Response executeNameQuery(NameType type)
 	{
-		return executeNameQuery(type, null);
+		return executeNameQuery(type, null, null, 0);
 	}
 
-	private Response executeNameQuery(NameType type, String prefix)
+	/**
+	 @param after only names sorted after this one are returned, used to page
+	 through the names with limit
+	 @param limit maximum number of names returned, 0 for all of them
+	 */
+	private Response executeNameQuery(NameType type, String prefix, String after, int limit)
 	{
 		try
 		{
@@ -763,6 +1390,17 @@ public class MetricsResource implements KairosMetricReporter
 					break;
 			}
 
+			if (after != null)
+			{
+				if (values instanceof NavigableSet)
+					values = ((NavigableSet<String>) values).tailSet(after, false);
+				else
+					values = Iterables.filter(values, value -> value.compareTo(after) > 0);
+			}
+
+			if (limit != 0)
+				values = Iterables.limit(values, limit);
+
 			DataFormatter formatter = formatters.get("json");
 
 			ResponseBuilder responseBuilder = Response.status(Response.Status.OK).entity(
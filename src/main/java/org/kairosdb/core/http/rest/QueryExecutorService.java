@@ -0,0 +1,79 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.core.http.rest;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.kairosdb.eventbus.Subscribe;
+import org.kairosdb.events.ShutdownEvent;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ Thread pool shared by all query requests for running the metrics of a
+ single request in parallel.  The pool does not limit how many metrics
+ query the datastore at once, that is still controlled by the permits
+ in QueryQueuingManager.
+ */
+public class QueryExecutorService
+{
+	public static final String QUERY_THREADS = "kairosdb.queries.parallel_threads";
+	public static final String REQUEST_PARALLELISM = "kairosdb.queries.request_parallelism";
+
+	private final ThreadPoolExecutor m_executor;
+	private final int m_requestParallelism;
+
+	@Inject
+	public QueryExecutorService(@Named(QUERY_THREADS) int queryThreads,
+			@Named(REQUEST_PARALLELISM) int requestParallelism)
+	{
+		checkArgument(queryThreads > 0, "parallel_threads must be greater than 0");
+		checkArgument(requestParallelism > 0, "request_parallelism must be greater than 0");
+
+		m_requestParallelism = requestParallelism;
+		m_executor = new ThreadPoolExecutor(queryThreads, queryThreads, 60L, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>(),
+				new ThreadFactoryBuilder().setNameFormat("query-%d").setDaemon(true).build());
+		m_executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 The number of metrics from one request that may run at the same time.
+	 */
+	public int getRequestParallelism()
+	{
+		return m_requestParallelism;
+	}
+
+	public <T> Future<T> submit(Callable<T> task)
+	{
+		return m_executor.submit(task);
+	}
+
+	@Subscribe
+	public void shutdown(ShutdownEvent event)
+	{
+		m_executor.shutdown();
+	}
+}
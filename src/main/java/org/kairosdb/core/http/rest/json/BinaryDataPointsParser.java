@@ -0,0 +1,321 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.core.http.rest.json;
+
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.gson.JsonPrimitive;
+import org.kairosdb.core.DataPoint;
+import org.kairosdb.core.KairosDataPointFactory;
+import org.kairosdb.core.SeriesRegistry;
+import org.kairosdb.core.datapoints.DataPointFactory;
+import org.kairosdb.core.datapoints.DoubleDataPointFactory;
+import org.kairosdb.core.datapoints.LongDataPointFactory;
+import org.kairosdb.core.exception.DatastoreException;
+import org.kairosdb.eventbus.Publisher;
+import org.kairosdb.events.DataPointEvent;
+import org.kairosdb.events.Series;
+import org.kairosdb.util.KDataInput;
+import org.kairosdb.util.Validator;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.util.Objects.requireNonNull;
+import static org.kairosdb.util.Util.unpackLong;
+import static org.kairosdb.util.Util.unpackUnsignedLong;
+
+/**
+ Parses the binary bulk format posted to /datapoints with the CONTENT_TYPE
+ content type.  The body is a version byte followed by series until the end of
+ the stream, varints are the ones in Util:
+ <pre>
+ header length (varint),
+ header: metric name, ttl (varint), value type (byte), tag count (varint),
+         (tag name, tag value)..., point count (varint)
+ timestamps: point count zig zag varints, each the difference to the one before
+ values: point count zig zag varints for long, 8 byte doubles for double
+ </pre>
+ Strings are a varint length followed by utf8 bytes.
+
+ Like DataPointsParser, events are posted as the stream is read.  A series that
+ fails validation is skipped, a body that is not well formed stops the parse
+ and is reported as a validation error.
+ */
+public class BinaryDataPointsParser
+{
+	public static final String CONTENT_TYPE = "application/x-kairosdb-datapoints";
+
+	static final int FORMAT_VERSION = 1;
+	static final int TYPE_LONG = 0;
+	static final int TYPE_DOUBLE = 1;
+
+	static final int MAX_HEADER_LENGTH = 64 * 1024;
+	static final int MAX_SERIES_POINTS = 1024 * 1024;
+
+	private final Publisher<DataPointEvent> m_publisher;
+	private final DataInputStream m_input;
+	private final KairosDataPointFactory m_dataPointFactory;
+	private final SeriesRegistry m_seriesRegistry;
+	private final DataPointFactory m_longFactory;
+	private final DataPointFactory m_doubleFactory;
+
+	private int m_dataPointCount;
+	private int m_ingestTime;
+
+	private byte[] m_header = new byte[256];
+	private long[] m_timestamps = new long[256];
+	//Metric names and tags repeat across the series of a request
+	private final Map<String, String> m_strings = new HashMap<>();
+
+	public BinaryDataPointsParser(Publisher<DataPointEvent> publisher, InputStream stream,
+			KairosDataPointFactory dataPointFactory)
+	{
+		this(publisher, stream, dataPointFactory, new SeriesRegistry());
+	}
+
+	public BinaryDataPointsParser(Publisher<DataPointEvent> publisher, InputStream stream,
+			KairosDataPointFactory dataPointFactory, SeriesRegistry seriesRegistry)
+	{
+		m_publisher = publisher;
+		m_seriesRegistry = requireNonNull(seriesRegistry);
+		m_input = new DataInputStream(new BufferedInputStream(requireNonNull(stream), 64 * 1024));
+		m_dataPointFactory = dataPointFactory;
+		m_longFactory = dataPointFactory.getFactoryForType("long");
+		m_doubleFactory = dataPointFactory.getFactoryForType("double");
+	}
+
+	public int getDataPointCount()
+	{
+		return m_dataPointCount;
+	}
+
+	public int getIngestTime()
+	{
+		return m_ingestTime;
+	}
+
+	public ValidationErrors parse() throws IOException, DatastoreException
+	{
+		long start = System.currentTimeMillis();
+		ValidationErrors validationErrors = new ValidationErrors();
+
+		try
+		{
+			int version = m_input.read();
+			if (version == -1)
+				validationErrors.addErrorMessage("Invalid binary data points. No content.");
+			else if (version != FORMAT_VERSION)
+				validationErrors.addErrorMessage("Invalid binary data points. Unknown version " + version + ".");
+			else
+			{
+				int seriesCount = 0;
+				while (!isEndOfStream())
+				{
+					if (!parseSeries(seriesCount, validationErrors))
+						break;
+					seriesCount++;
+				}
+			}
+		}
+		catch (EOFException e)
+		{
+			validationErrors.addErrorMessage("Invalid binary data points. Unexpected end of input.");
+		}
+		catch (IllegalArgumentException e)
+		{
+			//Thrown by unpackUnsignedLong
+			validationErrors.addErrorMessage("Invalid binary data points. " + e.getMessage());
+		}
+		finally
+		{
+			m_input.close();
+		}
+
+		m_ingestTime = (int) (System.currentTimeMillis() - start);
+
+		return validationErrors;
+	}
+
+	private boolean isEndOfStream() throws IOException
+	{
+		m_input.mark(1);
+		boolean end = m_input.read() == -1;
+		m_input.reset();
+		return end;
+	}
+
+	/**
+	 Reads one series and posts its data points if it is valid.  Returns false
+	 when the rest of the body cannot be read.
+	 */
+	private boolean parseSeries(int seriesCount, ValidationErrors errors) throws IOException, DatastoreException
+	{
+		String context = "series[" + seriesCount + "]";
+
+		long headerLength = unpackUnsignedLong(m_input);
+		if (headerLength > MAX_HEADER_LENGTH)
+		{
+			errors.addErrorMessage(context + " header is longer than " + MAX_HEADER_LENGTH + " bytes.");
+			return false;
+		}
+
+		if (m_header.length < headerLength)
+			m_header = new byte[(int) headerLength];
+		m_input.readFully(m_header, 0, (int) headerLength);
+
+		ValidationErrors seriesErrors = new ValidationErrors();
+		String metricName;
+		int ttl;
+		int type;
+		ImmutableSortedMap<String, String> tags;
+		int count;
+		try
+		{
+			ByteBuffer buffer = ByteBuffer.wrap(m_header, 0, (int) headerLength);
+			KDataInput header = KDataInput.createInput(buffer);
+
+			metricName = readString(buffer, header);
+			if (Validator.isNotNullOrEmpty(seriesErrors, context + ".name", metricName))
+				context = context + "(name=" + metricName + ")";
+
+			ttl = (int) unpackUnsignedLong(header);
+			type = header.readUnsignedByte();
+
+			long tagCount = unpackUnsignedLong(header);
+			Validator.isGreaterThanOrEqualTo(seriesErrors, context + ".tags count", tagCount, 1);
+
+			ImmutableSortedMap.Builder<String, String> builder = ImmutableSortedMap.naturalOrder();
+			for (long i = 0; i < tagCount; i++)
+			{
+				String name = readString(buffer, header);
+				String value = readString(buffer, header);
+				String tagContext = context + ".tag[" + i + "]";
+
+				if (Validator.isNotNullOrEmpty(seriesErrors, tagContext + ".name", name) &&
+						Validator.isNotNullOrEmpty(seriesErrors, tagContext + ".value", value))
+					builder.put(name, value);
+			}
+			try
+			{
+				tags = builder.build();
+			}
+			catch (IllegalArgumentException e)
+			{
+				//Duplicate tag name
+				seriesErrors.addErrorMessage(context + ".tags " + e.getMessage());
+				tags = null;
+			}
+
+			long pointCount = unpackUnsignedLong(header);
+			if (pointCount > MAX_SERIES_POINTS)
+			{
+				errors.addErrorMessage(context + " has more than " + MAX_SERIES_POINTS + " data points.");
+				return false;
+			}
+			count = (int) pointCount;
+		}
+		catch (BufferUnderflowException | IllegalArgumentException e)
+		{
+			errors.addErrorMessage(context + " header is not valid.");
+			return false;
+		}
+
+		if (type != TYPE_LONG && type != TYPE_DOUBLE)
+		{
+			errors.addErrorMessage(context + " has unknown value type " + type + ".");
+			return false;
+		}
+
+		if (m_timestamps.length < count)
+			m_timestamps = new long[Math.max(count, m_timestamps.length * 2)];
+
+		long timestamp = 0L;
+		for (int i = 0; i < count; i++)
+		{
+			timestamp += unpackLong(m_input);
+			m_timestamps[i] = timestamp;
+		}
+
+		//The values still have to be read to get to the next series
+		boolean valid = !seriesErrors.hasErrors();
+		Series series = null;
+		if (valid)
+			series = m_seriesRegistry.getSeries(metricName, tags);
+		else
+			errors.add(seriesErrors);
+
+		for (int i = 0; i < count; i++)
+		{
+			DataPoint dataPoint;
+			if (type == TYPE_LONG)
+			{
+				long value = unpackLong(m_input);
+				dataPoint = valid ? createLongDataPoint(m_timestamps[i], value) : null;
+			}
+			else
+			{
+				double value = m_input.readDouble();
+				dataPoint = valid ? createDoubleDataPoint(m_timestamps[i], value) : null;
+			}
+
+			if (valid)
+			{
+				m_publisher.post(new DataPointEvent(series, dataPoint, ttl));
+				m_dataPointCount++;
+			}
+		}
+
+		return true;
+	}
+
+	private String readString(ByteBuffer buffer, KDataInput header) throws IOException
+	{
+		int length = (int) unpackUnsignedLong(header);
+		if (length < 0 || length > buffer.remaining())
+			throw new BufferUnderflowException();
+
+		String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+		buffer.position(buffer.position() + length);
+
+		String interned = m_strings.putIfAbsent(value, value);
+		return interned != null ? interned : value;
+	}
+
+	private DataPoint createLongDataPoint(long timestamp, long value) throws IOException
+	{
+		if (m_longFactory instanceof LongDataPointFactory)
+			return ((LongDataPointFactory) m_longFactory).createDataPoint(timestamp, value);
+		else
+			return m_dataPointFactory.createDataPoint("long", timestamp, new JsonPrimitive(value));
+	}
+
+	private DataPoint createDoubleDataPoint(long timestamp, double value) throws IOException
+	{
+		if (m_doubleFactory instanceof DoubleDataPointFactory)
+			return ((DoubleDataPointFactory) m_doubleFactory).createDataPoint(timestamp, value);
+		else
+			return m_dataPointFactory.createDataPoint("double", timestamp, new JsonPrimitive(value));
+	}
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.core.http.rest.json;
+
+import com.google.common.io.ByteArrayDataOutput;
+import com.google.common.io.ByteStreams;
+
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.kairosdb.core.http.rest.json.BinaryDataPointsParser.FORMAT_VERSION;
+import static org.kairosdb.core.http.rest.json.BinaryDataPointsParser.TYPE_DOUBLE;
+import static org.kairosdb.core.http.rest.json.BinaryDataPointsParser.TYPE_LONG;
+import static org.kairosdb.util.Util.packLong;
+import static org.kairosdb.util.Util.packUnsignedLong;
+
+/**
+ Writes series in the binary format read by BinaryDataPointsParser.  Used by
+ the tests and benchmarks and as a reference for clients.
+ */
+public class BinaryDataPointsWriter implements Closeable
+{
+	private final DataOutputStream m_output;
+
+	public BinaryDataPointsWriter(OutputStream output) throws IOException
+	{
+		m_output = new DataOutputStream(output);
+		m_output.writeByte(FORMAT_VERSION);
+	}
+
+	public void writeLongSeries(String metricName, Map<String, String> tags, int ttl,
+			long[] timestamps, long[] values, int count) throws IOException
+	{
+		writeHeader(metricName, tags, ttl, TYPE_LONG, count);
+		writeTimestamps(timestamps, count);
+		for (int i = 0; i < count; i++)
+			packLong(values[i], m_output);
+	}
+
+	public void writeDoubleSeries(String metricName, Map<String, String> tags, int ttl,
+			long[] timestamps, double[] values, int count) throws IOException
+	{
+		writeHeader(metricName, tags, ttl, TYPE_DOUBLE, count);
+		writeTimestamps(timestamps, count);
+		for (int i = 0; i < count; i++)
+			m_output.writeDouble(values[i]);
+	}
+
+	private void writeHeader(String metricName, Map<String, String> tags, int ttl,
+			int type, int count) throws IOException
+	{
+		ByteArrayDataOutput header = ByteStreams.newDataOutput();
+		writeString(metricName, header);
+		packUnsignedLong(ttl, header);
+		header.writeByte(type);
+		packUnsignedLong(tags.size(), header);
+		for (Map.Entry<String, String> tag : tags.entrySet())
+		{
+			writeString(tag.getKey(), header);
+			writeString(tag.getValue(), header);
+		}
+		packUnsignedLong(count, header);
+
+		byte[] bytes = header.toByteArray();
+		packUnsignedLong(bytes.length, m_output);
+		m_output.write(bytes);
+	}
+
+	private static void writeString(String value, ByteArrayDataOutput output) throws IOException
+	{
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		packUnsignedLong(bytes.length, output);
+		output.write(bytes);
+	}
+
+	private void writeTimestamps(long[] timestamps, int count) throws IOException
+	{
+		long last = 0L;
+		for (int i = 0; i < count; i++)
+		{
+			packLong(timestamps[i] - last, m_output);
+			last = timestamps[i];
+		}
+	}
+
+	public void flush() throws IOException
+	{
+		m_output.flush();
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		m_output.close();
+	}
+}
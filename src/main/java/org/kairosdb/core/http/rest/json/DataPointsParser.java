@@ -21,12 +21,20 @@ import com.google.gson.Gson;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonPrimitive;
 import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.internal.LazilyParsedNumber;
 import com.google.gson.stream.JsonReader;
 import com.google.gson.stream.JsonToken;
+import org.kairosdb.core.DataPoint;
 import org.kairosdb.core.KairosDataPointFactory;
+import org.kairosdb.core.SeriesRegistry;
+import org.kairosdb.core.datapoints.DataPointFactory;
+import org.kairosdb.core.datapoints.DoubleDataPointFactory;
+import org.kairosdb.core.datapoints.LongDataPointFactory;
 import org.kairosdb.core.exception.DatastoreException;
 import org.kairosdb.eventbus.Publisher;
 import org.kairosdb.events.DataPointEvent;
+import org.kairosdb.events.Series;
 import org.kairosdb.util.Util;
 import org.kairosdb.util.ValidationException;
 import org.kairosdb.util.Validator;
@@ -34,8 +42,10 @@ import org.kairosdb.util.Validator;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.Reader;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.Objects;
 
 import static java.util.Objects.requireNonNull;
 
@@ -43,6 +53,10 @@ import static java.util.Objects.requireNonNull;
  Originally used Jackson to parse, but this approach failed for a very large JSON because
  everything was in memory and we would run out of memory. This parser adds metrics as it walks
  through the stream.
+
+ Each metric is read token by token rather than bound with gson.fromJson, data
+ point values that are numbers go straight to the long and double factories
+ without building a JsonElement for them.
  */
 public class DataPointsParser
 {
@@ -50,6 +64,7 @@ public class DataPointsParser
 	private final Reader inputStream;
 	private final Gson gson;
 	private final KairosDataPointFactory dataPointFactory;
+	private final SeriesRegistry m_seriesRegistry;
 
 	public int getDataPointCount()
 	{
@@ -64,13 +79,28 @@ public class DataPointsParser
 	private int dataPointCount;
 	private int ingestTime;
 
+	private final TypeAdapter<JsonElement> m_elementAdapter;
+	private final NewMetric m_metric = new NewMetric();
+	//Metric names and tags repeat across the metrics of a request
+	private final Map<String, String> m_strings = new HashMap<>();
+	private String m_lastType;
+	private DataPointFactory m_lastFactory;
+
 	public DataPointsParser(Publisher<DataPointEvent> publisher, Reader stream, Gson gson,
 			KairosDataPointFactory dataPointFactory)
+	{
+		this(publisher, stream, gson, dataPointFactory, new SeriesRegistry());
+	}
+
+	public DataPointsParser(Publisher<DataPointEvent> publisher, Reader stream, Gson gson,
+			KairosDataPointFactory dataPointFactory, SeriesRegistry seriesRegistry)
 	{
 		m_publisher = publisher;
+		m_seriesRegistry = requireNonNull(seriesRegistry);
 		this.inputStream = requireNonNull(stream);
 		this.gson = gson;
 		this.dataPointFactory = dataPointFactory;
+		m_elementAdapter = gson.getAdapter(JsonElement.class);
 	}
 
 	public ValidationErrors parse() throws IOException, DatastoreException
@@ -121,19 +151,256 @@ public class DataPointsParser
 		return validationErrors;
 	}
 
-	private NewMetric parseMetric(JsonReader reader)
+	/**
+	 Reads one metric object token by token.  Accepts what gson.fromJson did
+	 when binding NewMetric, including lenient input, and throws the same
+	 JsonSyntaxException for values of the wrong shape.
+	 */
+	private NewMetric parseMetric(JsonReader reader) throws IOException
 	{
-		NewMetric metric;
+		boolean lenient = reader.isLenient();
+		reader.setLenient(true);
 		try
 		{
-			metric = gson.fromJson(reader, NewMetric.class);
+			try
+			{
+				if (reader.peek() == JsonToken.NULL)
+				{
+					reader.nextNull();
+					return null;
+				}
+			}
+			catch (EOFException e)
+			{
+				return null;
+			}
+
+			NewMetric metric = m_metric;
+			metric.reset();
+
+			reader.beginObject();
+			while (reader.hasNext())
+			{
+				switch (reader.nextName())
+				{
+					case "name":
+						metric.name = intern(readString(reader));
+						break;
+					case "timestamp":
+						metric.timestamp = readLong(reader);
+						break;
+					case "time":
+						metric.time = readLong(reader);
+						break;
+					case "value":
+						metric.value = m_elementAdapter.read(reader);
+						break;
+					case "tags":
+						readTags(reader, metric);
+						break;
+					case "datapoints":
+						readDataPoints(reader, metric);
+						break;
+					case "skip_validate":
+						if (reader.peek() == JsonToken.NULL)
+							reader.nextNull();
+						else if (reader.peek() == JsonToken.STRING)
+							metric.skip_validate = Boolean.parseBoolean(reader.nextString());
+						else
+							metric.skip_validate = reader.nextBoolean();
+						break;
+					case "type":
+						metric.type = readString(reader);
+						break;
+					case "ttl":
+						if (reader.peek() == JsonToken.NULL)
+							reader.nextNull();
+						else
+							metric.ttl = readInt(reader);
+						break;
+					default:
+						reader.skipValue();
+				}
+			}
+			reader.endObject();
+
+			return metric;
+		}
+		catch (IOException | IllegalStateException e)
+		{
+			throw new JsonSyntaxException(e);
 		}
 		catch (IllegalArgumentException e)
 		{
 			// Happens when parsing data points where one of the pair is missing (timestamp or value)
 			throw new JsonSyntaxException("Invalid JSON");
 		}
-		return metric;
+		finally
+		{
+			reader.setLenient(lenient);
+		}
+	}
+
+	private String readString(JsonReader reader) throws IOException
+	{
+		JsonToken token = reader.peek();
+		if (token == JsonToken.NULL)
+		{
+			reader.nextNull();
+			return null;
+		}
+		else if (token == JsonToken.BOOLEAN)
+			return Boolean.toString(reader.nextBoolean());
+		else
+			return reader.nextString();
+	}
+
+	private Long readLong(JsonReader reader) throws IOException
+	{
+		if (reader.peek() == JsonToken.NULL)
+		{
+			reader.nextNull();
+			return null;
+		}
+
+		try
+		{
+			return reader.nextLong();
+		}
+		catch (NumberFormatException e)
+		{
+			throw new JsonSyntaxException(e);
+		}
+	}
+
+	private int readInt(JsonReader reader) throws IOException
+	{
+		try
+		{
+			return reader.nextInt();
+		}
+		catch (NumberFormatException e)
+		{
+			throw new JsonSyntaxException(e);
+		}
+	}
+
+	private void readTags(JsonReader reader, NewMetric metric) throws IOException
+	{
+		metric.tagCount = 0;
+		metric.hasTags = false;
+
+		JsonToken token = reader.peek();
+		if (token == JsonToken.NULL)
+		{
+			reader.nextNull();
+			return;
+		}
+
+		metric.hasTags = true;
+		if (token == JsonToken.BEGIN_ARRAY)
+		{
+			//Map written as an array of [name, value] pairs
+			reader.beginArray();
+			while (reader.hasNext())
+			{
+				reader.beginArray();
+				String name = readString(reader);
+				String value = readString(reader);
+				reader.endArray();
+				metric.addTag(intern(name), intern(value));
+			}
+			reader.endArray();
+		}
+		else
+		{
+			reader.beginObject();
+			while (reader.hasNext())
+			{
+				String name = reader.nextName();
+				metric.addTag(intern(name), intern(readString(reader)));
+			}
+			reader.endObject();
+		}
+	}
+
+	/**
+	 Reads each [timestamp, value, type] array into the columns of the metric.
+	 Numbers, the common case, are kept as a primitive timestamp and the number
+	 text, anything else is kept as a JsonElement.
+	 */
+	private void readDataPoints(JsonReader reader, NewMetric metric) throws IOException
+	{
+		metric.dataPointCount = 0;
+		metric.hasDataPoints = false;
+
+		if (reader.peek() == JsonToken.NULL)
+		{
+			reader.nextNull();
+			return;
+		}
+
+		metric.hasDataPoints = true;
+		reader.beginArray();
+		while (reader.hasNext())
+		{
+			int index = metric.nextDataPoint();
+
+			if (reader.peek() == JsonToken.NULL)
+			{
+				reader.nextNull();
+				continue;
+			}
+
+			reader.beginArray();
+			int length = 0;
+			while (reader.hasNext())
+			{
+				if (length == 0)
+				{
+					if (reader.peek() == JsonToken.NUMBER)
+					{
+						String text = reader.nextString();
+						try
+						{
+							metric.timestamps[index] = Long.parseLong(text);
+						}
+						catch (NumberFormatException e)
+						{
+							metric.timestampElements[index] = new JsonPrimitive(new LazilyParsedNumber(text));
+						}
+					}
+					else
+						metric.timestampElements[index] = m_elementAdapter.read(reader);
+				}
+				else if (length == 1)
+				{
+					if (reader.peek() == JsonToken.NUMBER)
+						metric.numberValues[index] = reader.nextString();
+					else
+						metric.valueElements[index] = m_elementAdapter.read(reader);
+				}
+				else if (length == 2)
+					metric.typeElements[index] = m_elementAdapter.read(reader);
+				else
+					m_elementAdapter.read(reader);
+
+				length++;
+			}
+			reader.endArray();
+
+			metric.lengths[index] = length;
+		}
+		reader.endArray();
+	}
+
+	private String intern(String value)
+	{
+		if (value == null)
+			return null;
+
+		String interned = m_strings.putIfAbsent(value, value);
+		return interned != null ? interned : value;
 	}
 
 	private static class Context
@@ -251,6 +518,44 @@ public class DataPointsParser
 			return "string";
 	}
 
+	private String findNumberType(String number)
+	{
+		if (!number.contains("."))
+			return "long";
+		else
+			return "double";
+	}
+
+	/**
+	 Creates the data point straight from the number text when the type is
+	 backed by the long or double factory, otherwise goes through the
+	 JsonElement the factory would have got from gson.
+	 */
+	private DataPoint createNumberDataPoint(String type, long timestamp, String number) throws IOException
+	{
+		if (!type.equals(m_lastType))
+		{
+			m_lastType = type;
+			m_lastFactory = dataPointFactory.getFactoryForType(type);
+		}
+
+		if (m_lastFactory instanceof LongDataPointFactory)
+		{
+			try
+			{
+				return ((LongDataPointFactory) m_lastFactory).createDataPoint(timestamp, Long.parseLong(number));
+			}
+			catch (NumberFormatException e)
+			{
+				//Decimal or exponent, let the factory convert it
+			}
+		}
+		else if (m_lastFactory instanceof DoubleDataPointFactory)
+			return ((DoubleDataPointFactory) m_lastFactory).createDataPoint(timestamp, Double.parseDouble(number));
+
+		return dataPointFactory.createDataPoint(type, timestamp, new JsonPrimitive(new LazilyParsedNumber(number)));
+	}
+
 	private boolean validateAndAddDataPoints(NewMetric metric, ValidationErrors errors, int count) throws DatastoreException, IOException
 	{
 		ValidationErrors validationErrors = new ValidationErrors();
@@ -276,23 +581,23 @@ public class DataPointsParser
 			//				Validator.isGreaterThanOrEqualTo(validationErrors, context.setAttribute("timestamp"), metric.getTimestamp(), 1);
 
 
-			if (Validator.isGreaterThanOrEqualTo(validationErrors, context.setAttribute("tags count"), metric.getTags().size(), 1))
+			if (Validator.isGreaterThanOrEqualTo(validationErrors, context.setAttribute("tags count"), metric.tagCount, 1))
 			{
-				int tagCount = 0;
 				SubContext tagContext = new SubContext(context.setAttribute(null), "tag");
 
-				for (Map.Entry<String, String> entry : metric.getTags().entrySet())
+				for (int tagCount = 0; tagCount < metric.tagCount; tagCount++)
 				{
+					String name = metric.tagNames[tagCount];
+					String value = metric.tagValues[tagCount];
+
 					tagContext.setCount(tagCount);
-					if (Validator.isNotNullOrEmpty(validationErrors, tagContext.setAttribute("name"), entry.getKey()))
+					if (Validator.isNotNullOrEmpty(validationErrors, tagContext.setAttribute("name"), name))
 					{
-						tagContext.setName(entry.getKey());
-						Validator.isNotNullOrEmpty(validationErrors, tagContext, entry.getKey());
+						tagContext.setName(name);
+						Validator.isNotNullOrEmpty(validationErrors, tagContext, name);
 					}
-					if (Validator.isNotNullOrEmpty(validationErrors, tagContext.setAttribute("value"), entry.getValue()))
-						Validator.isNotNullOrEmpty(validationErrors, tagContext, entry.getValue());
-
-					tagCount++;
+					if (Validator.isNotNullOrEmpty(validationErrors, tagContext.setAttribute("value"), value))
+						Validator.isNotNullOrEmpty(validationErrors, tagContext, value);
 				}
 			}
 		}
@@ -300,7 +605,8 @@ public class DataPointsParser
 
 		if (!validationErrors.hasErrors())
 		{
-			ImmutableSortedMap<String, String> tags = ImmutableSortedMap.copyOf(metric.getTags());
+			//Every data point of the metric shares the series
+			Series series = m_seriesRegistry.getSeries(metric.getName(), metric.getTags());
 
 			if (metric.getTimestamp() != null && metric.getValue() != null)
 			{
@@ -322,7 +628,7 @@ public class DataPointsParser
 				{
 					if (dataPointFactory.isRegisteredType(type))
 					{
-						m_publisher.post(new DataPointEvent(metric.getName(), tags, dataPointFactory.createDataPoint(
+						m_publisher.post(new DataPointEvent(series, dataPointFactory.createDataPoint(
 								type, metric.getTimestamp(), metric.getValue()), metric.getTtl()));
 						dataPointCount++;
 					}
@@ -333,58 +639,76 @@ public class DataPointsParser
 				}
 			}
 
-			if (metric.getDatapoints() != null && metric.getDatapoints().length > 0)
+			if (metric.hasDataPoints && metric.dataPointCount > 0)
 			{
 				int contextCount = 0;
 				SubContext dataPointContext = new SubContext(context, "datapoints");
-				for (JsonElement[] dataPoint : metric.getDatapoints())
+				for (int i = 0; i < metric.dataPointCount; i++)
 				{
+					int length = metric.lengths[i];
+					String number = metric.numberValues[i];
+					JsonElement value = metric.valueElements[i];
+
 					dataPointContext.setCount(contextCount);
-					if (dataPoint.length < 1)
+					if (length < 1)
 					{
 						validationErrors.addErrorMessage(dataPointContext.setAttribute("timestamp") + " cannot be null or empty.");
 						continue;
 					}
-					else if (dataPoint.length < 2)
+					else if (length < 2)
 					{
 						validationErrors.addErrorMessage(dataPointContext.setAttribute("value") + " cannot be null or empty.");
 						continue;
 					}
 					else
 					{
-						Long timestamp = null;
-						if (!dataPoint[0].isJsonNull())
-							timestamp = dataPoint[0].getAsLong();
-
-						if (metric.validate() && !Validator.isNotNull(validationErrors, dataPointContext.setAttribute("timestamp"), timestamp))
+						long timestamp;
+						JsonElement timestampElement = metric.timestampElements[i];
+						if (timestampElement == null)
+							timestamp = metric.timestamps[i];
+						else if (!timestampElement.isJsonNull())
+							timestamp = timestampElement.getAsLong();
+						else
+						{
+							Validator.isNotNull(validationErrors, dataPointContext.setAttribute("timestamp"), null);
 							continue;
+						}
 
 						String type = metric.getType();
-						if (dataPoint.length > 2)
-							type = dataPoint[2].getAsString();
+						if (length > 2)
+							type = metric.typeElements[i].getAsString();
 
-						//String type data can be empty
-						if ("string".equals(type))
-						{
-							if (!Validator.isNotNull(validationErrors, dataPointContext.setAttribute("value"), dataPoint[1]))
-								continue;
-						}
-						else
+						//Numbers are never null or empty
+						if (number == null)
 						{
-							if (!Validator.isNotNullOrEmpty(validationErrors, dataPointContext.setAttribute("value"), dataPoint[1]))
-								continue;
+							//String type data can be empty
+							if ("string".equals(type))
+							{
+								if (!Validator.isNotNull(validationErrors, dataPointContext.setAttribute("value"), value))
+									continue;
+							}
+							else
+							{
+								if (!Validator.isNotNullOrEmpty(validationErrors, dataPointContext.setAttribute("value"), value))
+									continue;
+							}
 						}
 
 						if (type == null)
 						{
-							try
-							{
-								type = findType(dataPoint[1]);
-							}
-							catch (ValidationException e)
+							if (number != null)
+								type = findNumberType(number);
+							else
 							{
-								validationErrors.addErrorMessage(context + " " + e.getMessage());
-								continue;
+								try
+								{
+									type = findType(value);
+								}
+								catch (ValidationException e)
+								{
+									validationErrors.addErrorMessage(context + " " + e.getMessage());
+									continue;
+								}
 							}
 						}
 
@@ -394,8 +718,13 @@ public class DataPointsParser
 							continue;
 						}
 
-						m_publisher.post(new DataPointEvent(metric.getName(), tags,
-								dataPointFactory.createDataPoint(type, timestamp, dataPoint[1]), metric.getTtl()));
+						DataPoint dataPoint;
+						if (number != null)
+							dataPoint = createNumberDataPoint(type, timestamp, number);
+						else
+							dataPoint = dataPointFactory.createDataPoint(type, timestamp, value);
+
+						m_publisher.post(new DataPointEvent(series, dataPoint, metric.getTtl()));
 						dataPointCount++;
 					}
 					contextCount++;
@@ -408,19 +737,98 @@ public class DataPointsParser
 		return !validationErrors.hasErrors();
 	}
 
-	@SuppressWarnings({"MismatchedReadAndWriteOfArray", "UnusedDeclaration"})
+	/**
+	 Fields of one metric object.  A single instance is reused for every metric
+	 in the request, the data point columns only grow.
+	 */
 	private static class NewMetric
 	{
 		private String name;
 		private Long timestamp = null;
 		private Long time = null;
 		private JsonElement value;
-		private Map<String, String> tags;
-		private JsonElement[][] datapoints;
 		private boolean skip_validate = false;
 		private String type;
 		private int ttl = 0;
 
+		private boolean hasTags;
+		private int tagCount;
+		private String[] tagNames = new String[8];
+		private String[] tagValues = new String[8];
+
+		private boolean hasDataPoints;
+		private int dataPointCount;
+		private int[] lengths = new int[16];
+		private long[] timestamps = new long[16];
+		//Set when the timestamp was not a plain long
+		private JsonElement[] timestampElements = new JsonElement[16];
+		//Text of numeric values
+		private String[] numberValues = new String[16];
+		//Set when the value was not a number
+		private JsonElement[] valueElements = new JsonElement[16];
+		private JsonElement[] typeElements = new JsonElement[16];
+
+		private void reset()
+		{
+			name = null;
+			timestamp = null;
+			time = null;
+			value = null;
+			skip_validate = false;
+			type = null;
+			ttl = 0;
+			hasTags = false;
+			tagCount = 0;
+			hasDataPoints = false;
+			dataPointCount = 0;
+		}
+
+		private void addTag(String name, String value)
+		{
+			for (int i = 0; i < tagCount; i++)
+			{
+				if (Objects.equals(tagNames[i], name))
+					throw new JsonSyntaxException("duplicate key: " + name);
+			}
+
+			if (tagCount == tagNames.length)
+			{
+				tagNames = Arrays.copyOf(tagNames, tagCount * 2);
+				tagValues = Arrays.copyOf(tagValues, tagCount * 2);
+			}
+
+			tagNames[tagCount] = name;
+			tagValues[tagCount] = value;
+			tagCount++;
+		}
+
+		/**
+		 Clears and returns the index of the next data point
+		 */
+		private int nextDataPoint()
+		{
+			if (dataPointCount == lengths.length)
+			{
+				int size = dataPointCount * 2;
+				lengths = Arrays.copyOf(lengths, size);
+				timestamps = Arrays.copyOf(timestamps, size);
+				timestampElements = Arrays.copyOf(timestampElements, size);
+				numberValues = Arrays.copyOf(numberValues, size);
+				valueElements = Arrays.copyOf(valueElements, size);
+				typeElements = Arrays.copyOf(typeElements, size);
+			}
+
+			int index = dataPointCount++;
+			lengths[index] = 0;
+			timestamps[index] = 0L;
+			timestampElements[index] = null;
+			numberValues[index] = null;
+			valueElements[index] = null;
+			typeElements[index] = null;
+
+			return index;
+		}
+
 		private String getName()
 		{
 			return name;
@@ -439,14 +847,13 @@ public class DataPointsParser
 			return value;
 		}
 
-		public Map<String, String> getTags()
+		public ImmutableSortedMap<String, String> getTags()
 		{
-			return tags != null ? tags : Collections.<String, String>emptyMap();
-		}
+			ImmutableSortedMap.Builder<String, String> builder = ImmutableSortedMap.naturalOrder();
+			for (int i = 0; i < tagCount; i++)
+				builder.put(tagNames[i], tagValues[i]);
 
-		private JsonElement[][] getDatapoints()
-		{
-			return datapoints;
+			return builder.build();
 		}
 
 		private boolean validate()
@@ -464,4 +871,4 @@ public class DataPointsParser
 			return ttl;
 		}
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.core.lineprotocol;
+
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.inject.Inject;
+import org.kairosdb.core.DataPoint;
+import org.kairosdb.core.SeriesRegistry;
+import org.kairosdb.core.datapoints.DoubleDataPointFactory;
+import org.kairosdb.core.datapoints.LongDataPointFactory;
+import org.kairosdb.core.telnet.WordSplitter;
+import org.kairosdb.events.DataPointEvent;
+import org.kairosdb.util.Tags;
+import org.kairosdb.util.Util;
+import org.kairosdb.util.ValidationException;
+import org.kairosdb.util.Validator;
+
+import java.util.List;
+
+/**
+ Graphite plaintext lines: path value [timestamp].  The timestamp is in
+ seconds, when it is missing or -1 the time the line is read is used.  Tags
+ use the Graphite 1.1 form, path;name=value;name=value.  Kairos needs at least
+ one tag so a path without tags gets add=tag, like telnet puts without tags.
+ */
+public class GraphiteLineParser implements LineParser
+{
+	private final LongDataPointFactory m_longFactory;
+	private final DoubleDataPointFactory m_doubleFactory;
+	private final SeriesRegistry m_seriesRegistry;
+
+	@Inject
+	public GraphiteLineParser(LongDataPointFactory longFactory, DoubleDataPointFactory doubleFactory,
+			SeriesRegistry seriesRegistry)
+	{
+		m_longFactory = longFactory;
+		m_doubleFactory = doubleFactory;
+		m_seriesRegistry = seriesRegistry;
+	}
+
+	@Override
+	public String getProtocol()
+	{
+		return "graphite";
+	}
+
+	/**
+	 Graphite is tried last and takes any line.
+	 */
+	@Override
+	public boolean accepts(String line)
+	{
+		return true;
+	}
+
+	@Override
+	public void parseLine(String line, List<DataPointEvent> events) throws ValidationException
+	{
+		List<String> words = WordSplitter.splitString(line);
+		if (words.size() < 2 || words.size() > 3)
+			throw new ValidationException("Graphite line must be in the format 'path value [timestamp]'.");
+
+		long timestamp;
+		if (words.size() == 2 || words.get(2).equals("-1"))
+			timestamp = System.currentTimeMillis();
+		else
+			timestamp = parseTimestamp(words.get(2));
+
+		DataPoint dataPoint = createDataPoint(timestamp, words.get(1));
+
+		String[] path = words.get(0).split(";");
+		Validator.validateNotNullOrEmpty("path", path[0]);
+
+		ImmutableSortedMap.Builder<String, String> tags = Tags.create();
+		for (int i = 1; i < path.length; i++)
+		{
+			int equals = path[i].indexOf('=');
+			if (equals == -1)
+				throw new ValidationException(String.format("tag[%d] must be in the format 'name=value'.", i - 1));
+
+			Validator.validateNotNullOrEmpty(String.format("tag[%d].name", i - 1), path[i].substring(0, equals));
+			Validator.validateNotNullOrEmpty(String.format("tag[%d].value", i - 1), path[i].substring(equals + 1));
+			tags.put(path[i].substring(0, equals), path[i].substring(equals + 1));
+		}
+
+		if (path.length == 1)
+			tags.put("add", "tag");
+
+		try
+		{
+			events.add(new DataPointEvent(m_seriesRegistry.getSeries(path[0], tags.build()), dataPoint, 0));
+		}
+		catch (IllegalArgumentException e)
+		{
+			throw new ValidationException("Duplicate tag in '" + words.get(0) + "'.");
+		}
+	}
+
+	private static long parseTimestamp(String timestamp) throws ValidationException
+	{
+		try
+		{
+			if (timestamp.indexOf('.') == -1)
+				return Util.parseLong(timestamp) * 1000;
+			else
+				return (long) (Double.parseDouble(timestamp) * 1000);
+		}
+		catch (NumberFormatException e)
+		{
+			throw new ValidationException("timestamp " + e.getMessage());
+		}
+	}
+
+	private DataPoint createDataPoint(long timestamp, String value) throws ValidationException
+	{
+		try
+		{
+			if (isInteger(value))
+				return m_longFactory.createDataPoint(timestamp, Util.parseLong(value));
+			else
+				return m_doubleFactory.createDataPoint(timestamp, Double.parseDouble(value));
+		}
+		catch (NumberFormatException e)
+		{
+			throw new ValidationException("value " + e.getMessage());
+		}
+	}
+
+	private static boolean isInteger(String value)
+	{
+		for (int i = 0; i < value.length(); i++)
+		{
+			char c = value.charAt(i);
+			if ((c < '0' || c > '9') && !(i == 0 && c == '-'))
+				return false;
+		}
+
+		return true;
+	}
+}
@@ -0,0 +1,335 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.core.lineprotocol;
+
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import org.kairosdb.core.DataPoint;
+import org.kairosdb.core.SeriesRegistry;
+import org.kairosdb.core.datapoints.DoubleDataPointFactory;
+import org.kairosdb.core.datapoints.LongDataPointFactory;
+import org.kairosdb.core.datapoints.StringDataPointFactory;
+import org.kairosdb.events.DataPointEvent;
+import org.kairosdb.util.Tags;
+import org.kairosdb.util.Util;
+import org.kairosdb.util.ValidationException;
+import org.kairosdb.util.Validator;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ InfluxDB line protocol:
+ <pre>
+ measurement[,tag=value...] field=value[,field=value...] [timestamp]
+ </pre>
+ Each field becomes a data point of the metric measurement.field.  Integer
+ fields (123i, 123u) are longs, booleans are 1 or 0, quoted fields are strings
+ and everything else is a double.  The timestamp precision is set with
+ kairosdb.lineprotocol.influx_precision, when it is missing the time the line
+ is read is used.  A line without tags gets add=tag, like telnet puts.
+ */
+public class InfluxLineParser implements LineParser
+{
+	public static final String PRECISION_PROP = "kairosdb.lineprotocol.influx_precision";
+
+	private final LongDataPointFactory m_longFactory;
+	private final DoubleDataPointFactory m_doubleFactory;
+	private final StringDataPointFactory m_stringFactory;
+	private final SeriesRegistry m_seriesRegistry;
+
+	private TimeUnit m_precision = TimeUnit.NANOSECONDS;
+
+	@Inject
+	public InfluxLineParser(LongDataPointFactory longFactory, DoubleDataPointFactory doubleFactory,
+			StringDataPointFactory stringFactory, SeriesRegistry seriesRegistry)
+	{
+		m_longFactory = longFactory;
+		m_doubleFactory = doubleFactory;
+		m_stringFactory = stringFactory;
+		m_seriesRegistry = seriesRegistry;
+	}
+
+	@Inject(optional = true)
+	public void setPrecision(@Named(PRECISION_PROP) String precision)
+	{
+		switch (precision)
+		{
+			case "ns":
+				m_precision = TimeUnit.NANOSECONDS;
+				break;
+			case "us":
+				m_precision = TimeUnit.MICROSECONDS;
+				break;
+			case "ms":
+				m_precision = TimeUnit.MILLISECONDS;
+				break;
+			case "s":
+				m_precision = TimeUnit.SECONDS;
+				break;
+			default:
+				throw new IllegalArgumentException(PRECISION_PROP + " must be one of ns, us, ms or s");
+		}
+	}
+
+	@Override
+	public String getProtocol()
+	{
+		return "influx";
+	}
+
+	/**
+	 A line is Influx when the measurement has tags or the second word is a
+	 field set, Graphite and OpenTSDB lines have a number there.
+	 */
+	@Override
+	public boolean accepts(String line)
+	{
+		int end = findUnescaped(line, 0, ' ');
+		if (end == -1)
+			return false;
+
+		int comma = findUnescaped(line, 0, ',');
+		if (comma != -1 && comma < end)
+			return true;
+
+		int fieldsEnd = findUnescaped(line, end + 1, ' ');
+		int equals = line.indexOf('=', end + 1);
+		return equals != -1 && (fieldsEnd == -1 || equals < fieldsEnd);
+	}
+
+	@Override
+	public void parseLine(String line, List<DataPointEvent> events) throws ValidationException
+	{
+		Cursor cursor = new Cursor(line);
+
+		String measurement = cursor.readToken(",");
+		Validator.validateNotNullOrEmpty("measurement", measurement);
+
+		ImmutableSortedMap.Builder<String, String> tags = Tags.create();
+		int tagCount = 0;
+		while (cursor.skip(','))
+		{
+			String name = cursor.readToken("=,");
+			if (!cursor.skip('='))
+				throw new ValidationException(String.format("tag[%d] must be in the format 'name=value'.", tagCount));
+			String value = cursor.readToken(",");
+
+			Validator.validateNotNullOrEmpty(String.format("tag[%d].name", tagCount), name);
+			Validator.validateNotNullOrEmpty(String.format("tag[%d].value", tagCount), value);
+			tags.put(name, value);
+			tagCount++;
+		}
+
+		if (tagCount == 0)
+			tags.put("add", "tag");
+
+		ImmutableSortedMap<String, String> tagMap;
+		try
+		{
+			tagMap = tags.build();
+		}
+		catch (IllegalArgumentException e)
+		{
+			throw new ValidationException("Duplicate tag in measurement '" + measurement + "'.");
+		}
+
+		if (!cursor.skip(' '))
+			throw new ValidationException("Influx line must have a field set.");
+
+		//Fields are read before the timestamp that follows them, the values are
+		//kept as text until then
+		int fieldsStart = cursor.m_position;
+		cursor.skipFields();
+		long timestamp = System.currentTimeMillis();
+		if (cursor.skip(' '))
+		{
+			String time = line.substring(cursor.m_position).trim();
+			if (!time.isEmpty())
+			{
+				try
+				{
+					timestamp = m_precision.toMillis(Util.parseLong(time));
+				}
+				catch (NumberFormatException e)
+				{
+					throw new ValidationException("timestamp " + e.getMessage());
+				}
+			}
+		}
+
+		cursor.m_position = fieldsStart;
+		int fieldCount = 0;
+		do
+		{
+			String field = cursor.readToken("=,");
+			Validator.validateNotNullOrEmpty(String.format("field[%d].name", fieldCount), field);
+			if (!cursor.skip('='))
+				throw new ValidationException(String.format("field[%d] must be in the format 'name=value'.", fieldCount));
+
+			DataPoint dataPoint;
+			if (cursor.peek() == '"')
+				dataPoint = m_stringFactory.createDataPoint(timestamp, cursor.readQuoted());
+			else
+				dataPoint = createDataPoint(fieldCount, timestamp, cursor.readToken(","));
+
+			events.add(new DataPointEvent(m_seriesRegistry.getSeries(measurement + "." + field, tagMap), dataPoint, 0));
+			fieldCount++;
+		}
+		while (cursor.skip(','));
+	}
+
+	private DataPoint createDataPoint(int fieldCount, long timestamp, String value) throws ValidationException
+	{
+		try
+		{
+			char last = value.isEmpty() ? 0 : value.charAt(value.length() - 1);
+			if (last == 'i' || last == 'u')
+				return m_longFactory.createDataPoint(timestamp, Util.parseLong(value.substring(0, value.length() - 1)));
+
+			switch (value)
+			{
+				case "t": case "T": case "true": case "True": case "TRUE":
+					return m_longFactory.createDataPoint(timestamp, 1L);
+				case "f": case "F": case "false": case "False": case "FALSE":
+					return m_longFactory.createDataPoint(timestamp, 0L);
+			}
+
+			return m_doubleFactory.createDataPoint(timestamp, Double.parseDouble(value));
+		}
+		catch (NumberFormatException e)
+		{
+			throw new ValidationException(String.format("field[%d].value %s", fieldCount, e.getMessage()));
+		}
+	}
+
+	private static int findUnescaped(String line, int start, char c)
+	{
+		for (int i = start; i < line.length(); i++)
+		{
+			char ch = line.charAt(i);
+			if (ch == '\\')
+				i++;
+			else if (ch == c)
+				return i;
+		}
+
+		return -1;
+	}
+
+	/**
+	 Reads the escaped tokens of one line.
+	 */
+	private static class Cursor
+	{
+		private final String m_line;
+		private int m_position;
+
+		private Cursor(String line)
+		{
+			m_line = line;
+		}
+
+		private char peek()
+		{
+			return m_position < m_line.length() ? m_line.charAt(m_position) : 0;
+		}
+
+		private boolean skip(char c)
+		{
+			if (peek() != c)
+				return false;
+
+			m_position++;
+			return true;
+		}
+
+		/**
+		 Reads up to the first unescaped space or character in endChars.
+		 */
+		private String readToken(String endChars)
+		{
+			StringBuilder sb = null;
+			int start = m_position;
+			while (m_position < m_line.length())
+			{
+				char c = m_line.charAt(m_position);
+				if (c == ' ' || endChars.indexOf(c) != -1)
+					break;
+
+				if (c == '\\' && m_position + 1 < m_line.length())
+				{
+					char next = m_line.charAt(m_position + 1);
+					if (next == ' ' || next == ',' || next == '=' || next == '\\')
+					{
+						if (sb == null)
+							sb = new StringBuilder(m_line.substring(start, m_position));
+						sb.append(next);
+						m_position += 2;
+						continue;
+					}
+				}
+
+				if (sb != null)
+					sb.append(c);
+				m_position++;
+			}
+
+			return sb != null ? sb.toString() : m_line.substring(start, m_position);
+		}
+
+		private String readQuoted() throws ValidationException
+		{
+			StringBuilder sb = new StringBuilder();
+			m_position++;
+			while (m_position < m_line.length())
+			{
+				char c = m_line.charAt(m_position++);
+				if (c == '"')
+					return sb.toString();
+
+				if (c == '\\' && m_position < m_line.length() &&
+						(m_line.charAt(m_position) == '"' || m_line.charAt(m_position) == '\\'))
+					c = m_line.charAt(m_position++);
+
+				sb.append(c);
+			}
+
+			throw new ValidationException("Unterminated string field.");
+		}
+
+		/**
+		 Moves past the field set without building the values.
+		 */
+		private void skipFields() throws ValidationException
+		{
+			do
+			{
+				readToken("=,");
+				if (!skip('='))
+					return;
+
+				if (peek() == '"')
+					readQuoted();
+				else
+					readToken(",");
+			}
+			while (skip(','));
+		}
+	}
+}
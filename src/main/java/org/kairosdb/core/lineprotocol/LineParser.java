@@ -0,0 +1,42 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.core.lineprotocol;
+
+import org.kairosdb.events.DataPointEvent;
+import org.kairosdb.util.ValidationException;
+
+import java.util.List;
+
+/**
+ Parses one line of a text protocol into data point events.  The line protocol
+ server asks each parser in turn whether it accepts a line, so accepts only has
+ to look far enough into the line to tell the protocols apart.
+ */
+public interface LineParser
+{
+	/**
+	 Name of the protocol, reported as the protocol tag of the line metrics.
+	 */
+	public String getProtocol();
+
+	public boolean accepts(String line);
+
+	/**
+	 Adds the events of the line to events.
+	 */
+	public void parseLine(String line, List<DataPointEvent> events) throws ValidationException;
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.core.lineprotocol;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.TooLongFrameException;
+import io.netty.util.CharsetUtil;
+import org.kairosdb.events.DataPointEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ Handler for one connection.  The lines of a read are parsed as they arrive
+ and the events are posted together when the read completes.  While the queue
+ processor is saturated the connection stops reading.
+ */
+class LineProtocolHandler extends SimpleChannelInboundHandler<ByteBuf>
+{
+	private static final Logger logger = LoggerFactory.getLogger(LineProtocolHandler.class);
+	private static final long RESUME_CHECK_MILLIS = 10;
+
+	private final LineProtocolServer m_server;
+	private final List<DataPointEvent> m_events = new ArrayList<>();
+
+	LineProtocolHandler(LineProtocolServer server)
+	{
+		m_server = server;
+	}
+
+	@Override
+	public void channelActive(ChannelHandlerContext ctx) throws Exception
+	{
+		m_server.connectionOpened();
+		super.channelActive(ctx);
+	}
+
+	@Override
+	public void channelInactive(ChannelHandlerContext ctx) throws Exception
+	{
+		m_server.connectionClosed();
+		super.channelInactive(ctx);
+	}
+
+	@Override
+	protected void channelRead0(ChannelHandlerContext ctx, ByteBuf frame)
+	{
+		String line = frame.toString(CharsetUtil.UTF_8);
+		if (line.isEmpty())
+			return;
+
+		int parser = m_server.findParser(line);
+		if (parser == -1)
+		{
+			m_server.lineFailed();
+			log("Unknown line: '" + line + "'", ctx, null);
+			return;
+		}
+
+		int eventCount = m_events.size();
+		try
+		{
+			m_server.getParser(parser).parseLine(line, m_events);
+		}
+		catch (Exception e)
+		{
+			//A line is taken whole or not at all
+			m_events.subList(eventCount, m_events.size()).clear();
+			m_server.lineFailed();
+			log("Failed to parse line: '" + line + "' Reason: " + e.getMessage(), ctx, e);
+		}
+	}
+
+	@Override
+	public void channelReadComplete(ChannelHandlerContext ctx) throws Exception
+	{
+		if (!m_events.isEmpty())
+		{
+			try
+			{
+				m_server.postEvents(m_events);
+			}
+			catch (Exception e)
+			{
+				log("Failed to post " + m_events.size() + " data points. Reason: " + e.getMessage(), ctx, e);
+			}
+			m_events.clear();
+		}
+
+		if (m_server.isQueueSaturated() && ctx.channel().config().isAutoRead())
+		{
+			ctx.channel().config().setAutoRead(false);
+			scheduleResume(ctx);
+		}
+
+		super.channelReadComplete(ctx);
+	}
+
+	private void scheduleResume(final ChannelHandlerContext ctx)
+	{
+		ctx.executor().schedule(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				if (!ctx.channel().isActive())
+					return;
+
+				if (m_server.isQueueSaturated())
+					scheduleResume(ctx);
+				else
+					ctx.channel().config().setAutoRead(true);
+			}
+		}, RESUME_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause)
+	{
+		if (cause instanceof TooLongFrameException)
+		{
+			//The frame decoder has already dropped the line
+			m_server.lineFailed();
+			log(cause.getMessage(), ctx, null);
+		}
+		else
+		{
+			logger.error("Error in line protocol connection", cause);
+			ctx.close();
+		}
+	}
+
+	private static void log(String message, ChannelHandlerContext ctx, Exception e)
+	{
+		SocketAddress remoteAddress = ctx.channel().remoteAddress();
+		if (remoteAddress instanceof InetSocketAddress)
+			message += " From: " + ((InetSocketAddress) remoteAddress).getAddress().getHostAddress();
+
+		if (logger.isDebugEnabled())
+			if (e != null)
+				logger.debug(message, e);
+			else
+				logger.debug(message);
+		else
+		{
+			logger.warn(message);
+		}
+	}
+}
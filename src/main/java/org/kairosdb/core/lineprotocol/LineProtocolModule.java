@@ -0,0 +1,43 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.core.lineprotocol;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Singleton;
+import org.kairosdb.core.KairosRootConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class LineProtocolModule extends AbstractModule
+{
+	public static final Logger logger = LoggerFactory.getLogger(LineProtocolModule.class);
+
+	public LineProtocolModule(KairosRootConfig props)
+	{
+	}
+
+	@Override
+	protected void configure()
+	{
+		logger.info("Configuring module LineProtocolModule");
+
+		bind(LineProtocolServer.class).in(Singleton.class);
+		bind(OpenTsdbLineParser.class).in(Singleton.class);
+		bind(GraphiteLineParser.class).in(Singleton.class);
+		bind(InfluxLineParser.class).in(Singleton.class);
+	}
+}
@@ -0,0 +1,334 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.core.lineprotocol;
+
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.ServerSocketChannel;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.LineBasedFrameDecoder;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.kairosdb.core.DataPointSet;
+import org.kairosdb.core.KairosDBService;
+import org.kairosdb.core.datapoints.LongDataPointFactory;
+import org.kairosdb.core.datapoints.LongDataPointFactoryImpl;
+import org.kairosdb.core.exception.DatastoreException;
+import org.kairosdb.core.exception.KairosDBException;
+import org.kairosdb.core.queue.QueueProcessor;
+import org.kairosdb.core.reporting.KairosMetricReporter;
+import org.kairosdb.eventbus.FilterEventBus;
+import org.kairosdb.eventbus.Publisher;
+import org.kairosdb.events.DataPointEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+/**
+ Line protocol server on Netty 4.  Accepts OpenTSDB put, Graphite plaintext and
+ InfluxDB line protocol lines on the same port, each line is handed to the
+ first parser that accepts it.  Uses the native epoll transport when it is
+ enabled and available.
+ */
+public class LineProtocolServer implements KairosDBService, KairosMetricReporter
+{
+	private static final Logger logger = LoggerFactory.getLogger(LineProtocolServer.class);
+
+	public static final String ADDRESS_PROP = "kairosdb.lineprotocol.address";
+	public static final String PORT_PROP = "kairosdb.lineprotocol.port";
+	public static final String MAX_LINE_SIZE_PROP = "kairosdb.lineprotocol.max_line_size";
+	public static final String BOSS_THREADS_PROP = "kairosdb.lineprotocol.boss_threads";
+	public static final String WORKER_THREADS_PROP = "kairosdb.lineprotocol.worker_threads";
+	public static final String USE_EPOLL_PROP = "kairosdb.lineprotocol.use_epoll";
+
+	public static final String METRIC_PREFIX = "kairosdb.protocol.line.";
+
+	private final InetAddress m_address;
+	private final int m_port;
+	private final int m_maxLineSize;
+	private final List<LineParser> m_parsers;
+	private final Publisher<DataPointEvent> m_publisher;
+
+	private int m_bossThreads = 1;
+	private int m_workerThreads = 0;
+	private boolean m_useEpoll = true;
+	private QueueProcessor m_queueProcessor;
+
+	@Inject
+	@Named("HOSTNAME")
+	private String m_hostName = "none";
+
+	@Inject
+	private LongDataPointFactory m_dataPointFactory = new LongDataPointFactoryImpl();
+
+	private EventLoopGroup m_bossGroup;
+	private EventLoopGroup m_workerGroup;
+	private Channel m_serverChannel;
+
+	private final AtomicLong m_openConnections = new AtomicLong();
+	private final AtomicLong m_connectionCount = new AtomicLong();
+	private final AtomicLong m_byteCount = new AtomicLong();
+	private final AtomicLong m_errorCount = new AtomicLong();
+	private final AtomicLong[] m_lineCounts;
+
+	@Inject
+	public LineProtocolServer(@Named(ADDRESS_PROP) String address,
+			@Named(PORT_PROP) int port,
+			@Named(MAX_LINE_SIZE_PROP) int maxLineSize,
+			FilterEventBus eventBus,
+			OpenTsdbLineParser openTsdbParser,
+			InfluxLineParser influxParser,
+			GraphiteLineParser graphiteParser)
+			throws UnknownHostException
+	{
+		this(address, port, maxLineSize, eventBus,
+				Arrays.asList(openTsdbParser, influxParser, graphiteParser));
+	}
+
+	/**
+	 @param parsers Tried in order, the last one should accept any line
+	 */
+	public LineProtocolServer(String address, int port, int maxLineSize, FilterEventBus eventBus,
+			List<LineParser> parsers) throws UnknownHostException
+	{
+		checkArgument(maxLineSize > 0, "line size must be greater than zero");
+
+		m_address = InetAddress.getByName(address);
+		m_port = port;
+		m_maxLineSize = maxLineSize;
+		m_parsers = new ArrayList<>(requireNonNull(parsers));
+		m_publisher = eventBus.createPublisher(DataPointEvent.class);
+
+		m_lineCounts = new AtomicLong[m_parsers.size()];
+		for (int i = 0; i < m_lineCounts.length; i++)
+			m_lineCounts[i] = new AtomicLong();
+	}
+
+	@Inject(optional = true)
+	public void setBossThreads(@Named(BOSS_THREADS_PROP) int bossThreads)
+	{
+		m_bossThreads = bossThreads;
+	}
+
+	/**
+	 @param workerThreads 0 uses the Netty default of twice the number of cores
+	 */
+	@Inject(optional = true)
+	public void setWorkerThreads(@Named(WORKER_THREADS_PROP) int workerThreads)
+	{
+		m_workerThreads = workerThreads;
+	}
+
+	@Inject(optional = true)
+	public void setUseEpoll(@Named(USE_EPOLL_PROP) boolean useEpoll)
+	{
+		m_useEpoll = useEpoll;
+	}
+
+	@Inject(optional = true)
+	public void setQueueProcessor(QueueProcessor queueProcessor)
+	{
+		m_queueProcessor = queueProcessor;
+	}
+
+	public InetAddress getAddress()
+	{
+		return m_address;
+	}
+
+	@Override
+	public void start() throws KairosDBException
+	{
+		Class<? extends ServerSocketChannel> channelClass;
+		if (m_useEpoll && Epoll.isAvailable())
+		{
+			m_bossGroup = new EpollEventLoopGroup(m_bossThreads, new DefaultThreadFactory("lineprotocol-boss"));
+			m_workerGroup = new EpollEventLoopGroup(m_workerThreads, new DefaultThreadFactory("lineprotocol-worker"));
+			channelClass = EpollServerSocketChannel.class;
+		}
+		else
+		{
+			if (m_useEpoll)
+				logger.info("Epoll is not available, using NIO: " + Epoll.unavailabilityCause());
+
+			m_bossGroup = new NioEventLoopGroup(m_bossThreads, new DefaultThreadFactory("lineprotocol-boss"));
+			m_workerGroup = new NioEventLoopGroup(m_workerThreads, new DefaultThreadFactory("lineprotocol-worker"));
+			channelClass = NioServerSocketChannel.class;
+		}
+
+		final ByteCounter byteCounter = new ByteCounter();
+
+		ServerBootstrap bootstrap = new ServerBootstrap()
+				.group(m_bossGroup, m_workerGroup)
+				.channel(channelClass)
+				.option(ChannelOption.SO_REUSEADDR, true)
+				.childOption(ChannelOption.TCP_NODELAY, true)
+				.childOption(ChannelOption.SO_KEEPALIVE, true)
+				.childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+				.childHandler(new ChannelInitializer<SocketChannel>()
+				{
+					@Override
+					protected void initChannel(SocketChannel channel)
+					{
+						channel.pipeline()
+								.addLast("counter", byteCounter)
+								.addLast("framer", new LineBasedFrameDecoder(m_maxLineSize, true, false))
+								.addLast("handler", new LineProtocolHandler(LineProtocolServer.this));
+					}
+				});
+
+		try
+		{
+			m_serverChannel = bootstrap.bind(new InetSocketAddress(m_address, m_port)).sync().channel();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new KairosDBException("Interrupted while binding line protocol server", e);
+		}
+	}
+
+	@Override
+	public void stop()
+	{
+		if (m_serverChannel != null)
+			m_serverChannel.close().syncUninterruptibly();
+
+		if (m_bossGroup != null)
+			m_bossGroup.shutdownGracefully();
+
+		if (m_workerGroup != null)
+			m_workerGroup.shutdownGracefully().syncUninterruptibly();
+	}
+
+	/**
+	 Returns the index of the parser for the line, lines no parser accepts
+	 return -1.
+	 */
+	int findParser(String line)
+	{
+		for (int i = 0; i < m_parsers.size(); i++)
+		{
+			if (m_parsers.get(i).accepts(line))
+				return i;
+		}
+
+		return -1;
+	}
+
+	LineParser getParser(int index)
+	{
+		m_lineCounts[index].incrementAndGet();
+		return m_parsers.get(index);
+	}
+
+	void postEvents(List<DataPointEvent> events) throws DatastoreException
+	{
+		for (DataPointEvent event : events)
+			m_publisher.post(event);
+	}
+
+	boolean isQueueSaturated()
+	{
+		return m_queueProcessor != null && m_queueProcessor.isSaturated();
+	}
+
+	void connectionOpened()
+	{
+		m_openConnections.incrementAndGet();
+		m_connectionCount.incrementAndGet();
+	}
+
+	void connectionClosed()
+	{
+		m_openConnections.decrementAndGet();
+	}
+
+	void lineFailed()
+	{
+		m_errorCount.incrementAndGet();
+	}
+
+	@Override
+	public List<DataPointSet> getMetrics(long now)
+	{
+		List<DataPointSet> metrics = new ArrayList<>();
+
+		metrics.add(newMetric("open_connections", now, m_openConnections.get()));
+		metrics.add(newMetric("connection_count", now, m_connectionCount.getAndSet(0)));
+		metrics.add(newMetric("byte_count", now, m_byteCount.getAndSet(0)));
+		metrics.add(newMetric("error_count", now, m_errorCount.getAndSet(0)));
+
+		for (int i = 0; i < m_parsers.size(); i++)
+		{
+			DataPointSet dps = newMetric("line_count", now, m_lineCounts[i].getAndSet(0));
+			dps.addTag("protocol", m_parsers.get(i).getProtocol());
+			metrics.add(dps);
+		}
+
+		return metrics;
+	}
+
+	private DataPointSet newMetric(String name, long now, long value)
+	{
+		DataPointSet dps = new DataPointSet(METRIC_PREFIX + name);
+		dps.addTag("host", m_hostName);
+		dps.addDataPoint(m_dataPointFactory.createDataPoint(now, value));
+
+		return dps;
+	}
+
+	/**
+	 Counts the bytes read before they are split into lines.
+	 */
+	@ChannelHandler.Sharable
+	private class ByteCounter extends ChannelInboundHandlerAdapter
+	{
+		@Override
+		public void channelRead(ChannelHandlerContext ctx, Object msg)
+		{
+			if (msg instanceof ByteBuf)
+				m_byteCount.addAndGet(((ByteBuf) msg).readableBytes());
+
+			ctx.fireChannelRead(msg);
+		}
+	}
+}
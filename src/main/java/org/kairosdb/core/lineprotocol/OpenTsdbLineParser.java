@@ -0,0 +1,71 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.core.lineprotocol;
+
+import com.google.inject.Inject;
+import org.kairosdb.core.telnet.DataPointCommand;
+import org.kairosdb.core.telnet.PutCommand;
+import org.kairosdb.core.telnet.PutMillisecondCommand;
+import org.kairosdb.core.telnet.PutStringCommand;
+import org.kairosdb.core.telnet.WordSplitter;
+import org.kairosdb.events.DataPointEvent;
+import org.kairosdb.util.ValidationException;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ OpenTSDB put lines, parsed by the same commands the telnet server uses:
+ put, putm and puts.
+ */
+public class OpenTsdbLineParser implements LineParser
+{
+	private final Map<String, DataPointCommand> m_commands = new HashMap<>();
+
+	@Inject
+	public OpenTsdbLineParser(PutCommand putCommand, PutMillisecondCommand putMillisecondCommand,
+			PutStringCommand putStringCommand)
+	{
+		m_commands.put(putCommand.getCommand(), putCommand);
+		m_commands.put(putMillisecondCommand.getCommand(), putMillisecondCommand);
+		m_commands.put(putStringCommand.getCommand(), putStringCommand);
+	}
+
+	@Override
+	public String getProtocol()
+	{
+		return "opentsdb";
+	}
+
+	@Override
+	public boolean accepts(String line)
+	{
+		int space = line.indexOf(' ');
+		return space != -1 && m_commands.containsKey(line.substring(0, space));
+	}
+
+	@Override
+	public void parseLine(String line, List<DataPointEvent> events) throws ValidationException
+	{
+		List<String> command = WordSplitter.splitString(line);
+		if (command.size() < 4)
+			throw new ValidationException("put must have a metric name, timestamp and value.");
+
+		events.add(m_commands.get(command.get(0)).createEvent(command));
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.core.queue;
+
+import org.kairosdb.bigqueue.IBigArray;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ The purpose of this class is to track all batches sent up to a certain point
+ and once they are finished (via a call to complete) this will move the
+ tail of the big array.
+ */
+class BigArrayCompletionCallBack implements EventCompletionCallBack
+{
+	public static final Logger logger = LoggerFactory.getLogger(BigArrayCompletionCallBack.class);
+
+	private final IBigArray m_bigArray;
+	private long m_completionIndex;
+	private final AtomicInteger m_counter;
+	private volatile boolean m_finalized;
+	private BigArrayCompletionCallBack m_childCallBack;
+
+	BigArrayCompletionCallBack(IBigArray bigArray)
+	{
+		m_bigArray = bigArray;
+		m_counter = new AtomicInteger(0);
+		m_finalized = false;
+	}
+
+	public void setChildCallBack(BigArrayCompletionCallBack childCallBack)
+	{
+		m_childCallBack = childCallBack;
+		m_childCallBack.increment();
+	}
+
+	public void setCompletionIndex(long completionIndex)
+	{
+		m_completionIndex = completionIndex;
+	}
+
+	public void increment()
+	{
+		m_counter.incrementAndGet();
+	}
+
+	/**
+	 The finalize method gets called always before the last call to complete
+	 No need for locking
+	 */
+	public void setFinalized()
+	{
+		m_finalized = true;
+	}
+
+	@Override
+	public void complete()
+	{
+		if (m_counter.decrementAndGet() == 0 && m_finalized)
+		{
+			m_childCallBack.complete();
+			//Checkpoint big queue, keeping the start of the dictionary page
+			//that later records may refer to
+			try
+			{
+				long removeIndex = Math.max(QueueRecordWriter.pageStart(m_completionIndex),
+						m_bigArray.getTailIndex());
+				if (removeIndex <= m_completionIndex)
+					m_bigArray.removeBeforeIndex(removeIndex);
+			}
+			catch (IOException e)
+			{
+				logger.warn("Unable to cleanup bigqueue", e);
+			}
+		}
+	}
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.core.queue;
+
+import org.kairosdb.bigqueue.IBigArray;
+import org.kairosdb.core.DataPointSet;
+import org.kairosdb.core.exception.DatastoreException;
+import org.kairosdb.util.SimpleStats;
+import org.kairosdb.util.SimpleStatsReporter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ Decides when the big array behind a file queue is forced to disk.
+
+ <ul>
+ <li>NONE - the big array is never forced, data reaches disk when the OS writes
+ back the mapped pages.  This is how the file queue has always behaved.</li>
+ <li>INTERVAL - a sync thread forces the big array every sync interval.</li>
+ <li>GROUP_COMMIT - the sync thread forces the big array once appends are
+ waiting, after gathering appends for at most the max latency.  Everything
+ appended while a force is running goes into the next one.</li>
+ </ul>
+
+ Callers that need their events on disk before answering, like the
+ /datapoints endpoint, call waitForDurable after putting them.
+ */
+public class BigArraySyncer
+{
+	public static final Logger logger = LoggerFactory.getLogger(BigArraySyncer.class);
+
+	public static final String DURABILITY = "kairosdb.queue_processor.durability";
+	public static final String SYNC_INTERVAL = "kairosdb.queue_processor.sync_interval";
+	public static final String GROUP_COMMIT_MAX_LATENCY = "kairosdb.queue_processor.group_commit_max_latency";
+
+	public enum Durability
+	{
+		NONE,
+		INTERVAL,
+		GROUP_COMMIT
+	}
+
+	private final Object m_lock = new Object();
+	private final IBigArray m_bigArray;
+	private final Durability m_durability;
+	private final long m_waitMillis;
+	private final SimpleStats m_syncTimeStats = new SimpleStats();
+	private final SimpleStats m_groupSizeStats = new SimpleStats();
+	private final Thread m_syncThread;
+
+	//Everything before this index has been forced to disk
+	private volatile long m_syncedIndex;
+	private volatile boolean m_syncThreadWaiting = false;
+	private volatile boolean m_running = true;
+
+	/**
+	 @param waitMillis sync interval for INTERVAL, max latency for GROUP_COMMIT
+	 */
+	public BigArraySyncer(IBigArray bigArray, Durability durability, long waitMillis)
+	{
+		m_bigArray = bigArray;
+		m_durability = durability;
+		m_waitMillis = waitMillis;
+		m_syncedIndex = bigArray.getHeadIndex();
+
+		if (m_durability != Durability.NONE)
+		{
+			m_syncThread = new Thread(this::runSyncThread, "BigArraySyncer");
+			m_syncThread.setDaemon(true);
+			m_syncThread.start();
+		}
+		else
+			m_syncThread = null;
+	}
+
+	public static BigArraySyncer create(IBigArray bigArray, String durability,
+			long syncInterval, long groupCommitMaxLatency)
+	{
+		Durability mode = Durability.valueOf(durability.trim().toUpperCase());
+		long waitMillis = (mode == Durability.INTERVAL) ? syncInterval : groupCommitMaxLatency;
+		logger.info("File queue durability set to " + mode);
+
+		return new BigArraySyncer(bigArray, mode, waitMillis);
+	}
+
+	public Durability getDurability()
+	{
+		return m_durability;
+	}
+
+	/**
+	 Called after appending to the big array, wakes the sync thread when it is
+	 waiting for appends
+	 */
+	public void appended()
+	{
+		if (m_syncThreadWaiting)
+		{
+			synchronized (m_lock)
+			{
+				m_lock.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 Blocks until everything appended to the big array before the call is on
+	 disk.  Returns right away when durability is NONE.
+	 */
+	public void waitForDurable() throws DatastoreException
+	{
+		if (m_durability == Durability.NONE)
+			return;
+
+		long target = m_bigArray.getHeadIndex();
+		appended();
+
+		synchronized (m_lock)
+		{
+			while (m_syncedIndex < target)
+			{
+				if (!m_running)
+					throw new DatastoreException("File Queue shutting down");
+
+				try
+				{
+					m_lock.wait();
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+					throw new DatastoreException("Interrupted waiting for queue sync");
+				}
+			}
+		}
+	}
+
+	private void runSyncThread()
+	{
+		while (m_running)
+		{
+			try
+			{
+				if (m_durability == Durability.GROUP_COMMIT)
+				{
+					waitForAppend();
+					if (!m_running)
+						break;
+				}
+
+				//Gather appends for group commit, or wait out the interval
+				if (m_waitMillis > 0)
+					Thread.sleep(m_waitMillis);
+
+				sync();
+			}
+			catch (InterruptedException e)
+			{
+				if (m_running)
+					logger.info("Queue sync thread interrupted");
+			}
+			catch (Exception e)
+			{
+				logger.error("Unable to sync bigqueue", e);
+			}
+		}
+	}
+
+	private void waitForAppend() throws InterruptedException
+	{
+		synchronized (m_lock)
+		{
+			m_syncThreadWaiting = true;
+			try
+			{
+				while (m_running && m_bigArray.getHeadIndex() <= m_syncedIndex)
+					m_lock.wait(1000);
+			}
+			finally
+			{
+				m_syncThreadWaiting = false;
+			}
+		}
+	}
+
+	/**
+	 Forces everything appended so far to disk and wakes the callers waiting
+	 for it
+	 */
+	private void sync()
+	{
+		long target = m_bigArray.getHeadIndex();
+		long groupSize = target - m_syncedIndex;
+		if (groupSize <= 0)
+			return;
+
+		long start = System.nanoTime();
+		m_bigArray.flush();
+		m_syncTimeStats.addValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+		m_groupSizeStats.addValue(groupSize);
+
+		synchronized (m_lock)
+		{
+			m_syncedIndex = target;
+			m_lock.notifyAll();
+		}
+	}
+
+	/**
+	 Stops the sync thread after a last sync, must be called before the big
+	 array is closed
+	 */
+	public void shutdown()
+	{
+		if (m_syncThread == null)
+			return;
+
+		m_running = false;
+		m_syncThread.interrupt();
+		try
+		{
+			m_syncThread.join(TimeUnit.SECONDS.toMillis(10));
+		}
+		catch (InterruptedException e)
+		{
+			logger.info("Interrupted waiting for queue sync thread");
+		}
+
+		sync();
+
+		synchronized (m_lock)
+		{
+			m_lock.notifyAll();
+		}
+	}
+
+	public void addReportedMetrics(SimpleStatsReporter reporter, List<DataPointSet> metrics, long now)
+	{
+		if (m_durability == Durability.NONE)
+			return;
+
+		reporter.reportStats(m_syncTimeStats.getAndClear(), now,
+				"kairosdb.queue.fsync_micros", metrics);
+
+		reporter.reportStats(m_groupSizeStats.getAndClear(), now,
+				"kairosdb.queue.fsync_group_size", metrics);
+	}
+}
@@ -0,0 +1,506 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.core.queue;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableSortedMap;
+import org.kairosdb.bigqueue.IBigArray;
+import org.kairosdb.core.DataPointSet;
+import org.kairosdb.core.datapoints.LongDataPointFactory;
+import org.kairosdb.core.datapoints.LongDataPointFactoryImpl;
+import org.kairosdb.core.exception.DatastoreException;
+import org.kairosdb.events.DataPointEvent;
+import org.kairosdb.util.SimpleStats;
+import org.kairosdb.util.SimpleStatsReporter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ File backed queue processor for many concurrent producers.  Like the
+ FileQueueProcessor every event is in the big array before put returns and the
+ big array is only checkpointed once the batches holding the events complete.
+
+ Producers add their events to a lock free pending queue.  The producer that
+ gets the append lock encodes and appends every pending event to the big array
+ as one group and wakes the other producers, so under load one lock acquisition
+ covers many events.  Encoding happens under the lock because records refer to
+ the page dictionary of the records appended before them.  Appended events go into a
+ single producer single consumer ring that the delivery thread reads without
+ locking.  Events that did not fit in the ring are read back from the big array.
+ */
+public class ConcurrentFileQueueProcessor extends QueueProcessor
+{
+	public static final Logger logger = LoggerFactory.getLogger(ConcurrentFileQueueProcessor.class);
+
+	//Upper bound on how long a producer sleeps before checking its event again
+	private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+	//Times a producer yields waiting for its event before it parks
+	private static final int MAX_YIELDS = 8;
+	//Upper bound on the events a producer appends for others while holding the lock
+	private static final int MAX_GROUP_SIZE = 4096;
+
+	private final IBigArray m_bigArray;
+	private final QueueRecordWriter m_recordWriter;
+	private final QueueRecordReader m_recordReader;
+	private final Queue<PendingEvent> m_pendingEvents = new ConcurrentLinkedQueue<>();
+	private final ReentrantLock m_appendLock = new ReentrantLock();
+	private final EventRing m_memoryQueue;
+	private final Queue<DataPointEvent> m_internalMetrics = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger m_readFromFileCount = new AtomicInteger();
+	private final AtomicInteger m_readFromQueueCount = new AtomicInteger();
+	private final SimpleStats m_groupSizeStats = new SimpleStats();
+	private final int m_secondsTillCheckpoint;
+	private final int m_memoryQueueSize;
+	private final Stopwatch m_stopwatch = Stopwatch.createStarted();
+	private BigArrayCompletionCallBack m_lastCallback;
+	private ImmutableSortedMap<String, String> m_reportTags = ImmutableSortedMap.of();
+	private BigArraySyncer m_bigArraySyncer;
+	private volatile boolean m_shuttingDown;
+
+	//Index after the last event appended, only written while holding m_appendLock
+	private volatile long m_appendedIndex;
+	//Next index the delivery thread reads, only written by the delivery thread
+	private volatile long m_nextIndex;
+	private long m_lastReturnedIndex;
+	private volatile Thread m_waitingReader;
+
+	private String m_hostName = "none";
+
+	@Inject
+	private LongDataPointFactory m_dataPointFactory = new LongDataPointFactoryImpl();
+
+	@Inject
+	private SimpleStatsReporter m_simpleStatsReporter = new SimpleStatsReporter();
+
+	@Inject
+	public ConcurrentFileQueueProcessor(
+			DataPointEventSerializer eventSerializer,
+			IBigArray bigArray,
+			@Named(QUEUE_PROCESSOR) ExecutorService executor,
+			@Named(BATCH_SIZE) int batchSize,
+			@Named(MEMORY_QUEUE_SIZE) int memoryQueueSize,
+			@Named(FileQueueProcessor.SECONDS_TILL_CHECKPOINT) int secondsTillCheckpoint,
+			@Named(MINIMUM_BATCH_SIZE) int minimumBatchSize,
+			@Named(MINIMUM_BATCH_WAIT) int minBatchWait)
+	{
+		super(executor, batchSize, minimumBatchSize, minBatchWait);
+		m_bigArray = bigArray;
+		m_recordWriter = eventSerializer.newRecordWriter();
+		m_recordReader = eventSerializer.newRecordReader(bigArray);
+		m_memoryQueue = new EventRing(memoryQueueSize);
+		m_nextIndex = m_bigArray.getTailIndex();
+		m_lastReturnedIndex = m_nextIndex;
+		m_appendedIndex = m_bigArray.getHeadIndex();
+		m_lastCallback = new BigArrayCompletionCallBack(m_bigArray);
+		m_secondsTillCheckpoint = secondsTillCheckpoint;
+		m_memoryQueueSize = memoryQueueSize;
+		m_bigArraySyncer = new BigArraySyncer(bigArray, BigArraySyncer.Durability.NONE, 0);
+		m_shuttingDown = false;
+	}
+
+	@Inject
+	public void setHostName(@Named("HOSTNAME")String hostName)
+	{
+		m_hostName = hostName;
+		m_reportTags = ImmutableSortedMap.of("host", m_hostName);
+	}
+
+	@Inject
+	public void setBigArraySyncer(BigArraySyncer bigArraySyncer)
+	{
+		m_bigArraySyncer = bigArraySyncer;
+	}
+
+	@Override
+	public void shutdown()
+	{
+		m_shuttingDown = true;
+
+		m_bigArraySyncer.shutdown();
+		m_appendLock.lock();
+		try
+		{
+			//Producers still waiting get an error instead of hanging
+			failPendingEvents();
+
+			m_bigArray.flush();
+			m_bigArray.close();
+		}
+		catch (IOException e)
+		{
+			logger.warn("Error while shutting down bigqueue", e);
+		}
+		finally
+		{
+			m_appendLock.unlock();
+		}
+
+		super.shutdown();
+	}
+
+	@Override
+	public void put(DataPointEvent dataPointEvent) throws DatastoreException
+	{
+		if (m_shuttingDown)
+		{
+			throw new DatastoreException("File Queue shutting down");
+		}
+
+		PendingEvent pendingEvent = new PendingEvent(dataPointEvent, Thread.currentThread());
+		m_pendingEvents.add(pendingEvent);
+
+		int yields = 0;
+		while (!pendingEvent.m_done)
+		{
+			if (m_appendLock.tryLock())
+			{
+				try
+				{
+					appendPendingEvents();
+				}
+				finally
+				{
+					m_appendLock.unlock();
+				}
+
+				//Events added after the group was taken would otherwise wait for
+				//their producer to time out of park, hand the lock to one of them
+				PendingEvent next = m_pendingEvents.peek();
+				if (next != null)
+					LockSupport.unpark(next.m_producer);
+			}
+			else if (yields++ < MAX_YIELDS)
+				Thread.yield(); //The append usually finishes before a park would
+			else
+				LockSupport.parkNanos(this, MAX_PARK_NANOS);
+		}
+
+		if (pendingEvent.m_failure != null)
+			throw new DatastoreException("Failure to write data to bigqueue", pendingEvent.m_failure);
+	}
+
+	@Override
+	public void waitForDurable() throws DatastoreException
+	{
+		m_bigArraySyncer.waitForDurable();
+	}
+
+	/**
+	 Called while holding m_appendLock
+	 */
+	private void appendPendingEvents()
+	{
+		if (m_shuttingDown)
+		{
+			failPendingEvents();
+			return;
+		}
+
+		int count = 0;
+		PendingEvent pendingEvent;
+		while (count < MAX_GROUP_SIZE && (pendingEvent = m_pendingEvents.poll()) != null)
+		{
+			try
+			{
+				byte[] eventBytes = m_recordWriter.encode(pendingEvent.m_dataPointEvent, m_bigArray.getHeadIndex());
+				long index = m_bigArray.append(eventBytes);
+				m_memoryQueue.offer(new IndexedEvent(pendingEvent.m_dataPointEvent, index));
+				m_appendedIndex = index + 1;
+			}
+			catch (IOException ioe)
+			{
+				m_recordWriter.discard();
+				pendingEvent.m_failure = ioe;
+			}
+
+			pendingEvent.complete();
+			count++;
+		}
+
+		if (count != 0)
+		{
+			m_groupSizeStats.addValue(count);
+			m_bigArraySyncer.appended();
+
+			Thread reader = m_waitingReader;
+			if (reader != null)
+				LockSupport.unpark(reader);
+		}
+	}
+
+	private void failPendingEvents()
+	{
+		PendingEvent pendingEvent;
+		while ((pendingEvent = m_pendingEvents.poll()) != null)
+		{
+			pendingEvent.m_failure = new IOException("File Queue shutting down");
+			pendingEvent.complete();
+		}
+	}
+
+	private void waitForEvent()
+	{
+		m_waitingReader = Thread.currentThread();
+		boolean waited = false;
+
+		while (getAvailableDataPointEvents() == 0 && !m_shuttingDown)
+		{
+			waited = true;
+			LockSupport.parkNanos(this, TimeUnit.SECONDS.toNanos(1));
+			if (Thread.interrupted())
+			{
+				logger.info("Queue processor sleep interrupted");
+				break;
+			}
+		}
+
+		m_waitingReader = null;
+
+		if (waited)
+		{
+			try
+			{
+				//Adding sleep after waiting for data helps ensure we batch incoming
+				//data instead of getting the first one right off and sending it alone
+				Thread.sleep(50);
+			}
+			catch (InterruptedException e)
+			{
+				logger.info("Queue processor sleep interrupted");
+			}
+		}
+	}
+
+	@Override
+	public boolean isSaturated()
+	{
+		return m_appendedIndex - m_nextIndex >= m_memoryQueueSize;
+	}
+
+	@Override
+	protected int getAvailableDataPointEvents()
+	{
+		return (int) Math.min(Integer.MAX_VALUE, m_appendedIndex - m_nextIndex);
+	}
+
+	@Override
+	protected List<DataPointEvent> get(int batchSize)
+	{
+		if (getAvailableDataPointEvents() == 0)
+			waitForEvent();
+
+		List<DataPointEvent> ret = new ArrayList<>();
+
+		DataPointEvent internalMetric;
+		while ((internalMetric = m_internalMetrics.poll()) != null)
+			ret.add(internalMetric);
+
+		long nextIndex = m_nextIndex;
+		long appendedIndex = m_appendedIndex;
+		while (ret.size() < batchSize && nextIndex < appendedIndex)
+		{
+			IndexedEvent event = m_memoryQueue.peek();
+
+			//Skip events that were already read from file
+			while (event != null && event.m_index < nextIndex)
+			{
+				m_memoryQueue.remove();
+				event = m_memoryQueue.peek();
+			}
+
+			DataPointEvent dataPointEvent;
+			if (event != null && event.m_index == nextIndex)
+			{
+				m_memoryQueue.remove();
+				dataPointEvent = event.m_dataPointEvent;
+			}
+			else
+			{
+				try
+				{
+					dataPointEvent = m_recordReader.read(nextIndex);
+					m_readFromFileCount.incrementAndGet();
+				}
+				catch (IOException ioe)
+				{
+					logger.error("Unable to read from bigqueue", ioe);
+					break;
+				}
+			}
+
+			m_lastReturnedIndex = nextIndex;
+			nextIndex++;
+			if (dataPointEvent != null)
+				ret.add(dataPointEvent);
+		}
+
+		m_nextIndex = nextIndex;
+		m_readFromQueueCount.getAndAdd(ret.size());
+
+		m_lastCallback.increment();
+		m_lastCallback.setCompletionIndex(m_lastReturnedIndex);
+		return ret;
+	}
+
+	@Override
+	protected EventCompletionCallBack getCompletionCallBack()
+	{
+		BigArrayCompletionCallBack callbackToReturn = m_lastCallback;
+
+		if (m_stopwatch.elapsed(TimeUnit.SECONDS) > m_secondsTillCheckpoint)
+		{
+			callbackToReturn.setFinalized();
+			m_lastCallback = new BigArrayCompletionCallBack(m_bigArray);
+			callbackToReturn.setChildCallBack(m_lastCallback);
+			m_stopwatch.reset();
+			m_stopwatch.start();
+		}
+
+		return callbackToReturn;
+	}
+
+	@Override
+	public void addReportedMetrics(ArrayList<DataPointSet> metrics, long now)
+	{
+		long arraySize = m_appendedIndex - m_nextIndex;
+		long readFromFile = m_readFromFileCount.getAndSet(0);
+		long readFromQueue = m_readFromQueueCount.getAndSet(0);
+
+		//Put at the front of the queue, see FileQueueProcessor
+		m_internalMetrics.add(new DataPointEvent("kairosdb.queue.file_queue.size", m_reportTags,
+				m_dataPointFactory.createDataPoint(now, arraySize)));
+
+		m_internalMetrics.add(new DataPointEvent("kairosdb.queue.read_from_file", m_reportTags,
+				m_dataPointFactory.createDataPoint(now, readFromFile)));
+
+		m_internalMetrics.add(new DataPointEvent("kairosdb.queue.process_count", m_reportTags,
+				m_dataPointFactory.createDataPoint(now, readFromQueue)));
+
+		DataPointSet dps = new DataPointSet("kairosdb.queue.file_queue.size");
+		dps.addTag("host", m_hostName);
+		dps.addDataPoint(m_dataPointFactory.createDataPoint(now, arraySize));
+
+		metrics.add(dps);
+
+		dps = new DataPointSet("kairosdb.queue.read_from_file");
+		dps.addTag("host", m_hostName);
+		dps.addDataPoint(m_dataPointFactory.createDataPoint(now, readFromFile));
+
+		metrics.add(dps);
+
+		dps = new DataPointSet("kairosdb.queue.process_count");
+		dps.addTag("host", m_hostName);
+		dps.addDataPoint(m_dataPointFactory.createDataPoint(now, readFromQueue));
+
+		metrics.add(dps);
+
+		m_simpleStatsReporter.reportStats(m_groupSizeStats.getAndClear(), now,
+				"kairosdb.queue.append_group_size", metrics);
+
+		m_simpleStatsReporter.reportStats(m_recordWriter.getAndClearRecordSizeStats(), now,
+				"kairosdb.queue.bytes_per_event", metrics);
+
+		m_simpleStatsReporter.reportValue(m_recordReader.getAndClearReplayRate(), now,
+				"kairosdb.queue.replay_rate", metrics);
+
+		m_bigArraySyncer.addReportedMetrics(m_simpleStatsReporter, metrics, now);
+	}
+
+	/**
+	 Event waiting for a producer to append it to the big array
+	 */
+	private static class PendingEvent
+	{
+		private final DataPointEvent m_dataPointEvent;
+		private final Thread m_producer;
+		private IOException m_failure;
+		private volatile boolean m_done = false;
+
+		private PendingEvent(DataPointEvent dataPointEvent, Thread producer)
+		{
+			m_dataPointEvent = dataPointEvent;
+			m_producer = producer;
+		}
+
+		private void complete()
+		{
+			m_done = true;
+			LockSupport.unpark(m_producer);
+		}
+	}
+
+	/**
+	 Bounded ring written by the thread holding the append lock and read by the
+	 delivery thread.  When it is full new events are dropped, the delivery
+	 thread reads them from the big array instead.
+	 */
+	private static class EventRing
+	{
+		private final IndexedEvent[] m_events;
+		private final int m_mask;
+		private final AtomicLong m_head = new AtomicLong();
+		private final AtomicLong m_tail = new AtomicLong();
+
+		private EventRing(int capacity)
+		{
+			int size = (capacity <= 1) ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+			m_events = new IndexedEvent[size];
+			m_mask = size - 1;
+		}
+
+		private boolean offer(IndexedEvent event)
+		{
+			long tail = m_tail.get();
+			if (tail - m_head.get() >= m_events.length)
+				return false;
+
+			m_events[(int) (tail & m_mask)] = event;
+			m_tail.lazySet(tail + 1);
+			return true;
+		}
+
+		private IndexedEvent peek()
+		{
+			long head = m_head.get();
+			if (head >= m_tail.get())
+				return null;
+
+			return m_events[(int) (head & m_mask)];
+		}
+
+		private void remove()
+		{
+			long head = m_head.get();
+			m_events[(int) (head & m_mask)] = null;
+			m_head.lazySet(head + 1);
+		}
+	}
+}
@@ -4,6 +4,7 @@ import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.io.ByteArrayDataInput;
 import com.google.common.io.ByteArrayDataOutput;
 import com.google.common.io.ByteStreams;
+import org.kairosdb.bigqueue.IBigArray;
 import org.kairosdb.core.DataPoint;
 import org.kairosdb.core.KairosDataPointFactory;
 import org.kairosdb.events.DataPointEvent;
@@ -17,6 +18,10 @@ import java.util.Map;
 
 /**
  Created by bhawkins on 10/25/16.
+
+ serializeEvent and deserializeEvent are the original queue format where every
+ record carries all of its strings.  Queue processors write the dictionary
+ encoded format of QueueRecordWriter and read both through QueueRecordReader.
  */
 public class DataPointEventSerializer
 {
@@ -30,6 +35,23 @@ public class DataPointEventSerializer
 		m_kairosDataPointFactory = kairosDataPointFactory;
 	}
 
+	/**
+	 Creates a writer for a queue processor, records must be encoded by the
+	 thread appending them to the big array.
+	 */
+	QueueRecordWriter newRecordWriter()
+	{
+		return new QueueRecordWriter();
+	}
+
+	/**
+	 Creates a reader for the delivery thread of a queue processor.
+	 */
+	QueueRecordReader newRecordReader(IBigArray bigArray)
+	{
+		return new QueueRecordReader(bigArray, m_kairosDataPointFactory, this);
+	}
+
 	public byte[] serializeEvent(DataPointEvent dataPointEvent)
 	{
 		//Todo: Create some adaptive value here, keep stats on if the buffer increases and slowely increase it
@@ -9,6 +9,7 @@ import org.kairosdb.core.datapoints.LongDataPointFactoryImpl;
 import org.kairosdb.core.exception.DatastoreException;
 import org.kairosdb.events.DataPointEvent;
 import org.kairosdb.bigqueue.IBigArray;
+import org.kairosdb.util.SimpleStatsReporter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -32,14 +33,17 @@ public class FileQueueProcessor extends QueueProcessor
 	private final Object m_lock = new Object();
 	private final IBigArray m_bigArray;
 	private final CircularFifoQueue<IndexedEvent> m_memoryQueue;
-	private final DataPointEventSerializer m_eventSerializer;
+	private final QueueRecordWriter m_recordWriter;
+	private final QueueRecordReader m_recordReader;
 	private final List<DataPointEvent> m_internalMetrics = new ArrayList<>();
 	private AtomicInteger m_readFromFileCount = new AtomicInteger();
 	private AtomicInteger m_readFromQueueCount = new AtomicInteger();
 	private Stopwatch m_stopwatch = Stopwatch.createStarted();
-	private CompletionCallBack m_lastCallback = new CompletionCallBack();
+	private BigArrayCompletionCallBack m_lastCallback;
 	private final int m_secondsTillCheckpoint;
+	private final int m_memoryQueueSize;
 	private ImmutableSortedMap<String, String> m_reportTags = ImmutableSortedMap.of();
+	private BigArraySyncer m_bigArraySyncer;
 	private volatile boolean m_shuttingDown;
 
 	private long m_nextIndex = -1L;
@@ -49,6 +53,9 @@ public class FileQueueProcessor extends QueueProcessor
 	@Inject
 	private LongDataPointFactory m_dataPointFactory = new LongDataPointFactoryImpl();
 
+	@Inject
+	private SimpleStatsReporter m_simpleStatsReporter = new SimpleStatsReporter();
+
 	@Inject
 	public FileQueueProcessor(
 			DataPointEventSerializer eventSerializer,
@@ -63,9 +70,13 @@ public class FileQueueProcessor extends QueueProcessor
 		super(executor, batchSize, minimumBatchSize, minBatchWait);
 		m_bigArray = bigArray;
 		m_memoryQueue = new CircularFifoQueue<>(memoryQueueSize);
-		m_eventSerializer = eventSerializer;
+		m_recordWriter = eventSerializer.newRecordWriter();
+		m_recordReader = eventSerializer.newRecordReader(bigArray);
 		m_nextIndex = m_bigArray.getTailIndex();
+		m_lastCallback = new BigArrayCompletionCallBack(m_bigArray);
 		m_secondsTillCheckpoint = secondsTillCheckpoint;
+		m_memoryQueueSize = memoryQueueSize;
+		m_bigArraySyncer = new BigArraySyncer(bigArray, BigArraySyncer.Durability.NONE, 0);
 		m_shuttingDown = false;
 	}
 
@@ -76,12 +87,19 @@ public class FileQueueProcessor extends QueueProcessor
 		m_reportTags = ImmutableSortedMap.of("host", m_hostName);
 	}
 
+	@Inject
+	public void setBigArraySyncer(BigArraySyncer bigArraySyncer)
+	{
+		m_bigArraySyncer = bigArraySyncer;
+	}
+
 	@Override
 	public void shutdown()
 	{
 		//todo: would like to drain the queue before shutting down.
 		m_shuttingDown = true;
 
+		m_bigArraySyncer.shutdown();
 		m_bigArray.flush();
 		try
 		{
@@ -148,21 +166,32 @@ public class FileQueueProcessor extends QueueProcessor
 			throw new DatastoreException("File Queue shutting down");
 		}
 
-		byte[] eventBytes = m_eventSerializer.serializeEvent(dataPointEvent);
-
 		try
 		{
 			synchronized (m_lock)
 			{
 				long index = -1L;
-				//Add data to bigArray first
-				index = m_bigArray.append(eventBytes);
+				try
+				{
+					//Records refer to strings written earlier in the same page so
+					//they are encoded in append order
+					byte[] eventBytes = m_recordWriter.encode(dataPointEvent, m_bigArray.getHeadIndex());
+					//Add data to bigArray first
+					index = m_bigArray.append(eventBytes);
+				}
+				catch (IOException ioe)
+				{
+					m_recordWriter.discard();
+					throw ioe;
+				}
 				//Then stick it into the in memory queue
 				m_memoryQueue.add(new IndexedEvent(dataPointEvent, index));
 
 				//Notify the reader thread if it is waiting for data
 				m_lock.notify();
 			}
+
+			m_bigArraySyncer.appended();
 		}
 		catch (IOException ioe)
 		{
@@ -170,6 +199,21 @@ public class FileQueueProcessor extends QueueProcessor
 		}
 	}
 
+	@Override
+	public void waitForDurable() throws DatastoreException
+	{
+		m_bigArraySyncer.waitForDurable();
+	}
+
+	@Override
+	public boolean isSaturated()
+	{
+		synchronized (m_lock)
+		{
+			return m_bigArray.getHeadIndex() - m_nextIndex >= m_memoryQueueSize;
+		}
+	}
+
 	@Override
 	protected int getAvailableDataPointEvents()
 	{
@@ -206,7 +250,7 @@ public class FileQueueProcessor extends QueueProcessor
 						{
 							try
 							{
-								DataPointEvent dataPointEvent = m_eventSerializer.deserializeEvent(m_bigArray.get(m_nextIndex));
+								DataPointEvent dataPointEvent = m_recordReader.read(m_nextIndex);
 								event = new IndexedEvent(dataPointEvent, m_nextIndex);
 								m_readFromFileCount.incrementAndGet();
 							}
@@ -242,13 +286,13 @@ public class FileQueueProcessor extends QueueProcessor
 	@Override
 	protected EventCompletionCallBack getCompletionCallBack()
 	{
-		CompletionCallBack callbackToReturn = m_lastCallback;
+		BigArrayCompletionCallBack callbackToReturn = m_lastCallback;
 
 		if (m_stopwatch.elapsed(TimeUnit.SECONDS) > m_secondsTillCheckpoint)
 		{
 			//System.out.println("Checkpoint");
 			callbackToReturn.setFinalized();
-			m_lastCallback = new CompletionCallBack();
+			m_lastCallback = new BigArrayCompletionCallBack(m_bigArray);
 			callbackToReturn.setChildCallBack(m_lastCallback);
 			m_stopwatch.reset();
 			m_stopwatch.start();
@@ -303,86 +347,14 @@ public class FileQueueProcessor extends QueueProcessor
 		dps.addDataPoint(m_dataPointFactory.createDataPoint(now, readFromQueue));
 
 		metrics.add(dps);
-	}
-
-
-
-	/**
-	 The purpose of this class is to track all batches sent up to a certain point
-	 and once they are finished (via a call to complete) this will move the
-	 tail of the big array.
-	 */
-	private class CompletionCallBack implements EventCompletionCallBack
-	{
-		private long m_completionIndex;
-		private final AtomicInteger m_counter;
-		private volatile boolean m_finalized;
-		private CompletionCallBack m_childCallBack;
 
-		private CompletionCallBack()
-		{
-			m_counter = new AtomicInteger(0);
-			m_finalized = false;
-		}
-
-		public void setChildCallBack(CompletionCallBack childCallBack)
-		{
-			m_childCallBack = childCallBack;
-			m_childCallBack.increment();
-		}
+		m_simpleStatsReporter.reportStats(m_recordWriter.getAndClearRecordSizeStats(), now,
+				"kairosdb.queue.bytes_per_event", metrics);
 
-		public void setCompletionIndex(long completionIndex)
-		{
-			m_completionIndex = completionIndex;
-		}
+		m_simpleStatsReporter.reportValue(m_recordReader.getAndClearReplayRate(), now,
+				"kairosdb.queue.replay_rate", metrics);
 
-		public void increment()
-		{
-			m_counter.incrementAndGet();
-		}
-
-		/**
-		 The finalize method gets called always before the last call to complete
-		 No need for locking
-		 */
-		public void setFinalized()
-		{
-			m_finalized = true;
-		}
-
-		@Override
-		public void complete()
-		{
-			if (m_counter.decrementAndGet() == 0 && m_finalized)
-			{
-				m_childCallBack.complete();
-				//Checkpoint big queue
-				try
-				{
-					m_bigArray.removeBeforeIndex(m_completionIndex);
-				}
-				catch (IOException e)
-				{
-					logger.warn("Unable to cleanup bigqueue", e);
-				}
-			}
-		}
-	}
-
-	/**
-	 Holds a DataPointEvent and the index it is at in the BigArray.
-	 Basically to keep the in memory circular queue and BigArray in sync.
-	 */
-	private static class IndexedEvent
-	{
-		public final DataPointEvent m_dataPointEvent;
-		public final long m_index;
-
-		public IndexedEvent(DataPointEvent dataPointEvent, long index)
-		{
-			m_dataPointEvent = dataPointEvent;
-			m_index = index;
-		}
+		m_bigArraySyncer.addReportedMetrics(m_simpleStatsReporter, metrics, now);
 	}
 
 }
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.core.queue;
+
+import org.kairosdb.events.DataPointEvent;
+
+/**
+ Holds a DataPointEvent and the index it is at in the BigArray.
+ Basically to keep the in memory circular queue and BigArray in sync.
+ */
+class IndexedEvent
+{
+	public final DataPointEvent m_dataPointEvent;
+	public final long m_index;
+
+	public IndexedEvent(DataPointEvent dataPointEvent, long index)
+	{
+		m_dataPointEvent = dataPointEvent;
+		m_index = index;
+	}
+}
@@ -67,6 +67,12 @@ public class MemoryQueueProcessor extends QueueProcessor implements KairosMetric
 		metrics.add(dps);
 	}
 
+	@Override
+	public boolean isSaturated()
+	{
+		return m_queue.remainingCapacity() == 0;
+	}
+
 	@Override
 	public void put(DataPointEvent dataPointEvent)
 	{
@@ -81,6 +81,24 @@ public abstract class QueueProcessor implements KairosMetricReporter
 
 	public abstract void put(DataPointEvent dataPointEvent) throws DatastoreException;
 
+	/**
+	 Blocks until the events put before the call are durable.  Queues that are
+	 not backed by disk return right away.
+	 */
+	public void waitForDurable() throws DatastoreException
+	{
+	}
+
+	/**
+	 True when more events are waiting to be delivered than fit in the memory
+	 queue.  Ingest paths that can stop reading, like the telnet server, use this
+	 to push back on clients instead of letting the backlog grow.
+	 */
+	public boolean isSaturated()
+	{
+		return false;
+	}
+
 	/**
 	 @return Returns a Pair containing the latest index
 	 and a list of events from the queue, maybe empty
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.core.queue;
+
+import com.google.common.collect.ImmutableSortedMap;
+import org.kairosdb.bigqueue.IBigArray;
+import org.kairosdb.core.DataPoint;
+import org.kairosdb.core.KairosDataPointFactory;
+import org.kairosdb.events.DataPointEvent;
+import org.kairosdb.util.KDataInput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.kairosdb.core.queue.QueueRecordWriter.DICTIONARY_PAGE_SIZE;
+import static org.kairosdb.core.queue.QueueRecordWriter.FORMAT_VERSION;
+import static org.kairosdb.core.queue.QueueRecordWriter.RECORD_MARKER;
+import static org.kairosdb.util.Util.unpackLong;
+import static org.kairosdb.util.Util.unpackUnsignedLong;
+
+/**
+ Reads events back out of the big array, see QueueRecordWriter for the format.
+
+ To decode a record the reader needs the definitions of every earlier record in
+ the same dictionary page.  Reads are expected to be mostly in index order, the
+ reader remembers how far into the current page it has seen definitions and
+ only scans the records it skipped.  Records in the old format, which carry
+ all their strings, are passed to DataPointEventSerializer.  An old record is
+ only mistaken for a new one if its metric name is 65280 bytes or longer.
+
+ Not thread safe, meant to be used by the delivery thread only.
+ */
+class QueueRecordReader
+{
+	public static final Logger logger = LoggerFactory.getLogger(QueueRecordReader.class);
+
+	private final IBigArray m_bigArray;
+	private final KairosDataPointFactory m_kairosDataPointFactory;
+	private final DataPointEventSerializer m_legacySerializer;
+	private final List<String> m_dictionary = new ArrayList<>();
+	private long m_page = -1L;
+	//Next index in m_page whose definitions have not been read
+	private long m_scannedIndex = -1L;
+
+	private final AtomicLong m_replayCount = new AtomicLong();
+	private final AtomicLong m_replayNanos = new AtomicLong();
+
+	QueueRecordReader(IBigArray bigArray, KairosDataPointFactory kairosDataPointFactory,
+			DataPointEventSerializer legacySerializer)
+	{
+		m_bigArray = bigArray;
+		m_kairosDataPointFactory = kairosDataPointFactory;
+		m_legacySerializer = legacySerializer;
+	}
+
+	/**
+	 Reads and decodes the event at index.  Returns null if the record cannot
+	 be decoded.
+	 @throws IOException if the big array cannot be read
+	 */
+	DataPointEvent read(long index) throws IOException
+	{
+		long start = System.nanoTime();
+
+		long page = index / DICTIONARY_PAGE_SIZE;
+		if (page != m_page || index < m_scannedIndex)
+		{
+			m_dictionary.clear();
+			m_page = page;
+			m_scannedIndex = Math.max(QueueRecordWriter.pageStart(index), m_bigArray.getTailIndex());
+		}
+
+		//Pick up definitions from records that were delivered from memory
+		for (; m_scannedIndex < index; m_scannedIndex++)
+		{
+			ByteBuffer buffer = ByteBuffer.wrap(m_bigArray.get(m_scannedIndex));
+			try
+			{
+				if (isVersionedRecord(buffer))
+					readDefinitions(buffer);
+			}
+			catch (RuntimeException e)
+			{
+				logger.error("Unable to read dictionary from event at index " + m_scannedIndex, e);
+			}
+		}
+
+		DataPointEvent ret = decode(m_bigArray.get(index));
+		m_scannedIndex = index + 1;
+
+		m_replayNanos.addAndGet(System.nanoTime() - start);
+		m_replayCount.incrementAndGet();
+		return ret;
+	}
+
+	private DataPointEvent decode(byte[] bytes)
+	{
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		DataPointEvent ret = null;
+		try
+		{
+			if (!isVersionedRecord(buffer))
+				return m_legacySerializer.deserializeEvent(bytes);
+
+			KDataInput dataInput = KDataInput.createInput(buffer);
+			readDefinitions(buffer);
+
+			String metricName = lookup(unpackUnsignedLong(dataInput));
+			int ttl = (int) unpackLong(dataInput);
+			long timestamp = unpackLong(dataInput);
+			String storeType = lookup(unpackUnsignedLong(dataInput));
+
+			DataPoint dataPoint = m_kairosDataPointFactory.createDataPoint(storeType, timestamp, dataInput);
+
+			long tagCount = unpackUnsignedLong(dataInput);
+			ImmutableSortedMap.Builder<String, String> builder = ImmutableSortedMap.naturalOrder();
+			for (long i = 0; i < tagCount; i++)
+			{
+				builder.put(lookup(unpackUnsignedLong(dataInput)), lookup(unpackUnsignedLong(dataInput)));
+			}
+
+			ret = new DataPointEvent(metricName, builder.build(), dataPoint, ttl);
+		}
+		catch (IOException | RuntimeException e)
+		{
+			logger.error("Unable to deserialize event", e);
+		}
+
+		return ret;
+	}
+
+	/**
+	 Checks for the record marker and leaves the buffer positioned after the
+	 version
+	 */
+	private static boolean isVersionedRecord(ByteBuffer buffer)
+	{
+		if (buffer.remaining() < 2 || (buffer.get(0) & 0xFF) != RECORD_MARKER)
+			return false;
+
+		int version = buffer.get(1) & 0xFF;
+		if (version != FORMAT_VERSION)
+			throw new IllegalStateException("Unknown queue record version " + version);
+
+		buffer.position(2);
+		return true;
+	}
+
+	private void readDefinitions(ByteBuffer buffer)
+	{
+		try
+		{
+			KDataInput dataInput = KDataInput.createInput(buffer);
+			long count = unpackUnsignedLong(dataInput);
+			for (long i = 0; i < count; i++)
+			{
+				int id = (int) unpackUnsignedLong(dataInput);
+				int length = (int) unpackUnsignedLong(dataInput);
+				String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(),
+						length, StandardCharsets.UTF_8);
+				buffer.position(buffer.position() + length);
+
+				while (m_dictionary.size() <= id)
+					m_dictionary.add(null);
+				m_dictionary.set(id, value);
+			}
+		}
+		catch (IOException e)
+		{
+			//Not thrown when reading from a ByteBuffer
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private String lookup(long id) throws IOException
+	{
+		String value = (id < m_dictionary.size()) ? m_dictionary.get((int) id) : null;
+		if (value == null)
+			throw new IOException("Queue record refers to undefined dictionary id " + id);
+
+		return value;
+	}
+
+	/**
+	 Events read from the big array per second spent reading them, since the
+	 last call
+	 */
+	long getAndClearReplayRate()
+	{
+		long count = m_replayCount.getAndSet(0);
+		long nanos = m_replayNanos.getAndSet(0);
+
+		if (nanos == 0)
+			return 0;
+
+		return (long) (count * 1_000_000_000.0 / nanos);
+	}
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.core.queue;
+
+import com.google.common.io.ByteArrayDataOutput;
+import com.google.common.io.ByteStreams;
+import org.kairosdb.events.DataPointEvent;
+import org.kairosdb.util.SimpleStats;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.kairosdb.util.Util.packLong;
+import static org.kairosdb.util.Util.packUnsignedLong;
+
+/**
+ Encodes events into the versioned record format kept in the big array.
+
+ Indexes of the big array are split into dictionary pages of
+ DICTIONARY_PAGE_SIZE records.  Within a page every metric name, data store
+ type, tag name and tag value is written out once, by the first record that
+ uses it, and later records refer to it by a varint id.  A record looks like
+ <pre>
+ marker, version,
+ definition count, (id, length, utf8 bytes)...,
+ metric id, ttl, timestamp, type id, value,
+ tag count, (name id, value id)...
+ </pre>
+ Definitions come first so a reader can pick them up without decoding the
+ rest of the record.  Ids are written with their definition so a writer that
+ restarts part way through a page simply redefines them.
+
+ Records written by older versions start with the writeUTF length of the
+ metric name and are told apart by the marker byte, see QueueRecordReader.
+
+ Not thread safe, records must be encoded in index order by whoever is
+ appending to the big array.
+ */
+class QueueRecordWriter
+{
+	static final int RECORD_MARKER = 0xFF;
+	static final int FORMAT_VERSION = 1;
+	static final long DICTIONARY_PAGE_SIZE = 1024;
+
+	private final Map<String, Integer> m_dictionary = new HashMap<>();
+	private final List<String> m_newStrings = new ArrayList<>();
+	private final SimpleStats m_recordSizeStats = new SimpleStats();
+	private long m_page = -1L;
+	private int[] m_tagIds = new int[16];
+
+	/**
+	 First index of the dictionary page holding the given index.  The big array
+	 must not be trimmed past this point while records of the page are unread.
+	 */
+	static long pageStart(long index)
+	{
+		return index - (index % DICTIONARY_PAGE_SIZE);
+	}
+
+	/**
+	 Encodes the event that is about to be appended at index.
+	 */
+	byte[] encode(DataPointEvent dataPointEvent, long index) throws IOException
+	{
+		long page = index / DICTIONARY_PAGE_SIZE;
+		if (page != m_page)
+		{
+			m_dictionary.clear();
+			m_page = page;
+		}
+
+		m_newStrings.clear();
+		int metricId = lookup(dataPointEvent.getMetricName());
+		int typeId = lookup(dataPointEvent.getDataPoint().getDataStoreDataType());
+
+		int tagCount = dataPointEvent.getTags().size();
+		if (m_tagIds.length < tagCount * 2)
+			m_tagIds = new int[tagCount * 2];
+
+		int pos = 0;
+		for (Map.Entry<String, String> entry : dataPointEvent.getTags().entrySet())
+		{
+			m_tagIds[pos++] = lookup(entry.getKey());
+			m_tagIds[pos++] = lookup(entry.getValue());
+		}
+
+		ByteArrayDataOutput dataOutput = ByteStreams.newDataOutput(32 + (tagCount * 4));
+		dataOutput.writeByte(RECORD_MARKER);
+		dataOutput.writeByte(FORMAT_VERSION);
+
+		packUnsignedLong(m_newStrings.size(), dataOutput);
+		for (String newString : m_newStrings)
+		{
+			byte[] bytes = newString.getBytes(StandardCharsets.UTF_8);
+			packUnsignedLong(m_dictionary.get(newString), dataOutput);
+			packUnsignedLong(bytes.length, dataOutput);
+			dataOutput.write(bytes);
+		}
+
+		packUnsignedLong(metricId, dataOutput);
+		packLong(dataPointEvent.getTtl(), dataOutput);
+		packLong(dataPointEvent.getDataPoint().getTimestamp(), dataOutput);
+		packUnsignedLong(typeId, dataOutput);
+		dataPointEvent.getDataPoint().writeValueToBuffer(dataOutput);
+
+		packUnsignedLong(tagCount, dataOutput);
+		for (int i = 0; i < pos; i++)
+			packUnsignedLong(m_tagIds[i], dataOutput);
+
+		byte[] record = dataOutput.toByteArray();
+		m_recordSizeStats.addValue(record.length);
+		return record;
+	}
+
+	private int lookup(String value)
+	{
+		Integer id = m_dictionary.get(value);
+		if (id == null)
+		{
+			id = m_dictionary.size();
+			m_dictionary.put(value, id);
+			m_newStrings.add(value);
+		}
+
+		return id;
+	}
+
+	/**
+	 Forgets the dictionary when an encoded record was not appended, the next
+	 record defines its strings again.
+	 */
+	void discard()
+	{
+		m_dictionary.clear();
+		m_page = -1L;
+	}
+
+	/**
+	 Bytes written to the big array per event since the last call
+	 */
+	SimpleStats.Data getAndClearRecordSizeStats()
+	{
+		return m_recordSizeStats.getAndClear();
+	}
+}
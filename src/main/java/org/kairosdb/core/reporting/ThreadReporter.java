@@ -87,6 +87,19 @@ public class ThreadReporter
 		}
 	}
 
+	/**
+	 Data points removed from one thread so they can be reported by another.
+	 */
+	public static class ReportedData
+	{
+		private final LinkedList<ReporterDataPoint> m_dataPoints;
+
+		private ReportedData(LinkedList<ReporterDataPoint> dataPoints)
+		{
+			m_dataPoints = dataPoints;
+		}
+	}
+
 	private static class CurrentTags extends ThreadLocal<SortedMap<String, String>>
 	{
 		@Override
@@ -165,6 +178,41 @@ public class ThreadReporter
 		s_currentTags.get().clear();
 	}
 
+	public static SortedMap<String, String> getTags()
+	{
+		return new TreeMap<String, String>(s_currentTags.get());
+	}
+
+	public static void addTags(SortedMap<String, String> tags)
+	{
+		s_currentTags.get().putAll(tags);
+	}
+
+	/**
+	 Removes all data points added on this thread.  Used when work for a request
+	 is done on another thread, the returned data is handed back to the request
+	 thread with {@link #addData(ReportedData)}
+	 */
+	public static ReportedData takeData()
+	{
+		LinkedList<ReporterDataPoint> dataPoints = new LinkedList<ReporterDataPoint>(s_reporterData.get());
+		s_reporterData.get().clear();
+		return new ReportedData(dataPoints);
+	}
+
+	public static ReportedData emptyData()
+	{
+		return new ReportedData(new LinkedList<ReporterDataPoint>());
+	}
+
+	public static void addData(ReportedData data)
+	{
+		for (ReporterDataPoint dataPoint : data.m_dataPoints)
+		{
+			s_reporterData.addDataPoint(dataPoint);
+		}
+	}
+
 	public static ReporterDataPoint addDataPoint(String metric, long value)
 	{
 		return addDataPoint(metric, value, 0);
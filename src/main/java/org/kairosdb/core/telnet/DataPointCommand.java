@@ -0,0 +1,35 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.core.telnet;
+
+import org.kairosdb.core.exception.DatastoreException;
+import org.kairosdb.events.DataPointEvent;
+import org.kairosdb.util.ValidationException;
+
+import java.util.List;
+
+/**
+ A command that turns a line into a data point event.  The telnet server
+ parses every line of a read with createEvent and then posts the events
+ together with postEvents.
+ */
+public interface DataPointCommand extends TelnetCommand
+{
+	public DataPointEvent createEvent(List<String> command) throws ValidationException;
+
+	public void postEvents(List<DataPointEvent> events) throws DatastoreException;
+}
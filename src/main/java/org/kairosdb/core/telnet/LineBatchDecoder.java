@@ -0,0 +1,104 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.core.telnet;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.handler.codec.frame.FrameDecoder;
+import org.jboss.netty.handler.codec.frame.TooLongFrameException;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ Splits everything received in one read into lines and each line into words,
+ passing on a List of commands (each a List of words) instead of one message
+ per line.  Lines end with \n or \r\n.  A line longer than the max length is
+ dropped and reported as a TooLongFrameException, like the
+ DelimiterBasedFrameDecoder this replaces.
+ */
+public class LineBatchDecoder extends FrameDecoder
+{
+	private static final Charset CHARSET = Charset.forName("ISO-8859-1");
+
+	private final int m_maxLineLength;
+	//Set while skipping the rest of a line that was too long
+	private boolean m_discarding = false;
+
+	public LineBatchDecoder(int maxLineLength)
+	{
+		m_maxLineLength = maxLineLength;
+	}
+
+	@Override
+	protected Object decode(ChannelHandlerContext ctx, Channel channel, ChannelBuffer buffer) throws Exception
+	{
+		List<List<String>> commands = null;
+
+		while (buffer.readable())
+		{
+			int start = buffer.readerIndex();
+			int eol = buffer.indexOf(start, buffer.writerIndex(), (byte) '\n');
+
+			if (eol == -1)
+			{
+				if (buffer.readableBytes() > m_maxLineLength)
+				{
+					int length = buffer.readableBytes();
+					buffer.skipBytes(length);
+					if (!m_discarding)
+						fail(ctx, length);
+					m_discarding = true;
+				}
+				break;
+			}
+
+			buffer.readerIndex(eol + 1);
+
+			int end = eol;
+			if (end > start && buffer.getByte(end - 1) == '\r')
+				end--;
+
+			if (m_discarding)
+			{
+				m_discarding = false;
+				continue;
+			}
+
+			if (end - start > m_maxLineLength)
+			{
+				fail(ctx, end - start);
+				continue;
+			}
+
+			if (commands == null)
+				commands = new ArrayList<>();
+			commands.add(WordSplitter.splitString(buffer.toString(start, end - start, CHARSET)));
+		}
+
+		return commands;
+	}
+
+	private void fail(ChannelHandlerContext ctx, long length)
+	{
+		Channels.fireExceptionCaught(ctx.getChannel(),
+				new TooLongFrameException("line length exceeds " + m_maxLineLength + ": " + length + " - discarded"));
+	}
+}
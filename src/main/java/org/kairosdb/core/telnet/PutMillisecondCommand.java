@@ -16,12 +16,15 @@
 
 package org.kairosdb.core.telnet;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableSortedMap;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
 import org.jboss.netty.channel.Channel;
 import org.kairosdb.core.DataPoint;
 import org.kairosdb.core.DataPointSet;
+import org.kairosdb.core.SeriesRegistry;
 import org.kairosdb.core.datapoints.DoubleDataPointFactory;
 import org.kairosdb.core.datapoints.LongDataPointFactory;
 import org.kairosdb.core.exception.DatastoreException;
@@ -29,6 +32,7 @@ import org.kairosdb.core.reporting.KairosMetricReporter;
 import org.kairosdb.eventbus.FilterEventBus;
 import org.kairosdb.eventbus.Publisher;
 import org.kairosdb.events.DataPointEvent;
+import org.kairosdb.events.Series;
 import org.kairosdb.util.Tags;
 import org.kairosdb.util.Util;
 import org.kairosdb.util.ValidationException;
@@ -40,13 +44,20 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.kairosdb.util.Preconditions.requireNonNullOrEmpty;
 
-public class PutMillisecondCommand implements TelnetCommand, KairosMetricReporter
+public class PutMillisecondCommand implements DataPointCommand, KairosMetricReporter
 {
+	private static final int LINE_SERIES_CACHE_SIZE = 10000;
+
 	private AtomicInteger m_counter = new AtomicInteger();
 	private String m_hostName;
 	private LongDataPointFactory m_longFactory;
 	private DoubleDataPointFactory m_doubleFactory;
 	private final Publisher<DataPointEvent> m_publisher;
+	private final Cache<String, LineSeries> m_lineSeries = CacheBuilder.newBuilder()
+			.maximumSize(LINE_SERIES_CACHE_SIZE).build();
+
+	@Inject(optional = true)
+	private SeriesRegistry m_seriesRegistry = new SeriesRegistry();
 
 	@Inject
 	public PutMillisecondCommand(FilterEventBus eventBus, @Named("HOSTNAME") String hostname,
@@ -63,8 +74,25 @@ public class PutMillisecondCommand implements TelnetCommand, KairosMetricReporte
 	@Override
 	public void execute(Channel chan, List<String> command) throws DatastoreException, ValidationException
 	{
-		long timestamp = Util.parseLong(command.get(2));
-		execute(command, timestamp);
+		m_publisher.post(createEvent(command));
+	}
+
+	@Override
+	public DataPointEvent createEvent(List<String> command) throws ValidationException
+	{
+		return createEvent(command, getTimestamp(command));
+	}
+
+	@Override
+	public void postEvents(List<DataPointEvent> events) throws DatastoreException
+	{
+		for (DataPointEvent event : events)
+			m_publisher.post(event);
+	}
+
+	protected long getTimestamp(List<String> command)
+	{
+		return Util.parseLong(command.get(2));
 	}
 
 	protected DataPoint createDataPoint(long timestamp, String value) throws ValidationException
@@ -85,21 +113,46 @@ public class PutMillisecondCommand implements TelnetCommand, KairosMetricReporte
 		return dp;
 	}
 
-	protected void execute(List<String> command, long timestamp) throws ValidationException, DatastoreException
+	protected DataPointEvent createEvent(List<String> command, long timestamp) throws ValidationException
 	{
 		Validator.validateNotNullOrEmpty("metricName", command.get(1));
 
+		DataPoint dp = createDataPoint(timestamp, command.get(3));
+
+		//Collectors send the same words for a series on every line, the words
+		//are looked up before parsing any tags
+		String seriesWords = getSeriesWords(command);
+		LineSeries lineSeries = m_lineSeries.getIfPresent(seriesWords);
+		if (lineSeries == null)
+		{
+			lineSeries = parseSeries(command);
+			m_lineSeries.put(seriesWords, lineSeries);
+		}
+
+		m_counter.incrementAndGet();
+		return new DataPointEvent(lineSeries.m_series, dp, lineSeries.m_ttl);
+	}
+
+	private static String getSeriesWords(List<String> command)
+	{
+		StringBuilder sb = new StringBuilder(command.get(1));
+		for (int i = 4; i < command.size(); i++)
+			sb.append(' ').append(command.get(i));
+
+		return sb.toString();
+	}
+
+	private LineSeries parseSeries(List<String> command) throws ValidationException
+	{
 		String metricName = command.get(1);
 		int ttl = 0;
 
-		DataPoint dp = createDataPoint(timestamp, command.get(3));
-
 		ImmutableSortedMap.Builder<String, String> tags = Tags.create();
 
 		int tagCount = 0;
 		for (int i = 4; i < command.size(); i++)
 		{
-			String[] tag = command.get(i).split("=");
+			String[] tag = splitTag(command.get(i));
 			validateTag(tagCount, tag);
 
 			if ("kairos_opt.ttl".equals(tag[0]))
@@ -124,8 +177,32 @@ public class PutMillisecondCommand implements TelnetCommand, KairosMetricReporte
 		if (tagCount == 0)
 			tags.put("add", "tag");
 
-		m_counter.incrementAndGet();
-		m_publisher.post(new DataPointEvent(metricName, tags.build(), dp, ttl));
+		return new LineSeries(m_seriesRegistry.getSeries(metricName, tags.build()), ttl);
+	}
+
+	/**
+	 Splits name=value the way split("=") does, without going through a regex.
+	 The value ends at the next '=' and a tag with only '=' after the name has
+	 no value.
+	 */
+	static String[] splitTag(String tag)
+	{
+		int equals = tag.indexOf('=');
+		if (equals == -1)
+			return new String[]{tag};
+
+		int end = equals + 1;
+		while (end < tag.length() && tag.charAt(end) == '=')
+			end++;
+
+		if (end == tag.length())
+			return new String[]{tag.substring(0, equals)};
+
+		end = tag.indexOf('=', equals + 1);
+		if (end == -1)
+			end = tag.length();
+
+		return new String[]{tag.substring(0, equals), tag.substring(equals + 1, end)};
 	}
 
 	private void validateTag(int tagCount, String[] tag) throws ValidationException
@@ -138,6 +215,18 @@ public class PutMillisecondCommand implements TelnetCommand, KairosMetricReporte
 		Validator.validateNotNullOrEmpty(String.format("tag[%d].value", tagCount), tag[1]);
 	}
 
+	private static class LineSeries
+	{
+		private final Series m_series;
+		private final int m_ttl;
+
+		private LineSeries(Series series, int ttl)
+		{
+			m_series = series;
+			m_ttl = ttl;
+		}
+	}
+
 	@Override
 	public String getCommand()
 	{
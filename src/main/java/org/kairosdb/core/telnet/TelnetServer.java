@@ -22,19 +22,25 @@ import com.google.inject.name.Named;
 import org.jboss.netty.bootstrap.ServerBootstrap;
 import org.jboss.netty.channel.*;
 import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
-import org.jboss.netty.handler.codec.frame.DelimiterBasedFrameDecoder;
-import org.jboss.netty.handler.codec.frame.Delimiters;
 import org.jboss.netty.handler.codec.string.StringEncoder;
 import org.kairosdb.core.KairosDBService;
 import org.kairosdb.core.exception.KairosDBException;
+import org.kairosdb.core.queue.QueueProcessor;
+import org.kairosdb.events.DataPointEvent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static java.util.Objects.requireNonNull;
@@ -43,6 +49,7 @@ public class TelnetServer extends SimpleChannelUpstreamHandler implements Channe
 		KairosDBService
 {
 	private static final Logger logger = LoggerFactory.getLogger(TelnetServer.class);
+	private static final long RESUME_CHECK_MILLIS = 10;
 
 	private final int port;
 	private final CommandProvider commandProvider;
@@ -50,6 +57,10 @@ public class TelnetServer extends SimpleChannelUpstreamHandler implements Channe
 
 	private InetAddress address;
 	private ServerBootstrap serverBootstrap;
+	private QueueProcessor queueProcessor;
+	private ScheduledExecutorService resumeExecutor;
+	//Connections that stopped reading because the queue is saturated
+	private final Set<Channel> pausedChannels = Collections.newSetFromMap(new ConcurrentHashMap<Channel, Boolean>());
 
 	public TelnetServer(int port,
 			int maxCommandLength,
@@ -74,16 +85,19 @@ public class TelnetServer extends SimpleChannelUpstreamHandler implements Channe
 		this.address = InetAddress.getByName(address);
 	}
 
+	@Inject(optional = true)
+	public void setQueueProcessor(QueueProcessor queueProcessor)
+	{
+		this.queueProcessor = queueProcessor;
+	}
+
 	@Override
 	public ChannelPipeline getPipeline() throws Exception
 	{
 		ChannelPipeline pipeline = Channels.pipeline();
 
 		// Add the text line codec combination first,
-		DelimiterBasedFrameDecoder frameDecoder = new DelimiterBasedFrameDecoder(
-				maxCommandLength, Delimiters.lineDelimiter());
-		pipeline.addLast("framer", frameDecoder);
-		pipeline.addLast("decoder", new WordSplitter());
+		pipeline.addLast("decoder", new LineBatchDecoder(maxCommandLength));
 		pipeline.addLast("encoder", new StringEncoder());
 
 		// and then business logic.
@@ -101,6 +115,11 @@ public class TelnetServer extends SimpleChannelUpstreamHandler implements Channe
 		return (sb.toString());
 	}
 
+	/**
+	 Messages are the lines read from the socket in one go.  Data point commands
+	 are parsed as they come and posted together, other commands run in order
+	 after the data points before them are posted.
+	 */
 	@Override
 	public void messageReceived(final ChannelHandlerContext ctx,
 	                            final MessageEvent msgevent)
@@ -109,18 +128,47 @@ public class TelnetServer extends SimpleChannelUpstreamHandler implements Channe
 		if (message instanceof List)
 		{
 			@SuppressWarnings("unchecked")
-			List<String> command = (List<String>) message;
+			List<Object> lines = (List<Object>) message;
+			List<DataPointEvent> events = new ArrayList<>();
+			DataPointCommand eventCommand = null;
 
-			String cmd = "";
-			if (command.size() >= 1)
-				cmd = command.get(0);
+			if (!lines.isEmpty() && !(lines.get(0) instanceof List))
+				lines = Collections.<Object>singletonList(lines);
 
-			TelnetCommand telnetCommand = commandProvider.getCommand(cmd);
-			if (telnetCommand != null)
+			for (Object line : lines)
 			{
+				@SuppressWarnings("unchecked")
+				List<String> command = (List<String>) line;
+
+				String cmd = "";
+				if (command.size() >= 1)
+					cmd = command.get(0);
+
+				TelnetCommand telnetCommand = commandProvider.getCommand(cmd);
+				if (telnetCommand == null)
+				{
+					log("Message: '" + formatMessage(command) + "'", ctx);
+					log("Unknown command: '" + cmd + "'", ctx);
+					continue;
+				}
+
+				if (telnetCommand instanceof DataPointCommand)
+				{
+					if (eventCommand != null && eventCommand != telnetCommand)
+						postEvents(eventCommand, events, ctx);
+					eventCommand = (DataPointCommand) telnetCommand;
+				}
+				else
+				{
+					postEvents(eventCommand, events, ctx);
+				}
+
 				try
 				{
-					telnetCommand.execute(msgevent.getChannel(), command);
+					if (telnetCommand instanceof DataPointCommand)
+						events.add(((DataPointCommand) telnetCommand).createEvent(command));
+					else
+						telnetCommand.execute(msgevent.getChannel(), command);
 				}
 				catch (Exception e)
 				{
@@ -128,11 +176,9 @@ public class TelnetServer extends SimpleChannelUpstreamHandler implements Channe
 					log("Failed to execute command: " + formatMessage(command) + " Reason: " + e.getMessage(), ctx, e);
 				}
 			}
-			else
-			{
-				log("Message: '" + formatMessage(command) + "'", ctx);
-				log("Unknown command: '" + cmd + "'", ctx);
-			}
+
+			postEvents(eventCommand, events, ctx);
+			checkSaturation(msgevent.getChannel());
 		}
 		else
 		{
@@ -141,6 +187,57 @@ public class TelnetServer extends SimpleChannelUpstreamHandler implements Channe
 		}
 	}
 
+	private static void postEvents(DataPointCommand command, List<DataPointEvent> events,
+			ChannelHandlerContext ctx)
+	{
+		if (events.isEmpty())
+			return;
+
+		try
+		{
+			command.postEvents(events);
+		}
+		catch (Exception e)
+		{
+			log("Failed to post " + events.size() + " data points. Reason: " + e.getMessage(), ctx, e);
+		}
+
+		events.clear();
+	}
+
+	/**
+	 Stops reading from the channel while the queue holds more than it can
+	 buffer in memory, the resume task starts it again once the queue drains.
+	 */
+	private void checkSaturation(Channel channel)
+	{
+		if (queueProcessor != null && queueProcessor.isSaturated())
+		{
+			pausedChannels.add(channel);
+			channel.setReadable(false);
+		}
+	}
+
+	private void resumeChannels()
+	{
+		if (pausedChannels.isEmpty() || queueProcessor.isSaturated())
+			return;
+
+		for (Channel channel : pausedChannels)
+		{
+			pausedChannels.remove(channel);
+			if (channel.isOpen())
+				channel.setReadable(true);
+		}
+	}
+
+	@Override
+	public void channelClosed(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception
+	{
+		pausedChannels.remove(ctx.getChannel());
+		super.channelClosed(ctx, e);
+	}
+
 	private static void log(String message, ChannelHandlerContext ctx)
 	{
 		log(message, ctx, null);
@@ -175,6 +272,27 @@ public class TelnetServer extends SimpleChannelUpstreamHandler implements Channe
 		serverBootstrap.setOption("child.keepAlive", true);
 		serverBootstrap.setOption("reuseAddress", true);
 
+		if (queueProcessor != null)
+		{
+			resumeExecutor = Executors.newSingleThreadScheduledExecutor(
+					new ThreadFactoryBuilder().setNameFormat("telnet-resume-%d").setDaemon(true).build());
+			resumeExecutor.scheduleWithFixedDelay(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						resumeChannels();
+					}
+					catch (Exception e)
+					{
+						logger.error("Failed to resume telnet connections", e);
+					}
+				}
+			}, RESUME_CHECK_MILLIS, RESUME_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+		}
+
 		// Bind and start to accept incoming connections.
 		serverBootstrap.bind(new InetSocketAddress(address, port));
 	}
@@ -187,6 +305,9 @@ public class TelnetServer extends SimpleChannelUpstreamHandler implements Channe
 	@Override
 	public void stop()
 	{
+		if (resumeExecutor != null)
+			resumeExecutor.shutdown();
+
 		if (serverBootstrap != null)
 			serverBootstrap.shutdown();
 	}
@@ -49,7 +49,7 @@ public class WordSplitter extends OneToOneDecoder
 
 	private static String[] arrayType = new String[0];
 
-	protected static List<String> splitString(final String s)
+	public static List<String> splitString(final String s)
 	{
 		List<String> ret = new ArrayList<String>();
 		int len = s.length();
@@ -3,6 +3,7 @@ package org.kairosdb.datastore.cassandra;
 import com.datastax.driver.core.exceptions.NoHostAvailableException;
 import com.datastax.driver.core.exceptions.UnavailableException;
 import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.inject.assistedinject.Assisted;
 import org.json.JSONWriter;
 import org.kairosdb.core.DataPoint;
@@ -18,9 +19,15 @@ import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
 import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.ListIterator;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
 
 
 /**
@@ -39,11 +46,30 @@ public class BatchHandler extends RetryCallable
 	private final DataCache<DataPointsRowKey> m_rowKeyCache;
 	private final DataCache<TimedString> m_metricNameCache;
 	private final CassandraModule.CQLBatchFactory m_cqlBatchFactory;
+	private final IndexWriteCoalescer m_indexWriter;
 	private final Publisher<RowKeyEvent> m_rowKeyPublisher;
 	private final Publisher<BatchReductionEvent> m_batchReductionPublisher;
 	private final String m_clusterName;
 	private final RowSpec m_rowSpec;
 
+	//Events before this index have been written
+	private int m_sentEvents = 0;
+	//Batch that failed with an exception the retryer retries on, the next call
+	//only resends the parts of it that failed
+	private CQLBatch m_failedBatch;
+	private int m_failedBatchEnd;
+
+	//Index writes the events need, the batch is not complete until they are done
+	private final Set<ListenableFuture<Void>> m_indexWrites = new HashSet<>();
+	//Entries of the index writes with their ttl, handed back to the index
+	//writer if it gives up on them
+	private final Map<DataPointsRowKey, Integer> m_indexRowKeys = new HashMap<>();
+	private final Map<TimedString, Integer> m_indexMetricNames = new HashMap<>();
+	//Cache entries added since the last batch that went out, removed again if
+	//the batch fails
+	private final List<DataPointsRowKey> m_newRowKeys = new ArrayList<>();
+	private final List<TimedString> m_newMetrics = new ArrayList<>();
+
 	@Inject
 	public BatchHandler(
 			@Assisted List<DataPointEvent> events,
@@ -53,6 +79,7 @@ public class BatchHandler extends RetryCallable
 			DataCache<TimedString> metricNameCache,
 			FilterEventBus eventBus,
 			CassandraModule.CQLBatchFactory cqlBatchFactory,
+			IndexWriteCoalescer indexWriter,
 			@Assisted RowSpec rowSpec)
 	{
 		m_events = events;
@@ -65,6 +92,7 @@ public class BatchHandler extends RetryCallable
 		m_metricNameCache = metricNameCache;
 
 		m_cqlBatchFactory = cqlBatchFactory;
+		m_indexWriter = indexWriter;
 		m_rowSpec = rowSpec;
 
 		m_rowKeyPublisher = eventBus.createPublisher(RowKeyEvent.class);
@@ -124,19 +152,25 @@ public class BatchHandler extends RetryCallable
 
 			long rowTime = m_rowSpec.calculateRowTime(dataPoint.getTimestamp());
 
-			rowKey = new DataPointsRowKey(metricName, m_clusterName, rowTime, dataPoint.getDataStoreDataType(),
-					tags);
+			//The series hands back the same row key, already serialized, for
+			//each of its data points in the row
+			rowKey = event.getSeries().getRowKey(m_clusterName, rowTime, dataPoint.getDataStoreDataType());
 
-			//Write out the row key if it is not cached
+			//Write out the row key if it is not cached, the index writer
+			//coalesces it with the same row key from other batches
 			DataPointsRowKey cachedRowKey = m_rowKeyCache.cacheItem(rowKey);
-			if (cachedRowKey == null)
+			if (cachedRowKey != null)
+				rowKey = cachedRowKey;
+			else
 			{
 				cachedRowKey = rowKey;
 
 				//Row key will expire using the ttl plus the width of the row (typically 3 weeks)
 				int rowKeyTtl = (ttl == 0) ? 0 : ttl + ((int) (m_rowSpec.getRowWidthInMillis() / 1000));
 
-				batch.addRowKey(cachedRowKey, rowKeyTtl);
+				m_newRowKeys.add(cachedRowKey);
+				m_indexWrites.add(m_indexWriter.addRowKey(cachedRowKey, rowKeyTtl));
+				m_indexRowKeys.put(cachedRowKey, rowKeyTtl);
 
 				String cachedName = cachedRowKey.getMetricName();
 
@@ -148,8 +182,9 @@ public class BatchHandler extends RetryCallable
 				TimedString cacheName = m_metricNameCache.cacheItem(metricNameTime);
 				if (cacheName == null)
 				{
-					batch.addMetricName(metricNameTime);
-					batch.addTimeIndex(metricNameTime.getString(), cachedRowKey.getTimestamp(), rowKeyTtl);
+					m_newMetrics.add(metricNameTime);
+					m_indexWrites.add(m_indexWriter.addMetricName(metricNameTime, rowKeyTtl));
+					m_indexMetricNames.put(metricNameTime, rowKeyTtl);
 				}
 			}
 
@@ -159,19 +194,33 @@ public class BatchHandler extends RetryCallable
 		}
 	}
 
-	private void clearCacheOfFailedBatch(CQLBatch batch)
+	private void clearCacheOfFailedBatch()
 	{
-		if (batch != null)
+		for (TimedString newMetric : m_newMetrics)
 		{
-			for (TimedString newMetric : batch.getNewMetrics())
-			{
-				m_metricNameCache.removeKey(newMetric);
-			}
+			m_metricNameCache.removeKey(newMetric);
+		}
 
-			for (DataPointsRowKey newRowKey : batch.getNewRowKeys())
-			{
-				m_rowKeyCache.removeKey(newRowKey);
-			}
+		for (DataPointsRowKey newRowKey : m_newRowKeys)
+		{
+			m_rowKeyCache.removeKey(newRowKey);
+		}
+
+		clearNewKeys();
+	}
+
+	private void clearNewKeys()
+	{
+		m_newMetrics.clear();
+		m_newRowKeys.clear();
+	}
+
+	private void keepFailedBatch(CQLBatch batch, int batchEnd)
+	{
+		if (batch != null && batch.hasFailedBatches())
+		{
+			m_failedBatch = batch;
+			m_failedBatchEnd = batchEnd;
 		}
 	}
 
@@ -187,12 +236,24 @@ public class BatchHandler extends RetryCallable
 			retry = false;
 
 			CQLBatch lastBatch = null;
+			int lastBatchEnd = m_sentEvents;
 
 			//Used to reduce batch size with each retry
 			limit = m_events.size() / divisor;
 			try
 			{
-				Iterator<DataPointEvent> events = m_events.iterator();
+				if (m_failedBatch != null)
+				{
+					lastBatch = m_failedBatch;
+					lastBatchEnd = m_failedBatchEnd;
+					m_failedBatch = null;
+
+					lastBatch.submitBatch();
+					m_sentEvents = lastBatchEnd;
+					clearNewKeys();
+				}
+
+				ListIterator<DataPointEvent> events = m_events.listIterator(m_sentEvents);
 
 				//Send new batch if not all events went out
 				while (events.hasNext())
@@ -203,30 +264,39 @@ public class BatchHandler extends RetryCallable
 							m_batchStats, m_loadBalancingPolicy);*/
 
 					loadBatch(limit, lastBatch, events);
+					lastBatchEnd = events.nextIndex();
 
 					lastBatch.submitBatch();
-
+					m_sentEvents = lastBatchEnd;
+					clearNewKeys();
 				}
 
 			}
 			//If More exceptions are added to retry they need to be added to IngestExecutorService
 			catch (NoHostAvailableException nae)
 			{
-				clearCacheOfFailedBatch(lastBatch);
+				clearCacheOfFailedBatch();
+				keepFailedBatch(lastBatch, lastBatchEnd);
 				//Throw this out so the back off retry can happen
 				logger.error(nae.getMessage());
 				throw nae;
 			}
 			catch (UnavailableException ue)
 			{
-				clearCacheOfFailedBatch(lastBatch);
+				clearCacheOfFailedBatch();
+				keepFailedBatch(lastBatch, lastBatchEnd);
 				//Throw this out so the back off retry can happen
 				logger.error(ue.getMessage());
 				throw ue;
 			}
+			catch (InterruptedException ie)
+			{
+				clearCacheOfFailedBatch();
+				throw ie;
+			}
 			catch (Exception e)
 			{
-				clearCacheOfFailedBatch(lastBatch);
+				clearCacheOfFailedBatch();
 				if ("Batch too large".equals(e.getMessage()))
 					logger.warn("Batch size is too large");
 				else
@@ -278,6 +348,27 @@ public class BatchHandler extends RetryCallable
 			m_batchReductionPublisher.post(new BatchReductionEvent(limit));
 		}
 
+		//The events are only done once they can be found through the index
+		try
+		{
+			for (ListenableFuture<Void> indexWrite : m_indexWrites)
+				indexWrite.get();
+		}
+		catch (ExecutionException e)
+		{
+			//The writer gave up on the entries, the data points are written so
+			//the entries go back to the writer and the events are done
+			logger.error("Index writes failed, handing back " +
+					(m_indexRowKeys.size() + m_indexMetricNames.size()) + " entries", e.getCause());
+			requeueIndexEntries();
+		}
+
 		m_callBack.complete();
 	}
+
+	private void requeueIndexEntries()
+	{
+		m_indexRowKeys.forEach(m_indexWriter::addRowKey);
+		m_indexMetricNames.forEach(m_indexWriter::addMetricName);
+	}
 }
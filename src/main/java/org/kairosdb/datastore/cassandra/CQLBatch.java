@@ -4,8 +4,13 @@ import com.datastax.driver.core.BatchStatement;
 import com.datastax.driver.core.BoundStatement;
 import com.datastax.driver.core.ConsistencyLevel;
 import com.datastax.driver.core.Host;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
 import com.datastax.driver.core.Statement;
 import com.datastax.driver.core.policies.LoadBalancingPolicy;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
 import org.kairosdb.core.DataPoint;
 import org.kairosdb.core.annotation.InjectProperty;
 import org.kairosdb.util.KDataOutput;
@@ -42,6 +47,7 @@ public class CQLBatch
 	private final ConsistencyLevel m_consistencyLevel;
 	private final long m_now;
 	private final LoadBalancingPolicy m_loadBalancingPolicy;
+	private final HostWriteLimiter m_hostWriteLimiter;
 
 	private long m_rowKeysCount = 0;
 	private long m_rowKeyTimeIndexCount = 0;
@@ -53,24 +59,28 @@ public class CQLBatch
 	private BatchStatement m_dataPointBatch = new BatchStatement(BatchStatement.Type.UNLOGGED);
 	private BatchStatement m_rowKeyBatch = new BatchStatement(BatchStatement.Type.UNLOGGED);
 
-	private List<DataPointsRowKey> m_newRowKeys = new ArrayList<>();
-	private List<TimedString> m_newMetrics = new ArrayList<>();
-
 	private List<String> m_prefixFilterList = new ArrayList<>();
+	private StringIndexCache m_stringIndexCache;
+	//Names in m_metricNamesBatch, added to the string index cache once written
+	private List<String> m_metricNames = new ArrayList<>();
 
+	//Parts of the batch that have not been written yet, null until the first submit
+	private List<SubBatch> m_pendingBatches;
 
 	@Inject
 	public CQLBatch(
 			ConsistencyLevel consistencyLevel,
 			@Named("write_cluster")ClusterConnection clusterConnection,
 			BatchStats batchStats,
-			LoadBalancingPolicy loadBalancingPolicy)
+			LoadBalancingPolicy loadBalancingPolicy,
+			HostWriteLimiter hostWriteLimiter)
 	{
 		m_consistencyLevel = consistencyLevel;
 		m_clusterConnection = clusterConnection;
 		m_batchStats = batchStats;
 		m_now = System.currentTimeMillis();
 		m_loadBalancingPolicy = loadBalancingPolicy;
+		m_hostWriteLimiter = hostWriteLimiter;
 
 		m_metricNamesBatch.setConsistencyLevel(consistencyLevel);
 		m_dataPointBatch.setConsistencyLevel(consistencyLevel);
@@ -83,6 +93,12 @@ public class CQLBatch
 		m_prefixFilterList = list;
 	}
 
+	@Inject
+	public void setStringIndexCache(StringIndexCache stringIndexCache)
+	{
+		m_stringIndexCache = stringIndexCache;
+	}
+
 	public void addTimeIndex(String metricName, long rowKeyTime, int rowKeyTtl)
 	{
 		Statement bs = m_clusterConnection.psRowKeyTimeInsert.bind()
@@ -100,8 +116,6 @@ public class CQLBatch
 
 	public void addRowKey(DataPointsRowKey rowKey, int rowKeyTtl)
 	{
-		m_newRowKeys.add(rowKey);
-
 		m_rowKeysCount++;
 		RowKeyLookup rowKeyLookup = m_clusterConnection.getRowKeyLookupForMetric(rowKey.getMetricName());
 		List<Statement> insertStatements = rowKeyLookup.createInsertStatements(rowKey, rowKeyTtl);
@@ -142,13 +156,13 @@ public class CQLBatch
 
 		if (!skip)
 		{
-			m_newMetrics.add(metricNameTime);
 			BoundStatement bs = new BoundStatement(m_clusterConnection.psStringIndexInsert);
 			bs.setBytesUnsafe(0, ByteBuffer.wrap(ROW_KEY_METRIC_NAMES.getBytes(UTF_8)));
 			bs.setString(1, metricName);
 			bs.setConsistencyLevel(m_consistencyLevel);
 			bs.setIdempotent(true);
 			m_metricNamesBatch.add(bs);
+			m_metricNames.add(metricName);
 		}
 	}
 
@@ -210,49 +224,185 @@ public class CQLBatch
 		addBoundStatement(boundStatement);
 	}
 
-	public void submitBatch()
+	private List<SubBatch> createSubBatches()
 	{
+		List<SubBatch> subBatches = new ArrayList<>();
+
 		if (m_metricNamesBatch.size() != 0)
 		{
-			m_clusterConnection.executeAsync(m_metricNamesBatch);
-			m_batchStats.addNameBatch(m_metricNamesBatch.size());
+			int size = m_metricNamesBatch.size();
+			List<String> metricNames = m_metricNames;
+			subBatches.add(new SubBatch(m_metricNamesBatch, null, () -> {
+				m_batchStats.addNameBatch(size);
+
+				//Listed only once Cassandra has them, a batch the index writer
+				//gives up on never shows up in /metricnames
+				if (m_stringIndexCache != null)
+				{
+					for (String metricName : metricNames)
+						m_stringIndexCache.addValue(ROW_KEY_METRIC_NAMES, metricName);
+				}
+			}));
 		}
 
 		if (m_rowKeyBatch.size() != 0)
 		{
-			//m_rowKeyBatch.enableTracing();
-			m_clusterConnection.executeAsync(m_rowKeyBatch);
-			m_batchStats.addRowKeyBatch(m_rowKeysCount);
-			m_batchStats.addRowKeyTimeBatch(m_rowKeyTimeIndexCount);
-			m_batchStats.addTagIndexedBatch(m_tagIndexedRowKeysCount);
+			long rowKeysCount = m_rowKeysCount;
+			long rowKeyTimeIndexCount = m_rowKeyTimeIndexCount;
+			long tagIndexedRowKeysCount = m_tagIndexedRowKeysCount;
+			subBatches.add(new SubBatch(m_rowKeyBatch, null, () -> {
+				m_batchStats.addRowKeyBatch(rowKeysCount);
+				m_batchStats.addRowKeyTimeBatch(rowKeyTimeIndexCount);
+				m_batchStats.addTagIndexedBatch(tagIndexedRowKeysCount);
+			}));
 		}
 
-		for (BatchStatement batchStatement : m_batchMap.values())
+		for (Map.Entry<Host, BatchStatement> entry : m_batchMap.entrySet())
 		{
-			//batchStatement.enableTracing();
+			BatchStatement batchStatement = entry.getValue();
 			if (batchStatement.size() != 0)
 			{
-				m_clusterConnection.execute(batchStatement);
-				//System.out.println(resultSet.getExecutionInfo().getQueryTrace().getTraceId());
-				m_batchStats.addDatapointsBatch(batchStatement.size());
+				int size = batchStatement.size();
+				subBatches.add(new SubBatch(batchStatement, entry.getKey().getAddress().getHostAddress(),
+						() -> m_batchStats.addDatapointsBatch(size)));
 			}
 		}
 
 		//Catch all in case of a load balancing problem
 		if (m_dataPointBatch.size() != 0)
 		{
-			m_clusterConnection.execute(m_dataPointBatch);
-			m_batchStats.addDatapointsBatch(m_dataPointBatch.size());
+			int size = m_dataPointBatch.size();
+			subBatches.add(new SubBatch(m_dataPointBatch, null,
+					() -> m_batchStats.addDatapointsBatch(size)));
 		}
+
+		return subBatches;
 	}
 
-	public List<DataPointsRowKey> getNewRowKeys()
+	/**
+	 Sends the metric name, row key and per host batches at the same time and
+	 waits for all of them.  If any of them fail the first failure is thrown
+	 once the others are done and calling submitBatch again only resends the
+	 ones that failed.
+	 */
+	public void submitBatch() throws InterruptedException
 	{
-		return m_newRowKeys;
+		if (m_pendingBatches == null)
+			m_pendingBatches = createSubBatches();
+
+		List<SubBatch> failed = new ArrayList<>();
+		RuntimeException failure = null;
+
+		try
+		{
+			for (SubBatch subBatch : m_pendingBatches)
+				subBatch.send();
+		}
+		finally
+		{
+			//Wait for everything that was sent even if a send was interrupted
+			for (SubBatch subBatch : m_pendingBatches)
+			{
+				try
+				{
+					subBatch.join();
+				}
+				catch (RuntimeException e)
+				{
+					failed.add(subBatch);
+					if (failure == null)
+						failure = e;
+					else
+						failure.addSuppressed(e);
+				}
+			}
+
+			m_pendingBatches = failed;
+		}
+
+		if (failure != null)
+			throw failure;
 	}
 
-	public List<TimedString> getNewMetrics()
+	/**
+	 Returns true if parts of the batch failed on the last submit and need to
+	 be sent again.
+	 */
+	public boolean hasFailedBatches()
 	{
-		return m_newMetrics;
+		return m_pendingBatches != null && !m_pendingBatches.isEmpty();
+	}
+
+	private class SubBatch implements FutureCallback<ResultSet>
+	{
+		private final BatchStatement m_statement;
+		private final String m_host;
+		private final Runnable m_onWritten;
+		private ResultSetFuture m_future;
+		private RuntimeException m_sendFailure;
+		private HostWriteLimiter.HostPermit m_permit;
+
+		/**
+		 @param host address of the host the statements are routed to, null if
+		 the batch is not limited by host
+		 */
+		private SubBatch(BatchStatement statement, String host, Runnable onWritten)
+		{
+			m_statement = statement;
+			m_host = host;
+			m_onWritten = onWritten;
+		}
+
+		private void send() throws InterruptedException
+		{
+			m_future = null;
+			m_sendFailure = null;
+			m_permit = null;
+
+			if (m_host != null && m_hostWriteLimiter != null)
+				m_permit = m_hostWriteLimiter.acquire(m_host);
+
+			try
+			{
+				m_future = m_clusterConnection.executeAsync(m_statement);
+				Futures.addCallback(m_future, this, MoreExecutors.directExecutor());
+			}
+			catch (RuntimeException e)
+			{
+				m_sendFailure = e;
+				releasePermit();
+			}
+		}
+
+		private void join()
+		{
+			if (m_sendFailure != null)
+				throw m_sendFailure;
+
+			//Not sent because an earlier send was interrupted
+			if (m_future == null)
+				throw new IllegalStateException("Batch was not sent");
+
+			m_future.getUninterruptibly();
+			m_onWritten.run();
+		}
+
+		private void releasePermit()
+		{
+			if (m_permit != null)
+				m_permit.release();
+		}
+
+		@Override
+		public void onSuccess(ResultSet result)
+		{
+			releasePermit();
+		}
+
+		@Override
+		public void onFailure(Throwable t)
+		{
+			releasePermit();
+		}
 	}
 }
@@ -5,15 +5,18 @@ import com.datastax.driver.core.ResultSet;
 import com.datastax.driver.core.ResultSetFuture;
 import com.datastax.driver.core.Row;
 import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.exceptions.DriverException;
 import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.SetMultimap;
-import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
 import com.google.inject.name.Named;
+import org.kairosdb.core.datastore.TagSetImpl;
 import org.kairosdb.core.exception.DatastoreException;
 import org.kairosdb.core.reporting.ThreadReporter;
+import org.kairosdb.util.MemoryMonitor;
 
 import java.util.*;
 import java.util.concurrent.ExecutionException;
@@ -22,13 +25,28 @@ import java.util.regex.Pattern;
 import static org.kairosdb.core.KairosConfigProperties.QUERIES_REGEX_PREFIX;
 import static org.kairosdb.datastore.cassandra.ClusterConnection.DATA_POINTS_TABLE_NAME;
 
+/**
+ Row keys of a metric that match the query tags.  The index queries are all
+ sent when the iterator is created, the keys of each are read as the iterator
+ gets to it so the caller can start on the first keys while the rest of the
+ index is still being read.  A failed index query is thrown from hasNext as a
+ RowKeyQueryException.
+
+ An iterator created for a tag query is read with addTags instead, the tiers
+ held by the row key index cache add their tags from the tier's tag index.
+ Open tiers are read into the cache too for tag queries only.
+ */
 public class CQLFilteredRowKeyIterator implements Iterator<DataPointsRowKey>
 {
+	private static final int PREFETCH_ROWS = 100;
+
 	private final SetMultimap<String, String> m_filterTags;
 	private final Set<String> m_filterTagNames;
 	private DataPointsRowKey m_nextKey;
-	private final Iterator<ResultSet> m_resultSets;
-	private ResultSet m_currentResultSet;
+	private final Iterator<IndexSource> m_sources;
+	private Iterator<DataPointsRowKey> m_currentSource;
+	private final RowKeyIndexCache m_rowKeyIndexCache;
+	private long m_keyQueryTime;
 	private final String m_metricName;
 	private final String m_clusterName;
 	private final RowSpec m_rowSpec;
@@ -44,7 +62,9 @@ public class CQLFilteredRowKeyIterator implements Iterator<DataPointsRowKey>
 			@Assisted("startTime") long startTime,
 			@Assisted("endTime") long endTime,
 			@Assisted SetMultimap<String, String> filterTags,
-			@Named(QUERIES_REGEX_PREFIX) String regexPrefix) throws DatastoreException
+			@Assisted boolean tagQuery,
+			@Named(QUERIES_REGEX_PREFIX) String regexPrefix,
+			RowKeyIndexCache rowKeyIndexCache) throws DatastoreException
 	{
 		m_filterTags = HashMultimap.create();
 		m_filterTagNames = new HashSet<>();
@@ -117,32 +137,47 @@ public class CQLFilteredRowKeyIterator implements Iterator<DataPointsRowKey>
 		}
 
 		//System.out.println();
-		//New index query index is broken up by time tier
+		//New index query index is broken up by time tier, closed tiers may
+		//be in the row key index cache where the tags are filtered on its index
 		RowKeyLookup rowKeyLookup = cluster.getRowKeyLookupForMetric(metricName);
 		List<Long> queryKeyList = createQueryKeyList(cluster, metricName, startTime, endTime);
+		List<IndexSource> sources = new ArrayList<>();
+		for (ListenableFuture<ResultSet> future : futures)
+			sources.add(new IndexSource(future, TierCache.NONE, 0L));
+
 		for (Long keyTime : queryKeyList)
 		{
-			futures.add(rowKeyLookup.queryRowKeys(metricName, keyTime, m_filterTags));
-		}
-
-		ListenableFuture<List<ResultSet>> listListenableFuture = Futures.allAsList(futures);
+			TierCache tierCache = TierCache.NONE;
+			TierIndex tier = null;
+			if (rowKeyIndexCache.isCacheable(cluster, metricName, keyTime))
+			{
+				tierCache = TierCache.CLOSED;
+				tier = rowKeyIndexCache.getTier(m_clusterName, metricName, keyTime);
+			}
+			else if (tagQuery && rowKeyIndexCache.isOpenTierCacheable(cluster, metricName))
+			{
+				tierCache = TierCache.OPEN;
+				tier = rowKeyIndexCache.getOpenTier(m_clusterName, metricName, keyTime);
+			}
 
-		try
-		{
-			m_resultSets = listListenableFuture.get().iterator();
-			if (m_resultSets.hasNext())
-				m_currentResultSet = m_resultSets.next();
+			if (tier != null)
+				sources.add(new IndexSource(tier));
+			else
+			{
+				if (tierCache != TierCache.NONE)
+					rowKeyIndexCache.startLoad(m_clusterName, metricName, keyTime);
 
-			ThreadReporter.addDataPoint(CassandraDatastore.KEY_QUERY_TIME, System.currentTimeMillis() - timerStart);
-		}
-		catch (InterruptedException e)
-		{
-			throw new DatastoreException("Index query interrupted", e);
-		}
-		catch (ExecutionException e)
-		{
-			throw new DatastoreException("Failed to read key index", e);
+				sources.add(new IndexSource(rowKeyLookup.queryRowKeys(metricName, keyTime, m_filterTags),
+						tierCache, keyTime));
+			}
 		}
+
+		//The queries are all out, keys are read from them in order as they are
+		//asked for so data point queries start as soon as the first one is back
+		m_rowKeyIndexCache = rowKeyIndexCache;
+		m_keyQueryTime = System.currentTimeMillis() - timerStart;
+		m_sources = sources.iterator();
+		m_currentSource = Collections.emptyIterator();
 	}
 
 	private boolean matchRegexFilter(String tag, String value)
@@ -156,31 +191,14 @@ public class CQLFilteredRowKeyIterator implements Iterator<DataPointsRowKey>
 		return false;
 	}
 
-	private DataPointsRowKey nextKeyFromIterator(ResultSet iterator)
+	private DataPointsRowKey nextKeyFromSource(Iterator<DataPointsRowKey> source)
 	{
 		DataPointsRowKey next = null;
-		boolean newIndex = false;
-		if (iterator.getColumnDefinitions().contains("row_time"))
-			newIndex = true;
 
 outer:
-		while (!iterator.isExhausted())
+		while (source.hasNext())
 		{
-			DataPointsRowKey rowKey;
-			Row record = iterator.one();
-
-			if (newIndex)
-			{
-				if (record.getString(1) == null)
-					continue; //empty row
-
-				rowKey = new DataPointsRowKey(m_metricName, m_clusterName, record.getTimestamp(0).getTime(),
-						record.getString(1), new TreeMap<String, String>(record.getMap(2, String.class, String.class)));
-
-				rowKey.setTtl(record.getInt(3));
-			}
-			else
-				rowKey = CassandraDatastore.DATA_POINTS_ROW_KEY_SERIALIZER.fromByteBuffer(record.getBytes(0), m_clusterName);
+			DataPointsRowKey rowKey = source.next();
 
 			m_rawRowKeyCount ++;
 
@@ -247,30 +265,69 @@ outer:
 		boundStatement.setBytesUnsafe(2, CassandraDatastore.DATA_POINTS_ROW_KEY_SERIALIZER.toByteBuffer(endKey));
 	}
 
+	/**
+	 Throws RowKeyQueryException if an index query failed.
+	 */
 	@Override
 	public boolean hasNext()
 	{
 		if (m_nextKey != null)
 			return true;
 
-		while (m_currentResultSet != null && (!m_currentResultSet.isExhausted() || m_resultSets.hasNext()))
+		while (m_currentSource != null)
 		{
-			m_nextKey = nextKeyFromIterator(m_currentResultSet);
+			m_nextKey = nextKeyFromSource(m_currentSource);
 
 			if (m_nextKey != null)
 				break;
 
-			if (m_resultSets.hasNext())
-				m_currentResultSet = m_resultSets.next();
+			if (m_sources.hasNext())
+				m_currentSource = m_sources.next().open();
+			else
+			{
+				m_currentSource = null;
+
+				//todo make this a common atomic value
+				ThreadReporter.addDataPoint(CassandraDatastore.RAW_ROW_KEY_COUNT, m_rawRowKeyCount);
+				ThreadReporter.addDataPoint(CassandraDatastore.KEY_QUERY_TIME, m_keyQueryTime);
+			}
 		}
 
-		if (m_nextKey == null)
+		return (m_nextKey != null);
+	}
+
+	/**
+	 Adds the tags of the matching row keys to the tag set, used in place of
+	 reading the row keys.  Throws RowKeyQueryException if an index query failed.
+	 */
+	public void addTags(TagSetImpl tagSet, MemoryMonitor memoryMonitor)
+	{
+		while (m_sources.hasNext())
 		{
-			//todo make this a common atomic value
-			ThreadReporter.addDataPoint(CassandraDatastore.RAW_ROW_KEY_COUNT, m_rawRowKeyCount);
+			IndexSource source = m_sources.next();
+			TierIndex tier = source.getTier();
+			if (tier != null)
+			{
+				tier.addTags(m_filterTags, m_patternFilter, tagSet);
+				memoryMonitor.checkMemoryAndThrowException();
+				continue;
+			}
+
+			Iterator<DataPointsRowKey> keys = source.open();
+			DataPointsRowKey rowKey;
+			while ((rowKey = nextKeyFromSource(keys)) != null)
+			{
+				for (Map.Entry<String, String> tag : rowKey.getTags().entrySet())
+				{
+					tagSet.addTag(tag.getKey(), tag.getValue());
+					memoryMonitor.checkMemoryAndThrowException();
+				}
+			}
 		}
 
-		return (m_nextKey != null);
+		m_currentSource = null;
+		ThreadReporter.addDataPoint(CassandraDatastore.RAW_ROW_KEY_COUNT, m_rawRowKeyCount);
+		ThreadReporter.addDataPoint(CassandraDatastore.KEY_QUERY_TIME, m_keyQueryTime);
 	}
 
 	@Override
@@ -285,4 +342,160 @@ outer:
 	public void remove()
 	{
 	}
+
+	//===========================================================================
+	private enum TierCache
+	{
+		NONE, CLOSED, OPEN
+	}
+
+	//===========================================================================
+	/**
+	 Row keys of one index query or of a tier from the row key index cache.
+	 */
+	private class IndexSource
+	{
+		private final ListenableFuture<ResultSet> m_future;
+		private final TierCache m_tierCache;
+		private final long m_rowTime;
+		private TierIndex m_tier;
+
+		private IndexSource(ListenableFuture<ResultSet> future, TierCache tierCache, long rowTime)
+		{
+			m_future = future;
+			m_tierCache = tierCache;
+			m_rowTime = rowTime;
+		}
+
+		private IndexSource(TierIndex tier)
+		{
+			m_future = null;
+			m_tierCache = TierCache.NONE;
+			m_rowTime = 0L;
+			m_tier = tier;
+		}
+
+		/**
+		 Returns the tier index of a tier that is, or is going to be, cached
+		 waiting for the query if needed.  Returns null for other queries.
+		 */
+		private TierIndex getTier()
+		{
+			if (m_tier != null || m_tierCache == TierCache.NONE)
+				return m_tier;
+
+			//Read the whole tier so it can be cached
+			List<DataPointsRowKey> tierKeys = new ArrayList<>();
+			Iterators.addAll(tierKeys, new ResultSetRowKeyIterator(waitForResults()));
+
+			if (m_tierCache == TierCache.CLOSED)
+				m_tier = m_rowKeyIndexCache.putRowKeys(m_clusterName, m_metricName, m_rowTime, tierKeys);
+			else
+				m_tier = m_rowKeyIndexCache.putOpenTier(m_clusterName, m_metricName, m_rowTime, tierKeys);
+
+			return m_tier;
+		}
+
+		/**
+		 Waits for the query if it has not come back yet.
+		 */
+		private Iterator<DataPointsRowKey> open()
+		{
+			TierIndex tier = getTier();
+			if (tier != null)
+				return tier.find(m_filterTags, m_patternFilter).iterator();
+
+			return new ResultSetRowKeyIterator(waitForResults());
+		}
+
+		private ResultSet waitForResults()
+		{
+			long waitStart = System.currentTimeMillis();
+			try
+			{
+				return m_future.get();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new RowKeyQueryException(new DatastoreException("Index query interrupted", e));
+			}
+			catch (ExecutionException e)
+			{
+				throw new RowKeyQueryException(new DatastoreException("Failed to read key index", e));
+			}
+			finally
+			{
+				m_keyQueryTime += System.currentTimeMillis() - waitStart;
+			}
+		}
+	}
+
+	//===========================================================================
+	/**
+	 Reads the row keys of a result set from either the legacy row_key_index
+	 table or the row_keys tables.
+	 */
+	private class ResultSetRowKeyIterator implements Iterator<DataPointsRowKey>
+	{
+		private final ResultSet m_resultSet;
+		private final boolean m_newIndex;
+		private DataPointsRowKey m_next;
+
+		private ResultSetRowKeyIterator(ResultSet resultSet)
+		{
+			m_resultSet = resultSet;
+			m_newIndex = resultSet.getColumnDefinitions().contains("row_time");
+		}
+
+		/**
+		 Later pages are fetched as the rows are read, a failed fetch is
+		 thrown as a RowKeyQueryException like a failed index query.
+		 */
+		@Override
+		public boolean hasNext()
+		{
+			try
+			{
+				while (m_next == null && !m_resultSet.isExhausted())
+				{
+					//Ask for the next page before this one runs out
+					if (m_resultSet.getAvailableWithoutFetching() == PREFETCH_ROWS && !m_resultSet.isFullyFetched())
+						m_resultSet.fetchMoreResults();
+
+					Row record = m_resultSet.one();
+
+					if (m_newIndex)
+					{
+						if (record.getString(1) == null)
+							continue; //empty row
+
+						m_next = new DataPointsRowKey(m_metricName, m_clusterName, record.getTimestamp(0).getTime(),
+								record.getString(1), new TreeMap<String, String>(record.getMap(2, String.class, String.class)));
+
+						m_next.setTtl(record.getInt(3));
+					}
+					else
+						m_next = CassandraDatastore.DATA_POINTS_ROW_KEY_SERIALIZER.fromByteBuffer(record.getBytes(0), m_clusterName);
+				}
+			}
+			catch (DriverException e)
+			{
+				throw new RowKeyQueryException(new DatastoreException("Failed to read key index", e));
+			}
+
+			return m_next != null;
+		}
+
+		@Override
+		public DataPointsRowKey next()
+		{
+			if (!hasNext())
+				throw new NoSuchElementException();
+
+			DataPointsRowKey ret = m_next;
+			m_next = null;
+			return ret;
+		}
+	}
 }
@@ -77,10 +77,8 @@ import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.TreeSet;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Semaphore;
-import java.util.concurrent.ThreadFactory;
 
 import static java.util.Objects.requireNonNull;
 import static org.kairosdb.datastore.cassandra.ClusterConnection.DATA_POINTS_TABLE_NAME;
@@ -124,12 +122,22 @@ public class CassandraDatastore implements Datastore, ProcessorHandler, KairosMe
 	@Inject
 	private DataCache<TimedString> m_metricNameCache = new DataCache<>(1024);
 
+	@Inject
+	private IndexWriteCoalescer m_indexWriter;
+
+	@Inject
+	private RowKeyIndexCache m_rowKeyIndexCache = new RowKeyIndexCache(0, 0);
+
+	@Inject
+	private StringIndexCache m_stringIndexCache = new StringIndexCache(false);
+
 	private final KairosDataPointFactory m_kairosDataPointFactory;
 	private final QueueProcessor m_queueProcessor;
 	private final IngestExecutorService m_congestionExecutor;
 	private final CassandraModule.BatchHandlerFactory m_batchHandlerFactory;
 	private final CassandraModule.DeleteBatchHandlerFactory m_deleteBatchHandlerFactory;
 	private final CassandraModule.CQLFilteredRowKeyIteratorFactory m_rowKeyFilterFactory;
+	private final QueryReaderExecutor m_queryReaderExecutor;
 
 	private CassandraConfiguration m_cassandraConfiguration;
 
@@ -153,7 +161,8 @@ public class CassandraDatastore implements Datastore, ProcessorHandler, KairosMe
 			CassandraModule.BatchHandlerFactory batchHandlerFactory,
 			CassandraModule.DeleteBatchHandlerFactory deleteBatchHandlerFactory,
 			CassandraModule.CQLFilteredRowKeyIteratorFactory rowKeyFilterFactory,
-			CassandraModule.CQLBatchFactory cqlBatchFactory
+			CassandraModule.CQLBatchFactory cqlBatchFactory,
+			QueryReaderExecutor queryReaderExecutor
 			) throws DatastoreException
 	{
 		//m_astyanaxClient = astyanaxClient;
@@ -164,6 +173,7 @@ public class CassandraDatastore implements Datastore, ProcessorHandler, KairosMe
 		m_batchHandlerFactory = batchHandlerFactory;
 		m_deleteBatchHandlerFactory = deleteBatchHandlerFactory;
 		m_rowKeyFilterFactory = rowKeyFilterFactory;
+		m_queryReaderExecutor = queryReaderExecutor;
 
 		m_writeCluster = writeCluster;
 		m_metaCluster = metaCluster;
@@ -217,10 +227,30 @@ public class CassandraDatastore implements Datastore, ProcessorHandler, KairosMe
 		}
 	}
 
+	/**
+	 Reloads the string index rows that are in the cache.
+	 */
+	public void refreshStringIndexCache()
+	{
+		for (String key : m_stringIndexCache.getLoadedKeys())
+		{
+			try
+			{
+				loadStringIndex(key);
+			}
+			catch (DatastoreException e)
+			{
+				logger.error("Unable to refresh string index cache for " + key, e);
+			}
+		}
+	}
+
 	@Override
 	public void close() throws InterruptedException
 	{
 		m_queueProcessor.shutdown();
+		if (m_indexWriter != null)
+			m_indexWriter.shutdown();
 		m_writeCluster.close();
 		for (ClusterConnection readCluster : m_readClusters)
 		{
@@ -293,7 +323,7 @@ public class CassandraDatastore implements Datastore, ProcessorHandler, KairosMe
 	}
 
 
-	private Iterable<String> queryStringIndex(final String key, final String prefix) throws DatastoreException
+	private Set<String> queryStringIndex(final String key, final String prefix) throws DatastoreException
 	{
 		List<ResultSetFuture> futures = queryClusters((cluster) -> {
 					BoundStatement boundStatement = new BoundStatement(cluster.psStringIndexPrefixQuery);
@@ -329,7 +359,7 @@ public class CassandraDatastore implements Datastore, ProcessorHandler, KairosMe
 		return ret;
 	}
 
-	private Iterable<String> queryStringIndex(final String key) throws DatastoreException
+	private Set<String> queryStringIndex(final String key) throws DatastoreException
 	{
 		List<ResultSetFuture> futures = queryClusters((cluster) -> {
 			BoundStatement boundStatement = new BoundStatement(cluster.psStringIndexQuery);
@@ -365,41 +395,83 @@ public class CassandraDatastore implements Datastore, ProcessorHandler, KairosMe
 		return ret;
 	}
 
-	@Override
-	public Iterable<String> getMetricNames(String prefix) throws DatastoreException
+	private void loadStringIndex(String key) throws DatastoreException
 	{
+		m_stringIndexCache.startLoad(key);
+		m_stringIndexCache.setValues(key, queryStringIndex(key));
+	}
+
+	/**
+	 Returns the sorted values of a string index row, from the string index
+	 cache if it is turned on.
+	 */
+	private Iterable<String> getStringIndex(String key, String prefix) throws DatastoreException
+	{
+		if (!m_stringIndexCache.isEnabled())
+		{
+			if (prefix == null)
+				return queryStringIndex(key);
+			else
+				return new TreeSet<>(queryStringIndex(key, prefix));
+		}
+
+		if (m_stringIndexCache.getValues(key) == null)
+			loadStringIndex(key);
+
 		if (prefix == null)
-			return queryStringIndex(ROW_KEY_METRIC_NAMES);
+			return m_stringIndexCache.getValues(key);
 		else
-			return queryStringIndex(ROW_KEY_METRIC_NAMES, prefix);
+			return m_stringIndexCache.getValues(key, prefix);
+	}
+
+	@Override
+	public Iterable<String> getMetricNames(String prefix) throws DatastoreException
+	{
+		return getStringIndex(ROW_KEY_METRIC_NAMES, prefix);
 	}
 
 	@Override
 	public Iterable<String> getTagNames() throws DatastoreException
 	{
-		return queryStringIndex(ROW_KEY_TAG_NAMES);
+		return getStringIndex(ROW_KEY_TAG_NAMES, null);
 	}
 
 	@Override
 	public Iterable<String> getTagValues() throws DatastoreException
 	{
-		return queryStringIndex(ROW_KEY_TAG_VALUES);
+		return getStringIndex(ROW_KEY_TAG_VALUES, null);
 	}
 
 	@Override
 	public TagSet queryMetricTags(DatastoreMetricQuery query) throws DatastoreException
 	{
 		TagSetImpl tagSet = new TagSetImpl();
-		Iterator<DataPointsRowKey> rowKeys = getKeysForQueryIterator(query);
-
 		MemoryMonitor mm = new MemoryMonitor(20);
-		while (rowKeys.hasNext())
+
+		//Cached tiers add their tags from the tier's tag index
+		for (Iterator<DataPointsRowKey> rowKeys : getRowKeyIterators(query, true))
 		{
-			DataPointsRowKey dataPointsRowKey = rowKeys.next();
-			for (Map.Entry<String, String> tag : dataPointsRowKey.getTags().entrySet())
+			if (rowKeys instanceof CQLFilteredRowKeyIterator)
 			{
-				tagSet.addTag(tag.getKey(), tag.getValue());
-				mm.checkMemoryAndThrowException();
+				try
+				{
+					((CQLFilteredRowKeyIterator) rowKeys).addTags(tagSet, mm);
+				}
+				catch (RowKeyQueryException e)
+				{
+					throw e.getCause();
+				}
+				continue;
+			}
+
+			while (hasNextRowKey(rowKeys))
+			{
+				DataPointsRowKey dataPointsRowKey = rowKeys.next();
+				for (Map.Entry<String, String> tag : dataPointsRowKey.getTags().entrySet())
+				{
+					tagSet.addTag(tag.getKey(), tag.getValue());
+					mm.checkMemoryAndThrowException();
+				}
 			}
 		}
 
@@ -414,18 +486,26 @@ public class CassandraDatastore implements Datastore, ProcessorHandler, KairosMe
 
 		MemoryMonitor mm = new MemoryMonitor(20);
 		long indexStatementCount = 0;
-		while (rowKeys.hasNext())
+		try
 		{
-			DataPointsRowKey dataPointsRowKey = rowKeys.next();
-			batch.indexRowKey(dataPointsRowKey, dataPointsRowKey.getTtl());
-			mm.checkMemoryAndThrowException();
-			indexStatementCount++;
-			if (indexStatementCount % MAX_CQL_BATCH_SIZE == 0) {
-				batch.submitBatch();
-				batch = m_cqlBatchFactory.create();
+			while (hasNextRowKey(rowKeys))
+			{
+				DataPointsRowKey dataPointsRowKey = rowKeys.next();
+				batch.indexRowKey(dataPointsRowKey, dataPointsRowKey.getTtl());
+				mm.checkMemoryAndThrowException();
+				indexStatementCount++;
+				if (indexStatementCount % MAX_CQL_BATCH_SIZE == 0) {
+					batch.submitBatch();
+					batch = m_cqlBatchFactory.create();
+				}
 			}
+			batch.submitBatch();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new DatastoreException("Interrupted while indexing tags", e);
 		}
-		batch.submitBatch();
 	}
 
 	@Override
@@ -712,21 +792,12 @@ public class CassandraDatastore implements Datastore, ProcessorHandler, KairosMe
 		QueryMonitor queryMonitor = new QueryMonitor(m_cassandraConfiguration.getQueryLimit(),
 				m_cassandraConfiguration.getQueryTimeLimit());
 
-		ExecutorService resultsExecutor = Executors.newFixedThreadPool(m_cassandraConfiguration.getQueryReaderThreads(),
-				new ThreadFactory()
-				{
-					private int m_count = 0;
-					@Override
-					public Thread newThread(Runnable r)
-					{
-						m_count ++;
-						return new Thread(r, "query_"+query.getName()+"-"+m_count);
-					}
-				});
+		//Results are decoded on the shared reader pool, limited to query_reader_threads for this query
+		Executor resultsExecutor = m_queryReaderExecutor.newQueryReader();
 		//Controls the number of queries sent out at the same time.
 		Semaphore querySemaphore = new Semaphore(m_cassandraConfiguration.getSimultaneousQueries());
 
-		while (rowKeys.hasNext())
+		while (hasNextRowKey(rowKeys, queryMonitor))
 		{
 			rowCount ++;
 			DataPointsRowKey rowKey = rowKeys.next();
@@ -811,11 +882,16 @@ public class CassandraDatastore implements Datastore, ProcessorHandler, KairosMe
 
 		ThreadReporter.addDataPoint(ROW_KEY_COUNT, rowCount);
 
+		if (queryMonitor.getException() != null)
+		{
+			for (ResultSetFuture queryResult : queryResults)
+				queryResult.cancel(true);
+		}
+
 		try
 		{
 			if (queryMonitor.getException() == null)
 				querySemaphore.acquire(m_cassandraConfiguration.getSimultaneousQueries());
-			resultsExecutor.shutdown();
 		}
 		catch (InterruptedException e)
 		{
@@ -826,6 +902,38 @@ public class CassandraDatastore implements Datastore, ProcessorHandler, KairosMe
 			throw new DatastoreException(queryMonitor.getException());
 	}
 
+	/**
+	 Row keys are read from the index as they are iterated, see
+	 CQLFilteredRowKeyIterator.
+	 */
+	private static boolean hasNextRowKey(Iterator<DataPointsRowKey> rowKeys) throws DatastoreException
+	{
+		try
+		{
+			return rowKeys.hasNext();
+		}
+		catch (RowKeyQueryException e)
+		{
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 A failed index query stops the query like a failed data point query does.
+	 */
+	private static boolean hasNextRowKey(Iterator<DataPointsRowKey> rowKeys, QueryMonitor queryMonitor)
+	{
+		try
+		{
+			return rowKeys.hasNext();
+		}
+		catch (RowKeyQueryException e)
+		{
+			queryMonitor.failQuery(e.getCause());
+			return false;
+		}
+	}
+
 	private void deletePartialRow(DataPointsRowKey rowKey, long start, long end, ClusterConnection cluster) throws DatastoreException
 	{
 		RowSpec rowSpec = cluster.getRowSpec();
@@ -871,7 +979,7 @@ public class CassandraDatastore implements Datastore, ProcessorHandler, KairosMe
 
 		Iterator<DataPointsRowKey> rowKeyIterator = getKeysForQueryIterator(deleteQuery);
 
-		while (rowKeyIterator.hasNext())
+		while (hasNextRowKey(rowKeyIterator))
 		{
 			DataPointsRowKey rowKey = rowKeyIterator.next();
 			ClusterConnection cluster = m_clusterMap.get(rowKey.getClusterName());
@@ -943,6 +1051,8 @@ public class CassandraDatastore implements Datastore, ProcessorHandler, KairosMe
 			}
 		}
 
+		m_rowKeyIndexCache.invalidateMetric(deleteQuery.getName());
+
 		// If index is gone, delete metric name from Strings column family
 		if (deleteAll)
 		{
@@ -964,6 +1074,7 @@ public class CassandraDatastore implements Datastore, ProcessorHandler, KairosMe
 
 			clearCache = true;
 			m_metricNameCache.clear();
+			m_stringIndexCache.removeValue(ROW_KEY_METRIC_NAMES, deleteQuery.getName());
 		}
 
 
@@ -990,7 +1101,18 @@ public class CassandraDatastore implements Datastore, ProcessorHandler, KairosMe
 	 */
 	public Iterator<DataPointsRowKey> getKeysForQueryIterator(DatastoreMetricQuery query) throws DatastoreException
 	{
-		Iterator<DataPointsRowKey> ret = null;
+		return Iterators.concat(getRowKeyIterators(query, false).iterator());
+	}
+
+	/**
+	 Returns the row key iterator of a query plugin or one per cluster covering
+	 the query.
+	 @param tagQuery true if the row keys are only read for their tags
+	 */
+	private List<Iterator<DataPointsRowKey>> getRowKeyIterators(DatastoreMetricQuery query,
+			boolean tagQuery) throws DatastoreException
+	{
+		List<Iterator<DataPointsRowKey>> ret = null;
 
 		List<QueryPlugin> plugins = query.getPlugins();
 
@@ -999,7 +1121,9 @@ public class CassandraDatastore implements Datastore, ProcessorHandler, KairosMe
 		{
 			if (plugin instanceof CassandraRowKeyPlugin)
 			{
-				ret = ((CassandraRowKeyPlugin) plugin).getKeysForQueryIterator(query);
+				Iterator<DataPointsRowKey> pluginKeys = ((CassandraRowKeyPlugin) plugin).getKeysForQueryIterator(query);
+				if (pluginKeys != null)
+					ret = Collections.singletonList(pluginKeys);
 				break;
 			}
 		}
@@ -1012,29 +1136,27 @@ public class CassandraDatastore implements Datastore, ProcessorHandler, KairosMe
 		//Default to query index if no plugin was provided
 		if (ret == null)
 		{
-			List<Iterator<DataPointsRowKey>> retList = new ArrayList<>();
+			ret = new ArrayList<>();
 
 			//todo use Iterable.concat to query multiple metrics at the same time.
 			//each filtered iterator will be combined into one and returned.
-			//one issue is that the queries are done in the constructor
-			//would like to do them lazily but would have to throw an exception through
-			//hasNext call, ick
+			//The index queries of every cluster are sent here, each iterator
+			//waits for its queries as it is read and throws
+			//RowKeyQueryException through hasNext if one fails
 			if (m_writeCluster.containRange(query.getStartTime(), query.getEndTime()))
 			{
-				retList.add(m_rowKeyFilterFactory.create(m_writeCluster, query.getName(), query.getStartTime(),
-						query.getEndTime(), query.getTags()));
+				ret.add(m_rowKeyFilterFactory.create(m_writeCluster, query.getName(), query.getStartTime(),
+						query.getEndTime(), query.getTags(), tagQuery));
 			}
 
 			for (ClusterConnection cluster : m_readClusters)
 			{
 				if (cluster.containRange(query.getStartTime(), query.getEndTime()))
 				{
-					retList.add(m_rowKeyFilterFactory.create(cluster, query.getName(), query.getStartTime(),
-							query.getEndTime(), query.getTags()));
+					ret.add(m_rowKeyFilterFactory.create(cluster, query.getName(), query.getStartTime(),
+							query.getEndTime(), query.getTags(), tagQuery));
 				}
 			}
-
-			ret = Iterators.concat(retList.iterator());
 		}
 
 		return (ret);
@@ -84,10 +84,16 @@ public class CassandraModule extends AbstractModule
 		bind(ServiceKeyStore.class).to(CassandraDatastore.class).in(Scopes.SINGLETON);
 		bind(CassandraDatastore.class).in(Scopes.SINGLETON);
 		bind(CleanRowKeyCache.class).in(Scopes.SINGLETON);
+		bind(CleanStringIndexCache.class).in(Scopes.SINGLETON);
+		bind(StringIndexCache.class).in(Scopes.SINGLETON);
+		bind(IndexWriteCoalescer.class).in(Scopes.SINGLETON);
+		bind(RowKeyIndexCache.class).in(Scopes.SINGLETON);
 		bind(CassandraConfiguration.class).in(Scopes.SINGLETON);
 		//bind(CassandraClient.class).to(CassandraClientImpl.class);
 		//bind(CassandraClientImpl.class).in(Scopes.SINGLETON);
 		bind(BatchStats.class).in(Scopes.SINGLETON);
+		bind(QueryReaderExecutor.class).in(Scopes.SINGLETON);
+		bind(HostWriteLimiter.class).in(Scopes.SINGLETON);
 
 		bind(new TypeLiteral<Map<String, String>>(){}).annotatedWith(Names.named(CASSANDRA_AUTH_MAP))
 				.toInstance(m_authMap);
@@ -288,7 +294,8 @@ public class CassandraModule extends AbstractModule
 				String metricName,
 				@Assisted("startTime") long startTime,
 				@Assisted("endTime") long endTime,
-				SetMultimap<String, String> filterTags) throws DatastoreException;
+				SetMultimap<String, String> filterTags,
+				boolean tagQuery) throws DatastoreException;
 	}
 
 
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.datastore.cassandra;
+
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import org.kairosdb.core.scheduler.KairosDBJob;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+import org.quartz.Trigger;
+
+import static org.quartz.SimpleScheduleBuilder.simpleSchedule;
+import static org.quartz.TriggerBuilder.newTrigger;
+
+/**
+ Reloads the rows of the string index cache from Cassandra so names written
+ or deleted through other nodes show up.
+ */
+public class CleanStringIndexCache implements KairosDBJob
+{
+	public static final String REFRESH_INTERVAL = "kairosdb.datastore.cassandra.string_index_cache_refresh";
+
+	private final CassandraDatastore m_datastore;
+	private final int m_refreshInterval;
+
+	/**
+	 @param refreshInterval minutes between reloads
+	 */
+	@Inject
+	public CleanStringIndexCache(CassandraDatastore datastore,
+			@Named(REFRESH_INTERVAL) int refreshInterval)
+	{
+		m_datastore = datastore;
+		m_refreshInterval = Math.max(1, refreshInterval);
+	}
+
+	@Override
+	public Trigger getTrigger()
+	{
+		return newTrigger()
+				.withIdentity(this.getClass().getSimpleName())
+				.withSchedule(simpleSchedule()
+						.withIntervalInMinutes(m_refreshInterval)
+						.repeatForever())
+				.build();
+	}
+
+	@Override
+	public void interrupt()
+	{
+	}
+
+	@Override
+	public void execute(JobExecutionContext jobExecutionContext) throws JobExecutionException
+	{
+		m_datastore.refreshStringIndexCache();
+	}
+}
@@ -643,9 +643,18 @@ public class ClusterConnection
 		return m_cassandraClient.getClusterConfiguration().containRange(queryStartTime, queryEndTime);
 	}
 
+	/**
+	 Returns true if row keys of the metric are looked up in tag_indexed_row_keys,
+	 where a query only returns the row keys matching its tags.
+	 */
+	public boolean usesTagIndexedLookup(String metricName)
+	{
+		return m_alwaysUseTagIndexedLookup || m_tagIndexMetricNames.containsKey(metricName);
+	}
+
 	public RowKeyLookup getRowKeyLookupForMetric(String metricName)
 	{
-		if (m_alwaysUseTagIndexedLookup || m_tagIndexMetricNames.containsKey(metricName))
+		if (usesTagIndexedLookup(metricName))
 		{
 			logger.debug("Using tag-indexed row key lookup for {}", metricName);
 			return m_indexedRowKeyLookup;
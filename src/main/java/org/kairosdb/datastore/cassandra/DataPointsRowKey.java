@@ -33,7 +33,11 @@ public class DataPointsRowKey
 	//adds a 0xFF after the timestamp to make sure we get all data for that timestamp.
 	private int m_ttl = 0;
 
-	private ByteBuffer m_serializedBuffer;
+	//Set lazily by DataPointsRowKeySerializer, a key cached on its Series is
+	//serialized from several BatchHandler threads
+	private volatile ByteBuffer m_serializedBuffer;
+	//Row keys are hashed by the row key cache for every data point written
+	private int m_hashCode;
 
 	public DataPointsRowKey(String metricName, String clusterName, long timestamp, String dataType)
 	{
@@ -54,6 +58,7 @@ public class DataPointsRowKey
 	public void addTag(String name, String value)
 	{
 		m_tags.put(name, value);
+		m_hashCode = 0;
 	}
 
 	public String getMetricName()
@@ -126,10 +131,15 @@ public class DataPointsRowKey
 	@Override
 	public int hashCode()
 	{
-		int result = m_metricName.hashCode();
-		result = 31 * result + (int) (m_timestamp ^ (m_timestamp >>> 32));
-		result = 31 * result + (m_dataType != null ? m_dataType.hashCode() : 0);
-		result = 31 * result + m_tags.hashCode();
+		int result = m_hashCode;
+		if (result == 0)
+		{
+			result = m_metricName.hashCode();
+			result = 31 * result + (int) (m_timestamp ^ (m_timestamp >>> 32));
+			result = 31 * result + (m_dataType != null ? m_dataType.hashCode() : 0);
+			result = 31 * result + m_tags.hashCode();
+			m_hashCode = result;
+		}
 		return result;
 	}
 
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.datastore.cassandra;
+
+import org.kairosdb.core.DataPointSet;
+import org.kairosdb.core.reporting.KairosMetricReporter;
+import org.kairosdb.util.SimpleStats;
+import org.kairosdb.util.SimpleStatsReporter;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ Node wide limit on the number of data point batches in flight to each
+ Cassandra host.  CQLBatch sends the batch for every host at once, the limit
+ keeps a slow host from collecting an unbounded number of requests.  The time
+ each batch takes is recorded per host.
+ */
+public class HostWriteLimiter implements KairosMetricReporter
+{
+	public static final String MAX_IN_FLIGHT_BATCHES = "kairosdb.datastore.cassandra.max_in_flight_batches_per_host";
+
+	public static final String BATCH_LATENCY_METRIC = "kairosdb.datastore.cassandra.write_batch_latency_ms";
+
+	private final int m_maxInFlight;
+	private final ConcurrentMap<String, HostState> m_hosts = new ConcurrentHashMap<>();
+
+	@Inject
+	private SimpleStatsReporter m_simpleStatsReporter = new SimpleStatsReporter();
+
+	@Inject
+	public HostWriteLimiter(@Named(MAX_IN_FLIGHT_BATCHES) int maxInFlight)
+	{
+		checkArgument(maxInFlight > 0, "max_in_flight_batches_per_host must be greater than 0");
+		m_maxInFlight = maxInFlight;
+	}
+
+	private HostState getHostState(String host)
+	{
+		return m_hosts.computeIfAbsent(host, h -> new HostState(m_maxInFlight));
+	}
+
+	/**
+	 Blocks until another batch can be sent to the host.  The returned permit
+	 must be released when the batch completes.
+	 */
+	public HostPermit acquire(String host) throws InterruptedException
+	{
+		HostState state = getHostState(host);
+		state.m_inFlight.acquire();
+
+		return new HostPermit(state);
+	}
+
+	public int getInFlight(String host)
+	{
+		return m_maxInFlight - getHostState(host).m_inFlight.availablePermits();
+	}
+
+	@Override
+	public List<DataPointSet> getMetrics(long now)
+	{
+		List<DataPointSet> ret = new ArrayList<>();
+
+		for (Map.Entry<String, HostState> entry : m_hosts.entrySet())
+		{
+			HostState state = entry.getValue();
+			if (state.m_latencyStats.getCount() != 0)
+				m_simpleStatsReporter.reportStats(state.m_latencyStats.getAndClear(), now,
+						BATCH_LATENCY_METRIC, "cassandra_host", entry.getKey(), ret);
+		}
+
+		return ret;
+	}
+
+	private static class HostState
+	{
+		private final Semaphore m_inFlight;
+		private final SimpleStats m_latencyStats = new SimpleStats();
+
+		private HostState(int maxInFlight)
+		{
+			m_inFlight = new Semaphore(maxInFlight);
+		}
+	}
+
+	public static class HostPermit
+	{
+		private final HostState m_state;
+		private final long m_startTime;
+		private boolean m_released = false;
+
+		private HostPermit(HostState state)
+		{
+			m_state = state;
+			m_startTime = System.nanoTime();
+		}
+
+		/**
+		 Records the time since the permit was acquired and frees it for the
+		 next batch.  Only the first call has any effect.
+		 */
+		public synchronized void release()
+		{
+			if (m_released)
+				return;
+
+			m_released = true;
+			m_state.m_latencyStats.addValue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - m_startTime));
+			m_state.m_inFlight.release();
+		}
+	}
+}
@@ -0,0 +1,480 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.datastore.cassandra;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.kairosdb.core.exception.DatastoreException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.kairosdb.datastore.cassandra.CassandraDatastore.DATA_POINTS_ROW_KEY_SERIALIZER;
+
+/**
+ Node wide writer for the row key, row key time and metric name indexes.
+ BatchHandlers hand it the index entries their data points need and get back
+ a future for the write.  Entries are kept until the writer thread picks them
+ up, so an entry added by several batches before then is written once, and
+ while one flush is out the next one collects everything added in the mean
+ time.  A flush that fails is put back and retried, the futures of its entries
+ complete when it finally goes through.  After max retries the entries are
+ dropped from the caches and their futures fail, so the batches waiting on
+ them do not block ingest.  The batches hand the entries back to be written
+ with a later flush.
+
+ On shutdown the row key and metric name caches are saved to the snapshot file
+ so a restart does not write the index entries of every active series again.
+ Only entries of the current row are saved and loaded, the same ones
+ CleanRowKeyCache keeps in the cache.
+ */
+public class IndexWriteCoalescer
+{
+	public static final Logger logger = LoggerFactory.getLogger(IndexWriteCoalescer.class);
+
+	public static final String INDEX_BATCH_SIZE = "kairosdb.datastore.cassandra.index_write_batch_size";
+	public static final String INDEX_MAX_RETRIES = "kairosdb.datastore.cassandra.index_write_max_retries";
+	public static final String CACHE_SNAPSHOT_PATH = "kairosdb.datastore.cassandra.row_key_cache_snapshot";
+
+	private static final int SNAPSHOT_VERSION = 1;
+	private static final long RETRY_DELAY = 1000L;
+
+	private final CassandraModule.CQLBatchFactory m_cqlBatchFactory;
+	private final RowSpec m_rowSpec;
+	private final DataCache<DataPointsRowKey> m_rowKeyCache;
+	private final DataCache<TimedString> m_metricNameCache;
+	private final ExecutorService m_executor;
+
+	private final Object m_lock = new Object();
+	//Value is the ttl of the index entry, the longest one wins
+	private Map<DataPointsRowKey, Integer> m_pendingRowKeys = new LinkedHashMap<>();
+	private Map<TimedString, Integer> m_pendingMetricNames = new LinkedHashMap<>();
+	private SettableFuture<Void> m_pendingFuture = SettableFuture.create();
+	private boolean m_flushRunning = false;
+	private volatile boolean m_shuttingDown = false;
+
+	private int m_batchSize = 500;
+	private int m_maxRetries = 30;
+	private File m_snapshotFile;
+
+	@Inject
+	public IndexWriteCoalescer(CassandraModule.CQLBatchFactory cqlBatchFactory,
+			@Named("write_cluster") ClusterConnection writeCluster,
+			DataCache<DataPointsRowKey> rowKeyCache,
+			DataCache<TimedString> metricNameCache)
+	{
+		this(cqlBatchFactory, writeCluster.getRowSpec(), rowKeyCache, metricNameCache);
+	}
+
+	public IndexWriteCoalescer(CassandraModule.CQLBatchFactory cqlBatchFactory, RowSpec rowSpec,
+			DataCache<DataPointsRowKey> rowKeyCache, DataCache<TimedString> metricNameCache)
+	{
+		m_cqlBatchFactory = cqlBatchFactory;
+		m_rowSpec = rowSpec;
+		m_rowKeyCache = rowKeyCache;
+		m_metricNameCache = metricNameCache;
+
+		m_executor = Executors.newSingleThreadExecutor(
+				new ThreadFactoryBuilder().setNameFormat("index-writer-%d").setDaemon(true).build());
+	}
+
+	/**
+	 Number of index entries written in one CQL batch.
+	 */
+	@Inject(optional = true)
+	public void setBatchSize(@Named(INDEX_BATCH_SIZE) int batchSize)
+	{
+		m_batchSize = Math.max(1, batchSize);
+	}
+
+	/**
+	 Number of times a failed flush is retried, a second apart, before its
+	 entries are given up on.
+	 */
+	@Inject(optional = true)
+	public void setMaxRetries(@Named(INDEX_MAX_RETRIES) int maxRetries)
+	{
+		m_maxRetries = Math.max(0, maxRetries);
+	}
+
+	/**
+	 Sets the snapshot file and loads the caches from it if there is one.  An
+	 empty path turns snapshots off.
+	 */
+	@Inject(optional = true)
+	public void setSnapshotPath(@Named(CACHE_SNAPSHOT_PATH) String path)
+	{
+		if (path == null || path.isEmpty())
+		{
+			m_snapshotFile = null;
+			return;
+		}
+
+		m_snapshotFile = new File(path);
+		loadSnapshot();
+	}
+
+	public ListenableFuture<Void> addRowKey(DataPointsRowKey rowKey, int rowKeyTtl)
+	{
+		synchronized (m_lock)
+		{
+			if (m_shuttingDown)
+				return shutdownFuture();
+
+			m_pendingRowKeys.merge(rowKey, rowKeyTtl, IndexWriteCoalescer::maxTtl);
+			return schedule();
+		}
+	}
+
+	/**
+	 Adds the metric name to the string index and the row key time index.
+	 */
+	public ListenableFuture<Void> addMetricName(TimedString metricName, int rowKeyTtl)
+	{
+		synchronized (m_lock)
+		{
+			if (m_shuttingDown)
+				return shutdownFuture();
+
+			m_pendingMetricNames.merge(metricName, rowKeyTtl, IndexWriteCoalescer::maxTtl);
+			return schedule();
+		}
+	}
+
+	private static Integer maxTtl(Integer ttl1, Integer ttl2)
+	{
+		//Zero never expires
+		if (ttl1 == 0 || ttl2 == 0)
+			return 0;
+		return Math.max(ttl1, ttl2);
+	}
+
+	private static ListenableFuture<Void> shutdownFuture()
+	{
+		return Futures.immediateFailedFuture(new DatastoreException("Index writer is shut down"));
+	}
+
+	//Called holding m_lock
+	private ListenableFuture<Void> schedule()
+	{
+		if (!m_flushRunning)
+		{
+			m_flushRunning = true;
+			m_executor.execute(this::flushPending);
+		}
+
+		return m_pendingFuture;
+	}
+
+	private void flushPending()
+	{
+		int failures = 0;
+
+		while (true)
+		{
+			Map<DataPointsRowKey, Integer> rowKeys;
+			Map<TimedString, Integer> metricNames;
+			SettableFuture<Void> future;
+
+			synchronized (m_lock)
+			{
+				if (m_pendingRowKeys.isEmpty() && m_pendingMetricNames.isEmpty())
+				{
+					m_flushRunning = false;
+					return;
+				}
+
+				rowKeys = m_pendingRowKeys;
+				metricNames = m_pendingMetricNames;
+				future = m_pendingFuture;
+				m_pendingRowKeys = new LinkedHashMap<>();
+				m_pendingMetricNames = new LinkedHashMap<>();
+				m_pendingFuture = SettableFuture.create();
+			}
+
+			try
+			{
+				writeIndexes(rowKeys, metricNames);
+				future.set(null);
+				failures = 0;
+			}
+			catch (Exception e)
+			{
+				failures++;
+				if (failures > m_maxRetries)
+				{
+					logger.error("Failed to write index entries, giving up on " +
+							(rowKeys.size() + metricNames.size()) + " after " + m_maxRetries + " retries", e);
+
+					//Taken out of the caches so new data points of the series
+					//write them again
+					synchronized (m_lock)
+					{
+						rowKeys.keySet().forEach(m_rowKeyCache::removeKey);
+						metricNames.keySet().forEach(m_metricNameCache::removeKey);
+					}
+
+					future.setException(e);
+					failures = 0;
+					continue;
+				}
+
+				logger.error("Failed to write index entries, " + (rowKeys.size() + metricNames.size()) +
+						" will be retried", e);
+
+				synchronized (m_lock)
+				{
+					//Entries that did not go out wait for the next flush
+					rowKeys.forEach((key, ttl) -> m_pendingRowKeys.merge(key, ttl, IndexWriteCoalescer::maxTtl));
+					metricNames.forEach((name, ttl) -> m_pendingMetricNames.merge(name, ttl, IndexWriteCoalescer::maxTtl));
+
+					if (m_shuttingDown)
+					{
+						//Left pending so they are not saved in the snapshot, new
+						//data points of the series write them after the restart
+						future.setException(e);
+						m_pendingFuture.setException(e);
+						m_flushRunning = false;
+						return;
+					}
+
+					future.setFuture(m_pendingFuture);
+				}
+
+				try
+				{
+					Thread.sleep(RETRY_DELAY);
+				}
+				catch (InterruptedException ie)
+				{
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+	}
+
+	/**
+	 Writes the entries in batches of m_batchSize, entries are removed from the
+	 maps as their batch is written.
+	 */
+	private void writeIndexes(Map<DataPointsRowKey, Integer> rowKeys,
+			Map<TimedString, Integer> metricNames) throws InterruptedException
+	{
+		while (!rowKeys.isEmpty() || !metricNames.isEmpty())
+		{
+			CQLBatch batch = m_cqlBatchFactory.create();
+			int count = 0;
+
+			Iterator<Map.Entry<DataPointsRowKey, Integer>> rowKeyIt = rowKeys.entrySet().iterator();
+			while (count < m_batchSize && rowKeyIt.hasNext())
+			{
+				Map.Entry<DataPointsRowKey, Integer> entry = rowKeyIt.next();
+				batch.addRowKey(entry.getKey(), entry.getValue());
+				count++;
+			}
+
+			Iterator<Map.Entry<TimedString, Integer>> nameIt = metricNames.entrySet().iterator();
+			while (count < m_batchSize && nameIt.hasNext())
+			{
+				Map.Entry<TimedString, Integer> entry = nameIt.next();
+				batch.addMetricName(entry.getKey());
+				batch.addTimeIndex(entry.getKey().getString(), entry.getKey().getTime(), entry.getValue());
+				count++;
+			}
+
+			batch.submitBatch();
+
+			//Take out what was just written
+			int written = 0;
+			for (rowKeyIt = rowKeys.entrySet().iterator(); written < count && rowKeyIt.hasNext(); written++)
+			{
+				rowKeyIt.next();
+				rowKeyIt.remove();
+			}
+			for (nameIt = metricNames.entrySet().iterator(); written < count && nameIt.hasNext(); written++)
+			{
+				nameIt.next();
+				nameIt.remove();
+			}
+		}
+	}
+
+	/**
+	 Writes what is pending and saves the caches to the snapshot file.
+	 */
+	public void shutdown()
+	{
+		synchronized (m_lock)
+		{
+			m_shuttingDown = true;
+		}
+
+		m_executor.shutdown();
+		try
+		{
+			if (!m_executor.awaitTermination(30, TimeUnit.SECONDS))
+				logger.warn("Timed out writing pending index entries");
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+
+		saveSnapshot();
+	}
+
+	private void saveSnapshot()
+	{
+		if (m_snapshotFile == null)
+			return;
+
+		long currentRow = m_rowSpec.calculateRowTime(System.currentTimeMillis());
+		File tmpFile = new File(m_snapshotFile.getPath() + ".tmp");
+		int rowKeyCount = 0;
+		int metricNameCount = 0;
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile))))
+		{
+			out.writeInt(SNAPSHOT_VERSION);
+
+			synchronized (m_lock)
+			{
+				for (DataPointsRowKey rowKey : m_rowKeyCache.getCachedKeys())
+				{
+					if (rowKey.getTimestamp() != currentRow || m_pendingRowKeys.containsKey(rowKey))
+						continue;
+
+					ByteBuffer buffer = DATA_POINTS_ROW_KEY_SERIALIZER.toByteBuffer(rowKey);
+					byte[] bytes = new byte[buffer.remaining()];
+					buffer.get(bytes);
+
+					out.writeBoolean(true);
+					out.writeUTF(rowKey.getClusterName());
+					out.writeInt(bytes.length);
+					out.write(bytes);
+					rowKeyCount++;
+				}
+				out.writeBoolean(false);
+
+				for (TimedString metricName : m_metricNameCache.getCachedKeys())
+				{
+					if (metricName.getTime() != currentRow || m_pendingMetricNames.containsKey(metricName))
+						continue;
+
+					out.writeBoolean(true);
+					out.writeUTF(metricName.getString());
+					out.writeLong(metricName.getTime());
+					metricNameCount++;
+				}
+				out.writeBoolean(false);
+			}
+		}
+		catch (IOException e)
+		{
+			logger.error("Unable to write row key cache snapshot " + tmpFile, e);
+			tmpFile.delete();
+			return;
+		}
+
+		if (!tmpFile.renameTo(m_snapshotFile))
+		{
+			logger.error("Unable to rename " + tmpFile + " to " + m_snapshotFile);
+			tmpFile.delete();
+			return;
+		}
+
+		logger.info("Saved " + rowKeyCount + " row keys and " + metricNameCount +
+				" metric names to " + m_snapshotFile);
+	}
+
+	private void loadSnapshot()
+	{
+		if (!m_snapshotFile.exists())
+			return;
+
+		long currentRow = m_rowSpec.calculateRowTime(System.currentTimeMillis());
+		int rowKeyCount = 0;
+		int metricNameCount = 0;
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(m_snapshotFile))))
+		{
+			int version = in.readInt();
+			if (version != SNAPSHOT_VERSION)
+			{
+				logger.warn("Ignoring row key cache snapshot with unknown version " + version);
+				return;
+			}
+
+			while (in.readBoolean())
+			{
+				String clusterName = in.readUTF();
+				byte[] bytes = new byte[in.readInt()];
+				in.readFully(bytes);
+
+				DataPointsRowKey rowKey = DATA_POINTS_ROW_KEY_SERIALIZER.fromByteBuffer(ByteBuffer.wrap(bytes), clusterName);
+				if (rowKey.getTimestamp() == currentRow)
+				{
+					m_rowKeyCache.cacheItem(rowKey);
+					rowKeyCount++;
+				}
+			}
+
+			while (in.readBoolean())
+			{
+				TimedString metricName = new TimedString(in.readUTF(), in.readLong());
+				if (metricName.getTime() == currentRow)
+				{
+					m_metricNameCache.cacheItem(metricName);
+					metricNameCount++;
+				}
+			}
+
+			logger.info("Loaded " + rowKeyCount + " row keys and " + metricNameCount +
+					" metric names from " + m_snapshotFile);
+		}
+		catch (IOException | RuntimeException e)
+		{
+			logger.error("Unable to read row key cache snapshot " + m_snapshotFile, e);
+		}
+		finally
+		{
+			//Index entries can be deleted while the node is down, a snapshot is
+			//only trusted once
+			if (!m_snapshotFile.delete())
+				logger.warn("Unable to delete row key cache snapshot " + m_snapshotFile);
+		}
+	}
+}
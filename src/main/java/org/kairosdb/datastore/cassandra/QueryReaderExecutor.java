@@ -0,0 +1,226 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.datastore.cassandra;
+
+import org.kairosdb.core.DataPointSet;
+import org.kairosdb.core.reporting.KairosMetricReporter;
+import org.kairosdb.eventbus.Subscribe;
+import org.kairosdb.events.ShutdownEvent;
+import org.kairosdb.util.SimpleStats;
+import org.kairosdb.util.SimpleStatsReporter;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ Node wide pool of threads used to decode cql query results.  Each query gets
+ its own {@link QueryReader} which limits the number of pool threads the query
+ can hold at once.  Because a reader only hands the pool as many tasks as it
+ is allowed threads, the shared FIFO queue interleaves work from concurrent
+ queries giving each a fair share of the pool.
+ */
+public class QueryReaderExecutor implements KairosMetricReporter
+{
+	public static final String QUERY_READER_POOL_THREADS = "kairosdb.datastore.cassandra.query_reader_pool_threads";
+
+	public static final String QUEUE_DEPTH_METRIC = "kairosdb.datastore.cassandra.query_reader.queue_depth";
+	public static final String ACTIVE_THREADS_METRIC = "kairosdb.datastore.cassandra.query_reader.active_threads";
+	public static final String WAIT_TIME_METRIC = "kairosdb.datastore.cassandra.query_reader.wait_time_micro";
+
+	private final ThreadPoolExecutor m_executor;
+	private final int m_threadsPerQuery;
+	private final SimpleStats m_waitTimeStats = new SimpleStats();
+
+	@Inject
+	private SimpleStatsReporter m_simpleStatsReporter = new SimpleStatsReporter();
+
+	@Inject
+	public QueryReaderExecutor(@Named(QUERY_READER_POOL_THREADS) int poolThreads,
+			@Named(CassandraConfiguration.QUERY_READER_THREADS) int threadsPerQuery)
+	{
+		checkArgument(poolThreads > 0, "query_reader_pool_threads must be greater than 0");
+		checkArgument(threadsPerQuery > 0, "query_reader_threads must be greater than 0");
+
+		m_threadsPerQuery = threadsPerQuery;
+		m_executor = new ThreadPoolExecutor(poolThreads, poolThreads, 60L, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>(), new ThreadFactory()
+		{
+			private final AtomicInteger m_count = new AtomicInteger();
+			@Override
+			public Thread newThread(Runnable r)
+			{
+				Thread t = new Thread(r, "query_reader-" + m_count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		m_executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 Creates an executor for a single query.  Tasks submitted to the returned
+	 executor are run on the shared pool with at most query_reader_threads
+	 running at the same time.
+	 */
+	public QueryReader newQueryReader()
+	{
+		return new QueryReader(m_threadsPerQuery);
+	}
+
+	@Subscribe
+	public void shutdown(ShutdownEvent event)
+	{
+		shutdown();
+	}
+
+	public void shutdown()
+	{
+		m_executor.shutdown();
+	}
+
+	@Override
+	public List<DataPointSet> getMetrics(long now)
+	{
+		List<DataPointSet> ret = new ArrayList<>();
+
+		m_simpleStatsReporter.reportStats(m_waitTimeStats.getAndClear(), now,
+				WAIT_TIME_METRIC, ret);
+
+		m_simpleStatsReporter.reportValue(m_executor.getQueue().size(), now,
+				QUEUE_DEPTH_METRIC, ret);
+
+		m_simpleStatsReporter.reportValue(m_executor.getActiveCount(), now,
+				ACTIVE_THREADS_METRIC, ret);
+
+		return ret;
+	}
+
+	public class QueryReader implements Executor
+	{
+		private final int m_maxThreads;
+		private final ArrayDeque<TimedTask> m_pending = new ArrayDeque<>();
+		private int m_running = 0;
+
+		private QueryReader(int maxThreads)
+		{
+			m_maxThreads = maxThreads;
+		}
+
+		@Override
+		public void execute(Runnable command)
+		{
+			TimedTask task = new TimedTask(command);
+			synchronized (m_pending)
+			{
+				if (m_running >= m_maxThreads)
+				{
+					m_pending.add(task);
+					return;
+				}
+
+				m_running ++;
+			}
+
+			try
+			{
+				m_executor.execute(task);
+			}
+			catch (RejectedExecutionException e)
+			{
+				synchronized (m_pending)
+				{
+					m_running --;
+				}
+				throw e;
+			}
+		}
+
+		int getRunningCount()
+		{
+			synchronized (m_pending)
+			{
+				return m_running;
+			}
+		}
+
+		private void taskDone()
+		{
+			TimedTask next;
+			synchronized (m_pending)
+			{
+				next = m_pending.poll();
+				if (next == null)
+				{
+					m_running --;
+					return;
+				}
+			}
+
+			try
+			{
+				m_executor.execute(next);
+			}
+			catch (RejectedExecutionException e)
+			{
+				//The pool is shut down, the slot passed to next is given up
+				synchronized (m_pending)
+				{
+					m_running --;
+				}
+				throw e;
+			}
+		}
+
+		private class TimedTask implements Runnable
+		{
+			private final Runnable m_command;
+			private final long m_queuedTime;
+
+			private TimedTask(Runnable command)
+			{
+				m_command = command;
+				m_queuedTime = System.nanoTime();
+			}
+
+			@Override
+			public void run()
+			{
+				m_waitTimeStats.addValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - m_queuedTime));
+				try
+				{
+					m_command.run();
+				}
+				finally
+				{
+					taskDone();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,433 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.datastore.cassandra;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import org.kairosdb.core.DataPointSet;
+import org.kairosdb.core.reporting.KairosMetricReporter;
+import org.kairosdb.eventbus.Subscribe;
+import org.kairosdb.events.RowKeyEvent;
+import org.kairosdb.util.SimpleStatsReporter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ Node local cache of the row keys in a time tier of a metric, the unfiltered
+ result of querying row_keys for one metric and row time.  Only closed tiers,
+ rows that ended more than closed_delay seconds ago, are cached.  New row keys
+ written through this node are added to tiers already in the cache from the
+ RowKeyEvents BatchHandler posts, row keys written through other nodes show up
+ once the entry expires.  Row keys written while a tier is read from Cassandra
+ are kept and added to it when it is put in the cache, as the read may have
+ missed them.
+
+ Each tier is a TierIndex so queries filtering on tags get the matching row
+ keys from its inverted tag index instead of checking every row key.
+
+ The cache is bounded by the number of row keys it holds.  Metrics using the
+ tag indexed lookup are not cached as their query only returns the row keys
+ matching the query tags.
+
+ When open_tier_expire is set tag queries also keep the open tiers, the ones
+ still being written to, in a second cache bounded by open_tier_size row keys
+ that expires after open_tier_expire seconds.  They are kept up to date the
+ same way from the RowKeyEvents, a tag query may miss tags only written
+ through other nodes since the tier was read.  Data point queries never use
+ them.
+ */
+public class RowKeyIndexCache implements KairosMetricReporter
+{
+	public static final String CACHE_SIZE = "kairosdb.datastore.cassandra.row_key_index_cache_size";
+	public static final String CLOSED_DELAY = "kairosdb.datastore.cassandra.row_key_index_cache_closed_delay";
+	public static final String EXPIRE_TIME = "kairosdb.datastore.cassandra.row_key_index_cache_expire";
+	public static final String OPEN_TIER_EXPIRE = "kairosdb.datastore.cassandra.row_key_index_cache_open_tier_expire";
+	public static final String OPEN_TIER_SIZE = "kairosdb.datastore.cassandra.row_key_index_cache_open_tier_size";
+	public static final long DEFAULT_OPEN_TIER_EXPIRE = 0;
+	public static final long DEFAULT_OPEN_TIER_SIZE = 100000;
+
+	public static final String HIT_METRIC = "kairosdb.datastore.cassandra.row_key_index_cache.hits";
+	public static final String MISS_METRIC = "kairosdb.datastore.cassandra.row_key_index_cache.misses";
+	public static final String SIZE_METRIC = "kairosdb.datastore.cassandra.row_key_index_cache.size";
+	public static final String OPEN_HIT_METRIC = "kairosdb.datastore.cassandra.row_key_index_cache.open_tier_hits";
+	public static final String OPEN_MISS_METRIC = "kairosdb.datastore.cassandra.row_key_index_cache.open_tier_misses";
+	public static final String OPEN_SIZE_METRIC = "kairosdb.datastore.cassandra.row_key_index_cache.open_tier_size";
+
+	//Longest a tier read can take before the row keys kept for it are dropped
+	private static final long LOAD_TIMEOUT = 600L;
+
+	private final long m_expireTime;
+	private final Cache<TierKey, CachedTier> m_cache;
+	private Cache<TierKey, CachedTier> m_openTiers;
+	private long m_openTierSize = DEFAULT_OPEN_TIER_SIZE;
+	private long m_openTierExpire = DEFAULT_OPEN_TIER_EXPIRE;
+	//Row keys written while the tier is read from Cassandra
+	private final Cache<TierKey, Set<DataPointsRowKey>> m_loading;
+	private long m_closedDelay = 600000L;
+
+	private final AtomicLong m_hits = new AtomicLong();
+	private final AtomicLong m_misses = new AtomicLong();
+	private final AtomicLong m_openHits = new AtomicLong();
+	private final AtomicLong m_openMisses = new AtomicLong();
+
+	@Inject
+	private SimpleStatsReporter m_simpleStatsReporter = new SimpleStatsReporter();
+
+	/**
+	 @param cacheSize maximum number of row keys held, 0 turns the cache off
+	 @param expireTime seconds a tier is kept after it is read from Cassandra
+	 */
+	@Inject
+	public RowKeyIndexCache(@Named(CACHE_SIZE) long cacheSize,
+			@Named(EXPIRE_TIME) long expireTime)
+	{
+		checkArgument(cacheSize >= 0, "row_key_index_cache_size must not be negative");
+
+		m_expireTime = expireTime * 1000L;
+		m_cache = createCache(cacheSize, expireTime);
+		m_loading = CacheBuilder.newBuilder()
+				.expireAfterWrite(LOAD_TIMEOUT, TimeUnit.SECONDS)
+				.build();
+	}
+
+	/**
+	 Tiers are put back when row keys are added so they are weighed again,
+	 which also restarts expireAfterWrite.  The expire time is therefore kept
+	 in the entry and checked when the tier is read.
+	 */
+	private static Cache<TierKey, CachedTier> createCache(long cacheSize, long expireTime)
+	{
+		if (cacheSize == 0)
+			return null;
+
+		return CacheBuilder.newBuilder()
+				.maximumWeight(cacheSize)
+				.weigher((TierKey key, CachedTier cached) -> Math.max(1, cached.m_tier.size()))
+				.expireAfterWrite(expireTime, TimeUnit.SECONDS)
+				.build();
+	}
+
+	/**
+	 Seconds after the end of a row before the row is cached, gives data points
+	 that arrive late on other nodes time to be indexed.
+	 */
+	@Inject(optional = true)
+	public void setClosedDelay(@Named(CLOSED_DELAY) long closedDelay)
+	{
+		m_closedDelay = closedDelay * 1000L;
+	}
+
+	/**
+	 Seconds an open tier read for a tag query is kept, 0 turns caching open
+	 tiers off.
+	 */
+	@Inject(optional = true)
+	public void setOpenTierExpire(@Named(OPEN_TIER_EXPIRE) long openTierExpire)
+	{
+		checkArgument(openTierExpire >= 0, "row_key_index_cache_open_tier_expire must not be negative");
+
+		m_openTierExpire = openTierExpire;
+		m_openTiers = createOpenTierCache();
+	}
+
+	/**
+	 Maximum number of row keys held in open tiers, on top of the cache size.
+	 */
+	@Inject(optional = true)
+	public void setOpenTierSize(@Named(OPEN_TIER_SIZE) long openTierSize)
+	{
+		checkArgument(openTierSize >= 0, "row_key_index_cache_open_tier_size must not be negative");
+
+		m_openTierSize = openTierSize;
+		m_openTiers = createOpenTierCache();
+	}
+
+	private Cache<TierKey, CachedTier> createOpenTierCache()
+	{
+		if (m_cache == null || m_openTierExpire == 0)
+			return null;
+
+		return createCache(m_openTierSize, m_openTierExpire);
+	}
+
+	public boolean isEnabled()
+	{
+		return m_cache != null;
+	}
+
+	/**
+	 Returns true if the row keys of the tier can be served from the cache.
+	 */
+	public boolean isCacheable(ClusterConnection cluster, String metricName, long rowTime)
+	{
+		if (m_cache == null || cluster.usesTagIndexedLookup(metricName))
+			return false;
+
+		long rowEnd = rowTime + cluster.getRowSpec().getRowWidthInMillis();
+		return rowEnd + m_closedDelay <= System.currentTimeMillis();
+	}
+
+	/**
+	 Returns true if a tier that is not cacheable can be kept as an open tier
+	 for tag queries.
+	 */
+	public boolean isOpenTierCacheable(ClusterConnection cluster, String metricName)
+	{
+		return m_openTiers != null && !cluster.usesTagIndexedLookup(metricName);
+	}
+
+	/**
+	 Called before the tier is read from Cassandra for the cache, row keys
+	 written from now on are added to it when it is put in the cache.
+	 */
+	public void startLoad(String clusterName, String metricName, long rowTime)
+	{
+		if (m_cache != null)
+			m_loading.asMap().computeIfAbsent(new TierKey(clusterName, metricName, rowTime),
+					k -> ConcurrentHashMap.newKeySet());
+	}
+
+	/**
+	 Returns the cached tier or null if the tier is not in the cache.
+	 */
+	public TierIndex getTier(String clusterName, String metricName, long rowTime)
+	{
+		return getTier(m_cache, m_hits, m_misses, clusterName, metricName, rowTime);
+	}
+
+	/**
+	 Caches all the row keys of the tier as read from the row_keys table.
+	 */
+	public TierIndex putRowKeys(String clusterName, String metricName, long rowTime,
+			Collection<DataPointsRowKey> rowKeys)
+	{
+		return putTier(m_cache, m_expireTime, clusterName, metricName, rowTime, rowKeys);
+	}
+
+	public TierIndex getOpenTier(String clusterName, String metricName, long rowTime)
+	{
+		return getTier(m_openTiers, m_openHits, m_openMisses, clusterName, metricName, rowTime);
+	}
+
+	/**
+	 Keeps all the row keys of an open tier for tag queries.
+	 */
+	public TierIndex putOpenTier(String clusterName, String metricName, long rowTime,
+			Collection<DataPointsRowKey> rowKeys)
+	{
+		return putTier(m_openTiers, m_openTierExpire * 1000L, clusterName, metricName, rowTime, rowKeys);
+	}
+
+	private static TierIndex getTier(Cache<TierKey, CachedTier> cache, AtomicLong hits,
+			AtomicLong misses, String clusterName, String metricName, long rowTime)
+	{
+		if (cache == null)
+			return null;
+
+		TierKey key = new TierKey(clusterName, metricName, rowTime);
+		CachedTier cached = cache.getIfPresent(key);
+		if (cached != null && cached.m_expires <= System.currentTimeMillis())
+		{
+			cache.asMap().remove(key, cached);
+			cached = null;
+		}
+
+		if (cached == null)
+		{
+			misses.incrementAndGet();
+			return null;
+		}
+
+		hits.incrementAndGet();
+		return cached.m_tier;
+	}
+
+	private TierIndex putTier(Cache<TierKey, CachedTier> cache, long expireTime, String clusterName,
+			String metricName, long rowTime, Collection<DataPointsRowKey> rowKeys)
+	{
+		TierIndex tier = new TierIndex(rowKeys);
+		if (cache == null)
+			return tier;
+
+		TierKey key = new TierKey(clusterName, metricName, rowTime);
+		CachedTier cached = new CachedTier(tier, System.currentTimeMillis() + expireTime);
+		cache.put(key, cached);
+
+		//Row keys written during the read, the ones written from here on are
+		//added to the cached tier
+		Set<DataPointsRowKey> added = m_loading.asMap().remove(key);
+		if (added != null && !added.isEmpty())
+		{
+			for (DataPointsRowKey rowKey : added)
+				tier.add(rowKey);
+
+			cache.asMap().replace(key, cached, cached);
+		}
+
+		return tier;
+	}
+
+	/**
+	 Drops every cached tier of the metric, called when data is deleted.
+	 */
+	public void invalidateMetric(String metricName)
+	{
+		if (m_cache == null)
+			return;
+
+		m_cache.asMap().keySet().removeIf(key -> key.m_metricName.equals(metricName));
+		if (m_openTiers != null)
+			m_openTiers.asMap().keySet().removeIf(key -> key.m_metricName.equals(metricName));
+	}
+
+	@Subscribe
+	public void rowKeyWritten(RowKeyEvent event)
+	{
+		if (m_cache == null)
+			return;
+
+		DataPointsRowKey rowKey = event.getRowKey();
+		TierKey key = new TierKey(rowKey.getClusterName(), rowKey.getMetricName(), rowKey.getTimestamp());
+		DataPointsRowKey cachedKey = null;
+
+		//Added to the load before looking in the cache, a tier put in the mean
+		//time either picks the row key up from the load or is found below
+		Set<DataPointsRowKey> loading = m_loading.getIfPresent(key);
+		if (loading != null)
+		{
+			cachedKey = copyRowKey(event);
+			loading.add(cachedKey);
+		}
+
+		Cache<TierKey, CachedTier> cache = m_cache;
+		CachedTier cached = cache.getIfPresent(key);
+		if (cached == null && m_openTiers != null)
+		{
+			cache = m_openTiers;
+			cached = cache.getIfPresent(key);
+		}
+
+		if (cached != null)
+		{
+			cached.m_tier.add(cachedKey != null ? cachedKey : copyRowKey(event));
+			//Put back so the cache weighs the tier again
+			cache.asMap().replace(key, cached, cached);
+		}
+	}
+
+	/**
+	 Copy so the ttl is not set on the row key shared with ingest.
+	 */
+	private static DataPointsRowKey copyRowKey(RowKeyEvent event)
+	{
+		DataPointsRowKey rowKey = event.getRowKey();
+		DataPointsRowKey cachedKey = new DataPointsRowKey(rowKey.getMetricName(), rowKey.getClusterName(),
+				rowKey.getTimestamp(), rowKey.getDataType(), rowKey.getTags());
+		cachedKey.setTtl(event.getRowKeyTtl());
+
+		return cachedKey;
+	}
+
+	@Override
+	public List<DataPointSet> getMetrics(long now)
+	{
+		List<DataPointSet> ret = new ArrayList<>();
+
+		if (m_cache == null)
+			return ret;
+
+		m_simpleStatsReporter.reportValue(m_hits.getAndSet(0), now, HIT_METRIC, ret);
+		m_simpleStatsReporter.reportValue(m_misses.getAndSet(0), now, MISS_METRIC, ret);
+		m_simpleStatsReporter.reportValue(cacheSize(m_cache), now, SIZE_METRIC, ret);
+
+		if (m_openTiers != null)
+		{
+			m_simpleStatsReporter.reportValue(m_openHits.getAndSet(0), now, OPEN_HIT_METRIC, ret);
+			m_simpleStatsReporter.reportValue(m_openMisses.getAndSet(0), now, OPEN_MISS_METRIC, ret);
+			m_simpleStatsReporter.reportValue(cacheSize(m_openTiers), now, OPEN_SIZE_METRIC, ret);
+		}
+
+		return ret;
+	}
+
+	private static long cacheSize(Cache<TierKey, CachedTier> cache)
+	{
+		long size = 0;
+		for (CachedTier cached : cache.asMap().values())
+			size += cached.m_tier.size();
+
+		return size;
+	}
+
+	//===========================================================================
+	private static class CachedTier
+	{
+		private final TierIndex m_tier;
+		private final long m_expires;
+
+		private CachedTier(TierIndex tier, long expires)
+		{
+			m_tier = tier;
+			m_expires = expires;
+		}
+	}
+
+	//===========================================================================
+	private static class TierKey
+	{
+		private final String m_clusterName;
+		private final String m_metricName;
+		private final long m_rowTime;
+
+		private TierKey(String clusterName, String metricName, long rowTime)
+		{
+			m_clusterName = clusterName;
+			m_metricName = metricName;
+			m_rowTime = rowTime;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (this == o) return true;
+			if (o == null || getClass() != o.getClass()) return false;
+
+			TierKey tierKey = (TierKey) o;
+
+			return m_rowTime == tierKey.m_rowTime &&
+					m_clusterName.equals(tierKey.m_clusterName) &&
+					m_metricName.equals(tierKey.m_metricName);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return Objects.hash(m_clusterName, m_metricName, m_rowTime);
+		}
+	}
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.datastore.cassandra;
+
+import org.kairosdb.core.exception.DatastoreException;
+
+/**
+ Thrown from the row key iterators when an index query they are reading
+ fails.  Iterator methods cannot throw the DatastoreException itself, callers
+ unwrap it with getCause.
+ */
+public class RowKeyQueryException extends RuntimeException
+{
+	public RowKeyQueryException(DatastoreException cause)
+	{
+		super(cause.getMessage(), cause);
+	}
+
+	@Override
+	public synchronized DatastoreException getCause()
+	{
+		return (DatastoreException) super.getCause();
+	}
+}
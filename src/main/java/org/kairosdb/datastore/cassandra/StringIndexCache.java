@@ -0,0 +1,160 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.datastore.cassandra;
+
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ Sorted copy of the string_index rows (metric names, tag names and tag values)
+ so listing them, and prefix searches on them, do not read the rows from every
+ cluster each time.  A row is loaded the first time it is asked for, metric
+ names are added once CQLBatch has written them and CleanStringIndexCache
+ reloads the rows periodically to pick up names written or deleted through
+ other nodes.
+ */
+public class StringIndexCache
+{
+	public static final String CACHE_ENABLED = "kairosdb.datastore.cassandra.string_index_cache";
+
+	private final boolean m_enabled;
+	private final Map<String, Row> m_rows = new ConcurrentHashMap<>();
+
+	@Inject
+	public StringIndexCache(@Named(CACHE_ENABLED) boolean enabled)
+	{
+		m_enabled = enabled;
+	}
+
+	public boolean isEnabled()
+	{
+		return m_enabled;
+	}
+
+	/**
+	 Returns the values of the row or null if it has not been loaded.  The set
+	 is a live view, it is safe to iterate while values are added.
+	 */
+	public NavigableSet<String> getValues(String key)
+	{
+		Row row = m_rows.get(key);
+		if (row == null || row.m_values == null)
+			return null;
+
+		return Collections.unmodifiableNavigableSet(row.m_values);
+	}
+
+	/**
+	 Returns the values of the row that start with prefix or null if the row has
+	 not been loaded.
+	 */
+	public NavigableSet<String> getValues(String key, String prefix)
+	{
+		NavigableSet<String> values = getValues(key);
+		if (values == null)
+			return null;
+
+		return values.subSet(prefix, true, prefix + Character.MAX_VALUE, false);
+	}
+
+	/**
+	 Called before the row is read from Cassandra, values added from now on are
+	 kept when the row read is set.
+	 */
+	public void startLoad(String key)
+	{
+		if (m_enabled)
+			m_rows.computeIfAbsent(key, k -> new Row()).startLoad();
+	}
+
+	/**
+	 Sets the values read from Cassandra, replacing the ones in the cache.
+	 */
+	public void setValues(String key, Set<String> values)
+	{
+		if (m_enabled)
+			m_rows.computeIfAbsent(key, k -> new Row()).setValues(values);
+	}
+
+	public void addValue(String key, String value)
+	{
+		Row row = m_rows.get(key);
+		if (row != null)
+			row.add(value);
+	}
+
+	public void removeValue(String key, String value)
+	{
+		Row row = m_rows.get(key);
+		if (row != null)
+			row.remove(value);
+	}
+
+	public Set<String> getLoadedKeys()
+	{
+		return m_rows.keySet();
+	}
+
+	//===========================================================================
+	private static class Row
+	{
+		private volatile NavigableSet<String> m_values;
+		//Values added while the row is read from Cassandra
+		private Set<String> m_addedDuringLoad;
+
+		private synchronized void startLoad()
+		{
+			m_addedDuringLoad = new HashSet<>();
+		}
+
+		private synchronized void setValues(Set<String> values)
+		{
+			NavigableSet<String> newValues = new ConcurrentSkipListSet<>(values);
+			if (m_addedDuringLoad != null)
+				newValues.addAll(m_addedDuringLoad);
+
+			m_addedDuringLoad = null;
+			m_values = newValues;
+		}
+
+		private synchronized void add(String value)
+		{
+			if (m_addedDuringLoad != null)
+				m_addedDuringLoad.add(value);
+
+			if (m_values != null)
+				m_values.add(value);
+		}
+
+		private synchronized void remove(String value)
+		{
+			if (m_addedDuringLoad != null)
+				m_addedDuringLoad.remove(value);
+
+			if (m_values != null)
+				m_values.remove(value);
+		}
+	}
+}
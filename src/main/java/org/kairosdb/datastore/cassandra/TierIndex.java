@@ -0,0 +1,201 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.datastore.cassandra;
+
+import com.google.common.collect.SetMultimap;
+import org.kairosdb.core.datastore.TagSetImpl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ Row keys of one time tier of a metric with an inverted index from tag name
+ and value to the row keys that have it.  Each row key gets an id in the
+ order it is added, the postings of a tag value are the ids in ascending
+ order.
+
+ Tag filters are resolved on the postings, regular expressions are matched
+ once per distinct tag value rather than once per row key, so only the row
+ keys that match are handed out.  Tag queries read the tag names and values
+ straight from the index without going through the row keys.
+ */
+class TierIndex
+{
+	private final List<DataPointsRowKey> m_rowKeys = new ArrayList<>();
+	private final Set<DataPointsRowKey> m_rowKeySet = new HashSet<>();
+	private final Map<String, Map<String, Postings>> m_tagIndex = new HashMap<>();
+
+	TierIndex(Collection<DataPointsRowKey> rowKeys)
+	{
+		for (DataPointsRowKey rowKey : rowKeys)
+			add(rowKey);
+	}
+
+	public synchronized int size()
+	{
+		return m_rowKeys.size();
+	}
+
+	public synchronized void add(DataPointsRowKey rowKey)
+	{
+		if (!m_rowKeySet.add(rowKey))
+			return;
+
+		int id = m_rowKeys.size();
+		m_rowKeys.add(rowKey);
+
+		for (Map.Entry<String, String> tag : rowKey.getTags().entrySet())
+		{
+			m_tagIndex.computeIfAbsent(tag.getKey(), k -> new HashMap<>())
+					.computeIfAbsent(tag.getValue(), k -> new Postings())
+					.add(id);
+		}
+	}
+
+	/**
+	 Returns the row keys that have, for every tag name in the filter, one of
+	 the values in filterTags or a value matching the pattern for the tag.
+	 */
+	public synchronized List<DataPointsRowKey> find(SetMultimap<String, String> filterTags,
+			Map<String, Pattern> patternFilter)
+	{
+		if (filterTags.isEmpty() && patternFilter.isEmpty())
+			return new ArrayList<>(m_rowKeys);
+
+		BitSet result = match(filterTags, patternFilter);
+
+		List<DataPointsRowKey> ret = new ArrayList<>(result.cardinality());
+		for (int id = result.nextSetBit(0); id >= 0; id = result.nextSetBit(id + 1))
+			ret.add(m_rowKeys.get(id));
+
+		return ret;
+	}
+
+	/**
+	 Adds the tags of the row keys find would return to the tag set.  The tags
+	 come from the index, a tag value is added if any of its row keys match so
+	 without filters this is a walk over the distinct tag values of the tier.
+	 */
+	public synchronized void addTags(SetMultimap<String, String> filterTags,
+			Map<String, Pattern> patternFilter, TagSetImpl tagSet)
+	{
+		BitSet result = null;
+		if (!filterTags.isEmpty() || !patternFilter.isEmpty())
+		{
+			result = match(filterTags, patternFilter);
+			if (result.isEmpty())
+				return;
+		}
+
+		for (Map.Entry<String, Map<String, Postings>> tag : m_tagIndex.entrySet())
+		{
+			for (Map.Entry<String, Postings> value : tag.getValue().entrySet())
+			{
+				if (result == null || value.getValue().intersects(result))
+					tagSet.addTag(tag.getKey(), value.getKey());
+			}
+		}
+	}
+
+	/**
+	 Ids of the row keys matching the filters, at least one filter is expected.
+	 */
+	private BitSet match(SetMultimap<String, String> filterTags, Map<String, Pattern> patternFilter)
+	{
+		Set<String> tagNames = new HashSet<>(filterTags.keySet());
+		tagNames.addAll(patternFilter.keySet());
+
+		BitSet result = null;
+		for (String tagName : tagNames)
+		{
+			Map<String, Postings> values = m_tagIndex.get(tagName);
+			if (values == null)
+				return new BitSet();
+
+			BitSet tagMatches = new BitSet(m_rowKeys.size());
+			for (String value : filterTags.get(tagName))
+			{
+				Postings postings = values.get(value);
+				if (postings != null)
+					postings.setBits(tagMatches);
+			}
+
+			Pattern pattern = patternFilter.get(tagName);
+			if (pattern != null)
+			{
+				for (Map.Entry<String, Postings> entry : values.entrySet())
+				{
+					if (pattern.matcher(entry.getKey()).matches())
+						entry.getValue().setBits(tagMatches);
+				}
+			}
+
+			if (result == null)
+				result = tagMatches;
+			else
+				result.and(tagMatches);
+
+			if (result.isEmpty())
+				break;
+		}
+
+		return result;
+	}
+
+	//===========================================================================
+	/**
+	 Ids in ascending order, ids are handed out in increasing order so adding
+	 one keeps them sorted.
+	 */
+	private static class Postings
+	{
+		private int[] m_ids = new int[2];
+		private int m_size = 0;
+
+		private void add(int id)
+		{
+			if (m_size == m_ids.length)
+				m_ids = Arrays.copyOf(m_ids, m_size * 2);
+			m_ids[m_size++] = id;
+		}
+
+		private void setBits(BitSet bits)
+		{
+			for (int i = 0; i < m_size; i++)
+				bits.set(m_ids[i]);
+		}
+
+		private boolean intersects(BitSet bits)
+		{
+			for (int i = 0; i < m_size; i++)
+			{
+				if (bits.get(m_ids[i]))
+					return true;
+			}
+
+			return false;
+		}
+	}
+}
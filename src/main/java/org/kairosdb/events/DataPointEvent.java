@@ -4,7 +4,6 @@ import com.google.common.collect.ImmutableSortedMap;
 import org.kairosdb.core.DataPoint;
 
 import static java.util.Objects.requireNonNull;
-import static org.kairosdb.util.Preconditions.requireNonNullOrEmpty;
 
 
 /**
@@ -15,36 +14,41 @@ import static org.kairosdb.util.Preconditions.requireNonNullOrEmpty;
  */
 public class DataPointEvent
 {
-	private final String m_metricName;
-	private final ImmutableSortedMap<String, String> m_tags;
+	private final Series m_series;
 	private final DataPoint m_dataPoint;
 	private final int m_ttl;
 
-	public DataPointEvent(String metricName, ImmutableSortedMap<String, String> tags, DataPoint dataPoint, int ttl)
+	public DataPointEvent(Series series, DataPoint dataPoint, int ttl)
 	{
-		m_metricName = requireNonNullOrEmpty(metricName);
-		m_tags = requireNonNull(tags);
+		m_series = requireNonNull(series);
 		m_dataPoint = requireNonNull(dataPoint);
 		m_ttl = ttl;
 	}
 
+	public DataPointEvent(String metricName, ImmutableSortedMap<String, String> tags, DataPoint dataPoint, int ttl)
+	{
+		this(new Series(metricName, tags), dataPoint, ttl);
+	}
+
 	public DataPointEvent(String metricName, ImmutableSortedMap<String, String> tags, DataPoint dataPoint)
 	{
-		m_metricName = requireNonNullOrEmpty(metricName);
-		m_tags = requireNonNull(tags);
-		m_dataPoint = requireNonNull(dataPoint);
-		m_ttl = 0;
+		this(new Series(metricName, tags), dataPoint, 0);
 	}
 
 
+	public Series getSeries()
+	{
+		return m_series;
+	}
+
 	public String getMetricName()
 	{
-		return m_metricName;
+		return m_series.getMetricName();
 	}
 
 	public ImmutableSortedMap<String, String> getTags()
 	{
-		return m_tags;
+		return m_series.getTags();
 	}
 
 	public DataPoint getDataPoint()
@@ -66,8 +70,7 @@ public class DataPointEvent
 		DataPointEvent that = (DataPointEvent) o;
 
 		if (m_ttl != that.m_ttl) return false;
-		if (!m_metricName.equals(that.m_metricName)) return false;
-		if (!m_tags.equals(that.m_tags)) return false;
+		if (!m_series.equals(that.m_series)) return false;
 		return m_dataPoint.equals(that.m_dataPoint);
 
 	}
@@ -75,8 +78,7 @@ public class DataPointEvent
 	@Override
 	public int hashCode()
 	{
-		int result = m_metricName.hashCode();
-		result = 31 * result + m_tags.hashCode();
+		int result = m_series.hashCode();
 		result = 31 * result + m_dataPoint.hashCode();
 		result = 31 * result + m_ttl;
 		return result;
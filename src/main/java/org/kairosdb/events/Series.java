@@ -0,0 +1,102 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.events;
+
+import com.google.common.collect.ImmutableSortedMap;
+import org.kairosdb.datastore.cassandra.DataPointsRowKey;
+
+import static java.util.Objects.requireNonNull;
+import static org.kairosdb.util.Preconditions.requireNonNullOrEmpty;
+
+/**
+ A metric name and its tags.  Series handed out by SeriesRegistry are shared
+ by every data point event of the series, so the tags map is built once and
+ the row key the datastore makes for the series is kept here and reused.
+ */
+public class Series
+{
+	private final String m_metricName;
+	private final ImmutableSortedMap<String, String> m_tags;
+	private final int m_hashCode;
+
+	//Row key of the last data point written, most data points of a series
+	//land in the same row
+	private volatile DataPointsRowKey m_rowKey;
+
+	public Series(String metricName, ImmutableSortedMap<String, String> tags)
+	{
+		m_metricName = requireNonNullOrEmpty(metricName);
+		m_tags = requireNonNull(tags);
+		m_hashCode = 31 * m_metricName.hashCode() + m_tags.hashCode();
+	}
+
+	public String getMetricName()
+	{
+		return m_metricName;
+	}
+
+	public ImmutableSortedMap<String, String> getTags()
+	{
+		return m_tags;
+	}
+
+	/**
+	 Returns the row key of this series for the given row.  The same row key
+	 object, along with its serialized form, is returned until a data point
+	 for another row or data type comes along.
+	 */
+	public DataPointsRowKey getRowKey(String clusterName, long rowTime, String dataType)
+	{
+		DataPointsRowKey rowKey = m_rowKey;
+		if (rowKey == null || rowKey.getTimestamp() != rowTime ||
+				!rowKey.getDataType().equals(dataType) || !rowKey.getClusterName().equals(clusterName))
+		{
+			rowKey = new DataPointsRowKey(m_metricName, clusterName, rowTime, dataType, m_tags);
+			m_rowKey = rowKey;
+		}
+
+		return rowKey;
+	}
+
+	@Override
+	public boolean equals(Object o)
+	{
+		if (this == o) return true;
+		if (o == null || getClass() != o.getClass()) return false;
+
+		Series series = (Series) o;
+
+		if (m_hashCode != series.m_hashCode) return false;
+		if (!m_metricName.equals(series.m_metricName)) return false;
+		return m_tags.equals(series.m_tags);
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return m_hashCode;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "Series{" +
+				"m_metricName='" + m_metricName + '\'' +
+				", m_tags=" + m_tags +
+				'}';
+	}
+}
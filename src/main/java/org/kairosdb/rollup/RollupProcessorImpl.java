@@ -115,6 +115,7 @@ public class RollupProcessorImpl implements RollupProcessor
 		log.debug("Execute Rollup: " + query.getName() + " Start time: " + new Date(query.getStartTime()) + " End time: " + new Date(query.getEndTime()));
 
 		int dpCount = 0;
+		query.setQueryClass(QueryClass.BATCH);
 		try (DatastoreQuery dq = datastore.createQuery(query))
 		{
 			List<DataPointGroup> result = dq.execute();
@@ -139,6 +140,7 @@ public class RollupProcessorImpl implements RollupProcessor
 
 	private static DataPoint performQuery(KairosDatastore datastore, QueryMetric rollupQuery) throws DatastoreException
 	{
+		rollupQuery.setQueryClass(QueryClass.BATCH);
 		try (DatastoreQuery query = datastore.createQuery(rollupQuery))
 		{
 			List<DataPointGroup> rollupResult = query.execute();
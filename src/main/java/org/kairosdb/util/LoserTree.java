@@ -0,0 +1,152 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.util;
+
+import org.kairosdb.core.DataPoint;
+import org.kairosdb.core.datastore.Order;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ K-way merge of time ordered data point iterators.  The tree is kept in an int
+ array where each internal node holds the source that lost the match played
+ there and node 0 holds the overall winner.  The head timestamp of each source
+ is cached in a long array so most matches are a primitive compare, replacing
+ a source only replays the matches on its path to the root (log k compares).
+
+ Ties on timestamp are broken by value and then by the order the sources were
+ given in.
+ */
+public class LoserTree implements Iterator<DataPoint>
+{
+	private final Iterator<DataPoint>[] m_sources;
+	private final DataPoint[] m_heads;
+	private final long[] m_timestamps;
+	private final int[] m_tree;
+	private final int m_size;
+	private final boolean m_ascending;
+
+	@SuppressWarnings("unchecked")
+	public LoserTree(List<? extends Iterator<DataPoint>> sources, Order order)
+	{
+		m_size = sources.size();
+		m_sources = sources.toArray(new Iterator[m_size]);
+		m_heads = new DataPoint[m_size];
+		m_timestamps = new long[m_size];
+		m_tree = new int[m_size];
+		m_ascending = (order == Order.ASC);
+
+		for (int i = 0; i < m_size; i++)
+			advance(i);
+
+		//Start every node with a source id of m_size, a virtual source that
+		//wins every match, then play each source up from its leaf.
+		for (int i = 0; i < m_size; i++)
+			m_tree[i] = m_size;
+
+		for (int i = m_size - 1; i >= 0; i--)
+			replay(i);
+	}
+
+	private void advance(int source)
+	{
+		Iterator<DataPoint> iterator = m_sources[source];
+		if (iterator != null && iterator.hasNext())
+		{
+			DataPoint dataPoint = iterator.next();
+			m_heads[source] = dataPoint;
+			m_timestamps[source] = dataPoint.getTimestamp();
+		}
+		else
+		{
+			m_heads[source] = null;
+			m_sources[source] = null;
+		}
+	}
+
+	/**
+	 Returns true if source1 goes before source2
+	 */
+	private boolean beats(int source1, int source2)
+	{
+		if (source1 == m_size)
+			return true;
+		if (source2 == m_size)
+			return false;
+
+		if (m_heads[source1] == null)
+			return false;
+		if (m_heads[source2] == null)
+			return true;
+
+		long timestamp1 = m_timestamps[source1];
+		long timestamp2 = m_timestamps[source2];
+		if (timestamp1 != timestamp2)
+			return m_ascending ? timestamp1 < timestamp2 : timestamp1 > timestamp2;
+
+		int ret = Double.compare(m_heads[source1].getDoubleValue(), m_heads[source2].getDoubleValue());
+		if (ret != 0)
+			return m_ascending ? ret < 0 : ret > 0;
+
+		return source1 < source2;
+	}
+
+	private void replay(int source)
+	{
+		int winner = source;
+		for (int node = (source + m_size) >>> 1; node > 0; node >>>= 1)
+		{
+			int loser = m_tree[node];
+			if (beats(loser, winner))
+			{
+				m_tree[node] = winner;
+				winner = loser;
+			}
+		}
+
+		m_tree[0] = winner;
+	}
+
+	@Override
+	public boolean hasNext()
+	{
+		return m_size != 0 && m_heads[m_tree[0]] != null;
+	}
+
+	@Override
+	public DataPoint next()
+	{
+		if (!hasNext())
+			throw new NoSuchElementException();
+
+		int winner = m_tree[0];
+		DataPoint ret = m_heads[winner];
+
+		advance(winner);
+		replay(winner);
+
+		return ret;
+	}
+
+	@Override
+	public void remove()
+	{
+		throw new UnsupportedOperationException();
+	}
+}
@@ -60,6 +60,15 @@ public class SimpleStatsReporter
 	}
 
 
+	public void reportValue(long value, long now, String metricName,
+			List<DataPointSet> dataPointSets)
+	{
+		DataPointSet dps = new DataPointSet(metricName);
+		dps.addTag("host", m_hostName);
+		dps.addDataPoint(m_longDataPointFactory.createDataPoint(now, value));
+		dataPointSets.add(dps);
+	}
+
 	public void reportStats(SimpleStats.Data stats, long now, String metricPrefix,
 			List<DataPointSet> dataPointSets)
 	{
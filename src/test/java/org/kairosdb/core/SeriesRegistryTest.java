@@ -0,0 +1,54 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.core;
+
+import com.google.common.collect.ImmutableSortedMap;
+import org.junit.Test;
+import org.kairosdb.datastore.cassandra.DataPointsRowKey;
+import org.kairosdb.events.Series;
+
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class SeriesRegistryTest
+{
+	@Test
+	public void test_sameSeriesIsShared()
+	{
+		SeriesRegistry registry = new SeriesRegistry(100);
+
+		Series series1 = registry.getSeries("metric", ImmutableSortedMap.of("host", "a", "dc", "x"));
+		Series series2 = registry.getSeries("metric", ImmutableSortedMap.of("dc", "x", "host", "a"));
+		Series series3 = registry.getSeries("metric", ImmutableSortedMap.of("host", "b"));
+
+		assertThat(series2, sameInstance(series1));
+		assertThat(series3, not(sameInstance(series1)));
+	}
+
+	@Test
+	public void test_rowKeyIsReusedWithinRow()
+	{
+		Series series = new Series("metric", ImmutableSortedMap.of("host", "a"));
+
+		DataPointsRowKey rowKey = series.getRowKey("cluster", 1000L, "kairos_long");
+
+		assertThat(series.getRowKey("cluster", 1000L, "kairos_long"), sameInstance(rowKey));
+		assertThat(series.getRowKey("cluster", 2000L, "kairos_long"), not(sameInstance(rowKey)));
+		assertThat(series.getRowKey("cluster", 2000L, "kairos_double"), not(sameInstance(rowKey)));
+	}
+}
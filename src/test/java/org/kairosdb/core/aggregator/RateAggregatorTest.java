@@ -20,6 +20,8 @@ import org.junit.Test;
 import org.kairosdb.core.DataPoint;
 import org.kairosdb.core.datapoints.DoubleDataPointFactoryImpl;
 import org.kairosdb.core.datapoints.LongDataPoint;
+import org.kairosdb.core.datastore.BlockDataPointGroup;
+import org.kairosdb.core.datastore.DataPointBlock;
 import org.kairosdb.core.datastore.DataPointGroup;
 import org.kairosdb.testing.ListDataPointGroup;
 
@@ -59,6 +61,31 @@ public class RateAggregatorTest
 		assertThat(dp.getDoubleValue(), equalTo(10.0));
 	}
 
+	@Test
+	public void test_readBlockAfterNext()
+	{
+		ListDataPointGroup group = new ListDataPointGroup("rate");
+		for (int i = 1; i <= 5; i++)
+			group.addDataPoint(new LongDataPoint(i, i * 10));
+
+		RateAggregator rateAggregator = new RateAggregator(new DoubleDataPointFactoryImpl());
+		BlockDataPointGroup results = (BlockDataPointGroup) rateAggregator.aggregate(group);
+
+		DataPoint dp = results.next();
+		assertThat(dp.getTimestamp(), equalTo(2L));
+		assertThat(dp.getDoubleValue(), equalTo(10.0));
+
+		//The rest of the values come back in the block
+		DataPointBlock block = new DataPointBlock();
+		assertThat(results.readBlock(block), equalTo(3));
+		assertThat(block.getTimestamp(0), equalTo(3L));
+		assertThat(block.getTimestamp(2), equalTo(5L));
+		assertThat(block.getDoubleValue(2), equalTo(10.0));
+
+		assertThat(results.readBlock(block), equalTo(0));
+		assertThat(results.hasNext(), equalTo(false));
+	}
+
 	@Test
 	public void test_steadyRateOver2Sec()
 	{
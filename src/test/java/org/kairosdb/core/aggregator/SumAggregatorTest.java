@@ -19,11 +19,17 @@ import org.kairosdb.core.DataPoint;
 import org.kairosdb.core.datapoints.DoubleDataPoint;
 import org.kairosdb.core.datapoints.DoubleDataPointFactoryImpl;
 import org.kairosdb.core.datapoints.LongDataPoint;
+import org.kairosdb.core.datastore.BlockDataPointGroup;
+import org.kairosdb.core.datastore.DataPointBlock;
 import org.kairosdb.core.datastore.DataPointGroup;
+import org.kairosdb.core.datastore.TimeUnit;
 import org.kairosdb.testing.ListDataPointGroup;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.MatcherAssert.assertThat;
 
@@ -146,4 +152,52 @@ public class SumAggregatorTest
 
 		assertThat(results.hasNext(), equalTo(false));
 	}
+
+	@Test
+	public void test_rangesSpanningBlocks_sameAsObjectPath()
+	{
+		aggregator.setSampling(new Sampling(100, TimeUnit.MILLISECONDS));
+		aggregator.setStartTime(0);
+		aggregator.init();
+
+		SumAggregator objectAggregator = new SumAggregator(new DoubleDataPointFactoryImpl())
+		{
+			@Override
+			protected BlockRangeSubAggregator getBlockSubAggregator()
+			{
+				return null;
+			}
+		};
+		objectAggregator.setSampling(new Sampling(100, TimeUnit.MILLISECONDS));
+		objectAggregator.setStartTime(0);
+		objectAggregator.init();
+
+		//More than two blocks of data points with ranges crossing the block boundaries
+		ListDataPointGroup group = new ListDataPointGroup("group");
+		for (int i = 0; i < DataPointBlock.DEFAULT_CAPACITY * 2 + 100; i++)
+			group.addDataPoint(i % 3 == 0 ? new DoubleDataPoint(i * 7, i * 0.5) : new LongDataPoint(i * 7, i));
+
+		DataPointGroup objectResults = objectAggregator.aggregate(group);
+		List<DataPoint> expected = new ArrayList<>();
+		while (objectResults.hasNext())
+			expected.add(objectResults.next());
+
+		group = new ListDataPointGroup("group");
+		for (int i = 0; i < DataPointBlock.DEFAULT_CAPACITY * 2 + 100; i++)
+			group.addDataPoint(i % 3 == 0 ? new DoubleDataPoint(i * 7, i * 0.5) : new LongDataPoint(i * 7, i));
+
+		BlockDataPointGroup results = (BlockDataPointGroup) aggregator.aggregate(group);
+		DataPointBlock block = new DataPointBlock(50);
+		int index = 0;
+		while (results.readBlock(block) != 0)
+		{
+			for (int i = 0; i < block.size(); i++, index++)
+			{
+				assertThat(block.getTimestamp(i), equalTo(expected.get(index).getTimestamp()));
+				assertThat(block.getDoubleValue(i), equalTo(expected.get(index).getDoubleValue()));
+			}
+		}
+
+		assertThat(index, equalTo(expected.size()));
+	}
 }
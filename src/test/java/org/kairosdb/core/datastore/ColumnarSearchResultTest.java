@@ -0,0 +1,191 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.core.datastore;
+
+import org.junit.Test;
+import org.kairosdb.core.DataPoint;
+import org.kairosdb.core.KairosDataPointFactory;
+import org.kairosdb.core.TestDataPointFactory;
+import org.kairosdb.core.datapoints.DoubleDataPoint;
+import org.kairosdb.core.datapoints.DoubleDataPointFactoryImpl;
+import org.kairosdb.core.datapoints.LegacyDataPointFactory;
+import org.kairosdb.core.datapoints.LegacyDoubleDataPoint;
+import org.kairosdb.core.datapoints.LegacyLongDataPoint;
+import org.kairosdb.core.datapoints.LongDataPoint;
+import org.kairosdb.core.datapoints.LongDataPointFactoryImpl;
+import org.kairosdb.core.datapoints.StringDataPoint;
+import org.kairosdb.core.datapoints.StringDataPointFactory;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class ColumnarSearchResultTest
+{
+	private static KairosDataPointFactory dataPointFactory = new TestDataPointFactory();
+	private static String tempFile = System.getProperty("java.io.tmpdir") + "/columnarBaseFile";
+
+	@Test
+	public void test_createAndReopen() throws IOException
+	{
+		ColumnarSearchResult result =
+				ColumnarSearchResult.createCachedSearchResult("metric1", tempFile, dataPointFactory, true);
+
+		long now = System.currentTimeMillis();
+
+		SortedMap<String, String> tags = new TreeMap<>();
+		tags.put("host", "A");
+		QueryCallback.DataPointWriter writer = result.startDataPointSet(LongDataPointFactoryImpl.DST_LONG, tags);
+		writer.addDataPoint(new LongDataPoint(now, 42));
+		writer.addDataPoint(new LongDataPoint(now + 1000, -7));
+		writer.addDataPoint(new LongDataPoint(now + 1500, Long.MAX_VALUE));
+		writer.close();
+
+		tags = new TreeMap<>();
+		tags.put("host", "B");
+		writer = result.startDataPointSet(DoubleDataPointFactoryImpl.DST_DOUBLE, tags);
+		//Descending order to exercise negative deltas
+		writer.addDataPoint(new DoubleDataPoint(now + 2, 2.5));
+		writer.addDataPoint(new DoubleDataPoint(now + 1, 1.5));
+		writer.addDataPoint(new DoubleDataPoint(now, 0.5));
+		writer.close();
+
+		writer = result.startDataPointSet(LegacyDataPointFactory.DATASTORE_TYPE, Collections.<String, String>emptySortedMap());
+		writer.addDataPoint(new LegacyLongDataPoint(now, 3));
+		writer.addDataPoint(new LegacyDoubleDataPoint(now + 1, 3.1));
+		writer.close();
+
+		writer = result.startDataPointSet(StringDataPointFactory.DST_STRING, Collections.<String, String>emptySortedMap());
+		writer.addDataPoint(new StringDataPoint(now, "foo"));
+		writer.addDataPoint(new StringDataPoint(now + 1, "bar"));
+		writer.close();
+
+		assertRows(result.getRows(), now);
+		result.close();
+
+		result = ColumnarSearchResult.openCachedSearchResult("metric1", tempFile, 100, dataPointFactory, true);
+
+		assertRows(result.getRows(), now);
+		result.close();
+	}
+
+	@Test
+	public void test_otherTypeInPrimitiveRow() throws IOException
+	{
+		ColumnarSearchResult result =
+				ColumnarSearchResult.createCachedSearchResult("metric3", tempFile + "_mixed", dataPointFactory, false);
+
+		long now = System.currentTimeMillis();
+
+		QueryCallback.DataPointWriter writer = result.startDataPointSet(LongDataPointFactoryImpl.DST_LONG,
+				Collections.<String, String>emptySortedMap());
+		writer.addDataPoint(new LongDataPoint(now, 1));
+		writer.addDataPoint(new LongDataPoint(now + 1, -2));
+		//Same value format as kairos_long, only the type differs
+		writer.addDataPoint(new LongDataPoint(now + 2, 3)
+		{
+			@Override
+			public String getDataStoreDataType()
+			{
+				return "kairos_other";
+			}
+		});
+		writer.close();
+
+		List<DataPointRow> rows = result.getRows();
+		assertThat(rows.size(), equalTo(1));
+
+		DataPointRow row = rows.get(0);
+		assertThat(row.getDataPointCount(), equalTo(3));
+		assertLong(row.next(), now, 1);
+		assertLong(row.next(), now + 1, -2);
+		assertLong(row.next(), now + 2, 3);
+		assertThat(row.hasNext(), equalTo(false));
+		row.close();
+
+		result.close();
+	}
+
+	@Test
+	public void test_openCachedSearchResult_noFile() throws IOException
+	{
+		ColumnarSearchResult result = ColumnarSearchResult.createCachedSearchResult("metric2", tempFile + "_missing",
+				dataPointFactory, false);
+		result.close();
+
+		assertThat(ColumnarSearchResult.openCachedSearchResult("metric2", tempFile + "_missing", 100,
+				dataPointFactory, false), nullValue());
+	}
+
+	private void assertRows(List<DataPointRow> rows, long now)
+	{
+		assertThat(rows.size(), equalTo(4));
+
+		DataPointRow row = rows.get(0);
+		assertThat(row.getTagValue("host"), equalTo("A"));
+		assertThat(row.getDataPointCount(), equalTo(3));
+		assertLong(row.next(), now, 42);
+		assertLong(row.next(), now + 1000, -7);
+		assertLong(row.next(), now + 1500, Long.MAX_VALUE);
+		assertThat(row.hasNext(), equalTo(false));
+
+		row = rows.get(1);
+		assertThat(row.getTagValue("host"), equalTo("B"));
+		assertDouble(row.next(), now + 2, 2.5);
+		assertDouble(row.next(), now + 1, 1.5);
+		assertDouble(row.next(), now, 0.5);
+		assertThat(row.hasNext(), equalTo(false));
+
+		row = rows.get(2);
+		assertLong(row.next(), now, 3);
+		assertDouble(row.next(), now + 1, 3.1);
+		assertThat(row.hasNext(), equalTo(false));
+
+		row = rows.get(3);
+		DataPoint dp = row.next();
+		assertThat(dp.getTimestamp(), equalTo(now));
+		assertThat(((StringDataPoint)dp).getValue(), equalTo("foo"));
+		dp = row.next();
+		assertThat(dp.getTimestamp(), equalTo(now + 1));
+		assertThat(((StringDataPoint)dp).getValue(), equalTo("bar"));
+		assertThat(row.hasNext(), equalTo(false));
+
+		for (DataPointRow dataPointRow : rows)
+		{
+			dataPointRow.close();
+		}
+	}
+
+	private static void assertLong(DataPoint dp, long timestamp, long value)
+	{
+		assertThat(dp.getTimestamp(), equalTo(timestamp));
+		assertThat(dp.isLong(), equalTo(true));
+		assertThat(dp.getLongValue(), equalTo(value));
+	}
+
+	private static void assertDouble(DataPoint dp, long timestamp, double value)
+	{
+		assertThat(dp.getTimestamp(), equalTo(timestamp));
+		assertThat(dp.getDoubleValue(), equalTo(value));
+	}
+}
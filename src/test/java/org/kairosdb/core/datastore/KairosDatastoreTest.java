@@ -95,6 +95,42 @@ public class KairosDatastoreTest
 		dq.close();
 	}
 
+	@Test
+	public void test_query_identicalQueriesShareResult() throws KairosDBException
+	{
+		TestDatastore testds = new TestDatastore();
+		QueryQueuingManager queuingManager = new QueryQueuingManager(1, "hostname");
+		KairosDatastore datastore = new KairosDatastore(testds, queuingManager,
+				new TestDataPointFactory(), false);
+		datastore.init();
+
+		QueryMetric metric1 = new QueryMetric(1L, 1, "metric1");
+		metric1.setCacheString("metric1");
+		QueryMetric metric2 = new QueryMetric(1L, 1, "metric1");
+		metric2.setCacheString("metric1");
+
+		//The second query joins the first instead of waiting for the permit
+		DatastoreQuery dq1 = datastore.createQuery(metric1);
+		DatastoreQuery dq2 = datastore.createQuery(metric2);
+
+		DataPointGroup group1 = dq1.execute().get(0);
+		DataPointGroup group2 = dq2.execute().get(0);
+
+		assertThat(testds.queryCount, equalTo(1));
+		while (group1.hasNext())
+		{
+			DataPoint dp1 = group1.next();
+			DataPoint dp2 = group2.next();
+			assertThat(dp2.getTimestamp(), equalTo(dp1.getTimestamp()));
+			assertThat(dp2.getLongValue(), equalTo(dp1.getLongValue()));
+		}
+		assertThat(group2.hasNext(), equalTo(false));
+
+		dq1.close();
+		dq2.close();
+		assertThat(queuingManager.getAvailableThreads(), equalTo(1));
+	}
+
 	@Test
 	public void test_query_noAggregator() throws KairosDBException
 	{
@@ -326,6 +362,8 @@ public class KairosDatastoreTest
 
 	private static class TestDatastore implements Datastore, ServiceKeyStore
 	{
+		private int queryCount = 0;
+
 		TestDatastore()
 		{
 		}
@@ -357,6 +395,7 @@ public class KairosDatastoreTest
 		public void queryDatabase(DatastoreMetricQuery query, QueryCallback queryCallback)
 				throws DatastoreException
 		{
+			queryCount++;
 			try
 			{
 				QueryCallback.DataPointWriter dataPointWriter = queryCallback.startDataPointSet(LegacyDataPointFactory.DATASTORE_TYPE, Collections.emptySortedMap());
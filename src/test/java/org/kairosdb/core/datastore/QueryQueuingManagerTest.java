@@ -10,12 +10,19 @@ import org.junit.Test;
 import org.kairosdb.core.DataPointSet;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.hamcrest.Matchers.hasKey;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.fail;
 import static org.hamcrest.core.IsEqual.equalTo;
 import static org.junit.Assert.assertFalse;
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -23,11 +30,15 @@ import static org.hamcrest.MatcherAssert.assertThat;
 public class QueryQueuingManagerTest
 {
 	private AtomicInteger runningCount;
+	private AtomicInteger joinedCount;
+	private AtomicInteger releasedCount;
 
 	@Before
 	public void setup()
 	{
 		runningCount = new AtomicInteger();
+		joinedCount = new AtomicInteger();
+		releasedCount = new AtomicInteger();
 	}
 
 	@Test(timeout = 3000)
@@ -74,34 +85,111 @@ public class QueryQueuingManagerTest
 	{
 		QueryQueuingManager manager = new QueryQueuingManager(3, "hostname");
 
-		Query query1 = new Query(manager, "1", 5);
-		Query query2 = new Query(manager, "1", 5);
-		Query query3 = new Query(manager, "1", 5);
-		Query query4 = new Query(manager, "1", 5);
-		Query query5 = new Query(manager, "1", 5);
+		List<Query> queries = new ArrayList<Query>();
+		for (int i = 0; i < 5; i++)
+			queries.add(new Query(manager, "1", 5, 4));
 
-		query1.start();
-		query2.start();
-		query3.start();
-		query4.start();
-		query5.start();
+		for (Query query : queries)
+		{
+			query.start();
+		}
 
-		query1.join();
-		query2.join();
-		query3.join();
-		query4.join();
-		query5.join();
+		for (Query query : queries)
+		{
+			query.join();
+		}
 
-		assertThat(query1.didRun, equalTo(true));
-		assertThat(query2.didRun, equalTo(true));
-		assertThat(query3.didRun, equalTo(true));
-		assertThat(query4.didRun, equalTo(true));
-		assertThat(query5.didRun, equalTo(true));
+		int leaders = 0;
+		for (Query query : queries)
+		{
+			assertThat(query.didRun, equalTo(true));
+			if (query.leader)
+				leaders++;
+		}
+
+		//One query ran and the rest shared its result
+		assertThat(leaders, equalTo(1));
+		assertThat(joinedCount.get(), equalTo(4));
+		assertThat(releasedCount.get(), equalTo(1));
+		assertThat(manager.getAvailableThreads(), equalTo(3));
 
 		//Number of collisions
 		assertThat(manager.getMetrics(System.currentTimeMillis()).get(0).getDataPoints().get(0).getLongValue(), equalTo(4L));
 	}
 
+	@Test(timeout = 3000)
+	public void test_leaderFinishesWithoutResult_followerRunsQuery()
+			throws InterruptedException, ExecutionException, QueryRejectedException
+	{
+		QueryQueuingManager manager = new QueryQueuingManager(1, "hostname");
+
+		QueryQueuingManager.QueryHandle leader = manager.waitForTimeToRun("1", null);
+		QueryQueuingManager.QueryHandle follower = manager.waitForTimeToRun("1", null);
+		assertThat(leader.isLeader(), equalTo(true));
+		assertThat(follower.isLeader(), equalTo(false));
+
+		manager.done(leader);
+		manager.done(leader); //Second call does not release another permit
+		assertThat(manager.getAvailableThreads(), equalTo(1));
+
+		assertThat(follower.awaitResult(), nullValue());
+		QueryQueuingManager.QueryHandle retry = manager.waitForTimeToRun("1", null);
+		assertThat(retry.isLeader(), equalTo(true));
+		manager.done(retry);
+	}
+
+	@Test(timeout = 3000)
+	public void test_leaderFails_followerGetsError() throws InterruptedException, QueryRejectedException
+	{
+		QueryQueuingManager manager = new QueryQueuingManager(1, "hostname");
+
+		QueryQueuingManager.QueryHandle leader = manager.waitForTimeToRun("1", null);
+		QueryQueuingManager.QueryHandle follower = manager.waitForTimeToRun("1", null);
+
+		Exception error = new Exception("query failed");
+		manager.fail(leader, error);
+		manager.done(leader);
+
+		try
+		{
+			follower.awaitResult();
+			fail("Expected ExecutionException");
+		}
+		catch (ExecutionException e)
+		{
+			assertThat(e.getCause(), sameInstance((Throwable)error));
+		}
+	}
+
+	@Test(timeout = 3000)
+	public void test_interruptedFollower_releasesResult() throws InterruptedException, QueryRejectedException
+	{
+		QueryQueuingManager manager = new QueryQueuingManager(1, "hostname");
+
+		QueryQueuingManager.QueryHandle leader = manager.waitForTimeToRun("1", null);
+		QueryQueuingManager.QueryHandle follower = manager.waitForTimeToRun("1", null);
+
+		Thread.currentThread().interrupt();
+		try
+		{
+			follower.awaitResult();
+			fail("Expected InterruptedException");
+		}
+		catch (InterruptedException | ExecutionException e)
+		{
+			assertThat(e instanceof InterruptedException, equalTo(true));
+		}
+
+		SharedSearchResult result = new SharedSearchResult(Collections::emptyList, releasedCount::incrementAndGet);
+		manager.publish(leader, result);
+		result.release();
+		manager.done(leader);
+
+		//The follower's reference was released even though it never took the result
+		assertThat(releasedCount.get(), equalTo(1));
+		assertThat(manager.getAvailableThreads(), equalTo(1));
+	}
+
 	@Test(timeout = 3000)
 	public void test_EnoughPermitsDifferentHashes() throws InterruptedException
 	{
@@ -128,41 +216,198 @@ public class QueryQueuingManagerTest
 		assertThat(manager.getQueryWaitingCount(), equalTo(0));
 	}
 
+	@Test
+	public void test_getQueryClass()
+	{
+		QueryQueuingManager manager = new QueryQueuingManager(1, "hostname");
+		manager.setBatchRangeHours(24);
+		long now = System.currentTimeMillis();
+
+		assertThat(manager.getQueryClass(null), equalTo(QueryClass.INTERACTIVE));
+		assertThat(manager.getQueryClass(new QueryMetric(now - TimeUnit.HOURS.toMillis(1), 0, "metric")),
+				equalTo(QueryClass.INTERACTIVE));
+		assertThat(manager.getQueryClass(new QueryMetric(now - TimeUnit.DAYS.toMillis(2), 0, "metric")),
+				equalTo(QueryClass.BATCH));
+
+		//End time in the future does not count towards the range
+		assertThat(manager.getQueryClass(new QueryMetric(now - TimeUnit.HOURS.toMillis(1),
+				now + TimeUnit.DAYS.toMillis(2), 0, "metric")), equalTo(QueryClass.INTERACTIVE));
+
+		QueryMetric explicit = new QueryMetric(now - TimeUnit.HOURS.toMillis(1), 0, "metric");
+		explicit.setQueryClass(QueryClass.BATCH);
+		assertThat(manager.getQueryClass(explicit), equalTo(QueryClass.BATCH));
+	}
+
+	@Test(timeout = 3000)
+	public void test_weightedFairQueuing() throws InterruptedException, QueryRejectedException
+	{
+		QueryQueuingManager manager = new QueryQueuingManager(1, "hostname");
+		QueryQueuingManager.QueryHandle running = manager.waitForTimeToRun("running", null);
+
+		List<QueryClass> order = Collections.synchronizedList(new ArrayList<QueryClass>());
+		List<AdmissionQuery> queries = new ArrayList<AdmissionQuery>();
+		queries.add(new AdmissionQuery(manager, QueryClass.BATCH, order));
+		queries.add(new AdmissionQuery(manager, QueryClass.BATCH, order));
+		for (int i = 0; i < 4; i++)
+			queries.add(new AdmissionQuery(manager, QueryClass.INTERACTIVE, order));
+
+		//Queue the queries one at a time so the order they wait in is known
+		for (AdmissionQuery query : queries)
+		{
+			int waiting = manager.getQueryWaitingCount();
+			query.start();
+			while (manager.getQueryWaitingCount() == waiting)
+				Thread.sleep(10);
+		}
+
+		assertThat(manager.getQueryWaitingCount(QueryClass.BATCH), equalTo(2));
+		assertThat(manager.getQueryWaitingCount(QueryClass.INTERACTIVE), equalTo(4));
+
+		manager.done(running);
+		for (AdmissionQuery query : queries)
+			query.join();
+
+		//Interactive queries get four permits for each batch permit even
+		//though the batch queries were waiting first
+		assertThat(order, equalTo(Arrays.asList(QueryClass.INTERACTIVE, QueryClass.BATCH,
+				QueryClass.INTERACTIVE, QueryClass.INTERACTIVE, QueryClass.INTERACTIVE, QueryClass.BATCH)));
+		assertThat(manager.getAvailableThreads(), equalTo(1));
+	}
+
+	@Test(timeout = 3000)
+	public void test_maxQueued_rejectsQuery() throws InterruptedException, QueryRejectedException
+	{
+		QueryQueuingManager manager = new QueryQueuingManager(1, "hostname");
+		manager.setMaxQueued(QueryClass.BATCH, 1);
+		QueryQueuingManager.QueryHandle running = manager.waitForTimeToRun("running", null);
+
+		List<QueryClass> order = Collections.synchronizedList(new ArrayList<QueryClass>());
+		AdmissionQuery waiting = new AdmissionQuery(manager, QueryClass.BATCH, order);
+		waiting.start();
+		while (manager.getQueryWaitingCount() == 0)
+			Thread.sleep(10);
+
+		QueryMetric batch = new QueryMetric(0, 0, "metric");
+		batch.setQueryClass(QueryClass.BATCH);
+		try
+		{
+			manager.waitForTimeToRun("rejected", batch);
+			fail("Expected QueryRejectedException");
+		}
+		catch (QueryRejectedException e)
+		{
+		}
+
+		//Interactive queue is not limited
+		AdmissionQuery interactive = new AdmissionQuery(manager, QueryClass.INTERACTIVE, order);
+		interactive.start();
+		while (manager.getQueryWaitingCount() == 1)
+			Thread.sleep(10);
+
+		manager.done(running);
+		waiting.join();
+		interactive.join();
+		assertThat(order.size(), equalTo(2));
+
+		long rejections = -1;
+		for (DataPointSet dataPointSet : manager.getMetrics(System.currentTimeMillis()))
+		{
+			if (dataPointSet.getName().equals("kairosdb.datastore.query_admission.batch.rejections"))
+				rejections = dataPointSet.getDataPoints().get(0).getLongValue();
+		}
+		assertThat(rejections, equalTo(1L));
+	}
+
+	private class AdmissionQuery extends Thread
+	{
+		private final QueryQueuingManager manager;
+		private final QueryMetric metric;
+		private final List<QueryClass> order;
+
+		private AdmissionQuery(QueryQueuingManager manager, QueryClass queryClass, List<QueryClass> order)
+		{
+			this.manager = manager;
+			this.order = order;
+			metric = new QueryMetric(System.currentTimeMillis(), 0, "metric");
+			metric.setQueryClass(queryClass);
+		}
+
+		@Override
+		public void run()
+		{
+			try
+			{
+				QueryQueuingManager.QueryHandle handle = manager.waitForTimeToRun(getName(), metric);
+				order.add(metric.getQueryClass());
+				manager.done(handle);
+			}
+			catch (InterruptedException | QueryRejectedException e)
+			{
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
 	private class Query extends Thread
 	{
 		private QueryQueuingManager manager;
 		private String hash;
 		private int waitCount;
+		private int followerCount;
 		private boolean didRun = false;
+		private boolean leader = false;
 		private long queriesWatiting;
 
 		private Query(QueryQueuingManager manager, String hash, int waitCount)
+		{
+			this(manager, hash, waitCount, 0);
+		}
+
+		private Query(QueryQueuingManager manager, String hash, int waitCount, int followerCount)
 		{
 			this.manager = manager;
 			this.hash = hash;
 			this.waitCount = waitCount;
+			this.followerCount = followerCount;
 		}
 
 		@Override
 		public void run()
 		{
+			QueryQueuingManager.QueryHandle handle = null;
 			try
 			{
 				runningCount.incrementAndGet();
-				manager.waitForTimeToRun(hash, null);
-				while(runningCount.get() < waitCount)
+				handle = manager.waitForTimeToRun(hash, null);
+				if (handle.isLeader())
+				{
+					leader = true;
+					while(runningCount.get() < waitCount || joinedCount.get() < followerCount)
+					{
+						Thread.sleep(100);
+					}
+					queriesWatiting = manager.getQueryWaitingCount();
+
+					SharedSearchResult result = new SharedSearchResult(Collections::emptyList,
+							releasedCount::incrementAndGet);
+					manager.publish(handle, result);
+					result.release();
+				}
+				else
 				{
-					Thread.sleep(100);
+					joinedCount.incrementAndGet();
+					SharedSearchResult result = handle.awaitResult();
+					result.getRows();
+					result.release();
 				}
-				queriesWatiting = manager.getQueryWaitingCount();
 			}
-			catch (InterruptedException e)
+			catch (InterruptedException | ExecutionException | QueryRejectedException e)
 			{
 				assertFalse("InterruptedException", false);
 			}
 
 			didRun = true;
-			manager.done(hash);
+			manager.done(handle);
 		}
 	}
 }
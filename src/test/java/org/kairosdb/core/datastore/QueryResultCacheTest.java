@@ -0,0 +1,133 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.core.datastore;
+
+import org.junit.Test;
+import org.kairosdb.core.DataPoint;
+import org.kairosdb.core.TestDataPointFactory;
+import org.kairosdb.core.datapoints.DoubleDataPoint;
+import org.kairosdb.core.datapoints.LongDataPoint;
+import org.kairosdb.core.datapoints.StringDataPoint;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class QueryResultCacheTest
+{
+	private static List<DataPointRow> createRows(DataPoint... dataPoints)
+	{
+		DataPointRowImpl row = new DataPointRowImpl();
+		row.setName("metric1");
+		row.addTag("host", "A");
+		for (DataPoint dataPoint : dataPoints)
+			row.addDataPoint(dataPoint);
+
+		return Collections.singletonList(row);
+	}
+
+	@Test
+	public void test_putRows_thenGetRows() throws IOException
+	{
+		QueryResultCache cache = new QueryResultCache(new TestDataPointFactory(), 1024 * 1024);
+
+		Supplier<List<DataPointRow>> result = cache.putRows("key", 60, createRows(
+				new LongDataPoint(1, 10), new LongDataPoint(2, 20)));
+		assertRow(result.get().get(0), 10L, 20L);
+
+		//Each call returns new rows over the same data
+		result = cache.getResult("key");
+		assertRow(result.get().get(0), 10L, 20L);
+		assertRow(result.get().get(0), 10L, 20L);
+
+		assertThat(cache.getResult("other"), nullValue());
+	}
+
+	@Test
+	public void test_doubleAndStringRows() throws IOException
+	{
+		QueryResultCache cache = new QueryResultCache(new TestDataPointFactory(), 1024 * 1024);
+
+		cache.putRows("double", 60, createRows(new DoubleDataPoint(1, 1.5), new DoubleDataPoint(2, 2.5)));
+		cache.putRows("string", 60, createRows(new StringDataPoint(1, "foo"), new StringDataPoint(2, "bar")));
+
+		DataPointRow row = cache.getResult("double").get().get(0);
+		assertThat(row.getTagValue("host"), equalTo("A"));
+		assertThat(row.next().getDoubleValue(), equalTo(1.5));
+		assertThat(row.next().getDoubleValue(), equalTo(2.5));
+		assertThat(row.hasNext(), equalTo(false));
+
+		row = cache.getResult("string").get().get(0);
+		assertThat(((StringDataPoint)row.next()).getValue(), equalTo("foo"));
+		assertThat(((StringDataPoint)row.next()).getValue(), equalTo("bar"));
+		assertThat(row.hasNext(), equalTo(false));
+	}
+
+	@Test
+	public void test_getResult_expired() throws IOException, InterruptedException
+	{
+		QueryResultCache cache = new QueryResultCache(new TestDataPointFactory(), 1024 * 1024);
+
+		cache.putRows("key", 1, createRows(new LongDataPoint(1, 10)));
+		assertThat(cache.getResult("key"), notNullValue());
+
+		Thread.sleep(1100);
+		assertThat(cache.getResult("key"), nullValue());
+	}
+
+	@Test
+	public void test_putRows_tooLarge_notCached() throws IOException
+	{
+		QueryResultCache cache = new QueryResultCache(new TestDataPointFactory(), 1024);
+
+		DataPoint[] dataPoints = new DataPoint[100];
+		for (int i = 0; i < dataPoints.length; i++)
+			dataPoints[i] = new LongDataPoint(i, i);
+
+		assertThat(cache.putRows("key", 60, createRows(dataPoints)), nullValue());
+		assertThat(cache.getResult("key"), nullValue());
+	}
+
+	@Test
+	public void test_disabled() throws IOException
+	{
+		QueryResultCache cache = new QueryResultCache(new TestDataPointFactory(), 0);
+
+		assertThat(cache.putRows("key", 60, createRows(new LongDataPoint(1, 10))), nullValue());
+		assertThat(cache.getResult("key"), nullValue());
+		assertThat(cache.getMetrics(0).size(), equalTo(0));
+	}
+
+	private static void assertRow(DataPointRow row, long... values)
+	{
+		assertThat(row.getName(), equalTo("metric1"));
+		assertThat(row.getDataPointCount(), equalTo(values.length));
+		for (int i = 0; i < values.length; i++)
+		{
+			DataPoint dataPoint = row.next();
+			assertThat(dataPoint.getTimestamp(), equalTo((long)i + 1));
+			assertThat(dataPoint.getLongValue(), equalTo(values[i]));
+		}
+		assertThat(row.hasNext(), equalTo(false));
+	}
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.kairosdb.core.datastore;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+import org.kairosdb.core.DataPoint;
+import org.kairosdb.core.datapoints.LongDataPoint;
+import org.kairosdb.testing.ListDataPointGroup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SortingDataPointGroupTest
+{
+	private static final ForkJoinPool s_pool = new ForkJoinPool(2);
+
+	@AfterClass
+	public static void shutdownPool()
+	{
+		s_pool.shutdown();
+	}
+
+	private static List<DataPointGroup> createGroups(int groupCount, int pointsPerGroup)
+	{
+		List<DataPointGroup> groups = new ArrayList<>();
+		for (int i = 0; i < groupCount; i++)
+		{
+			ListDataPointGroup group = new ListDataPointGroup("metric");
+			group.addTag("host", "host" + i);
+			for (int j = 0; j < pointsPerGroup; j++)
+				group.addDataPoint(new LongDataPoint(i + (long) j * groupCount / 2, j % 7));
+
+			groups.add(group);
+		}
+
+		return groups;
+	}
+
+	private static List<DataPoint> readAll(SortingDataPointGroup group)
+	{
+		List<DataPoint> ret = new ArrayList<>();
+		while (group.hasNext())
+			ret.add(group.next());
+
+		group.close();
+		return ret;
+	}
+
+	@Test
+	public void test_ascending()
+	{
+		List<DataPoint> dataPoints = readAll(new SortingDataPointGroup(createGroups(10, 100), Order.ASC));
+
+		assertEquals(1000, dataPoints.size());
+		for (int i = 1; i < dataPoints.size(); i++)
+			assertTrue(dataPoints.get(i - 1).getTimestamp() <= dataPoints.get(i).getTimestamp());
+	}
+
+	@Test
+	public void test_tagsFromAllGroups()
+	{
+		SortingDataPointGroup group = new SortingDataPointGroup(createGroups(3, 1), Order.ASC);
+
+		assertEquals(3, group.getTagValues("host").size());
+	}
+
+	@Test
+	public void test_parallelMerge_sameAsSerial()
+	{
+		for (Order order : Order.values())
+		{
+			List<DataPoint> expected = readAll(new SortingDataPointGroup(createGroups(50, 300), order));
+
+			SortingDataPointGroup parallel = new SortingDataPointGroup(createGroups(50, 300), order);
+			parallel.setParallelMerge(s_pool, 10, 4);
+			List<DataPoint> actual = readAll(parallel);
+
+			assertEquals(expected.size(), actual.size());
+			for (int i = 0; i < expected.size(); i++)
+			{
+				assertEquals(expected.get(i).getTimestamp(), actual.get(i).getTimestamp());
+				assertEquals(expected.get(i).getLongValue(), actual.get(i).getLongValue());
+			}
+		}
+	}
+
+	@Test
+	public void test_parallelMerge_closeBeforeEnd()
+	{
+		SortingDataPointGroup parallel = new SortingDataPointGroup(createGroups(20, 5000), Order.ASC);
+		parallel.setParallelMerge(s_pool, 10, 4);
+
+		assertTrue(parallel.hasNext());
+		parallel.next();
+		parallel.close();
+	}
+
+	@Test
+	public void test_parallelMerge_belowThreshold()
+	{
+		SortingDataPointGroup group = new SortingDataPointGroup(createGroups(5, 10), Order.ASC);
+		group.setParallelMerge(s_pool, 10, 4);
+
+		assertEquals(50, readAll(group).size());
+		assertFalse(group.hasNext());
+	}
+}
@@ -19,18 +19,28 @@ import com.google.common.base.Charsets;
 import com.google.common.io.Resources;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
+import org.json.JSONException;
+import org.json.JSONWriter;
 import org.junit.Before;
 import org.junit.Test;
 import org.kairosdb.core.DataPoint;
+import org.kairosdb.core.aggregator.CountAggregator;
+import org.kairosdb.core.aggregator.Sampling;
+import org.kairosdb.core.aggregator.SumAggregator;
 import org.kairosdb.core.datapoints.DoubleDataPoint;
+import org.kairosdb.core.datapoints.DoubleDataPointFactoryImpl;
 import org.kairosdb.core.datapoints.LongDataPoint;
+import org.kairosdb.core.datapoints.LongDataPointFactoryImpl;
+import org.kairosdb.core.datastore.BlockDataPointGroup;
 import org.kairosdb.core.datastore.DataPointGroup;
+import org.kairosdb.core.datastore.TimeUnit;
 import org.kairosdb.core.groupby.ValueGroupBy;
 import org.kairosdb.testing.ListDataPointGroup;
 
 import java.io.IOException;
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import static org.hamcrest.CoreMatchers.equalTo;
@@ -137,6 +147,75 @@ public class JsonResponseTest
 		response.end();
 	}
 
+	@Test
+	public void test_blockGroup_sameAsObjectPath() throws FormatterException
+	{
+		CountAggregator count = new CountAggregator(new LongDataPointFactoryImpl());
+		count.setSampling(new Sampling(1, TimeUnit.SECONDS));
+		count.init();
+		SumAggregator sum = new SumAggregator(new DoubleDataPointFactoryImpl());
+		sum.setSampling(new Sampling(1, TimeUnit.SECONDS));
+		sum.init();
+
+		DataPointGroup counted = count.aggregate(createBlockTestGroup());
+		assertThat(counted instanceof BlockDataPointGroup, equalTo(true));
+
+		response.begin(null);
+		response.formatQuery(Collections.singletonList(counted), true, 3, false);
+		response.formatQuery(Collections.singletonList(sum.aggregate(createBlockTestGroup())), true, 3, false);
+		response.end();
+
+		assertJson(writer.toString(), "{\"queries\":[" +
+				"{\"sample_size\":3,\"results\":[{\"name\":\"metric1\",\"values\":[[1000,2],[2000,1]]}]}," +
+				"{\"sample_size\":3,\"results\":[{\"name\":\"metric1\",\"values\":[[1000,3],[2000,2.5]]}]}]}");
+	}
+
+	@Test
+	public void test_blockGroup_customDataPointType() throws FormatterException
+	{
+		//A plugin can bind its own double factory, its data points format their own values
+		SumAggregator sum = new SumAggregator(new DoubleDataPointFactoryImpl()
+		{
+			@Override
+			public DataPoint createDataPoint(long timestamp, double value)
+			{
+				return new DoubleDataPoint(timestamp, value)
+				{
+					@Override
+					public void writeValueToJson(JSONWriter writer) throws JSONException
+					{
+						writer.value("custom " + getDoubleValue());
+					}
+				};
+			}
+
+			@Override
+			public String getDataStoreType()
+			{
+				return "custom_double";
+			}
+		});
+		sum.setSampling(new Sampling(1, TimeUnit.SECONDS));
+		sum.init();
+
+		response.begin(null);
+		response.formatQuery(Collections.singletonList(sum.aggregate(createBlockTestGroup())), true, 3, false);
+		response.end();
+
+		assertJson(writer.toString(), "{\"queries\":[" +
+				"{\"sample_size\":3,\"results\":[{\"name\":\"metric1\",\"values\":[[1000,\"custom 3.0\"],[2000,\"custom 2.5\"]]}]}]}");
+	}
+
+	private static DataPointGroup createBlockTestGroup()
+	{
+		ListDataPointGroup group = new ListDataPointGroup("metric1");
+		group.addDataPoint(new LongDataPoint(1000, 1));
+		group.addDataPoint(new LongDataPoint(1500, 2));
+		group.addDataPoint(new DoubleDataPoint(2000, 2.5));
+
+		return group;
+	}
+
 	private void assertJson(String actual, String expected)
 	{
 		JsonObject expectedObject = (JsonObject) JsonParser.parseString(expected);
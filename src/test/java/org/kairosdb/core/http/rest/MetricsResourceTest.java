@@ -22,8 +22,14 @@ import com.google.common.io.Resources;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.kairosdb.bigqueue.IBigArray;
+import org.kairosdb.core.TestDataPointFactory;
 import org.kairosdb.core.exception.DatastoreException;
 import org.kairosdb.core.exception.InvalidServerTypeException;
+import org.kairosdb.core.queue.BigArraySyncer;
+import org.kairosdb.core.queue.DataPointEventSerializer;
+import org.kairosdb.core.queue.FileQueueProcessor;
+import org.kairosdb.core.queue.QueueProcessor;
 import org.kairosdb.testing.Client;
 import org.kairosdb.testing.JsonResponse;
 import org.kairosdb.util.LoggingUtils;
@@ -32,6 +38,7 @@ import javax.ws.rs.core.HttpHeaders;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.util.EnumSet;
+import java.util.concurrent.ExecutorService;
 import java.util.zip.GZIPInputStream;
 
 import static org.hamcrest.CoreMatchers.equalTo;
@@ -39,6 +46,11 @@ import static org.hamcrest.CoreMatchers.startsWith;
 import static org.junit.Assert.assertEquals;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.junit.Assert.assertThrows;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 public class MetricsResourceTest extends ResourceBase
 {
@@ -117,6 +129,118 @@ public class MetricsResourceTest extends ResourceBase
 		assertResponse(response, 204);
 	}
 
+	@Test
+	public void testAddWithoutDurableAckDoesNotWait() throws Exception
+	{
+		BigArraySyncer bigArraySyncer = mock(BigArraySyncer.class);
+		resource.setQueueProcessor(createQueueProcessor(bigArraySyncer));
+		try
+		{
+			String json = Resources.toString(Resources.getResource("single-metric-long.json"), Charsets.UTF_8);
+
+			JsonResponse response = client.post(json, ADD_METRIC_URL);
+
+			assertResponse(response, 204);
+			verify(bigArraySyncer, never()).waitForDurable();
+		}
+		finally
+		{
+			resource.setQueueProcessor(null);
+		}
+	}
+
+	@Test
+	public void testAddDurableAckWaitsForDurable() throws Exception
+	{
+		BigArraySyncer bigArraySyncer = mock(BigArraySyncer.class);
+		resource.setQueueProcessor(createQueueProcessor(bigArraySyncer));
+		resource.setDurableAck(true);
+		try
+		{
+			String json = Resources.toString(Resources.getResource("single-metric-long.json"), Charsets.UTF_8);
+
+			JsonResponse response = client.post(json, ADD_METRIC_URL);
+
+			assertResponse(response, 204);
+			verify(bigArraySyncer, times(1)).waitForDurable();
+		}
+		finally
+		{
+			resource.setQueueProcessor(null);
+			resource.setDurableAck(false);
+		}
+	}
+
+	@Test
+	public void testAddDurableHeaderWaitsForDurable() throws Exception
+	{
+		BigArraySyncer bigArraySyncer = mock(BigArraySyncer.class);
+		resource.setQueueProcessor(createQueueProcessor(bigArraySyncer));
+		client.addHeader(MetricsResource.DURABLE_HEADER, "true");
+		try
+		{
+			String json = Resources.toString(Resources.getResource("single-metric-long.json"), Charsets.UTF_8);
+
+			JsonResponse response = client.post(json, ADD_METRIC_URL);
+
+			assertResponse(response, 204);
+			verify(bigArraySyncer, times(1)).waitForDurable();
+		}
+		finally
+		{
+			client.removeHeader(MetricsResource.DURABLE_HEADER);
+			resource.setQueueProcessor(null);
+		}
+	}
+
+	@Test
+	public void testAddDurableHeaderOverridesDurableAck() throws Exception
+	{
+		BigArraySyncer bigArraySyncer = mock(BigArraySyncer.class);
+		resource.setQueueProcessor(createQueueProcessor(bigArraySyncer));
+		resource.setDurableAck(true);
+		client.addHeader(MetricsResource.DURABLE_HEADER, "false");
+		try
+		{
+			String json = Resources.toString(Resources.getResource("single-metric-long.json"), Charsets.UTF_8);
+
+			JsonResponse response = client.post(json, ADD_METRIC_URL);
+
+			assertResponse(response, 204);
+			verify(bigArraySyncer, never()).waitForDurable();
+		}
+		finally
+		{
+			client.removeHeader(MetricsResource.DURABLE_HEADER);
+			resource.setQueueProcessor(null);
+			resource.setDurableAck(false);
+		}
+	}
+
+	@Test
+	public void testAddDurableSyncFails() throws Exception
+	{
+		Level previousLogLevel = LoggingUtils.setLogLevel(Level.OFF);
+		BigArraySyncer bigArraySyncer = mock(BigArraySyncer.class);
+		doThrow(new DatastoreException("Failure syncing queue to disk")).when(bigArraySyncer).waitForDurable();
+		resource.setQueueProcessor(createQueueProcessor(bigArraySyncer));
+		resource.setDurableAck(true);
+		try
+		{
+			String json = Resources.toString(Resources.getResource("single-metric-long.json"), Charsets.UTF_8);
+
+			JsonResponse response = client.post(json, ADD_METRIC_URL);
+
+			assertResponse(response, 500, "{\"errors\":[\"Failure syncing queue to disk\"]}");
+		}
+		finally
+		{
+			resource.setQueueProcessor(null);
+			resource.setDurableAck(false);
+			LoggingUtils.setLogLevel(previousLogLevel);
+		}
+	}
+
 	@Test
 	public void testQuery() throws IOException
 	{
@@ -130,6 +254,158 @@ public class MetricsResourceTest extends ResourceBase
 						"[{\"name\":\"abc.123\",\"group_by\":[{\"name\":\"type\",\"type\":\"number\"}],\"tags\":{\"server\":[\"server1\",\"server2\"]},\"values\":[[1,60.2],[2,30.200000000000003],[3,20.1]]}]}]}");
 	}
 
+	@Test
+	public void testQueryMultipleMetricsInRequestOrder() throws IOException
+	{
+		String json = "{\"start_absolute\": 784041330, \"metrics\": [" +
+				"{\"name\": \"first\"}, {\"name\": \"second\"}, {\"name\": \"third\"}]}";
+
+		JsonResponse response = client.post(json, GET_METRIC_URL);
+
+		String result = "\"group_by\":[{\"name\":\"type\",\"type\":\"number\"}],\"tags\":{\"server\":[\"server1\",\"server2\"]}," +
+				"\"values\":[[1,10],[1,10.1],[1,20],[1,20.1],[2,10],[2,5],[2,10.1],[2,5.1],[3,10],[3,10.1]]}]}";
+		assertResponse(response, 200,
+				"{\"queries\":[" +
+						"{\"sample_size\":10,\"results\":[{\"name\":\"first\"," + result + "," +
+						"{\"sample_size\":10,\"results\":[{\"name\":\"second\"," + result + "," +
+						"{\"sample_size\":10,\"results\":[{\"name\":\"third\"," + result + "]}");
+	}
+
+	@Test
+	public void testQueryStreamedInRequestOrder() throws IOException
+	{
+		String json = "{\"start_absolute\": 784041330, \"metrics\": [" +
+				"{\"name\": \"first\"}, {\"name\": \"second\"}]}";
+
+		resource.setStreamResponse(true);
+		try
+		{
+			JsonResponse response = client.post(json, GET_METRIC_URL);
+
+			String result = "\"group_by\":[{\"name\":\"type\",\"type\":\"number\"}],\"tags\":{\"server\":[\"server1\",\"server2\"]}," +
+					"\"values\":[[1,10],[1,10.1],[1,20],[1,20.1],[2,10],[2,5],[2,10.1],[2,5.1],[3,10],[3,10.1]]}]}";
+			assertResponse(response, 200,
+					"{\"queries\":[" +
+							"{\"sample_size\":10,\"results\":[{\"name\":\"first\"," + result + "," +
+							"{\"sample_size\":10,\"results\":[{\"name\":\"second\"," + result + "]}");
+			assertEquals(3, queuingManager.getAvailableThreads());
+		}
+		finally
+		{
+			resource.setStreamResponse(false);
+		}
+	}
+
+	/**
+	 The metrics are read ahead on the executor while the earlier ones are
+	 written, there are more of them than query permits.
+	 */
+	@Test(timeout = 30000)
+	public void testQueryStreamedMoreMetricsThanPermits() throws IOException
+	{
+		String json = "{\"start_absolute\": 784041330, \"metrics\": [" +
+				"{\"name\": \"first\"}, {\"name\": \"second\"}, {\"name\": \"third\"}, {\"name\": \"fourth\"}]}";
+
+		resource.setStreamResponse(true);
+		try
+		{
+			JsonResponse response = client.post(json, GET_METRIC_URL);
+
+			String result = "\"group_by\":[{\"name\":\"type\",\"type\":\"number\"}],\"tags\":{\"server\":[\"server1\",\"server2\"]}," +
+					"\"values\":[[1,10],[1,10.1],[1,20],[1,20.1],[2,10],[2,5],[2,10.1],[2,5.1],[3,10],[3,10.1]]}]}";
+			assertResponse(response, 200,
+					"{\"queries\":[" +
+							"{\"sample_size\":10,\"results\":[{\"name\":\"first\"," + result + "," +
+							"{\"sample_size\":10,\"results\":[{\"name\":\"second\"," + result + "," +
+							"{\"sample_size\":10,\"results\":[{\"name\":\"third\"," + result + "," +
+							"{\"sample_size\":10,\"results\":[{\"name\":\"fourth\"," + result + "]}");
+			assertEquals(3, queuingManager.getAvailableThreads());
+		}
+		finally
+		{
+			resource.setStreamResponse(false);
+		}
+	}
+
+	@Test
+	public void testQueryLaterMetricFails() throws IOException
+	{
+		Level previousLogLevel = LoggingUtils.setLogLevel(Level.OFF);
+		String json = "{\"start_absolute\": 784041330, \"metrics\": [" +
+				"{\"name\": \"first\"}, {\"name\": \"second\"}]}";
+
+		try
+		{
+			datastore.throwException(new DatastoreException("bogus"), "second");
+
+			JsonResponse response = client.post(json, GET_METRIC_URL);
+
+			assertThat(response.getStatusCode(), equalTo(500));
+			assertThat(response.getJson(), equalTo("{\"errors\":[\"org.kairosdb.core.exception.DatastoreException: bogus\"]}"));
+			assertEquals(3, queuingManager.getAvailableThreads());
+		}
+		finally
+		{
+			datastore.throwException(null);
+			LoggingUtils.setLogLevel(previousLogLevel);
+		}
+	}
+
+	/**
+	 The small response is still buffered when the second metric fails so the
+	 error status can be sent, the permits of both metrics are released.
+	 */
+	@Test
+	public void testQueryStreamedLaterMetricFails() throws IOException
+	{
+		Level previousLogLevel = LoggingUtils.setLogLevel(Level.OFF);
+		String json = "{\"start_absolute\": 784041330, \"metrics\": [" +
+				"{\"name\": \"first\"}, {\"name\": \"second\"}]}";
+
+		resource.setStreamResponse(true);
+		try
+		{
+			datastore.throwException(new DatastoreException("bogus"), "second");
+
+			JsonResponse response = client.post(json, GET_METRIC_URL);
+
+			assertThat(response.getStatusCode(), equalTo(500));
+			assertEquals(3, queuingManager.getAvailableThreads());
+		}
+		finally
+		{
+			datastore.throwException(null);
+			resource.setStreamResponse(false);
+			LoggingUtils.setLogLevel(previousLogLevel);
+		}
+	}
+
+	@Test
+	public void testQueryStreamedFirstMetricFails() throws IOException
+	{
+		Level previousLogLevel = LoggingUtils.setLogLevel(Level.OFF);
+		String json = "{\"start_absolute\": 784041330, \"metrics\": [" +
+				"{\"name\": \"first\"}, {\"name\": \"second\"}]}";
+
+		resource.setStreamResponse(true);
+		try
+		{
+			datastore.throwException(new DatastoreException("bogus"), "first");
+
+			JsonResponse response = client.post(json, GET_METRIC_URL);
+
+			assertThat(response.getStatusCode(), equalTo(500));
+			assertThat(response.getJson(), equalTo("{\"errors\":[\"org.kairosdb.core.exception.DatastoreException: bogus\"]}"));
+			assertEquals(3, queuingManager.getAvailableThreads());
+		}
+		finally
+		{
+			datastore.throwException(null);
+			resource.setStreamResponse(false);
+			LoggingUtils.setLogLevel(previousLogLevel);
+		}
+	}
+
 	@Test
 	public void testQueryWithBeanValidationException() throws IOException
 	{
@@ -160,6 +436,22 @@ public class MetricsResourceTest extends ResourceBase
 		assertResponse(response, 200, "{\"results\":[\"cpu\",\"memory\",\"disk\",\"network\"]}");
 	}
 
+	@Test
+	public void testMetricNames_afterAndLimit() throws IOException
+	{
+		JsonResponse response = client.get(METRIC_NAMES_URL + "?after=disk&limit=1");
+
+		assertResponse(response, 200, "{\"results\":[\"memory\"]}");
+	}
+
+	@Test
+	public void testMetricNames_negativeLimit() throws IOException
+	{
+		JsonResponse response = client.get(METRIC_NAMES_URL + "?limit=-1");
+
+		assertResponse(response, 400, "{\"errors\":[\"limit must be greater than or equal to 0\"]}");
+	}
+
 	/**
 	 Verify that the web server will gzip the response if the Accept-Encoding header is set to "gzip".
 	 */
@@ -305,6 +597,20 @@ public class MetricsResourceTest extends ResourceBase
 		assertResponse(response, 403, "{\"errors\": [\"Forbidden: DELETE API methods are disabled on this KairosDB instance.\"]}");
 	}
 
+	/**
+	 File queue over a mock big array that waits for durability with the
+	 given syncer
+	 */
+	private static QueueProcessor createQueueProcessor(BigArraySyncer bigArraySyncer)
+	{
+		FileQueueProcessor queueProcessor = new FileQueueProcessor(
+				new DataPointEventSerializer(new TestDataPointFactory()), mock(IBigArray.class),
+				mock(ExecutorService.class), 100, 100, -1, 1, 0);
+		queueProcessor.setBigArraySyncer(bigArraySyncer);
+
+		return queueProcessor;
+	}
+
 	private String decompress(byte[] data) throws IOException
 	{
 		GZIPInputStream gzipInputStream = new GZIPInputStream(new ByteArrayInputStream(data));
@@ -159,6 +159,7 @@ public abstract class ResourceBase
     public static class TestDatastore implements Datastore, ServiceKeyStore
     {
         private DatastoreException m_toThrow = null;
+        private String m_throwForMetric = null;
         private Map<String, String> metadata = new TreeMap<>();
 
         TestDatastore()
@@ -166,8 +167,17 @@ public abstract class ResourceBase
         }
 
         void throwException(DatastoreException toThrow)
+        {
+            throwException(toThrow, null);
+        }
+
+        /**
+         Only queries for metricName throw, all queries if metricName is null
+         */
+        void throwException(DatastoreException toThrow, String metricName)
         {
             m_toThrow = toThrow;
+            m_throwForMetric = metricName;
         }
 
         @Override
@@ -196,7 +206,7 @@ public abstract class ResourceBase
         @Override
         public void queryDatabase(DatastoreMetricQuery query, QueryCallback queryCallback) throws DatastoreException
         {
-            if (m_toThrow != null)
+            if (m_toThrow != null && (m_throwForMetric == null || m_throwForMetric.equals(query.getName())))
                 throw m_toThrow;
 
             try
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.kairosdb.core.http.rest.json;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Before;
+import org.junit.Test;
+import org.kairosdb.core.KairosDataPointFactory;
+import org.kairosdb.core.KairosRootConfig;
+import org.kairosdb.core.TestDataPointFactory;
+import org.kairosdb.core.exception.DatastoreException;
+import org.kairosdb.eventbus.EventBusConfiguration;
+import org.kairosdb.eventbus.FilterEventBus;
+import org.kairosdb.eventbus.Publisher;
+import org.kairosdb.eventbus.Subscribe;
+import org.kairosdb.events.DataPointEvent;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class BinaryDataPointsParserTest
+{
+	private static KairosDataPointFactory dataPointFactory = new TestDataPointFactory();
+	private FilterEventBus eventBus;
+	private Publisher<DataPointEvent> publisher;
+	private EventCollector collector;
+
+	@Before
+	public void setup()
+	{
+		eventBus = new FilterEventBus(new EventBusConfiguration(new KairosRootConfig()));
+		publisher = eventBus.createPublisher(DataPointEvent.class);
+		collector = new EventCollector();
+		eventBus.register(collector);
+	}
+
+	private BinaryDataPointsParser createParser(byte[] body)
+	{
+		return new BinaryDataPointsParser(publisher, new ByteArrayInputStream(body), dataPointFactory);
+	}
+
+	@Test
+	public void test_emptyBody_Invalid() throws DatastoreException, IOException
+	{
+		ValidationErrors validationErrors = createParser(new byte[0]).parse();
+
+		assertThat(validationErrors.size(), equalTo(1));
+		assertThat(validationErrors.getFirstError(), equalTo("Invalid binary data points. No content."));
+	}
+
+	@Test
+	public void test_longAndDoubleSeries() throws DatastoreException, IOException
+	{
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		try (BinaryDataPointsWriter writer = new BinaryDataPointsWriter(body))
+		{
+			writer.writeLongSeries("metric1", ImmutableMap.of("host", "a", "dc", "x"), 0,
+					new long[]{1000L, 2000L, 1500L}, new long[]{1L, -2L, Long.MAX_VALUE}, 3);
+			writer.writeDoubleSeries("metric2", ImmutableMap.of("host", "b"), 60,
+					new long[]{5000L}, new double[]{1.5}, 1);
+		}
+
+		BinaryDataPointsParser parser = createParser(body.toByteArray());
+		ValidationErrors validationErrors = parser.parse();
+
+		assertThat(validationErrors.hasErrors(), equalTo(false));
+		assertThat(parser.getDataPointCount(), equalTo(4));
+
+		List<DataPointEvent> events = collector.events;
+		assertThat(events.size(), equalTo(4));
+
+		assertThat(events.get(0).getMetricName(), equalTo("metric1"));
+		assertThat(events.get(0).getTags(), equalTo(ImmutableMap.of("dc", "x", "host", "a")));
+		assertThat(events.get(0).getTtl(), equalTo(0));
+		assertThat(events.get(0).getDataPoint().getTimestamp(), equalTo(1000L));
+		assertThat(events.get(0).getDataPoint().getLongValue(), equalTo(1L));
+		assertThat(events.get(1).getDataPoint().getTimestamp(), equalTo(2000L));
+		assertThat(events.get(1).getDataPoint().getLongValue(), equalTo(-2L));
+		assertThat(events.get(2).getDataPoint().getTimestamp(), equalTo(1500L));
+		assertThat(events.get(2).getDataPoint().getLongValue(), equalTo(Long.MAX_VALUE));
+
+		assertThat(events.get(3).getMetricName(), equalTo("metric2"));
+		assertThat(events.get(3).getTtl(), equalTo(60));
+		assertThat(events.get(3).getDataPoint().getTimestamp(), equalTo(5000L));
+		assertThat(events.get(3).getDataPoint().getDoubleValue(), equalTo(1.5));
+	}
+
+	@Test
+	public void test_invalidSeriesIsSkipped() throws DatastoreException, IOException
+	{
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		try (BinaryDataPointsWriter writer = new BinaryDataPointsWriter(body))
+		{
+			writer.writeLongSeries("metric1", Collections.<String, String>emptyMap(), 0,
+					new long[]{1000L}, new long[]{1L}, 1);
+			writer.writeLongSeries("metric2", ImmutableMap.of("host", ""), 0,
+					new long[]{1000L}, new long[]{1L}, 1);
+			writer.writeLongSeries("metric3", ImmutableMap.of("host", "a"), 0,
+					new long[]{1000L}, new long[]{1L}, 1);
+		}
+
+		BinaryDataPointsParser parser = createParser(body.toByteArray());
+		ValidationErrors validationErrors = parser.parse();
+
+		assertThat(validationErrors.getErrors(), equalTo(Arrays.asList(
+				"series[0](name=metric1).tags count must be greater than or equal to 1.",
+				"series[1](name=metric2).tag[0].value may not be empty.")));
+		assertThat(parser.getDataPointCount(), equalTo(1));
+		assertThat(collector.events.get(0).getMetricName(), equalTo("metric3"));
+	}
+
+	@Test
+	public void test_truncatedBody_Invalid() throws DatastoreException, IOException
+	{
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		try (BinaryDataPointsWriter writer = new BinaryDataPointsWriter(body))
+		{
+			writer.writeDoubleSeries("metric1", ImmutableMap.of("host", "a"), 0,
+					new long[]{1000L, 2000L}, new double[]{1.0, 2.0}, 2);
+		}
+
+		byte[] bytes = body.toByteArray();
+		ValidationErrors validationErrors = createParser(Arrays.copyOf(bytes, bytes.length - 4)).parse();
+
+		assertThat(validationErrors.size(), equalTo(1));
+		assertThat(validationErrors.getFirstError(), equalTo("Invalid binary data points. Unexpected end of input."));
+	}
+
+	@Test
+	public void test_unknownVersion_Invalid() throws DatastoreException, IOException
+	{
+		ValidationErrors validationErrors = createParser(new byte[]{9}).parse();
+
+		assertThat(validationErrors.size(), equalTo(1));
+		assertThat(validationErrors.getFirstError(), equalTo("Invalid binary data points. Unknown version 9."));
+	}
+
+	public static class EventCollector
+	{
+		private final List<DataPointEvent> events = new ArrayList<>();
+
+		@Subscribe
+		public void putDataPoint(DataPointEvent event)
+		{
+			events.add(event);
+		}
+	}
+}
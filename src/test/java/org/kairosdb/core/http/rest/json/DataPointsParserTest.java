@@ -715,6 +715,64 @@ public class DataPointsParserTest
 		assertThat(validationErrors.getErrors().get(0), equalTo("metric[0](name=metric1) value is an invalid type"));
 	}
 
+	@Test
+	public void test_numberValues() throws DatastoreException, IOException
+	{
+		String json = "[{\"name\": \"metric1\", \"tags\":{\"foo\":\"bar\"}, \"datapoints\": " +
+				"[[1, 10], [2, 2.5], [3, 1e3], [\"4\", \"7\"], [5, 6, \"double\"], [6, 7.9, \"long\"]]}]";
+
+		FakeDataStore fakeds = new FakeDataStore();
+		eventBus.register(fakeds);
+		DataPointsParser parser = new DataPointsParser(publisher, new StringReader(json),
+				new Gson(), dataPointFactory);
+
+		ValidationErrors validationErrors = parser.parse();
+
+		assertThat(validationErrors.hasErrors(), equalTo(false));
+		assertThat(parser.getDataPointCount(), equalTo(6));
+
+		List<DataPoint> dataPoints = fakeds.getDataPointSetList().get(0).getDataPoints();
+		assertThat(dataPoints.get(0).getLongValue(), equalTo(10L));
+		assertThat(dataPoints.get(1).getDoubleValue(), equalTo(2.5));
+		assertThat(dataPoints.get(2).getLongValue(), equalTo(1000L));
+		assertThat(dataPoints.get(3).getTimestamp(), equalTo(4L));
+		assertThat(dataPoints.get(3).getLongValue(), equalTo(7L));
+		assertThat(dataPoints.get(4).isDouble(), equalTo(true));
+		assertThat(dataPoints.get(4).getDoubleValue(), equalTo(6.0));
+		assertThat(dataPoints.get(5).isLong(), equalTo(true));
+		assertThat(dataPoints.get(5).getLongValue(), equalTo(7L));
+	}
+
+	@Test
+	public void test_tagsAfterDataPoints() throws DatastoreException, IOException
+	{
+		String json = "[{\"datapoints\": [[1, 2]], \"skip_validate\": false, \"unknown\": {\"a\": [1]}, " +
+				"\"tags\":{\"foo\":\"bar\"}, \"name\": \"metric1\", \"ttl\": 30}]";
+
+		FakeDataStore fakeds = new FakeDataStore();
+		eventBus.register(fakeds);
+		DataPointsParser parser = new DataPointsParser(publisher, new StringReader(json),
+				new Gson(), dataPointFactory);
+
+		ValidationErrors validationErrors = parser.parse();
+
+		assertThat(validationErrors.hasErrors(), equalTo(false));
+		assertThat(fakeds.getDataPointSetList().get(0).getName(), equalTo("metric1"));
+		assertThat(fakeds.getDataPointSetList().get(0).getTags().get("foo"), equalTo("bar"));
+		assertThat(fakeds.getDataPointSetList().get(0).getDataPoints().get(0).getLongValue(), equalTo(2L));
+	}
+
+	@Test(expected = JsonSyntaxException.class)
+	public void test_duplicateTag_invalid() throws DatastoreException, IOException
+	{
+		String json = "[{\"name\": \"metric1\", \"tags\":{\"foo\":\"bar\", \"foo\":\"baz\"}, \"datapoints\": [[1, 2]]}]";
+
+		DataPointsParser parser = new DataPointsParser(publisher, new StringReader(json),
+				new Gson(), dataPointFactory);
+
+		parser.parse();
+	}
+
 	@Test
 	public void test_parserSpeed() throws DatastoreException, IOException
 	{
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.core.lineprotocol;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Before;
+import org.junit.Test;
+import org.kairosdb.core.SeriesRegistry;
+import org.kairosdb.core.datapoints.DoubleDataPoint;
+import org.kairosdb.core.datapoints.DoubleDataPointFactoryImpl;
+import org.kairosdb.core.datapoints.LongDataPoint;
+import org.kairosdb.core.datapoints.LongDataPointFactoryImpl;
+import org.kairosdb.events.DataPointEvent;
+import org.kairosdb.util.ValidationException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class GraphiteLineParserTest
+{
+	private GraphiteLineParser m_parser;
+	private List<DataPointEvent> m_events;
+
+	@Before
+	public void setup()
+	{
+		m_parser = new GraphiteLineParser(new LongDataPointFactoryImpl(), new DoubleDataPointFactoryImpl(),
+				new SeriesRegistry());
+		m_events = new ArrayList<>();
+	}
+
+	@Test
+	public void test_plain() throws ValidationException
+	{
+		m_parser.parseLine("servers.a.cpu 42 1465839830", m_events);
+
+		assertThat(m_events.size(), equalTo(1));
+		assertThat(m_events.get(0).getMetricName(), equalTo("servers.a.cpu"));
+		assertThat(m_events.get(0).getTags(), equalTo(ImmutableMap.of("add", "tag")));
+		assertThat(m_events.get(0).getDataPoint(), equalTo((Object) new LongDataPoint(1465839830000L, 42)));
+	}
+
+	@Test
+	public void test_taggedDouble() throws ValidationException
+	{
+		m_parser.parseLine("cpu;host=a;dc=x 0.5 1465839830", m_events);
+
+		assertThat(m_events.get(0).getMetricName(), equalTo("cpu"));
+		assertThat(m_events.get(0).getTags(), equalTo(ImmutableMap.of("dc", "x", "host", "a")));
+		assertThat(m_events.get(0).getDataPoint(), equalTo((Object) new DoubleDataPoint(1465839830000L, 0.5)));
+	}
+
+	@Test
+	public void test_noTimestamp() throws ValidationException
+	{
+		long before = System.currentTimeMillis();
+		m_parser.parseLine("cpu 1 -1", m_events);
+
+		assertThat(m_events.get(0).getDataPoint().getTimestamp() >= before, equalTo(true));
+	}
+
+	@Test(expected = ValidationException.class)
+	public void test_badTag_invalid() throws ValidationException
+	{
+		m_parser.parseLine("cpu;host 1 1465839830", m_events);
+	}
+
+	@Test(expected = ValidationException.class)
+	public void test_badValue_invalid() throws ValidationException
+	{
+		m_parser.parseLine("cpu abc 1465839830", m_events);
+	}
+}
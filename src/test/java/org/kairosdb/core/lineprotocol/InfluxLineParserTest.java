@@ -0,0 +1,115 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.core.lineprotocol;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Before;
+import org.junit.Test;
+import org.kairosdb.core.SeriesRegistry;
+import org.kairosdb.core.datapoints.DoubleDataPoint;
+import org.kairosdb.core.datapoints.DoubleDataPointFactoryImpl;
+import org.kairosdb.core.datapoints.LongDataPoint;
+import org.kairosdb.core.datapoints.LongDataPointFactoryImpl;
+import org.kairosdb.core.datapoints.StringDataPoint;
+import org.kairosdb.core.datapoints.StringDataPointFactory;
+import org.kairosdb.events.DataPointEvent;
+import org.kairosdb.util.ValidationException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class InfluxLineParserTest
+{
+	private InfluxLineParser m_parser;
+	private List<DataPointEvent> m_events;
+
+	@Before
+	public void setup()
+	{
+		m_parser = new InfluxLineParser(new LongDataPointFactoryImpl(), new DoubleDataPointFactoryImpl(),
+				new StringDataPointFactory(), new SeriesRegistry());
+		m_events = new ArrayList<>();
+	}
+
+	@Test
+	public void test_accepts()
+	{
+		assertThat(m_parser.accepts("cpu,host=a value=1 1465839830100400200"), equalTo(true));
+		assertThat(m_parser.accepts("cpu value=1"), equalTo(true));
+		assertThat(m_parser.accepts("servers.a.cpu 1 1465839830"), equalTo(false));
+		assertThat(m_parser.accepts("servers.a.cpu;host=a 1 1465839830"), equalTo(false));
+		assertThat(m_parser.accepts("put cpu 1465839830 1 host=a"), equalTo(false));
+	}
+
+	@Test
+	public void test_fields() throws ValidationException
+	{
+		m_parser.parseLine("cpu,host=a,dc=x usage=1.5,count=3i,up=t,name=\"a \\\"b\\\"\" 1465839830100400200", m_events);
+
+		assertThat(m_events.size(), equalTo(4));
+		assertThat(m_events.get(0).getMetricName(), equalTo("cpu.usage"));
+		assertThat(m_events.get(0).getTags(), equalTo(ImmutableMap.of("dc", "x", "host", "a")));
+		assertThat(m_events.get(0).getDataPoint(), equalTo((Object) new DoubleDataPoint(1465839830100L, 1.5)));
+		assertThat(m_events.get(1).getMetricName(), equalTo("cpu.count"));
+		assertThat(m_events.get(1).getDataPoint(), equalTo((Object) new LongDataPoint(1465839830100L, 3)));
+		assertThat(m_events.get(2).getDataPoint(), equalTo((Object) new LongDataPoint(1465839830100L, 1)));
+		assertThat(((StringDataPoint) m_events.get(3).getDataPoint()).getValue(), equalTo("a \"b\""));
+	}
+
+	@Test
+	public void test_escapes() throws ValidationException
+	{
+		m_parser.parseLine("disk\\ io,path=C:\\\\,name=a\\,b\\ c value=2i 1000000", m_events);
+
+		assertThat(m_events.size(), equalTo(1));
+		assertThat(m_events.get(0).getMetricName(), equalTo("disk io.value"));
+		assertThat(m_events.get(0).getTags(), equalTo(ImmutableMap.of("name", "a,b c", "path", "C:\\")));
+		assertThat(m_events.get(0).getDataPoint().getTimestamp(), equalTo(1L));
+	}
+
+	@Test
+	public void test_noTags() throws ValidationException
+	{
+		m_parser.parseLine("cpu value=1", m_events);
+
+		assertThat(m_events.get(0).getTags(), equalTo(ImmutableMap.of("add", "tag")));
+	}
+
+	@Test
+	public void test_precision() throws ValidationException
+	{
+		m_parser.setPrecision("s");
+		m_parser.parseLine("cpu,host=a value=1 1465839830", m_events);
+
+		assertThat(m_events.get(0).getDataPoint().getTimestamp(), equalTo(1465839830000L));
+	}
+
+	@Test(expected = ValidationException.class)
+	public void test_missingFields_invalid() throws ValidationException
+	{
+		m_parser.parseLine("cpu,host=a", m_events);
+	}
+
+	@Test(expected = ValidationException.class)
+	public void test_badValue_invalid() throws ValidationException
+	{
+		m_parser.parseLine("cpu,host=a value=abc", m_events);
+	}
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.core.lineprotocol;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.kairosdb.core.SeriesRegistry;
+import org.kairosdb.core.datapoints.DoubleDataPointFactoryImpl;
+import org.kairosdb.core.datapoints.LongDataPointFactoryImpl;
+import org.kairosdb.core.datapoints.StringDataPointFactory;
+import org.kairosdb.core.exception.KairosDBException;
+import org.kairosdb.core.telnet.PutCommand;
+import org.kairosdb.core.telnet.PutMillisecondCommand;
+import org.kairosdb.core.telnet.PutStringCommand;
+import org.kairosdb.core.telnet.TelnetClient;
+import org.kairosdb.eventbus.FilterEventBus;
+import org.kairosdb.eventbus.Publisher;
+import org.kairosdb.events.DataPointEvent;
+import org.kairosdb.testing.TestUtil;
+import org.mockito.ArgumentCaptor;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.*;
+
+public class LineProtocolServerTest
+{
+	private Publisher<DataPointEvent> m_publisher;
+	private LineProtocolServer m_server;
+	private TelnetClient m_client;
+
+	@SuppressWarnings("unchecked")
+	@Before
+	public void setup() throws KairosDBException, IOException
+	{
+		int port = TestUtil.findFreePort();
+		FilterEventBus eventBus = mock(FilterEventBus.class);
+		m_publisher = mock(Publisher.class);
+		when(eventBus.createPublisher(DataPointEvent.class)).thenReturn(m_publisher);
+
+		LongDataPointFactoryImpl longFactory = new LongDataPointFactoryImpl();
+		DoubleDataPointFactoryImpl doubleFactory = new DoubleDataPointFactoryImpl();
+		StringDataPointFactory stringFactory = new StringDataPointFactory();
+		SeriesRegistry seriesRegistry = new SeriesRegistry();
+
+		OpenTsdbLineParser openTsdbParser = new OpenTsdbLineParser(
+				new PutCommand(eventBus, "localhost", longFactory, doubleFactory),
+				new PutMillisecondCommand(eventBus, "localhost", longFactory, doubleFactory),
+				new PutStringCommand(eventBus, "localhost", longFactory, doubleFactory, stringFactory));
+
+		m_server = new LineProtocolServer("127.0.0.1", port, 1024, eventBus, Arrays.asList(openTsdbParser,
+				new InfluxLineParser(longFactory, doubleFactory, stringFactory, seriesRegistry),
+				new GraphiteLineParser(longFactory, doubleFactory, seriesRegistry)));
+		m_server.start();
+
+		m_client = new TelnetClient("127.0.0.1", port);
+	}
+
+	@After
+	public void shutdown() throws IOException
+	{
+		m_client.close();
+		m_server.stop();
+	}
+
+	@Test
+	public void test_allProtocols()
+	{
+		m_client.sendText("put opentsdb.metric 1465839830 1 host=a\n" +
+				"influx,host=a value=2i 1465839830000000000\n" +
+				"graphite.metric 3 1465839830");
+
+		ArgumentCaptor<DataPointEvent> events = ArgumentCaptor.forClass(DataPointEvent.class);
+		verify(m_publisher, timeout(5000).times(3)).post(events.capture());
+
+		List<DataPointEvent> values = events.getAllValues();
+		assertThat(values.get(0).getMetricName(), equalTo("opentsdb.metric"));
+		assertThat(values.get(1).getMetricName(), equalTo("influx.value"));
+		assertThat(values.get(2).getMetricName(), equalTo("graphite.metric"));
+		for (int i = 0; i < 3; i++)
+		{
+			assertThat(values.get(i).getDataPoint().getTimestamp(), equalTo(1465839830000L));
+			assertThat(values.get(i).getDataPoint().getLongValue(), equalTo(i + 1L));
+		}
+	}
+
+	@Test
+	public void test_badLineSkipped()
+	{
+		m_client.sendText("graphite.metric abc 1465839830\n" +
+				"graphite.metric 3 1465839830");
+
+		ArgumentCaptor<DataPointEvent> events = ArgumentCaptor.forClass(DataPointEvent.class);
+		verify(m_publisher, timeout(5000).times(1)).post(events.capture());
+
+		assertThat(events.getValue().getDataPoint().getLongValue(), equalTo(3L));
+	}
+}
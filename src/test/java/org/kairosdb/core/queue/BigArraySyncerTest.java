@@ -0,0 +1,80 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.core.queue;
+
+import org.junit.Test;
+import org.kairosdb.bigqueue.IBigArray;
+import org.kairosdb.core.exception.DatastoreException;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class BigArraySyncerTest
+{
+	@Test
+	public void test_noneDoesNotFlush() throws DatastoreException
+	{
+		IBigArray bigArray = mock(IBigArray.class);
+		when(bigArray.getHeadIndex()).thenReturn(0L, 5L);
+
+		BigArraySyncer syncer = BigArraySyncer.create(bigArray, "none", 1000, 5);
+		syncer.appended();
+		syncer.waitForDurable();
+		syncer.shutdown();
+
+		verify(bigArray, never()).flush();
+	}
+
+	@Test(timeout = 10000)
+	public void test_groupCommitFlushesBeforeAck() throws DatastoreException
+	{
+		IBigArray bigArray = mock(IBigArray.class);
+		when(bigArray.getHeadIndex()).thenReturn(0L);
+
+		BigArraySyncer syncer = BigArraySyncer.create(bigArray, "group_commit", 1000, 5);
+		assertThat(syncer.getDurability(), equalTo(BigArraySyncer.Durability.GROUP_COMMIT));
+
+		when(bigArray.getHeadIndex()).thenReturn(3L);
+		syncer.appended();
+		syncer.waitForDurable();
+
+		verify(bigArray, atLeastOnce()).flush();
+
+		syncer.shutdown();
+	}
+
+	@Test(timeout = 10000)
+	public void test_intervalFlushesBeforeAck() throws DatastoreException
+	{
+		IBigArray bigArray = mock(IBigArray.class);
+		when(bigArray.getHeadIndex()).thenReturn(0L);
+
+		BigArraySyncer syncer = BigArraySyncer.create(bigArray, "interval", 10, 5);
+
+		when(bigArray.getHeadIndex()).thenReturn(2L);
+		syncer.waitForDurable();
+
+		verify(bigArray, atLeastOnce()).flush();
+
+		syncer.shutdown();
+	}
+}
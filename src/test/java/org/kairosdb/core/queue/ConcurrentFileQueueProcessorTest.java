@@ -0,0 +1,326 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.core.queue;
+
+import com.google.common.collect.ImmutableSortedMap;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.kairosdb.bigqueue.BigArrayImpl;
+import org.kairosdb.bigqueue.IBigArray;
+import org.kairosdb.core.TestDataPointFactory;
+import org.kairosdb.core.datapoints.LongDataPointFactory;
+import org.kairosdb.core.datapoints.LongDataPointFactoryImpl;
+import org.kairosdb.core.exception.DatastoreException;
+import org.kairosdb.events.DataPointEvent;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyLong;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ConcurrentFileQueueProcessorTest
+{
+	private final LongDataPointFactory m_longDataPointFactory = new LongDataPointFactoryImpl();
+	private final DataPointEventSerializer m_serializer = new DataPointEventSerializer(new TestDataPointFactory());
+
+	private QueueProcessor.DeliveryThread m_deliveryThread;
+	private File m_tempDir;
+
+	private class TestExecutor extends AbstractExecutorService
+	{
+		@Override
+		public void execute(Runnable command)
+		{
+			m_deliveryThread = (QueueProcessor.DeliveryThread)command;
+		}
+
+		@Override
+		public void shutdown()
+		{
+		}
+
+		@Override
+		public List<Runnable> shutdownNow()
+		{
+			return Collections.emptyList();
+		}
+
+		@Override
+		public boolean isShutdown()
+		{
+			return false;
+		}
+
+		@Override
+		public boolean isTerminated()
+		{
+			return false;
+		}
+
+		@Override
+		public boolean awaitTermination(long timeout, TimeUnit unit)
+		{
+			return false;
+		}
+	}
+
+	/**
+	 Collects the delivered events and completes each batch
+	 */
+	private static class CollectingHandler implements ProcessorHandler
+	{
+		private final List<DataPointEvent> m_events = new ArrayList<>();
+
+		@Override
+		public void handleEvents(List<DataPointEvent> events, EventCompletionCallBack eventCompletionCallBack, boolean fullBatch)
+		{
+			m_events.addAll(events);
+			eventCompletionCallBack.complete();
+		}
+	}
+
+	@Before
+	public void setup() throws IOException
+	{
+		m_deliveryThread = null;
+		m_tempDir = Files.createTempDirectory("kairos").toFile();
+	}
+
+	@After
+	public void tearDown() throws IOException
+	{
+		FileUtils.deleteDirectory(m_tempDir);
+	}
+
+	private IBigArray createBigArray() throws IOException
+	{
+		return new BigArrayImpl(m_tempDir.getAbsolutePath(), "kairos_queue", 32 * 1024 * 1024);
+	}
+
+	private DataPointEvent createDataPointEvent(long value)
+	{
+		ImmutableSortedMap<String, String> tags =
+				ImmutableSortedMap.<String, String>naturalOrder()
+						.put("tag1", "val1")
+						.put("tag2", "val2").build();
+
+		return new DataPointEvent("new_metric", tags, m_longDataPointFactory.createDataPoint(123L, value), 500);
+	}
+
+	private void runDeliveryThread()
+	{
+		m_deliveryThread.setRunOnce(true);
+		m_deliveryThread.setRunning(true);
+		m_deliveryThread.run();
+	}
+
+	@Test
+	public void test_eventIsPulledFromMemoryQueue() throws DatastoreException, IOException
+	{
+		IBigArray bigArray = mock(IBigArray.class);
+
+		when(bigArray.append(any())).thenReturn(0L);
+		when(bigArray.getTailIndex()).thenReturn(0L);
+		when(bigArray.getHeadIndex()).thenReturn(0L);
+
+		ProcessorHandler processorHandler = mock(ProcessorHandler.class);
+
+		QueueProcessor queueProcessor = new ConcurrentFileQueueProcessor(m_serializer,
+				bigArray, new TestExecutor(), 2, 10, 500, 1, 500);
+
+		queueProcessor.setProcessorHandler(processorHandler);
+
+		DataPointEvent event = createDataPointEvent(43);
+		queueProcessor.put(event);
+
+		runDeliveryThread();
+
+		verify(bigArray, times(1)).append(eq(m_serializer.newRecordWriter().encode(event, 0L)));
+		verify(processorHandler, times(1)).handleEvents(eq(Arrays.asList(event)), any(), eq(false));
+		verify(bigArray, times(0)).get(anyLong());
+	}
+
+	@Test
+	public void test_eventIsPulledFromMemoryQueueThenBigArray() throws DatastoreException, IOException
+	{
+		IBigArray bigArray = createBigArray();
+		CollectingHandler handler = new CollectingHandler();
+
+		ConcurrentFileQueueProcessor queueProcessor = new ConcurrentFileQueueProcessor(m_serializer,
+				bigArray, new TestExecutor(), 10, 1, 500, 1, 500);
+
+		queueProcessor.setProcessorHandler(handler);
+
+		List<DataPointEvent> events = new ArrayList<>();
+		for (int i = 0; i < 3; i++)
+		{
+			DataPointEvent event = createDataPointEvent(i);
+			events.add(event);
+			queueProcessor.put(event);
+		}
+
+		assertThat(queueProcessor.getAvailableDataPointEvents(), equalTo(3));
+
+		//Later records in the page refer to the strings defined by the first
+		QueueRecordWriter recordWriter = m_serializer.newRecordWriter();
+		for (int i = 0; i < events.size(); i++)
+			assertThat(bigArray.get(i), equalTo(recordWriter.encode(events.get(i), i)));
+
+		runDeliveryThread();
+
+		assertThat(handler.m_events, equalTo(events));
+		assertThat(queueProcessor.getAvailableDataPointEvents(), equalTo(0));
+
+		queueProcessor.shutdown();
+	}
+
+	@Test
+	public void test_unreadEventsAreDeliveredAfterRestart() throws DatastoreException, IOException
+	{
+		IBigArray bigArray = createBigArray();
+		ConcurrentFileQueueProcessor queueProcessor = new ConcurrentFileQueueProcessor(m_serializer,
+				bigArray, new TestExecutor(), 10, 10, 500, 1, 500);
+
+		DataPointEvent event = createDataPointEvent(42);
+		queueProcessor.put(event);
+		queueProcessor.shutdown();
+
+		CollectingHandler handler = new CollectingHandler();
+		queueProcessor = new ConcurrentFileQueueProcessor(m_serializer,
+				createBigArray(), new TestExecutor(), 10, 10, 500, 1, 500);
+		queueProcessor.setProcessorHandler(handler);
+
+		runDeliveryThread();
+
+		assertThat(handler.m_events, equalTo(Collections.singletonList(event)));
+
+		queueProcessor.shutdown();
+	}
+
+	@Test
+	public void test_checkPointIsCalled() throws DatastoreException, IOException
+	{
+		IBigArray bigArray = mock(IBigArray.class);
+
+		when(bigArray.append(any())).thenReturn(0L, 1L);
+		when(bigArray.getTailIndex()).thenReturn(0L);
+		when(bigArray.getHeadIndex()).thenReturn(0L);
+
+		QueueProcessor queueProcessor = new ConcurrentFileQueueProcessor(m_serializer,
+				bigArray, new TestExecutor(), 3, 2, -1, 1, 500);
+
+		queueProcessor.setProcessorHandler(new CollectingHandler());
+
+		DataPointEvent event = createDataPointEvent(43);
+		queueProcessor.put(event);
+		queueProcessor.put(event);
+
+		runDeliveryThread();
+
+		//Both records are encoded in the same dictionary page, only the first defines the strings
+		QueueRecordWriter recordWriter = m_serializer.newRecordWriter();
+		byte[] firstRecord = recordWriter.encode(event, 0L);
+		byte[] secondRecord = recordWriter.encode(event, 0L);
+		verify(bigArray, times(1)).append(eq(firstRecord));
+		verify(bigArray, times(1)).append(eq(secondRecord));
+		verify(bigArray, times(1)).removeBeforeIndex(eq(0L));
+	}
+
+	@Test
+	public void test_concurrentPuts() throws Exception
+	{
+		final int threads = 8;
+		final int eventsPerThread = 500;
+
+		IBigArray bigArray = createBigArray();
+		CollectingHandler handler = new CollectingHandler();
+
+		final ConcurrentFileQueueProcessor queueProcessor = new ConcurrentFileQueueProcessor(m_serializer,
+				bigArray, new TestExecutor(), 1000, 100, 500, 1, 0);
+
+		queueProcessor.setProcessorHandler(handler);
+
+		ExecutorService producers = Executors.newFixedThreadPool(threads);
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Future<?>> futures = new ArrayList<>();
+		for (int t = 0; t < threads; t++)
+		{
+			final int thread = t;
+			futures.add(producers.submit(() ->
+			{
+				start.await();
+				for (int i = 0; i < eventsPerThread; i++)
+					queueProcessor.put(createDataPointEvent(thread * eventsPerThread + i));
+
+				return null;
+			}));
+		}
+
+		start.countDown();
+		for (Future<?> future : futures)
+			future.get(30, TimeUnit.SECONDS);
+		producers.shutdown();
+
+		assertThat(bigArray.getHeadIndex(), equalTo((long) threads * eventsPerThread));
+
+		while (queueProcessor.getAvailableDataPointEvents() != 0)
+			runDeliveryThread();
+
+		Set<Long> values = new HashSet<>();
+		for (DataPointEvent event : handler.m_events)
+			values.add(event.getDataPoint().getLongValue());
+
+		assertThat(handler.m_events.size(), equalTo(threads * eventsPerThread));
+		assertThat(values.size(), equalTo(threads * eventsPerThread));
+
+		queueProcessor.shutdown();
+	}
+
+	@Test(expected = DatastoreException.class)
+	public void test_putAfterShutdown() throws DatastoreException, IOException
+	{
+		QueueProcessor queueProcessor = new ConcurrentFileQueueProcessor(m_serializer,
+				createBigArray(), new TestExecutor(), 10, 10, 500, 1, 500);
+
+		queueProcessor.shutdown();
+
+		queueProcessor.put(createDataPointEvent(1));
+	}
+}
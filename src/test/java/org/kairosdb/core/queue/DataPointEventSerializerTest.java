@@ -2,6 +2,7 @@ package org.kairosdb.core.queue;
 
 import com.google.common.collect.ImmutableSortedMap;
 import org.junit.Test;
+import org.kairosdb.bigqueue.IBigArray;
 import org.kairosdb.core.DataPoint;
 import org.kairosdb.core.KairosDataPointFactory;
 import org.kairosdb.core.TestDataPointFactory;
@@ -9,8 +10,13 @@ import org.kairosdb.core.datapoints.LongDataPointFactory;
 import org.kairosdb.core.datapoints.LongDataPointFactoryImpl;
 import org.kairosdb.events.DataPointEvent;
 
+import java.io.IOException;
+
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThan;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 /**
  Created by bhawkins on 10/25/16.
@@ -19,6 +25,16 @@ public class DataPointEventSerializerTest
 {
 	private LongDataPointFactory m_longDataPointFactory = new LongDataPointFactoryImpl();
 
+	private DataPointEvent createDataPointEvent(long value)
+	{
+		ImmutableSortedMap<String, String> tags =
+				ImmutableSortedMap.<String, String>naturalOrder()
+						.put("host", "server1")
+						.put("customer", "acme").build();
+
+		return new DataPointEvent("new_metric", tags, m_longDataPointFactory.createDataPoint(123L + value, value), 500);
+	}
+
 	@Test
 	public void test_serializeDeserialize()
 	{
@@ -40,4 +56,60 @@ public class DataPointEventSerializerTest
 
 		assertThat(original, equalTo(processedEvent));
 	}
+
+	@Test
+	public void test_recordReadOutOfOrder() throws IOException
+	{
+		DataPointEventSerializer serializer = new DataPointEventSerializer(new TestDataPointFactory());
+		QueueRecordWriter writer = serializer.newRecordWriter();
+		IBigArray bigArray = mock(IBigArray.class);
+
+		for (int i = 0; i < 3; i++)
+			when(bigArray.get(i)).thenReturn(writer.encode(createDataPointEvent(i), i));
+
+		QueueRecordReader reader = serializer.newRecordReader(bigArray);
+
+		//Reading the last record first has to pick up strings defined by the others
+		assertThat(reader.read(2), equalTo(createDataPointEvent(2)));
+		assertThat(reader.read(0), equalTo(createDataPointEvent(0)));
+		assertThat(reader.read(1), equalTo(createDataPointEvent(1)));
+	}
+
+	@Test
+	public void test_repeatedStringsAreWrittenOncePerPage() throws IOException
+	{
+		DataPointEventSerializer serializer = new DataPointEventSerializer(new TestDataPointFactory());
+		QueueRecordWriter writer = serializer.newRecordWriter();
+
+		byte[] first = writer.encode(createDataPointEvent(1), 0);
+		byte[] second = writer.encode(createDataPointEvent(2), 1);
+		byte[] nextPage = writer.encode(createDataPointEvent(3), QueueRecordWriter.DICTIONARY_PAGE_SIZE);
+
+		assertThat(first.length, lessThan(serializer.serializeEvent(createDataPointEvent(1)).length));
+		assertThat(second.length, lessThan(first.length));
+		assertThat(nextPage.length, equalTo(first.length));
+
+		IBigArray bigArray = mock(IBigArray.class);
+		when(bigArray.get(QueueRecordWriter.DICTIONARY_PAGE_SIZE)).thenReturn(nextPage);
+
+		QueueRecordReader reader = serializer.newRecordReader(bigArray);
+		assertThat(reader.read(QueueRecordWriter.DICTIONARY_PAGE_SIZE), equalTo(createDataPointEvent(3)));
+	}
+
+	@Test
+	public void test_readOldFormat() throws IOException
+	{
+		DataPointEventSerializer serializer = new DataPointEventSerializer(new TestDataPointFactory());
+		QueueRecordWriter writer = serializer.newRecordWriter();
+		IBigArray bigArray = mock(IBigArray.class);
+
+		//Old records left in the queue followed by new ones after an upgrade
+		when(bigArray.get(0)).thenReturn(serializer.serializeEvent(createDataPointEvent(0)));
+		when(bigArray.get(1)).thenReturn(writer.encode(createDataPointEvent(1), 1));
+
+		QueueRecordReader reader = serializer.newRecordReader(bigArray);
+
+		assertThat(reader.read(0), equalTo(createDataPointEvent(0)));
+		assertThat(reader.read(1), equalTo(createDataPointEvent(1)));
+	}
 }
@@ -17,6 +17,7 @@ import org.kairosdb.bigqueue.IBigArray;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
@@ -27,6 +28,8 @@ import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.anyLong;
 import static org.mockito.Mockito.eq;
@@ -168,6 +171,11 @@ public class QueueProcessorTest
 	}
 
 	private DataPointEvent createDataPointEvent()
+	{
+		return createDataPointEvent(43);
+	}
+
+	private DataPointEvent createDataPointEvent(long value)
 	{
 		ImmutableSortedMap<String, String> tags =
 				ImmutableSortedMap.<String, String>naturalOrder()
@@ -175,7 +183,7 @@ public class QueueProcessorTest
 						.put("tag2", "val2")
 						.put("tag3", "val3").build();
 
-		DataPoint dataPoint = m_longDataPointFactory.createDataPoint(123L, 43);
+		DataPoint dataPoint = m_longDataPointFactory.createDataPoint(123L, value);
 		DataPointEvent event = new DataPointEvent("new_metric", tags, dataPoint, 500);
 
 		return event;
@@ -206,7 +214,7 @@ public class QueueProcessorTest
 		m_deliveryThread.setRunOnce(true);
 		m_deliveryThread.run();
 
-		verify(bigArray, times(1)).append(eq(serializer.serializeEvent(event)));
+		verify(bigArray, times(1)).append(eq(serializer.newRecordWriter().encode(event, 1L)));
 		verify(processorHandler, times(1)).handleEvents(eq(Arrays.asList(event)), any(), eq(false));
 		verify(bigArray, times(0)).get(anyLong());
 	}
@@ -216,6 +224,55 @@ public class QueueProcessorTest
 	{
 		IBigArray bigArray = mock(IBigArray.class);
 
+		//Serve back whatever was appended
+		List<byte[]> records = new ArrayList<>();
+		when(bigArray.append(any())).thenAnswer(invocation ->
+		{
+			records.add(invocation.getArgument(0));
+			return (long) (records.size() - 1);
+		});
+		when(bigArray.getHeadIndex()).thenAnswer(invocation -> (long) records.size());
+		when(bigArray.get(anyLong())).thenAnswer(invocation ->
+				records.get(((Long) invocation.getArgument(0)).intValue()));
+
+		DataPointEventSerializer serializer = new DataPointEventSerializer(new TestDataPointFactory());
+		ProcessorHandler processorHandler = mock(ProcessorHandler.class);
+
+		QueueProcessor queueProcessor = new FileQueueProcessor(serializer,
+				bigArray, new TestExecutor(), 4, 1, 500, 1, 500);
+
+		queueProcessor.setProcessorHandler(processorHandler);
+
+		DataPointEvent event1 = createDataPointEvent(41);
+		DataPointEvent event2 = createDataPointEvent(42);
+		DataPointEvent event3 = createDataPointEvent(43);
+		queueProcessor.put(event1);
+		queueProcessor.put(event2);
+		queueProcessor.put(event3);
+
+		//The second record refers to the strings defined by the first
+		QueueRecordWriter recordWriter = serializer.newRecordWriter();
+		assertThat(records.get(0), equalTo(recordWriter.encode(event1, 0L)));
+		assertThat(records.get(1), equalTo(recordWriter.encode(event2, 1L)));
+		assertThat(records.get(2), equalTo(recordWriter.encode(event3, 2L)));
+
+		m_deliveryThread.setRunOnce(true);
+		m_deliveryThread.run();
+
+		//First two events are decoded from the big array, the last is still in memory
+		verify(processorHandler, times(1)).handleEvents(eq(Arrays.asList(event1, event2, event3)), any(), eq(false));
+		verify(bigArray, times(2)).get(anyLong());
+	}
+
+	/**
+	 Events written by versions before the record dictionary are still read
+	 after an upgrade
+	 */
+	@Test
+	public void test_legacyEventIsPulledFromBigArray() throws DatastoreException, IOException
+	{
+		IBigArray bigArray = mock(IBigArray.class);
+
 		when(bigArray.append(any())).thenReturn(0L);
 		when(bigArray.getHeadIndex()).thenReturn(2L);
 
@@ -239,7 +296,12 @@ public class QueueProcessorTest
 		m_deliveryThread.setRunOnce(true);
 		m_deliveryThread.run();
 
-		verify(bigArray, times(2)).append(eq(serializer.serializeEvent(event)));
+		//Both records are encoded in the same dictionary page, only the first defines the strings
+		QueueRecordWriter recordWriter = serializer.newRecordWriter();
+		byte[] firstRecord = recordWriter.encode(event, 2L);
+		byte[] secondRecord = recordWriter.encode(event, 2L);
+		verify(bigArray, times(1)).append(eq(firstRecord));
+		verify(bigArray, times(1)).append(eq(secondRecord));
 		verify(processorHandler, times(1)).handleEvents(eq(Arrays.asList(event, event)), any(), eq(false));
 		verify(bigArray, times(1)).get(anyLong());
 	}
@@ -280,8 +342,13 @@ public class QueueProcessorTest
 		m_deliveryThread.setRunOnce(true);
 		m_deliveryThread.run();
 
-		verify(bigArray, times(2)).append(eq(serializer.serializeEvent(event)));
+		//Both records are encoded in the same dictionary page, only the first defines the strings
+		QueueRecordWriter recordWriter = serializer.newRecordWriter();
+		byte[] firstRecord = recordWriter.encode(event, 2L);
+		byte[] secondRecord = recordWriter.encode(event, 2L);
+		verify(bigArray, times(1)).append(eq(firstRecord));
+		verify(bigArray, times(1)).append(eq(secondRecord));
 		//verify(bigArray, times(1)).get(anyLong()); //Item taken from memory
-		verify(bigArray, times(1)).removeBeforeIndex(eq(1l));
+		verify(bigArray, times(1)).removeBeforeIndex(eq(0L));
 	}
 }
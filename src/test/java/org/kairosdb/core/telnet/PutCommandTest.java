@@ -166,6 +166,17 @@ public class PutCommandTest
 		}
 	}
 
+	@Test
+	public void test_splitTag()
+	{
+		assertThat(Arrays.asList(PutMillisecondCommand.splitTag("foo=bar")), equalTo(Arrays.asList("foo", "bar")));
+		assertThat(Arrays.asList(PutMillisecondCommand.splitTag("foo=bar=baz")), equalTo(Arrays.asList("foo", "bar")));
+		assertThat(Arrays.asList(PutMillisecondCommand.splitTag("foo==bar")), equalTo(Arrays.asList("foo", "")));
+		assertThat(Arrays.asList(PutMillisecondCommand.splitTag("=bar")), equalTo(Arrays.asList("", "bar")));
+		assertThat(Arrays.asList(PutMillisecondCommand.splitTag("foo==")), equalTo(Arrays.asList("foo")));
+		assertThat(Arrays.asList(PutMillisecondCommand.splitTag("foo")), equalTo(Arrays.asList("foo")));
+	}
+
 	public static class FakeChannel implements Channel
 	{
 		@Override
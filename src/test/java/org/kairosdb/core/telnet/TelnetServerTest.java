@@ -17,6 +17,9 @@
 package org.kairosdb.core.telnet;
 
 import com.google.common.collect.ImmutableSortedMap;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.MessageEvent;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -26,14 +29,18 @@ import org.kairosdb.core.datapoints.LongDataPoint;
 import org.kairosdb.core.datapoints.LongDataPointFactoryImpl;
 import org.kairosdb.core.exception.DatastoreException;
 import org.kairosdb.core.exception.KairosDBException;
+import org.kairosdb.core.queue.QueueProcessor;
 import org.kairosdb.eventbus.FilterEventBus;
 import org.kairosdb.eventbus.Publisher;
 import org.kairosdb.events.DataPointEvent;
 import org.kairosdb.testing.TestUtil;
 import org.kairosdb.util.Tags;
+import org.mockito.ArgumentCaptor;
 
 import java.io.IOException;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -229,6 +236,90 @@ public class TelnetServerTest
 		verifyEvent(m_publisher, metricName, tags, dp, 0);
 	}
 
+	@SuppressWarnings("unchecked")
+	@Test
+	public void test_severalLinesInOneRead() throws DatastoreException
+	{
+		long now = System.currentTimeMillis() / 1000;
+		String tooLong = createLongString(2048);
+
+		m_client.sendText("put test.metric1 " + now + " 1 host=a\r\n" +
+				"put " + tooLong + " " + now + " 2 host=a\n" +
+				"put test.metric2 " + now + " 3 host=b");
+
+		ArgumentCaptor<DataPointEvent> events = ArgumentCaptor.forClass(DataPointEvent.class);
+		verify(m_publisher, timeout(5000).times(2)).post(events.capture());
+
+		assertThat(events.getAllValues().get(0).getMetricName(), equalTo("test.metric1"));
+		assertThat(events.getAllValues().get(0).getDataPoint(), equalTo((DataPoint) new LongDataPoint(now * 1000, 1)));
+		assertThat(events.getAllValues().get(1).getMetricName(), equalTo("test.metric2"));
+		assertThat(events.getAllValues().get(1).getTags(), equalTo(Tags.create().put("host", "b").build()));
+	}
+
+	@Test
+	public void test_saturatedQueuePausesReadingUntilDrained() throws Exception
+	{
+		QueueProcessor queueProcessor = mock(QueueProcessor.class);
+		when(queueProcessor.isSaturated()).thenReturn(true);
+		m_server.stop();
+		m_server = new TelnetServer(telnetPort, MAX_COMMAND_LENGTH, commandProvider);
+		m_server.setQueueProcessor(queueProcessor);
+		m_server.start();
+
+		Channel channel = mock(Channel.class);
+		when(channel.isOpen()).thenReturn(true);
+		long now = System.currentTimeMillis() / 1000;
+
+		m_server.messageReceived(mock(ChannelHandlerContext.class),
+				createMessageEvent(channel, "put test.metric " + now + " 123 host=test_host"));
+
+		//The data points read are still posted before reading stops
+		verifyEvent(m_publisher, "test.metric", Tags.create().put("host", "test_host").build(),
+				new LongDataPoint(now * 1000, 123), 0);
+		verify(channel).setReadable(false);
+		verify(channel, after(100).never()).setReadable(true);
+
+		when(queueProcessor.isSaturated()).thenReturn(false);
+
+		verify(channel, timeout(5000)).setReadable(true);
+	}
+
+	@Test
+	public void test_queueNotSaturatedKeepsReading() throws Exception
+	{
+		QueueProcessor queueProcessor = mock(QueueProcessor.class);
+		when(queueProcessor.isSaturated()).thenReturn(false);
+		m_server.stop();
+		m_server = new TelnetServer(telnetPort, MAX_COMMAND_LENGTH, commandProvider);
+		m_server.setQueueProcessor(queueProcessor);
+		m_server.start();
+
+		Channel channel = mock(Channel.class);
+		long now = System.currentTimeMillis() / 1000;
+
+		m_server.messageReceived(mock(ChannelHandlerContext.class),
+				createMessageEvent(channel, "put test.metric " + now + " 123 host=test_host"));
+
+		verify(queueProcessor).isSaturated();
+		verify(channel, never()).setReadable(anyBoolean());
+	}
+
+	/**
+	 Same message the LineBatchDecoder passes on for the lines read
+	 */
+	private static MessageEvent createMessageEvent(Channel channel, String... lines)
+	{
+		List<List<String>> commands = new ArrayList<>();
+		for (String line : lines)
+			commands.add(WordSplitter.splitString(line));
+
+		MessageEvent messageEvent = mock(MessageEvent.class);
+		when(messageEvent.getChannel()).thenReturn(channel);
+		when(messageEvent.getMessage()).thenReturn(commands);
+
+		return messageEvent;
+	}
+
 	private String createLongString(int length)
 	{
 		StringBuilder builder = new StringBuilder();
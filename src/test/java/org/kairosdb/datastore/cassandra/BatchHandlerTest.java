@@ -14,10 +14,11 @@ import org.kairosdb.eventbus.Publisher;
 import org.kairosdb.events.BatchReductionEvent;
 import org.kairosdb.events.DataPointEvent;
 import org.kairosdb.events.RowKeyEvent;
+import org.kairosdb.events.Series;
+import org.mockito.ArgumentCaptor;
 
 import java.io.IOException;
 import java.text.ParseException;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
@@ -26,7 +27,9 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -42,19 +45,31 @@ public class BatchHandlerTest
 	private Publisher<RowKeyEvent> m_rowKeyEventPublisher;
 	private Publisher<BatchReductionEvent> m_batchReductionEventPublisher;
 	private CassandraModule.CQLBatchFactory m_cqlBatchFactory;
+	private CQLBatch m_indexBatch;
+	private IndexWriteCoalescer m_indexWriter;
 
 
 	private class FakeCQLBatch extends CQLBatch
 	{
-		private List<DataPointsRowKey> m_newRowKeys = new ArrayList<>();
-		private List<TimedString> m_newMetrics = new ArrayList<>();
 		private RuntimeException m_exceptionToThrow;
+		private boolean m_failOnce;
+		private int m_submitCount = 0;
 
 		public FakeCQLBatch(RuntimeException exceptionToThrow)
 		{
-			super(null, null, null, null);
+			this(exceptionToThrow, false);
+		}
+
+		/**
+		 @param failOnce throw the exception on the first submit only and
+		 report failed host batches after it
+		 */
+		public FakeCQLBatch(RuntimeException exceptionToThrow, boolean failOnce)
+		{
+			super(null, null, null, null, null);
 
 			m_exceptionToThrow = exceptionToThrow;
+			m_failOnce = failOnce;
 		}
 
 		@Override
@@ -65,13 +80,11 @@ public class BatchHandlerTest
 		@Override
 		public void addRowKey(DataPointsRowKey rowKey, int rowKeyTtl)
 		{
-			m_newRowKeys.add(rowKey);
 		}
 
 		@Override
 		public void addMetricName(TimedString metricName)
 		{
-			m_newMetrics.add(metricName);
 		}
 
 		@Override
@@ -82,20 +95,20 @@ public class BatchHandlerTest
 		@Override
 		public void submitBatch()
 		{
+			m_submitCount++;
 			if (m_exceptionToThrow != null)
-				throw m_exceptionToThrow;
+			{
+				RuntimeException e = m_exceptionToThrow;
+				if (m_failOnce)
+					m_exceptionToThrow = null;
+				throw e;
+			}
 		}
 
 		@Override
-		public List<DataPointsRowKey> getNewRowKeys()
+		public boolean hasFailedBatches()
 		{
-			return m_newRowKeys;
-		}
-
-		@Override
-		public List<TimedString> getNewMetrics()
-		{
-			return m_newMetrics;
+			return m_failOnce && m_submitCount == 1;
 		}
 	}
 
@@ -108,6 +121,11 @@ public class BatchHandlerTest
 
 		m_cqlBatchFactory = mock(CassandraModule.CQLBatchFactory.class);
 
+		//Index writes go out in their own batches
+		m_indexBatch = mock(CQLBatch.class);
+		CassandraModule.CQLBatchFactory indexBatchFactory = mock(CassandraModule.CQLBatchFactory.class);
+		when(indexBatchFactory.create()).thenReturn(m_indexBatch);
+
 		when(eventBus.createPublisher(RowKeyEvent.class)).thenReturn(m_rowKeyEventPublisher);
 		when(eventBus.createPublisher(BatchReductionEvent.class)).thenReturn(m_batchReductionEventPublisher);
 		m_callBack = mock(EventCompletionCallBack.class);
@@ -119,13 +137,17 @@ public class BatchHandlerTest
 		//todo setup stuff
 		rootConfig.load(ImmutableMap.of("kairosdb.datastore.cassandra.write_cluster", new HashMap()));
 
+		m_indexWriter = new IndexWriteCoalescer(indexBatchFactory, new RowSpec(), m_rowKeyDataCache, m_metricDataCache);
+
 		m_batchHandler = new BatchHandler(events,
 				m_callBack,
 				new CassandraConfiguration(rootConfig),
 				m_rowKeyDataCache,
 				m_metricDataCache,
 				eventBus,
-				m_cqlBatchFactory, new RowSpec());
+				m_cqlBatchFactory,
+				m_indexWriter,
+				new RowSpec());
 	}
 
 
@@ -182,6 +204,40 @@ public class BatchHandlerTest
 		}
 	}
 
+	@Test
+	public void test_retry_resendsFailedBatchOnly() throws Exception
+	{
+		LongDataPointFactory dataPointFactory = new LongDataPointFactoryImpl();
+		long now = System.currentTimeMillis();
+
+		ImmutableSortedMap<String, String> tags = ImmutableSortedMap.of("host", "bob");
+		List<DataPointEvent> events = Arrays.asList(
+				new DataPointEvent("metric_name", tags, dataPointFactory.createDataPoint(now, 42L)));
+
+		setup(events);
+
+		RuntimeException e = mock(NoHostAvailableException.class);
+		when(e.getMessage()).thenReturn("hey");
+
+		FakeCQLBatch batch = new FakeCQLBatch(e, true);
+		when(m_cqlBatchFactory.create()).thenReturn(batch);
+
+		try
+		{
+			m_batchHandler.retryCall();
+		}
+		catch (NoHostAvailableException expected)
+		{
+		}
+
+		//Retry from the retryer sends the failed batch again instead of a new one
+		m_batchHandler.retryCall();
+
+		verify(m_cqlBatchFactory, times(1)).create();
+		assertThat(batch.m_submitCount).isEqualTo(2);
+		verify(m_callBack).complete();
+	}
+
 	@Test
 	public void test_rowKey_is_cached() throws Exception
 	{
@@ -201,9 +257,34 @@ public class BatchHandlerTest
 		m_batchHandler.retryCall();
 
 		verify(batch, times(2)).addDataPoint(any(), anyInt(), any(), anyInt());
-		verify(batch).addMetricName(any());
-		verify(batch).addTimeIndex(any(), anyLong(), anyInt());
-		verify(batch).addRowKey(any(), anyInt());
+		verify(m_indexBatch).addMetricName(any());
+		verify(m_indexBatch).addTimeIndex(any(), anyLong(), anyInt());
+		verify(m_indexBatch).addRowKey(any(), anyInt());
+	}
+
+	@Test
+	public void test_sharedSeries_reusesRowKey() throws Exception
+	{
+		CQLBatch batch = mock(CQLBatch.class);
+		LongDataPointFactory dataPointFactory = new LongDataPointFactoryImpl();
+		long rowTime = new RowSpec().calculateRowTime(System.currentTimeMillis());
+
+		Series series = new Series("metric_name", ImmutableSortedMap.of("host", "bob"));
+		List<DataPointEvent> events = Arrays.asList(
+				new DataPointEvent(series, dataPointFactory.createDataPoint(rowTime, 42L), 0),
+				new DataPointEvent(series, dataPointFactory.createDataPoint(rowTime + 1, 43L), 0));
+
+		setup(events);
+
+		when(m_cqlBatchFactory.create()).thenReturn(batch);
+
+		m_batchHandler.retryCall();
+
+		ArgumentCaptor<DataPointsRowKey> rowKeys = ArgumentCaptor.forClass(DataPointsRowKey.class);
+		verify(batch, times(2)).addDataPoint(rowKeys.capture(), anyInt(), any(), anyInt());
+		assertThat(rowKeys.getAllValues().get(1)).isSameAs(rowKeys.getAllValues().get(0));
+		assertThat(rowKeys.getAllValues().get(0)).isSameAs(
+				series.getRowKey(rowKeys.getAllValues().get(0).getClusterName(), rowTime, LongDataPointFactoryImpl.DST_LONG));
 	}
 
 	@Test
@@ -226,10 +307,32 @@ public class BatchHandlerTest
 		m_batchHandler.retryCall();
 
 		verify(batch, times(2)).addDataPoint(any(), anyInt(), any(), anyInt());
-		verify(batch).addMetricName(any());
-		verify(batch).addTimeIndex(any(), anyLong(), anyInt());
-		verify(batch, times(2)).addRowKey(any(), anyInt());
+		verify(m_indexBatch).addMetricName(any());
+		verify(m_indexBatch).addTimeIndex(any(), anyLong(), anyInt());
+		verify(m_indexBatch, times(2)).addRowKey(any(), anyInt());
 	}
 
+	@Test
+	public void test_failedIndexWrite_completesCallBack() throws Exception
+	{
+		CQLBatch batch = mock(CQLBatch.class);
+		LongDataPointFactory dataPointFactory = new LongDataPointFactoryImpl();
+		long now = System.currentTimeMillis();
+
+		ImmutableSortedMap<String, String> tags = ImmutableSortedMap.of("host", "bob");
+		List<DataPointEvent> events = Arrays.asList(
+				new DataPointEvent("metric_name", tags, dataPointFactory.createDataPoint(now, 42L)));
+
+		setup(events);
+		m_indexWriter.setMaxRetries(0);
+
+		when(m_cqlBatchFactory.create()).thenReturn(batch);
+		doThrow(new RuntimeException("index down")).when(m_indexBatch).submitBatch();
+
+		m_batchHandler.retryCall();
 
-}
\ No newline at end of file
+		verify(m_callBack).complete();
+		//The entries were handed back and tried again
+		verify(m_indexBatch, timeout(5000).atLeast(2)).submitBatch();
+	}
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.datastore.cassandra;
+
+import com.datastax.driver.core.ColumnDefinitions;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.exceptions.DriverException;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableSortedMap;
+import org.junit.Before;
+import org.junit.Test;
+import org.kairosdb.core.exception.DatastoreException;
+import org.mockito.stubbing.OngoingStubbing;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class CQLFilteredRowKeyIteratorTest
+{
+	private ClusterConnection m_cluster;
+	private ResultSetFuture m_negativeFuture;
+	private ResultSetFuture m_positiveFuture;
+
+	@Before
+	public void setup()
+	{
+		ColumnDefinitions variables = mock(ColumnDefinitions.class);
+		when(variables.size()).thenReturn(3);
+		PreparedStatement rowKeyIndexQuery = mock(PreparedStatement.class);
+		when(rowKeyIndexQuery.getVariables()).thenReturn(variables);
+
+		m_cluster = mock(ClusterConnection.class);
+		m_cluster.psRowKeyIndexQuery = rowKeyIndexQuery;
+		when(m_cluster.getRowSpec()).thenReturn(new RowSpec());
+		when(m_cluster.getClusterName()).thenReturn("cluster");
+
+		//A query spanning 0 reads the legacy index in two queries
+		m_negativeFuture = mock(ResultSetFuture.class);
+		m_positiveFuture = mock(ResultSetFuture.class);
+		when(m_cluster.executeAsync(any(Statement.class))).thenReturn(m_negativeFuture, m_positiveFuture);
+	}
+
+	private CQLFilteredRowKeyIterator createIterator() throws DatastoreException
+	{
+		return new CQLFilteredRowKeyIterator(m_cluster, "metric", -1000L, 1000L,
+				HashMultimap.create(), false, "", new RowKeyIndexCache(0, 0));
+	}
+
+	private DataPointsRowKey rowKey(String host)
+	{
+		return new DataPointsRowKey("metric", "cluster", 0L, "kairos_long",
+				ImmutableSortedMap.of("host", host));
+	}
+
+	private Row row(DataPointsRowKey rowKey)
+	{
+		Row row = mock(Row.class);
+		when(row.getBytes(0)).thenAnswer(invocation ->
+				CassandraDatastore.DATA_POINTS_ROW_KEY_SERIALIZER.toByteBuffer(rowKey).duplicate());
+
+		return row;
+	}
+
+	/**
+	 Legacy index result set with the rows on one page.
+	 */
+	private ResultSet resultSet(Row... rows)
+	{
+		ResultSet resultSet = mock(ResultSet.class);
+		when(resultSet.getColumnDefinitions()).thenReturn(mock(ColumnDefinitions.class));
+		when(resultSet.isFullyFetched()).thenReturn(true);
+
+		OngoingStubbing<Boolean> exhausted = when(resultSet.isExhausted());
+		for (Row row : rows)
+			exhausted = exhausted.thenReturn(false);
+		exhausted.thenReturn(true);
+
+		if (rows.length != 0)
+		{
+			OngoingStubbing<Row> one = when(resultSet.one());
+			for (Row row : rows)
+				one = one.thenReturn(row);
+		}
+
+		return resultSet;
+	}
+
+	private void assertIndexFailure(CQLFilteredRowKeyIterator iterator, DriverException cause)
+	{
+		try
+		{
+			iterator.hasNext();
+			fail("Expected RowKeyQueryException");
+		}
+		catch (RowKeyQueryException e)
+		{
+			assertThat(e.getCause()).isInstanceOf(DatastoreException.class);
+			assertThat(e.getCause().getCause()).isSameAs(cause);
+		}
+	}
+
+	@Test
+	public void test_pageFetchFailure_firstSource() throws Exception
+	{
+		DriverException failure = new DriverException("Unable to fetch page");
+		ResultSet failed = resultSet();
+		when(failed.isExhausted()).thenThrow(failure);
+		ResultSet other = resultSet(row(rowKey("b")));
+		when(m_negativeFuture.get()).thenReturn(failed);
+		when(m_positiveFuture.get()).thenReturn(other);
+
+		assertIndexFailure(createIterator(), failure);
+	}
+
+	@Test
+	public void test_pageFetchFailure_laterSource() throws Exception
+	{
+		DriverException failure = new DriverException("Unable to fetch page");
+		ResultSet first = resultSet(row(rowKey("a")));
+		ResultSet failed = resultSet();
+		when(failed.isExhausted()).thenThrow(failure);
+		when(m_negativeFuture.get()).thenReturn(first);
+		when(m_positiveFuture.get()).thenReturn(failed);
+
+		CQLFilteredRowKeyIterator iterator = createIterator();
+		assertThat(iterator.hasNext()).isTrue();
+		assertThat(iterator.next()).isEqualTo(rowKey("a"));
+
+		assertIndexFailure(iterator, failure);
+	}
+
+	@Test
+	public void test_pageFetchFailure_laterPage() throws Exception
+	{
+		DriverException failure = new DriverException("Unable to fetch page");
+		ResultSet failed = resultSet(row(rowKey("a")));
+		//The first page is read, fetching the next one fails
+		when(failed.isExhausted()).thenReturn(false).thenThrow(failure);
+		ResultSet other = resultSet(row(rowKey("b")));
+		when(m_negativeFuture.get()).thenReturn(failed);
+		when(m_positiveFuture.get()).thenReturn(other);
+
+		CQLFilteredRowKeyIterator iterator = createIterator();
+		assertThat(iterator.hasNext()).isTrue();
+		assertThat(iterator.next()).isEqualTo(rowKey("a"));
+
+		assertIndexFailure(iterator, failure);
+	}
+}
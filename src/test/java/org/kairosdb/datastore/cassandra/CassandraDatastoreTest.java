@@ -291,6 +291,7 @@ public class CassandraDatastoreTest extends DatastoreTestHelper
 		BatchStats batchStats = new BatchStats();
 		DataCache<DataPointsRowKey> rowKeyCache = new DataCache<>(1024);
 		DataCache<TimedString> metricNameCache = new DataCache<>(1024);
+		HostWriteLimiter hostWriteLimiter = new HostWriteLimiter(16);
 
 		CassandraModule.CQLBatchFactory cqlBatchFactory = new CassandraModule.CQLBatchFactory()
 		{
@@ -298,10 +299,13 @@ public class CassandraDatastoreTest extends DatastoreTestHelper
 			public CQLBatch create()
 			{
 				return new CQLBatch(ConsistencyLevel.QUORUM, m_clusterConnection,
-						batchStats, client.getWriteLoadBalancingPolicy());
+						batchStats, client.getWriteLoadBalancingPolicy(), hostWriteLimiter);
 			}
 		};
 
+		IndexWriteCoalescer indexWriter = new IndexWriteCoalescer(cqlBatchFactory, m_rowSpec,
+				rowKeyCache, metricNameCache);
+
 		s_datastore = new CassandraDatastore(
 				configuration,
 				m_clusterConnection,
@@ -317,7 +321,7 @@ public class CassandraDatastoreTest extends DatastoreTestHelper
 					{
 						return new BatchHandler(events, callBack,
 								configuration, rowKeyCache, metricNameCache,
-								s_eventBus, cqlBatchFactory, rowSpec);
+								s_eventBus, cqlBatchFactory, indexWriter, rowSpec);
 					}
 				},
 				new CassandraModule.DeleteBatchHandlerFactory()
@@ -335,10 +339,10 @@ public class CassandraDatastoreTest extends DatastoreTestHelper
 					@Override
 					public CQLFilteredRowKeyIterator create(ClusterConnection cluster,
 							String metricName, long startTime, long endTime,
-							SetMultimap<String, String> filterTags) throws DatastoreException
+							SetMultimap<String, String> filterTags, boolean tagQuery) throws DatastoreException
 					{
 						return new CQLFilteredRowKeyIterator(cluster, metricName,
-								startTime, endTime, filterTags, "");
+								startTime, endTime, filterTags, tagQuery, "", new RowKeyIndexCache(0, 0));
 					}
 				},
 				new CassandraModule.CQLBatchFactory() {
@@ -346,7 +350,9 @@ public class CassandraDatastoreTest extends DatastoreTestHelper
 					public CQLBatch create() {
 						return null;
 					}
-				});
+				},
+				new QueryReaderExecutor(configuration.getQueryReaderThreads(),
+						configuration.getQueryReaderThreads()));
 
 		DatastoreTestHelper.s_datastore = new KairosDatastore(s_datastore,
 				new QueryQueuingManager(1, "hostname"),
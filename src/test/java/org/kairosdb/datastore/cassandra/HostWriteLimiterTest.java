@@ -0,0 +1,93 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.kairosdb.datastore.cassandra;
+
+import org.junit.Test;
+import org.kairosdb.core.DataPointSet;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HostWriteLimiterTest
+{
+	@Test(expected = IllegalArgumentException.class)
+	public void test_constructor_zeroInFlight_invalid()
+	{
+		new HostWriteLimiter(0);
+	}
+
+	@Test
+	public void test_acquire_blocksAtLimitPerHost() throws InterruptedException
+	{
+		HostWriteLimiter limiter = new HostWriteLimiter(2);
+
+		HostWriteLimiter.HostPermit permit = limiter.acquire("10.0.0.1");
+		limiter.acquire("10.0.0.1");
+		limiter.acquire("10.0.0.2"); //Other hosts are not affected
+
+		CountDownLatch acquired = new CountDownLatch(1);
+		Thread thread = new Thread(() -> {
+			try
+			{
+				limiter.acquire("10.0.0.1");
+				acquired.countDown();
+			}
+			catch (InterruptedException ignore) {}
+		});
+		thread.start();
+
+		assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+		assertEquals(2, limiter.getInFlight("10.0.0.1"));
+
+		permit.release();
+		assertTrue(acquired.await(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void test_release_onlyOnce() throws InterruptedException
+	{
+		HostWriteLimiter limiter = new HostWriteLimiter(2);
+
+		HostWriteLimiter.HostPermit permit = limiter.acquire("10.0.0.1");
+		permit.release();
+		permit.release();
+
+		assertEquals(0, limiter.getInFlight("10.0.0.1"));
+	}
+
+	@Test
+	public void test_getMetrics_latencyPerHost() throws InterruptedException
+	{
+		HostWriteLimiter limiter = new HostWriteLimiter(2);
+
+		limiter.acquire("10.0.0.1").release();
+		limiter.acquire("10.0.0.2").release();
+
+		List<DataPointSet> metrics = limiter.getMetrics(System.currentTimeMillis());
+
+		//min, max, avg, count and sum for each host
+		assertEquals(10, metrics.size());
+		assertEquals(HostWriteLimiter.BATCH_LATENCY_METRIC + ".min", metrics.get(0).getName());
+
+		//Stats are cleared once reported
+		assertEquals(0, limiter.getMetrics(System.currentTimeMillis()).size());
+	}
+}
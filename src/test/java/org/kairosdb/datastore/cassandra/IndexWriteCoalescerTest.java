@@ -0,0 +1,166 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.datastore.cassandra;
+
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class IndexWriteCoalescerTest
+{
+	@Rule
+	public TemporaryFolder m_folder = new TemporaryFolder();
+
+	private RowSpec m_rowSpec;
+	private CQLBatch m_batch;
+	private CassandraModule.CQLBatchFactory m_batchFactory;
+	private DataCache<DataPointsRowKey> m_rowKeyCache;
+	private DataCache<TimedString> m_metricNameCache;
+
+	@Before
+	public void setup()
+	{
+		m_rowSpec = new RowSpec();
+		m_batch = mock(CQLBatch.class);
+		m_batchFactory = mock(CassandraModule.CQLBatchFactory.class);
+		when(m_batchFactory.create()).thenReturn(m_batch);
+		m_rowKeyCache = new DataCache<>(100);
+		m_metricNameCache = new DataCache<>(100);
+	}
+
+	private DataPointsRowKey rowKey(String host, long rowTime)
+	{
+		return new DataPointsRowKey("metric", "cluster", rowTime, "kairos_long",
+				ImmutableSortedMap.of("host", host));
+	}
+
+	@Test
+	public void test_sameRowKeyFromSeveralBatches_writtenOnce() throws Exception
+	{
+		IndexWriteCoalescer coalescer = new IndexWriteCoalescer(m_batchFactory, m_rowSpec,
+				m_rowKeyCache, m_metricNameCache);
+
+		//Hold the first write so the next adds pile up behind it
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch started = new CountDownLatch(1);
+		doAnswer(invocation ->
+		{
+			started.countDown();
+			release.await();
+			return null;
+		}).doNothing().when(m_batch).submitBatch();
+
+		long rowTime = m_rowSpec.calculateRowTime(System.currentTimeMillis());
+		ListenableFuture<Void> first = coalescer.addRowKey(rowKey("a", rowTime), 100);
+		assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+		ListenableFuture<Void> second = coalescer.addRowKey(rowKey("b", rowTime), 100);
+		ListenableFuture<Void> third = coalescer.addRowKey(rowKey("b", rowTime), 0);
+		assertThat(third).isSameAs(second);
+
+		release.countDown();
+		first.get(5, TimeUnit.SECONDS);
+		second.get(5, TimeUnit.SECONDS);
+
+		verify(m_batch, times(2)).submitBatch();
+		verify(m_batch).addRowKey(rowKey("a", rowTime), 100);
+		//The longer ttl wins, zero never expires
+		verify(m_batch).addRowKey(rowKey("b", rowTime), 0);
+
+		coalescer.shutdown();
+	}
+
+	@Test
+	public void test_failedWrite_givesUpAfterMaxRetries() throws Exception
+	{
+		IndexWriteCoalescer coalescer = new IndexWriteCoalescer(m_batchFactory, m_rowSpec,
+				m_rowKeyCache, m_metricNameCache);
+		coalescer.setMaxRetries(1);
+
+		doThrow(new RuntimeException("write failed")).when(m_batch).submitBatch();
+
+		long rowTime = m_rowSpec.calculateRowTime(System.currentTimeMillis());
+		m_rowKeyCache.cacheItem(rowKey("a", rowTime));
+		ListenableFuture<Void> future = coalescer.addRowKey(rowKey("a", rowTime), 100);
+
+		try
+		{
+			future.get(5, TimeUnit.SECONDS);
+			fail("Expected the index write to fail");
+		}
+		catch (ExecutionException e)
+		{
+			assertThat(e.getCause()).hasMessage("write failed");
+		}
+
+		verify(m_batch, times(2)).submitBatch();
+		//Written again when the batch is replayed
+		assertThat(m_rowKeyCache.getCachedKeys()).isEmpty();
+
+		coalescer.shutdown();
+	}
+
+	@Test
+	public void test_snapshot_keepsCurrentRowOnly() throws Exception
+	{
+		File snapshot = new File(m_folder.getRoot(), "row_key_cache");
+		long currentRow = m_rowSpec.calculateRowTime(System.currentTimeMillis());
+		long oldRow = currentRow - m_rowSpec.getRowWidthInMillis();
+
+		m_rowKeyCache.cacheItem(rowKey("a", currentRow));
+		m_rowKeyCache.cacheItem(rowKey("b", oldRow));
+		m_metricNameCache.cacheItem(new TimedString("metric", currentRow));
+		m_metricNameCache.cacheItem(new TimedString("metric", oldRow));
+
+		IndexWriteCoalescer coalescer = new IndexWriteCoalescer(m_batchFactory, m_rowSpec,
+				m_rowKeyCache, m_metricNameCache);
+		coalescer.setSnapshotPath(snapshot.getPath());
+		coalescer.shutdown();
+
+		assertThat(snapshot).exists();
+
+		DataCache<DataPointsRowKey> rowKeyCache = new DataCache<>(100);
+		DataCache<TimedString> metricNameCache = new DataCache<>(100);
+		IndexWriteCoalescer restarted = new IndexWriteCoalescer(m_batchFactory, m_rowSpec,
+				rowKeyCache, metricNameCache);
+		restarted.setSnapshotPath(snapshot.getPath());
+
+		assertThat(rowKeyCache.getCachedKeys()).containsExactly(rowKey("a", currentRow));
+		assertThat(metricNameCache.getCachedKeys()).containsExactly(new TimedString("metric", currentRow));
+		//A snapshot is only loaded once
+		assertThat(snapshot).doesNotExist();
+
+		restarted.shutdown();
+	}
+}
@@ -0,0 +1,106 @@
+package org.kairosdb.datastore.cassandra;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class QueryReaderExecutorTest
+{
+	private QueryReaderExecutor m_executor;
+
+	@After
+	public void tearDown()
+	{
+		if (m_executor != null)
+			m_executor.shutdown();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void test_constructor_zeroPoolThreads_invalid()
+	{
+		m_executor = new QueryReaderExecutor(0, 1);
+	}
+
+	@Test
+	public void test_queryReader_limitsThreadsPerQuery() throws InterruptedException
+	{
+		m_executor = new QueryReaderExecutor(8, 2);
+		Executor reader = m_executor.newQueryReader();
+
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger maxRunning = new AtomicInteger();
+		CountDownLatch done = new CountDownLatch(20);
+
+		for (int i = 0; i < 20; i++)
+		{
+			reader.execute(() -> {
+				int count = running.incrementAndGet();
+				maxRunning.accumulateAndGet(count, Math::max);
+				try
+				{
+					Thread.sleep(5);
+				}
+				catch (InterruptedException ignore) {}
+				running.decrementAndGet();
+				done.countDown();
+			});
+		}
+
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		assertEquals(2, maxRunning.get());
+	}
+
+	@Test
+	public void test_queryReaders_shareThePool() throws InterruptedException
+	{
+		m_executor = new QueryReaderExecutor(2, 1);
+		Executor reader1 = m_executor.newQueryReader();
+		Executor reader2 = m_executor.newQueryReader();
+
+		CountDownLatch bothRunning = new CountDownLatch(2);
+		CountDownLatch release = new CountDownLatch(1);
+		Runnable task = () -> {
+			bothRunning.countDown();
+			try
+			{
+				release.await();
+			}
+			catch (InterruptedException ignore) {}
+		};
+
+		reader1.execute(task);
+		reader1.execute(task); //Queued behind the first as the query is limited to one thread
+		reader2.execute(task);
+
+		assertTrue(bothRunning.await(10, TimeUnit.SECONDS));
+		release.countDown();
+	}
+
+	@Test
+	public void test_rejectedTask_releasesSlot()
+	{
+		m_executor = new QueryReaderExecutor(1, 1);
+		QueryReaderExecutor.QueryReader reader = m_executor.newQueryReader();
+		m_executor.shutdown();
+
+		try
+		{
+			reader.execute(() -> {});
+			fail("Expected RejectedExecutionException");
+		}
+		catch (RejectedExecutionException expected)
+		{
+		}
+
+		assertEquals(0, reader.getRunningCount());
+	}
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.datastore.cassandra;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.SetMultimap;
+import org.junit.Before;
+import org.junit.Test;
+import org.kairosdb.core.DataPointSet;
+import org.kairosdb.events.RowKeyEvent;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class RowKeyIndexCacheTest
+{
+	private static final SetMultimap<String, String> NO_TAGS = HashMultimap.create();
+	private static final Map<String, Pattern> NO_PATTERNS = Collections.emptyMap();
+
+	private RowSpec m_rowSpec;
+	private ClusterConnection m_cluster;
+	private RowKeyIndexCache m_cache;
+
+	@Before
+	public void setup()
+	{
+		m_rowSpec = new RowSpec();
+		m_cluster = mock(ClusterConnection.class);
+		when(m_cluster.getRowSpec()).thenReturn(m_rowSpec);
+		when(m_cluster.getClusterName()).thenReturn("cluster");
+
+		m_cache = new RowKeyIndexCache(1000, 3600);
+		m_cache.setClosedDelay(600);
+	}
+
+	private DataPointsRowKey rowKey(String host, long rowTime)
+	{
+		return new DataPointsRowKey("metric", "cluster", rowTime, "kairos_long",
+				ImmutableSortedMap.of("host", host));
+	}
+
+	@Test
+	public void test_onlyClosedTiersAreCacheable()
+	{
+		long currentRow = m_rowSpec.calculateRowTime(System.currentTimeMillis());
+		long lastRow = currentRow - m_rowSpec.getRowWidthInMillis();
+
+		assertThat(m_cache.isCacheable(m_cluster, "metric", currentRow)).isFalse();
+		assertThat(m_cache.isCacheable(m_cluster, "metric", lastRow - m_rowSpec.getRowWidthInMillis())).isTrue();
+	}
+
+	@Test
+	public void test_tagIndexedMetric_notCacheable()
+	{
+		long oldRow = m_rowSpec.calculateRowTime(System.currentTimeMillis()) - 2 * m_rowSpec.getRowWidthInMillis();
+		when(m_cluster.usesTagIndexedLookup("metric")).thenReturn(true);
+
+		assertThat(m_cache.isCacheable(m_cluster, "metric", oldRow)).isFalse();
+	}
+
+	@Test
+	public void test_rowKeyEvent_addedToCachedTier()
+	{
+		long rowTime = 0L;
+		assertThat(m_cache.getTier("cluster", "metric", rowTime)).isNull();
+
+		m_cache.putRowKeys("cluster", "metric", rowTime, Collections.singletonList(rowKey("a", rowTime)));
+		m_cache.rowKeyWritten(new RowKeyEvent("metric", rowKey("b", rowTime), 60));
+		//Not cached, so not added
+		m_cache.rowKeyWritten(new RowKeyEvent("metric", rowKey("c", rowTime + 1), 60));
+
+		assertThat(m_cache.getTier("cluster", "metric", rowTime).find(NO_TAGS, NO_PATTERNS))
+				.containsExactlyInAnyOrder(rowKey("a", rowTime), rowKey("b", rowTime));
+		assertThat(m_cache.getTier("cluster", "metric", rowTime + 1)).isNull();
+	}
+
+	@Test
+	public void test_rowKeyEvent_tierWeighedAgain()
+	{
+		RowKeyIndexCache cache = new RowKeyIndexCache(3, 3600);
+		long rowTime = 0L;
+
+		cache.putRowKeys("cluster", "metric", rowTime, Arrays.asList(rowKey("a", rowTime), rowKey("b", rowTime)));
+		cache.rowKeyWritten(new RowKeyEvent("metric", rowKey("c", rowTime), 60));
+		assertThat(cache.getTier("cluster", "metric", rowTime).size()).isEqualTo(3);
+
+		//Goes over the cache size
+		cache.rowKeyWritten(new RowKeyEvent("metric", rowKey("d", rowTime), 60));
+		assertThat(cache.getTier("cluster", "metric", rowTime)).isNull();
+	}
+
+	@Test
+	public void test_rowKeyEvent_duringLoad_addedToTier()
+	{
+		long rowTime = 0L;
+
+		m_cache.startLoad("cluster", "metric", rowTime);
+		m_cache.rowKeyWritten(new RowKeyEvent("metric", rowKey("b", rowTime), 60));
+		//The read started before b was written
+		m_cache.putRowKeys("cluster", "metric", rowTime, Collections.singletonList(rowKey("a", rowTime)));
+
+		assertThat(m_cache.getTier("cluster", "metric", rowTime).find(NO_TAGS, NO_PATTERNS))
+				.containsExactlyInAnyOrder(rowKey("a", rowTime), rowKey("b", rowTime));
+
+		//The load is done, a later read only has what it read
+		m_cache.putRowKeys("cluster", "metric", rowTime, Collections.singletonList(rowKey("a", rowTime)));
+		assertThat(m_cache.getTier("cluster", "metric", rowTime).find(NO_TAGS, NO_PATTERNS))
+				.containsExactly(rowKey("a", rowTime));
+	}
+
+	@Test
+	public void test_invalidateMetric()
+	{
+		m_cache.putRowKeys("cluster", "metric", 0L, Collections.singletonList(rowKey("a", 0L)));
+		m_cache.putRowKeys("cluster", "other", 0L, Collections.emptyList());
+
+		m_cache.invalidateMetric("metric");
+
+		assertThat(m_cache.getTier("cluster", "metric", 0L)).isNull();
+		assertThat(m_cache.getTier("cluster", "other", 0L).size()).isEqualTo(0);
+	}
+
+	@Test
+	public void test_disabled()
+	{
+		RowKeyIndexCache cache = new RowKeyIndexCache(0, 3600);
+		cache.putRowKeys("cluster", "metric", 0L, Collections.singletonList(rowKey("a", 0L)));
+
+		assertThat(cache.isEnabled()).isFalse();
+		assertThat(cache.isCacheable(m_cluster, "metric", 0L)).isFalse();
+		assertThat(cache.getTier("cluster", "metric", 0L)).isNull();
+		assertThat(cache.isOpenTierCacheable(m_cluster, "metric")).isFalse();
+	}
+
+	@Test
+	public void test_openTier_offByDefault()
+	{
+		assertThat(m_cache.isOpenTierCacheable(m_cluster, "metric")).isFalse();
+
+		m_cache.putOpenTier("cluster", "metric", 0L, Collections.singletonList(rowKey("a", 0L)));
+		assertThat(m_cache.getOpenTier("cluster", "metric", 0L)).isNull();
+	}
+
+	@Test
+	public void test_openTier_keptApartFromClosedTiers()
+	{
+		long rowTime = 0L;
+		m_cache.setOpenTierExpire(60);
+		assertThat(m_cache.isOpenTierCacheable(m_cluster, "metric")).isTrue();
+
+		m_cache.putOpenTier("cluster", "metric", rowTime, Collections.singletonList(rowKey("a", rowTime)));
+		m_cache.rowKeyWritten(new RowKeyEvent("metric", rowKey("b", rowTime), 60));
+
+		assertThat(m_cache.getTier("cluster", "metric", rowTime)).isNull();
+		assertThat(m_cache.getOpenTier("cluster", "metric", rowTime).find(NO_TAGS, NO_PATTERNS))
+				.containsExactlyInAnyOrder(rowKey("a", rowTime), rowKey("b", rowTime));
+
+		m_cache.invalidateMetric("metric");
+		assertThat(m_cache.getOpenTier("cluster", "metric", rowTime)).isNull();
+	}
+
+	@Test
+	public void test_openTier_ownSize()
+	{
+		RowKeyIndexCache cache = new RowKeyIndexCache(2, 3600);
+		cache.setOpenTierExpire(60);
+		cache.setOpenTierSize(3);
+
+		cache.putRowKeys("cluster", "metric", 0L, Arrays.asList(rowKey("a", 0L), rowKey("b", 0L)));
+		cache.putOpenTier("cluster", "metric", 1L, Arrays.asList(rowKey("a", 1L), rowKey("b", 1L), rowKey("c", 1L)));
+
+		//Open tiers do not take from the closed tier size
+		assertThat(cache.getTier("cluster", "metric", 0L).size()).isEqualTo(2);
+		assertThat(cache.getOpenTier("cluster", "metric", 1L).size()).isEqualTo(3);
+
+		cache.rowKeyWritten(new RowKeyEvent("metric", rowKey("d", 1L), 60));
+		assertThat(cache.getOpenTier("cluster", "metric", 1L)).isNull();
+	}
+
+	@Test
+	public void test_openTier_hitsReportedApart()
+	{
+		m_cache.setOpenTierExpire(60);
+		m_cache.putOpenTier("cluster", "metric", 0L, Collections.singletonList(rowKey("a", 0L)));
+
+		m_cache.getOpenTier("cluster", "metric", 0L);
+		m_cache.getOpenTier("cluster", "metric", 1L);
+		m_cache.getOpenTier("cluster", "metric", 2L);
+		m_cache.getTier("cluster", "metric", 0L);
+
+		Map<String, Long> metrics = new HashMap<>();
+		for (DataPointSet dps : m_cache.getMetrics(0L))
+			metrics.put(dps.getName(), dps.getDataPoints().get(0).getLongValue());
+
+		assertThat(metrics).containsEntry(RowKeyIndexCache.HIT_METRIC, 0L)
+				.containsEntry(RowKeyIndexCache.MISS_METRIC, 1L)
+				.containsEntry(RowKeyIndexCache.OPEN_HIT_METRIC, 1L)
+				.containsEntry(RowKeyIndexCache.OPEN_MISS_METRIC, 2L)
+				.containsEntry(RowKeyIndexCache.OPEN_SIZE_METRIC, 1L);
+	}
+
+	@Test
+	public void test_openTier_disabled()
+	{
+		m_cache.setOpenTierExpire(60);
+		m_cache.setOpenTierExpire(0);
+		m_cache.putOpenTier("cluster", "metric", 0L, Collections.singletonList(rowKey("a", 0L)));
+
+		assertThat(m_cache.isOpenTierCacheable(m_cluster, "metric")).isFalse();
+		assertThat(m_cache.getOpenTier("cluster", "metric", 0L)).isNull();
+	}
+
+	@Test
+	public void test_tagIndexedMetric_openTierNotCacheable()
+	{
+		m_cache.setOpenTierExpire(60);
+		when(m_cluster.usesTagIndexedLookup("metric")).thenReturn(true);
+
+		assertThat(m_cache.isOpenTierCacheable(m_cluster, "metric")).isFalse();
+	}
+}
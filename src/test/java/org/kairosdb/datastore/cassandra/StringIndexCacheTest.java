@@ -0,0 +1,77 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.datastore.cassandra;
+
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class StringIndexCacheTest
+{
+	private static final String KEY = "metric_names";
+
+	@Test
+	public void test_notLoaded_returnsNull()
+	{
+		StringIndexCache cache = new StringIndexCache(true);
+		cache.addValue(KEY, "cpu");
+
+		assertThat(cache.getValues(KEY)).isNull();
+		assertThat(cache.getValues(KEY, "c")).isNull();
+	}
+
+	@Test
+	public void test_valuesAreSorted_andPrefixSearched()
+	{
+		StringIndexCache cache = new StringIndexCache(true);
+		cache.startLoad(KEY);
+		cache.setValues(KEY, ImmutableSet.of("sys.mem", "sys.cpu", "app.requests"));
+		cache.addValue(KEY, "sys.disk");
+		cache.removeValue(KEY, "sys.mem");
+
+		assertThat(cache.getValues(KEY)).containsExactly("app.requests", "sys.cpu", "sys.disk");
+		assertThat(cache.getValues(KEY, "sys.")).containsExactly("sys.cpu", "sys.disk");
+		assertThat(cache.getValues(KEY, "none")).isEmpty();
+	}
+
+	@Test
+	public void test_valueAddedDuringLoad_isKept()
+	{
+		StringIndexCache cache = new StringIndexCache(true);
+		cache.startLoad(KEY);
+		cache.setValues(KEY, ImmutableSet.of("cpu"));
+
+		//Reload that started before disk was written
+		cache.startLoad(KEY);
+		cache.addValue(KEY, "disk");
+		cache.setValues(KEY, ImmutableSet.of("cpu"));
+
+		assertThat(cache.getValues(KEY)).containsExactly("cpu", "disk");
+	}
+
+	@Test
+	public void test_disabled_neverLoads()
+	{
+		StringIndexCache cache = new StringIndexCache(false);
+		cache.startLoad(KEY);
+		cache.setValues(KEY, ImmutableSet.of("cpu"));
+
+		assertThat(cache.isEnabled()).isFalse();
+		assertThat(cache.getValues(KEY)).isNull();
+	}
+}
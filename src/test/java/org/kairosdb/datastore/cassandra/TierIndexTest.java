@@ -0,0 +1,142 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package org.kairosdb.datastore.cassandra;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.SetMultimap;
+import org.junit.Before;
+import org.junit.Test;
+import org.kairosdb.core.datastore.TagSetImpl;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TierIndexTest
+{
+	private DataPointsRowKey m_hostA;
+	private DataPointsRowKey m_hostB;
+	private DataPointsRowKey m_hostC;
+	private TierIndex m_index;
+
+	private static DataPointsRowKey rowKey(String host, String dc)
+	{
+		return new DataPointsRowKey("metric", "cluster", 0L, "kairos_long",
+				ImmutableSortedMap.of("host", host, "dc", dc));
+	}
+
+	@Before
+	public void setup()
+	{
+		m_hostA = rowKey("a", "east");
+		m_hostB = rowKey("b", "east");
+		m_hostC = rowKey("c", "west");
+		m_index = new TierIndex(Arrays.asList(m_hostA, m_hostB));
+		m_index.add(m_hostC);
+		m_index.add(rowKey("a", "east"));
+	}
+
+	@Test
+	public void test_noFilter_returnsAll()
+	{
+		assertThat(m_index.size()).isEqualTo(3);
+		assertThat(m_index.find(HashMultimap.create(), Collections.emptyMap()))
+				.containsExactly(m_hostA, m_hostB, m_hostC);
+	}
+
+	@Test
+	public void test_valuesOfOneTag_areOred()
+	{
+		SetMultimap<String, String> filter = HashMultimap.create();
+		filter.put("host", "a");
+		filter.put("host", "c");
+
+		assertThat(m_index.find(filter, Collections.emptyMap())).containsExactly(m_hostA, m_hostC);
+	}
+
+	@Test
+	public void test_tags_areAnded()
+	{
+		SetMultimap<String, String> filter = HashMultimap.create();
+		filter.put("host", "a");
+		filter.put("host", "c");
+		filter.put("dc", "west");
+
+		assertThat(m_index.find(filter, Collections.emptyMap())).containsExactly(m_hostC);
+	}
+
+	@Test
+	public void test_regexFilter()
+	{
+		Map<String, Pattern> patterns = ImmutableMap.of("host", Pattern.compile("[ab]"));
+		SetMultimap<String, String> filter = HashMultimap.create();
+		filter.put("dc", "east");
+
+		assertThat(m_index.find(filter, patterns)).containsExactly(m_hostA, m_hostB);
+	}
+
+	@Test
+	public void test_unknownTag_returnsNothing()
+	{
+		SetMultimap<String, String> filter = HashMultimap.create();
+		filter.put("rack", "1");
+
+		assertThat(m_index.find(filter, Collections.emptyMap())).isEmpty();
+	}
+
+	@Test
+	public void test_addTags_noFilter()
+	{
+		TagSetImpl tagSet = new TagSetImpl();
+		m_index.addTags(HashMultimap.create(), Collections.emptyMap(), tagSet);
+
+		assertThat(tagSet.getTagNames()).containsExactly("dc", "host");
+		assertThat(tagSet.getTagValues("host")).containsExactly("a", "b", "c");
+		assertThat(tagSet.getTagValues("dc")).containsExactly("east", "west");
+	}
+
+	@Test
+	public void test_addTags_onlyTagsOfMatchingRowKeys()
+	{
+		Map<String, Pattern> patterns = ImmutableMap.of("host", Pattern.compile("[bc]"));
+		SetMultimap<String, String> filter = HashMultimap.create();
+		filter.put("dc", "east");
+
+		TagSetImpl tagSet = new TagSetImpl();
+		m_index.addTags(filter, patterns, tagSet);
+
+		assertThat(tagSet.getTagValues("host")).containsExactly("b");
+		assertThat(tagSet.getTagValues("dc")).containsExactly("east");
+	}
+
+	@Test
+	public void test_addTags_noMatch()
+	{
+		SetMultimap<String, String> filter = HashMultimap.create();
+		filter.put("rack", "1");
+
+		TagSetImpl tagSet = new TagSetImpl();
+		m_index.addTags(filter, Collections.emptyMap(), tagSet);
+
+		assertThat(tagSet.getTagNames()).isEmpty();
+	}
+}
@@ -94,6 +94,11 @@ public class Client
 		headers.put(header, value);
 	}
 
+	public void removeHeader(String header)
+	{
+		headers.remove(header);
+	}
+
 	public void setAuthentication(String username, String password)
 	{
 		this.username = username;
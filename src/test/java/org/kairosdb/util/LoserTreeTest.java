@@ -0,0 +1,151 @@
+/*
+ * Copyright 2016 KairosDB Authors
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package org.kairosdb.util;
+
+import org.junit.Test;
+import org.kairosdb.core.DataPoint;
+import org.kairosdb.core.datapoints.DoubleDataPoint;
+import org.kairosdb.core.datapoints.LongDataPoint;
+import org.kairosdb.core.datastore.Order;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+public class LoserTreeTest
+{
+	@Test
+	public void test_noSources()
+	{
+		LoserTree tree = new LoserTree(Collections.<Iterator<DataPoint>>emptyList(), Order.ASC);
+
+		assertFalse(tree.hasNext());
+	}
+
+	@Test(expected = java.util.NoSuchElementException.class)
+	public void test_next_afterEnd()
+	{
+		List<Iterator<DataPoint>> sources = new ArrayList<>();
+		sources.add(Collections.<DataPoint>singletonList(new LongDataPoint(1, 1)).iterator());
+		LoserTree tree = new LoserTree(sources, Order.ASC);
+
+		tree.next();
+		tree.next();
+	}
+
+	@Test
+	public void test_emptySourcesSkipped()
+	{
+		List<Iterator<DataPoint>> sources = new ArrayList<>();
+		sources.add(Collections.<DataPoint>emptyIterator());
+		sources.add(list(new LongDataPoint(2, 0), new LongDataPoint(4, 0)).iterator());
+		sources.add(Collections.<DataPoint>emptyIterator());
+		sources.add(list(new LongDataPoint(1, 0), new LongDataPoint(3, 0)).iterator());
+
+		LoserTree tree = new LoserTree(sources, Order.ASC);
+
+		assertEquals(1, tree.next().getTimestamp());
+		assertEquals(2, tree.next().getTimestamp());
+		assertEquals(3, tree.next().getTimestamp());
+		assertEquals(4, tree.next().getTimestamp());
+		assertFalse(tree.hasNext());
+	}
+
+	@Test
+	public void test_sameTimestamp_orderedByValueThenSource()
+	{
+		DataPoint first = new LongDataPoint(1, 5);
+		DataPoint second = new LongDataPoint(1, 5);
+		DataPoint smaller = new DoubleDataPoint(1, 2.5);
+
+		List<Iterator<DataPoint>> sources = new ArrayList<>();
+		sources.add(list(first).iterator());
+		sources.add(list(second).iterator());
+		sources.add(list(smaller).iterator());
+
+		LoserTree tree = new LoserTree(sources, Order.ASC);
+
+		assertSame(smaller, tree.next());
+		assertSame(first, tree.next());
+		assertSame(second, tree.next());
+		assertFalse(tree.hasNext());
+	}
+
+	@Test
+	public void test_descending()
+	{
+		List<Iterator<DataPoint>> sources = new ArrayList<>();
+		sources.add(list(new LongDataPoint(5, 1), new LongDataPoint(2, 1)).iterator());
+		sources.add(list(new LongDataPoint(4, 1), new LongDataPoint(3, 1), new LongDataPoint(1, 1)).iterator());
+
+		LoserTree tree = new LoserTree(sources, Order.DESC);
+
+		assertEquals(5, tree.next().getTimestamp());
+		assertEquals(4, tree.next().getTimestamp());
+		assertEquals(3, tree.next().getTimestamp());
+		assertEquals(2, tree.next().getTimestamp());
+		assertEquals(1, tree.next().getTimestamp());
+		assertFalse(tree.hasNext());
+	}
+
+	@Test
+	public void test_randomSources_sameAsSort()
+	{
+		Random random = new Random(42);
+
+		for (int sourceCount = 1; sourceCount <= 40; sourceCount++)
+		{
+			List<Iterator<DataPoint>> sources = new ArrayList<>();
+			List<Long> expected = new ArrayList<>();
+
+			for (int i = 0; i < sourceCount; i++)
+			{
+				List<DataPoint> source = new ArrayList<>();
+				long timestamp = random.nextInt(10);
+				int count = random.nextInt(20);
+				for (int j = 0; j < count; j++)
+				{
+					timestamp += random.nextInt(5);
+					source.add(new LongDataPoint(timestamp, random.nextInt(3)));
+					expected.add(timestamp);
+				}
+				sources.add(source.iterator());
+			}
+
+			Collections.sort(expected);
+
+			LoserTree tree = new LoserTree(sources, Order.ASC);
+			List<Long> actual = new ArrayList<>();
+			while (tree.hasNext())
+				actual.add(tree.next().getTimestamp());
+
+			assertEquals("sources: " + sourceCount, expected, actual);
+		}
+	}
+
+	private static List<DataPoint> list(DataPoint... dataPoints)
+	{
+		List<DataPoint> ret = new ArrayList<>();
+		Collections.addAll(ret, dataPoints);
+		return ret;
+	}
+}